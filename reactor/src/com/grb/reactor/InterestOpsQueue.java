@@ -0,0 +1,122 @@
+package com.grb.reactor;
+
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock free, multiple producer single consumer queue of interest
+ * operation updates used to pass requests to a {@link ReactorThread} without
+ * allocating.
+ * <p>
+ * The slots are pre-allocated and recycled. Each slot has a sequence number
+ * that tells producers when the slot is free and tells the consumer when the
+ * slot has been published.
+ */
+public class InterestOpsQueue {
+    protected final int mCapacity;
+    protected final int mMask;
+    protected final AtomicLongArray mSequences;
+    protected final SelectableChannel[] mChannels;
+    protected final ReactorHandler[] mHandlers;
+    protected final int[] mOperations;
+    protected final boolean[] mAdds;
+    protected final AtomicLong mTail;
+    protected long mHead;   // only accessed by the consumer
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of 2.
+     */
+    public InterestOpsQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than 0: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mCapacity = size;
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mChannels = new SelectableChannel[size];
+        mHandlers = new ReactorHandler[size];
+        mOperations = new int[size];
+        mAdds = new boolean[size];
+        mTail = new AtomicLong(0);
+        mHead = 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Queues an interest operation update. Safe to call from any thread.
+     *
+     * @return false if the queue is full.
+     */
+    public boolean offer(SelectableChannel channel, ReactorHandler handler, int operation, boolean add) {
+        long pos;
+        int index;
+        while(true) {
+            pos = mTail.get();
+            index = (int)pos & mMask;
+            long diff = mSequences.get(index) - pos;
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // else another producer claimed the slot, retry
+        }
+        mChannels[index] = channel;
+        mHandlers[index] = handler;
+        mOperations[index] = operation;
+        mAdds[index] = add;
+        // publishes the slot to the consumer
+        mSequences.set(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Checks for published updates.
+     * Must only be called from the reactor thread.
+     *
+     * @return true if there are updates to drain.
+     */
+    public boolean hasPending() {
+        return mSequences.get((int)mHead & mMask) == (mHead + 1);
+    }
+
+    /**
+     * Performs all the published updates on the reactor.
+     * Must only be called from the reactor thread.
+     *
+     * @return The number of updates performed.
+     */
+    public int drain(ReactorThread reactor) {
+        int count = 0;
+        while(true) {
+            int index = (int)mHead & mMask;
+            if (mSequences.get(index) != (mHead + 1)) {
+                return count;
+            }
+            SelectableChannel channel = mChannels[index];
+            ReactorHandler handler = mHandlers[index];
+            int operation = mOperations[index];
+            boolean add = mAdds[index];
+            mChannels[index] = null;
+            mHandlers[index] = null;
+            // frees the slot for producers
+            mSequences.set(index, mHead + mCapacity);
+            mHead++;
+            reactor.performOperation(channel, handler, operation, add);
+            count++;
+        }
+    }
+}
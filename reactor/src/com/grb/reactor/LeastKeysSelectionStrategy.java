@@ -0,0 +1,30 @@
+package com.grb.reactor;
+
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Assigns channels to the event loop with the fewest registered keys.
+ * The key counts are read without synchronizing with the reactor threads
+ * so the choice is only approximate under concurrent registrations.
+ */
+public class LeastKeysSelectionStrategy implements ReactorSelectionStrategy {
+
+    public ReactorThread select(ReactorThread[] reactors, SelectableChannel channel) {
+        ReactorThread least = reactors[0];
+        int leastKeys = Integer.MAX_VALUE;
+        for (int i = 0; i < reactors.length; i++) {
+            int numKeys;
+            try {
+                numKeys = reactors[i].getSelector().keys().size();
+            } catch(RuntimeException e) {
+                // closed selector or concurrent modification
+                continue;
+            }
+            if (numKeys < leastKeys) {
+                least = reactors[i];
+                leastKeys = numKeys;
+            }
+        }
+        return least;
+    }
+}
@@ -3,6 +3,7 @@ package com.grb.reactor;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
 
 public interface Reactor {
     public void addAccept(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException;
@@ -17,4 +18,21 @@ public interface Reactor {
     public void removeConnect(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException;
     public void removeRead(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException;
     public void removeWrite(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException;
+
+    /**
+     * Schedules a task to run on the reactor's thread after a delay.
+     * 
+     * @param delay Delay before the task is run.
+     * @param unit Unit of the delay.
+     * @param task Task to run.
+     * @return Handle used to cancel the task.
+     */
+    public ReactorTimeout schedule(long delay, TimeUnit unit, Runnable task);
+
+    /**
+     * Runs a task on the reactor's thread without waiting for it.
+     * 
+     * @param task Task to run.
+     */
+    public void execute(Runnable task);
 }
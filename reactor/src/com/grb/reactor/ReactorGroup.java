@@ -0,0 +1,362 @@
+package com.grb.reactor;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A reactor made up of a number of {@link ReactorThread} event loops.
+ * <p>
+ * Each channel is assigned to one loop by a {@link ReactorSelectionStrategy}
+ * the first time it is registered, and all further operations on the channel
+ * are performed by that loop for as long as the channel stays registered.
+ * Handler callbacks are passed the owning {@link ReactorThread}, not the group.
+ */
+public class ReactorGroup implements Reactor {
+    static private final Log Trace = LogFactory.getLog(ReactorGroup.class);
+
+    static public final String DefaultThreadName = "ReactorGroup";
+
+    protected ReactorThread[] mReactors;
+    protected ReactorThread[][] mReactorsExcluding;
+    protected ReactorSelectionStrategy mStrategy;
+    protected ConcurrentHashMap<SelectableChannel, ReactorThread> mPending;
+    protected AtomicInteger mNextReactor;
+
+    /**
+     * Creates a group with one event loop per available processor
+     * and round robin assignment.
+     */
+    public ReactorGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ReactorGroup(int numReactors) throws IOException {
+        this(numReactors, new RoundRobinSelectionStrategy());
+    }
+
+    public ReactorGroup(int numReactors, ReactorSelectionStrategy strategy) throws IOException {
+        this(DefaultThreadName, numReactors, strategy);
+    }
+
+    /**
+     * Creates a group of event loops.
+     *
+     * @param name Prefix of the reactor thread names, each thread is suffixed with its index.
+     * @param numReactors Number of event loops, must be greater than 0.
+     * @param strategy Strategy used to assign channels to event loops.
+     * @throws IOException If a selector cannot be opened.
+     */
+    public ReactorGroup(String name, int numReactors, ReactorSelectionStrategy strategy) throws IOException {
+        if (numReactors <= 0) {
+            throw new IllegalArgumentException("Number of reactors must be greater than 0: " + numReactors);
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("Selection strategy cannot be null");
+        }
+        mStrategy = strategy;
+        mPending = new ConcurrentHashMap<SelectableChannel, ReactorThread>();
+        mNextReactor = new AtomicInteger(0);
+        mReactors = new ReactorThread[numReactors];
+        try {
+            for (int i = 0; i < numReactors; i++) {
+                // thread names must be unique, the reactor uses them to detect its own thread
+                mReactors[i] = new ReactorThread(name + "-" + i);
+            }
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+        mReactorsExcluding = new ReactorThread[numReactors][];
+        for (int i = 0; i < numReactors; i++) {
+            if (numReactors == 1) {
+                mReactorsExcluding[i] = mReactors;
+            } else {
+                mReactorsExcluding[i] = new ReactorThread[numReactors - 1];
+                int index = 0;
+                for (int j = 0; j < numReactors; j++) {
+                    if (j != i) {
+                        mReactorsExcluding[i][index++] = mReactors[j];
+                    }
+                }
+            }
+        }
+    }
+
+    public void start() {
+        for (int i = 0; i < mReactors.length; i++) {
+            mReactors[i].start();
+        }
+    }
+
+    public void startAsDaemon() {
+        for (int i = 0; i < mReactors.length; i++) {
+            mReactors[i].startAsDaemon();
+        }
+    }
+
+    public void close() {
+        for (int i = 0; i < mReactors.length; i++) {
+            if (mReactors[i] != null) {
+                mReactors[i].close();
+            }
+        }
+        mPending.clear();
+    }
+
+    /**
+     * Gets the event loops of this group.
+     *
+     * @return The event loops, do not modify.
+     */
+    public ReactorThread[] getReactors() {
+        return mReactors;
+    }
+
+    public int size() {
+        return mReactors.length;
+    }
+
+    public ReactorSelectionStrategy getSelectionStrategy() {
+        return mStrategy;
+    }
+
+    /**
+     * The group has no selector of its own, this returns the selector
+     * of the first event loop. Use {@link #getReactor(SelectableChannel)}
+     * to find the loop that owns a channel.
+     */
+    public Selector getSelector() {
+        return mReactors[0].getSelector();
+    }
+
+    /**
+     * Gets the event loop that owns the channel, assigning one if the
+     * channel has not been registered with this group.
+     *
+     * @param channel The channel.
+     * @return The owning event loop.
+     */
+    public ReactorThread getReactor(SelectableChannel channel) {
+        ReactorThread reactor = findReactor(channel);
+        if (reactor == null) {
+            reactor = assign(channel, null);
+        }
+        return reactor;
+    }
+
+    /**
+     * Assigns a channel to an event loop ahead of its first registration.
+     * If the channel is already assigned, the existing assignment is kept.
+     *
+     * @param channel The channel to assign.
+     * @param exclude Reactor to avoid if the group has other loops, may be null.
+     *                Used to keep accepted connections off the accepting loop.
+     * @return The owning event loop.
+     */
+    public ReactorThread assign(SelectableChannel channel, Reactor exclude) {
+        synchronized(mPending) {
+            ReactorThread reactor = findReactor(channel);
+            if (reactor != null) {
+                return reactor;
+            }
+            purgeClosed();
+            ReactorThread[] reactors = mReactors;
+            for (int i = 0; i < mReactors.length; i++) {
+                if (mReactors[i] == exclude) {
+                    reactors = mReactorsExcluding[i];
+                    break;
+                }
+            }
+            reactor = mStrategy.select(reactors, channel);
+            mPending.put(channel, reactor);
+            return reactor;
+        }
+    }
+
+    public void addAccept(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_ACCEPT);
+    }
+
+    public void addConnect(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_CONNECT);
+    }
+
+    public void addRead(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_READ);
+    }
+
+    public void addWrite(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        ReactorThread reactor = getReactor(channel);
+        try {
+            reactor.addWrite(channel, handler);
+        } finally {
+            clearPending(channel, reactor);
+        }
+    }
+
+    public void removeAccept(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_ACCEPT);
+    }
+
+    public void removeConnect(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_CONNECT);
+    }
+
+    public void removeRead(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_READ);
+    }
+
+    public void removeWrite(SelectableChannel channel, ReactorHandler handler)
+            throws ClosedChannelException {
+        ReactorThread reactor = getRegisteredReactor(channel);
+        if (reactor != null) {
+            reactor.removeWrite(channel, handler);
+        }
+    }
+
+    public void addOperation(SelectableChannel channel, ReactorHandler handler, int operation)
+            throws ClosedChannelException {
+        ReactorThread reactor = getReactor(channel);
+        try {
+            reactor.addOperation(channel, handler, operation);
+        } finally {
+            clearPending(channel, reactor);
+        }
+    }
+
+    public void removeOperation(SelectableChannel channel, ReactorHandler handler, int operation)
+            throws ClosedChannelException {
+        ReactorThread reactor = getRegisteredReactor(channel);
+        if (reactor != null) {
+            reactor.removeOperation(channel, handler, operation);
+        }
+    }
+
+    /**
+     * Runs a task on one of the event loops, chosen round robin.
+     */
+    public void execute(Runnable task) {
+        mReactors[nextIndex()].execute(task);
+    }
+
+    /**
+     * Runs a task on the event loop that owns a channel.
+     */
+    public void execute(SelectableChannel channel, Runnable task) {
+        getReactor(channel).execute(task);
+    }
+
+    /**
+     * Schedules a task on one of the event loops, chosen round robin.
+     * Use {@link #schedule(SelectableChannel, long, TimeUnit, Runnable)} for
+     * tasks that act on a channel.
+     */
+    public ReactorTimeout schedule(long delay, TimeUnit unit, Runnable task) {
+        return mReactors[nextIndex()].schedule(delay, unit, task);
+    }
+
+    /**
+     * Schedules a task on the event loop that owns a channel, so the task 
+     * runs on the same thread as the channel's handlers.
+     */
+    public ReactorTimeout schedule(SelectableChannel channel, long delay, TimeUnit unit, Runnable task) {
+        return getReactor(channel).schedule(delay, unit, task);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("[");
+        for (int i = 0; i < mReactors.length; i++) {
+            if (i > 0) {
+                bldr.append(",");
+            }
+            bldr.append(mReactors[i]);
+        }
+        bldr.append("]");
+        return bldr.toString();
+    }
+
+    /**
+     * Picks the next reactor round robin.
+     */
+    protected int nextIndex() {
+        return (mNextReactor.getAndIncrement() & Integer.MAX_VALUE) % mReactors.length;
+    }
+
+    /**
+     * Gets the owner of a channel for a remove operation.
+     *
+     * @return The owner or null if the channel isn't registered with the group.
+     * @throws ClosedChannelException If the channel isn't registered and is closed.
+     */
+    protected ReactorThread getRegisteredReactor(SelectableChannel channel) throws ClosedChannelException {
+        ReactorThread reactor = findReactor(channel);
+        if (reactor == null) {
+            if (channel.isOpen()) {
+                if (Trace.isInfoEnabled()) {
+                    Trace.info("No SelectionKey for remove operation");
+                }
+            } else {
+                throw new ClosedChannelException();
+            }
+        }
+        return reactor;
+    }
+
+    /**
+     * Once registered the selection key records the assignment. 
+     * Queued registrations keep their pending assignment until the key exists.
+     */
+    protected void clearPending(SelectableChannel channel, ReactorThread reactor) {
+        if (mPending.containsKey(channel) && 
+                ((channel.keyFor(reactor.getSelector()) != null) || !channel.isOpen())) {
+            synchronized(mPending) {
+                mPending.remove(channel);
+            }
+        }
+    }
+
+    protected ReactorThread findReactor(SelectableChannel channel) {
+        for (int i = 0; i < mReactors.length; i++) {
+            if (channel.keyFor(mReactors[i].getSelector()) != null) {
+                return mReactors[i];
+            }
+        }
+        return mPending.get(channel);
+    }
+
+    /**
+     * Drops assignments of channels that were closed before being registered.
+     * Must be called with mPending locked.
+     */
+    private void purgeClosed() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<SelectableChannel, ReactorThread>> it = mPending.entrySet().iterator();
+        while(it.hasNext()) {
+            if (!it.next().getKey().isOpen()) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.grb.reactor;
+
+import java.lang.management.ManagementFactory;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.util.stats.Histogram;
+
+/**
+ * The default {@link ReactorMetricsSink}, keeping counters and histograms
+ * of the reactor loop and logging handlers that run longer than a threshold.
+ * Times are recorded in nanoseconds.
+ * <p>
+ * Install with {@link ReactorThread#setMetricsSink(ReactorMetricsSink)} and
+ * optionally publish with {@link #register(String)}.
+ */
+public class ReactorMetrics implements ReactorMetricsSink, ReactorMetricsMBean {
+    private static final Log Trace = LogFactory.getLog(ReactorMetrics.class);
+
+    static public final String ObjectNamePrefix = "com.grb.reactor:type=ReactorMetrics,name=";
+    static public long DefaultSlowHandlerThresholdInMicros = 10000;
+
+    protected AtomicLong mSelectCount;
+    protected AtomicLong mSelectedKeyCount;
+    protected AtomicLong mHandlerCount;
+    protected AtomicLong mSlowHandlerCount;
+    protected AtomicLong mIterationCount;
+    protected volatile long mSlowHandlerThresholdNanos;
+    protected Histogram mSelectWaitTime;
+    protected Histogram mKeysPerSelect;
+    protected Histogram mAcceptTime;
+    protected Histogram mConnectTime;
+    protected Histogram mReadTime;
+    protected Histogram mWriteTime;
+    protected Histogram mRequestQueueDepth;
+    protected Histogram mTasksPerIteration;
+    protected ObjectName mObjectName;
+
+    public ReactorMetrics() {
+        mSelectCount = new AtomicLong(0);
+        mSelectedKeyCount = new AtomicLong(0);
+        mHandlerCount = new AtomicLong(0);
+        mSlowHandlerCount = new AtomicLong(0);
+        mIterationCount = new AtomicLong(0);
+        mSlowHandlerThresholdNanos = TimeUnit.MICROSECONDS.toNanos(DefaultSlowHandlerThresholdInMicros);
+        mSelectWaitTime = new Histogram();
+        mKeysPerSelect = new Histogram();
+        mAcceptTime = new Histogram();
+        mConnectTime = new Histogram();
+        mReadTime = new Histogram();
+        mWriteTime = new Histogram();
+        mRequestQueueDepth = new Histogram();
+        mTasksPerIteration = new Histogram();
+        mObjectName = null;
+    }
+
+    public void onSelect(Reactor reactor, long waitNanos, int numKeys) {
+        mSelectCount.incrementAndGet();
+        mSelectedKeyCount.addAndGet(numKeys);
+        mSelectWaitTime.record(waitNanos);
+        mKeysPerSelect.record(numKeys);
+    }
+
+    public void onHandler(Reactor reactor, ReactorHandler handler, int operation, long nanos) {
+        mHandlerCount.incrementAndGet();
+        switch(operation) {
+        case SelectionKey.OP_ACCEPT:
+            mAcceptTime.record(nanos);
+            break;
+        case SelectionKey.OP_CONNECT:
+            mConnectTime.record(nanos);
+            break;
+        case SelectionKey.OP_READ:
+            mReadTime.record(nanos);
+            break;
+        case SelectionKey.OP_WRITE:
+            mWriteTime.record(nanos);
+            break;
+        }
+        long threshold = mSlowHandlerThresholdNanos;
+        if ((threshold > 0) && (nanos > threshold)) {
+            mSlowHandlerCount.incrementAndGet();
+            if (Trace.isWarnEnabled()) {
+                Trace.warn(reactor + " slow handler " + handler + " for " +
+                        operationName(operation) + " took " + (nanos / 1000) + "us");
+            }
+        }
+    }
+
+    public void onIteration(Reactor reactor, int requestQueueDepth, int numTasks) {
+        mIterationCount.incrementAndGet();
+        mRequestQueueDepth.record(requestQueueDepth);
+        mTasksPerIteration.record(numTasks);
+    }
+
+    /**
+     * Registers this with the platform MBean server.
+     *
+     * @param name Name of the reactor, usually its thread name.
+     * @throws JMException If the name is invalid or already registered.
+     */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(ObjectNamePrefix + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        mObjectName = objectName;
+    }
+
+    public void unregister() throws JMException {
+        if (mObjectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+            mObjectName = null;
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return mObjectName;
+    }
+
+    public long getSelectCount() {
+        return mSelectCount.get();
+    }
+
+    public long getSelectedKeyCount() {
+        return mSelectedKeyCount.get();
+    }
+
+    public long getHandlerCount() {
+        return mHandlerCount.get();
+    }
+
+    public long getSlowHandlerCount() {
+        return mSlowHandlerCount.get();
+    }
+
+    public long getIterationCount() {
+        return mIterationCount.get();
+    }
+
+    public long getSlowHandlerThreshold(TimeUnit unit) {
+        return unit.convert(mSlowHandlerThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the time above which a handler call is counted and logged as slow.
+     *
+     * @param threshold The threshold, 0 disables the check.
+     * @param unit Unit of the threshold.
+     */
+    public void setSlowHandlerThreshold(long threshold, TimeUnit unit) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Slow handler threshold cannot be negative: " + threshold);
+        }
+        mSlowHandlerThresholdNanos = unit.toNanos(threshold);
+    }
+
+    public long getSlowHandlerThresholdInMicros() {
+        return getSlowHandlerThreshold(TimeUnit.MICROSECONDS);
+    }
+
+    public void setSlowHandlerThresholdInMicros(long threshold) {
+        setSlowHandlerThreshold(threshold, TimeUnit.MICROSECONDS);
+    }
+
+    public Histogram getSelectWaitTimeHistogram() {
+        return mSelectWaitTime;
+    }
+
+    public Histogram getKeysPerSelectHistogram() {
+        return mKeysPerSelect;
+    }
+
+    /**
+     * @param operation One of the SelectionKey operations.
+     * @return Histogram of handler times for the operation.
+     */
+    public Histogram getHandlerTimeHistogram(int operation) {
+        switch(operation) {
+        case SelectionKey.OP_ACCEPT:
+            return mAcceptTime;
+        case SelectionKey.OP_CONNECT:
+            return mConnectTime;
+        case SelectionKey.OP_READ:
+            return mReadTime;
+        case SelectionKey.OP_WRITE:
+            return mWriteTime;
+        }
+        throw new IllegalArgumentException("Invalid operation: " + operation);
+    }
+
+    public Histogram getRequestQueueDepthHistogram() {
+        return mRequestQueueDepth;
+    }
+
+    public Histogram getTasksPerIterationHistogram() {
+        return mTasksPerIteration;
+    }
+
+    public String getSelectWaitTime() {
+        return formatMicros(mSelectWaitTime);
+    }
+
+    public String getKeysPerSelect() {
+        return mKeysPerSelect.toString();
+    }
+
+    public String getAcceptTime() {
+        return formatMicros(mAcceptTime);
+    }
+
+    public String getConnectTime() {
+        return formatMicros(mConnectTime);
+    }
+
+    public String getReadTime() {
+        return formatMicros(mReadTime);
+    }
+
+    public String getWriteTime() {
+        return formatMicros(mWriteTime);
+    }
+
+    public String getRequestQueueDepth() {
+        return mRequestQueueDepth.toString();
+    }
+
+    public String getTasksPerIteration() {
+        return mTasksPerIteration.toString();
+    }
+
+    public void reset() {
+        mSelectCount.set(0);
+        mSelectedKeyCount.set(0);
+        mHandlerCount.set(0);
+        mSlowHandlerCount.set(0);
+        mIterationCount.set(0);
+        mSelectWaitTime.reset();
+        mKeysPerSelect.reset();
+        mAcceptTime.reset();
+        mConnectTime.reset();
+        mReadTime.reset();
+        mWriteTime.reset();
+        mRequestQueueDepth.reset();
+        mTasksPerIteration.reset();
+    }
+
+    static public String operationName(int operation) {
+        switch(operation) {
+        case SelectionKey.OP_ACCEPT:
+            return "accept";
+        case SelectionKey.OP_CONNECT:
+            return "connect";
+        case SelectionKey.OP_READ:
+            return "read";
+        case SelectionKey.OP_WRITE:
+            return "write";
+        }
+        return Integer.toString(operation);
+    }
+
+    static protected String formatMicros(Histogram histogram) {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("count=");
+        bldr.append(histogram.getCount());
+        bldr.append(",min=");
+        bldr.append(histogram.getMin() / 1000);
+        bldr.append(",mean=");
+        bldr.append((long)(histogram.getMean() / 1000));
+        bldr.append(",p50=");
+        bldr.append(histogram.getValueAtPercentile(50) / 1000);
+        bldr.append(",p99=");
+        bldr.append(histogram.getValueAtPercentile(99) / 1000);
+        bldr.append(",p99.9=");
+        bldr.append(histogram.getValueAtPercentile(99.9) / 1000);
+        bldr.append(",max=");
+        bldr.append(histogram.getMax() / 1000);
+        return bldr.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("selects=");
+        bldr.append(getSelectCount());
+        bldr.append(",keys=");
+        bldr.append(getSelectedKeyCount());
+        bldr.append(",handlers=");
+        bldr.append(getHandlerCount());
+        bldr.append(",slowHandlers=");
+        bldr.append(getSlowHandlerCount());
+        bldr.append(",iterations=");
+        bldr.append(getIterationCount());
+        return bldr.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package com.grb.reactor;
+
+/**
+ * JMX view of {@link ReactorMetrics}. Times are in microseconds and
+ * distributions are summaries of the form count=,min=,mean=,p50=,...
+ */
+public interface ReactorMetricsMBean {
+    public long getSelectCount();
+    public long getSelectedKeyCount();
+    public long getHandlerCount();
+    public long getSlowHandlerCount();
+    public long getIterationCount();
+    public long getSlowHandlerThresholdInMicros();
+    public void setSlowHandlerThresholdInMicros(long threshold);
+    public String getSelectWaitTime();
+    public String getKeysPerSelect();
+    public String getAcceptTime();
+    public String getConnectTime();
+    public String getReadTime();
+    public String getWriteTime();
+    public String getRequestQueueDepth();
+    public String getTasksPerIteration();
+    public void reset();
+}
@@ -0,0 +1,35 @@
+package com.grb.reactor;
+
+/**
+ * Receives measurements from the reactor loop of a {@link ReactorThread}.
+ * All methods are called on the reactor thread and must not block.
+ */
+public interface ReactorMetricsSink {
+    /**
+     * Called when the reactor returns from waiting for events.
+     * 
+     * @param reactor The reactor.
+     * @param waitNanos Time spent waiting, including spinning.
+     * @param numKeys Number of keys made ready by the select.
+     */
+    public void onSelect(Reactor reactor, long waitNanos, int numKeys);
+
+    /**
+     * Called after a handler callback returns.
+     * 
+     * @param reactor The reactor.
+     * @param handler The handler called.
+     * @param operation The SelectionKey operation handled, for example SelectionKey.OP_READ.
+     * @param nanos Time spent in the handler.
+     */
+    public void onHandler(Reactor reactor, ReactorHandler handler, int operation, long nanos);
+
+    /**
+     * Called at the end of each pass of the reactor loop.
+     * 
+     * @param reactor The reactor.
+     * @param requestQueueDepth Number of requests queued before they were run.
+     * @param numTasks Number of requests and tasks run.
+     */
+    public void onIteration(Reactor reactor, int requestQueueDepth, int numTasks);
+}
@@ -6,6 +6,10 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -15,19 +19,35 @@ public class ReactorNoThread implements Reactor {
     private static final Log Trace = LogFactory.getLog(ReactorNoThread.class);
     
     protected Selector mSelector;
+    protected TimerWheel mTimerWheel = new TimerWheel();
+    protected ConcurrentLinkedQueue<Runnable> mTaskQueue = new ConcurrentLinkedQueue<Runnable>();
     
     public void processEvents() throws IOException {
-        // Wait for an event
-        if (mSelector.select() > 0) {
-            processSelector(this);
-        }
+        processEvents(0);
     }
 
+    /**
+     * Waits for and processes events, then runs the scheduled tasks that 
+     * are due and the executed tasks. The wait is cut short when a scheduled 
+     * task is due and skipped when there are executed tasks.
+     * 
+     * @param timeout Maximum time to wait in milliseconds, 0 waits indefinitely.
+     */
     public void processEvents(long timeout) throws IOException {
+        long timeoutNanos = mTimerWheel.nextTimeoutNanos(System.nanoTime());
+        if (timeoutNanos >= 0) {
+            long timerTimeout = Math.max(1, (timeoutNanos + 999999) / 1000000);
+            if ((timeout == 0) || (timerTimeout < timeout)) {
+                timeout = timerTimeout;
+            }
+        }
         // Wait for an event
-        if (mSelector.select(timeout) > 0) {
+        int numKeys = mTaskQueue.isEmpty() ? mSelector.select(timeout) : mSelector.selectNow();
+        if (numKeys > 0) {
             processSelector(this);
         }
+        mTimerWheel.expireTimeouts(System.nanoTime());
+        runTasks(this, mTaskQueue, Integer.MAX_VALUE);
     }
     
     public void addAccept(SelectableChannel channel, ReactorHandler handler)
@@ -78,16 +98,22 @@ public class ReactorNoThread implements Reactor {
         return mSelector;
     }
 
+    /**
+     * Schedules a task to run from {@link #processEvents()}.
+     */
+    public ReactorTimeout schedule(long delay, TimeUnit unit, Runnable task) {
+        return mTimerWheel.schedule(delay, unit, task);
+    }
+
     static public void addOperation(Reactor reactor, SelectableChannel channel, ReactorHandler handler, int operation) throws ClosedChannelException  {
         Selector selector = reactor.getSelector();
-        int interestOps = 0;
         SelectionKey selKey = channel.keyFor(selector);
-        if (selKey == null) {
-            interestOps = operation;
+        if ((selKey != null) && selKey.isValid()) {
+            updateOperations(selKey, handler, selKey.interestOps() | operation);
         } else {
-            interestOps = selKey.interestOps() | operation;                    
+            // first registration, or a cancelled key which register will report
+            channel.register(selector, operation, handler);
         }
-        channel.register(selector, interestOps, handler);
     }
 
     static public void removeOperation(Reactor reactor, SelectableChannel channel, ReactorHandler handler, int operation) throws ClosedChannelException {
@@ -101,10 +127,57 @@ public class ReactorNoThread implements Reactor {
             } else {
                 throw new ClosedChannelException();
             }
+        } else if (selKey.isValid()) {
+            updateOperations(selKey, handler, selKey.interestOps() & ~operation);
         } else {
-            int interestOps = selKey.interestOps() & ~operation;
-            channel.register(selector, interestOps, handler);
+            channel.register(selector, selKey.interestOps() & ~operation, handler);
+        }
+    }
+
+    /**
+     * Updates the interest set of a registered key in place rather than
+     * re-registering the channel, which locks the selector's key set.
+     * Nothing is changed if the key already has the operations and handler.
+     */
+    static protected void updateOperations(SelectionKey selKey, ReactorHandler handler, int interestOps) {
+        if (selKey.interestOps() != interestOps) {
+            selKey.interestOps(interestOps);
+        }
+        if (selKey.attachment() != handler) {
+            selKey.attach(handler);
+        }
+    }
+
+    /**
+     * Queues a task to run from {@link #processEvents()}.
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task cannot be null");
+        }
+        mTaskQueue.add(task);
+    }
+
+    /**
+     * Runs up to a maximum number of tasks from a queue. A task that throws 
+     * is logged and does not stop the others.
+     * 
+     * @return The number of tasks run.
+     */
+    static public int runTasks(Reactor reactor, Queue<Runnable> tasks, int maxTasks) {
+        int count = 0;
+        Runnable task;
+        while ((count < maxTasks) && ((task = tasks.poll()) != null)) {
+            count++;
+            try {
+                task.run();
+            } catch(Throwable t) {
+                if (Trace.isErrorEnabled()) {
+                    Trace.error(reactor + " task errored: " + task, t);
+                }
+            }
         }
+        return count;
     }
 
     static public void processEvents(Reactor reactor) throws IOException {
@@ -122,39 +195,156 @@ public class ReactorNoThread implements Reactor {
     }
     
     static public void processSelector(Reactor reactor) {
+        processSelector(reactor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Processes up to a maximum number of selected keys. Keys that are not
+     * processed are left in the selected key set for the next call.
+     * 
+     * @return The number of keys processed.
+     */
+    static public int processSelector(Reactor reactor, int maxKeys) {
+        Set<SelectionKey> selectedKeys = reactor.getSelector().selectedKeys();
+        if (selectedKeys instanceof SelectedKeySet) {
+            return processSelectedKeys(reactor, (SelectedKeySet)selectedKeys, maxKeys);
+        }
+
         // Get list of selection keys with pending events
-        Iterator<SelectionKey> it = reactor.getSelector().selectedKeys().iterator();
+        Iterator<SelectionKey> it = selectedKeys.iterator();
 
         // Process each key at a time
-        while (it.hasNext()) {
+        int count = 0;
+        while ((count < maxKeys) && it.hasNext()) {
             // Get the selection key
             SelectionKey selKey = it.next();
 
             // Remove it from the list to indicate that it is being processed
             it.remove();
             
-            ReactorHandler handler = (ReactorHandler)selKey.attachment();
-            if (handler != null) {
-                try {
-                    if (selKey.isValid() && selKey.isAcceptable()) {
-                        ((ServerReactorHandler)handler).handleAccept(reactor, selKey);
-                    }                
-                    if (selKey.isValid() && selKey.isConnectable()) {
-                        ((ClientReactorHandler)handler).handleConnect(reactor, selKey);
-                    }
-                    if (selKey.isValid() && selKey.isReadable()) {
-                        ((ClientReactorHandler)handler).handleRead(reactor, selKey);
-                    }
-                    if (selKey.isValid() && selKey.isWritable()) {
-                        ((ClientReactorHandler)handler).handleWrite(reactor, selKey);
-                    }
-                    // This check should be last to support keys that are cancelled in callbacks
-                    if (!selKey.isValid()) {
-                        handler.handleClose(reactor, selKey, null);
-                    }
-                } catch(Throwable t) {
-                    handler.handleException(reactor, selKey, t);
+            processKey(reactor, selKey);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Processes the keys of an array backed selected key set by index,
+     * without allocating, and then empties the set.
+     */
+    static public void processSelectedKeys(Reactor reactor, SelectedKeySet selectedKeys) {
+        processSelectedKeys(reactor, selectedKeys, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Processes up to a maximum number of keys of an array backed selected 
+     * key set, then removes them leaving the rest for the next call.
+     * 
+     * @return The number of keys processed.
+     */
+    static public int processSelectedKeys(Reactor reactor, SelectedKeySet selectedKeys, int maxKeys) {
+        int size = Math.min(selectedKeys.size(), maxKeys);
+        int count = 0;
+        try {
+            while (count < size) {
+                processKey(reactor, selectedKeys.get(count++));
+            }
+        } finally {
+            selectedKeys.removeFirst(count);
+        }
+        return count;
+    }
+
+    /**
+     * Same as {@link #processSelector(Reactor, int)}, reporting the time 
+     * spent in each handler callback to a metrics sink.
+     */
+    static public int processSelector(Reactor reactor, int maxKeys, ReactorMetricsSink sink) {
+        Set<SelectionKey> selectedKeys = reactor.getSelector().selectedKeys();
+        int count = 0;
+        if (selectedKeys instanceof SelectedKeySet) {
+            SelectedKeySet keySet = (SelectedKeySet)selectedKeys;
+            int size = Math.min(keySet.size(), maxKeys);
+            try {
+                while (count < size) {
+                    processKey(reactor, keySet.get(count++), sink);
+                }
+            } finally {
+                keySet.removeFirst(count);
+            }
+        } else {
+            Iterator<SelectionKey> it = selectedKeys.iterator();
+            while ((count < maxKeys) && it.hasNext()) {
+                SelectionKey selKey = it.next();
+                it.remove();
+                processKey(reactor, selKey, sink);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static public void processKey(Reactor reactor, SelectionKey selKey) {
+        ReactorHandler handler = (ReactorHandler)selKey.attachment();
+        if (handler != null) {
+            try {
+                if (selKey.isValid() && selKey.isAcceptable()) {
+                    ((ServerReactorHandler)handler).handleAccept(reactor, selKey);
+                }                
+                if (selKey.isValid() && selKey.isConnectable()) {
+                    ((ClientReactorHandler)handler).handleConnect(reactor, selKey);
+                }
+                if (selKey.isValid() && selKey.isReadable()) {
+                    ((ClientReactorHandler)handler).handleRead(reactor, selKey);
+                }
+                if (selKey.isValid() && selKey.isWritable()) {
+                    ((ClientReactorHandler)handler).handleWrite(reactor, selKey);
+                }
+                // This check should be last to support keys that are cancelled in callbacks
+                if (!selKey.isValid()) {
+                    handler.handleClose(reactor, selKey, null);
+                }
+            } catch(Throwable t) {
+                handler.handleException(reactor, selKey, t);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #processKey(Reactor, SelectionKey)}, reporting the time 
+     * spent in each handler callback to a metrics sink.
+     */
+    static public void processKey(Reactor reactor, SelectionKey selKey, ReactorMetricsSink sink) {
+        ReactorHandler handler = (ReactorHandler)selKey.attachment();
+        if (handler != null) {
+            try {
+                long start;
+                if (selKey.isValid() && selKey.isAcceptable()) {
+                    start = System.nanoTime();
+                    ((ServerReactorHandler)handler).handleAccept(reactor, selKey);
+                    sink.onHandler(reactor, handler, SelectionKey.OP_ACCEPT, System.nanoTime() - start);
+                }                
+                if (selKey.isValid() && selKey.isConnectable()) {
+                    start = System.nanoTime();
+                    ((ClientReactorHandler)handler).handleConnect(reactor, selKey);
+                    sink.onHandler(reactor, handler, SelectionKey.OP_CONNECT, System.nanoTime() - start);
+                }
+                if (selKey.isValid() && selKey.isReadable()) {
+                    start = System.nanoTime();
+                    ((ClientReactorHandler)handler).handleRead(reactor, selKey);
+                    sink.onHandler(reactor, handler, SelectionKey.OP_READ, System.nanoTime() - start);
+                }
+                if (selKey.isValid() && selKey.isWritable()) {
+                    start = System.nanoTime();
+                    ((ClientReactorHandler)handler).handleWrite(reactor, selKey);
+                    sink.onHandler(reactor, handler, SelectionKey.OP_WRITE, System.nanoTime() - start);
+                }
+                // This check should be last to support keys that are cancelled in callbacks
+                if (!selKey.isValid()) {
+                    handler.handleClose(reactor, selKey, null);
                 }
+            } catch(Throwable t) {
+                handler.handleException(reactor, selKey, t);
             }
         }
     }
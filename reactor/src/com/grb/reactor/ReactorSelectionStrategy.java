@@ -0,0 +1,21 @@
+package com.grb.reactor;
+
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Chooses the event loop of a {@link ReactorGroup} that a channel will be
+ * assigned to. The strategy is only consulted the first time a channel is
+ * registered with the group, after that the channel stays on the same loop
+ * for its lifetime.
+ */
+public interface ReactorSelectionStrategy {
+    /**
+     * Selects a reactor for the channel.
+     *
+     * @param reactors The event loops to choose from, never empty.
+     * @param channel The channel being registered.
+     *
+     * @return One of the given reactors.
+     */
+    public ReactorThread select(ReactorThread[] reactors, SelectableChannel channel);
+}
@@ -7,11 +7,14 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,19 +24,59 @@ public class ReactorThread implements Reactor, Runnable {
 
     static public final String DefaultThreadName = "ReactorThread";
     static public long RequestTimeoutInMS = 10000;
+    static public int DefaultOperationQueueSize = 1024;
+    static public int DefaultSpinBudget = 10000;
+    static public int DefaultMaxKeysPerIteration = 1024;
+    static public int DefaultMaxTasksPerIteration = 1024;
+    static public int DefaultMaxReadBytesPerHandler = 64 * 1024;
     
     private java.nio.channels.Selector mSelector;
     private Thread mReactorThread;
     private LinkedBlockingQueue<FutureTask<?>> mRequestQueue;
+    private InterestOpsQueue mOperationQueue;
+    private AtomicBoolean mAwake;
+    private AtomicLong mWakeupCount;
+    private AtomicLong mSuppressedWakeupCount;
+    private volatile ReactorWaitStrategy mWaitStrategy;
+    private volatile int mSpinBudget;
+    private TimerWheel mTimerWheel;
+    private ConcurrentLinkedQueue<Runnable> mTaskQueue;
+    private volatile int mMaxKeysPerIteration;
+    private volatile int mMaxTasksPerIteration;
+    private volatile int mMaxReadBytesPerHandler;
+    private volatile ReactorMetricsSink mMetricsSink;
+    private volatile long mSelectDeadline;
     
     public ReactorThread() throws IOException {
         this(DefaultThreadName);
     }
 
     public ReactorThread(String name) throws IOException {
+        this(name, DefaultOperationQueueSize);
+    }
+
+    /**
+     * @param name Name of the reactor thread.
+     * @param operationQueueSize Number of asynchronous interest operation updates
+     *                           that can be queued before callers fall back to blocking.
+     */
+    public ReactorThread(String name, int operationQueueSize) throws IOException {
         mSelector = java.nio.channels.Selector.open();
         mReactorThread = new Thread(this, name); 
         mRequestQueue = new LinkedBlockingQueue<FutureTask<?>>();
+        mOperationQueue = new InterestOpsQueue(operationQueueSize);
+        mAwake = new AtomicBoolean(true);
+        mWakeupCount = new AtomicLong(0);
+        mSuppressedWakeupCount = new AtomicLong(0);
+        mWaitStrategy = ReactorWaitStrategy.Blocking;
+        mSpinBudget = DefaultSpinBudget;
+        mTimerWheel = new TimerWheel();
+        mSelectDeadline = Long.MAX_VALUE;
+        mTaskQueue = new ConcurrentLinkedQueue<Runnable>();
+        mMaxKeysPerIteration = DefaultMaxKeysPerIteration;
+        mMaxTasksPerIteration = DefaultMaxTasksPerIteration;
+        mMaxReadBytesPerHandler = DefaultMaxReadBytesPerHandler;
+        mMetricsSink = null;
     }
 
     public Selector getSelector() {
@@ -43,7 +86,177 @@ public class ReactorThread implements Reactor, Runnable {
     public Thread getThread() {
         return mReactorThread;
     }
+
+    /**
+     * Replaces the selector's HashSet of selected keys with an array backed
+     * {@link SelectedKeySet} so ready keys are dispatched by index without 
+     * allocating. Must be called before the reactor is started.
+     * 
+     * @return true if optimized, false if the JDK refused access to the 
+     * selector implementation and the default key set is still used.
+     */
+    public boolean optimizeSelectedKeys() {
+        if (mReactorThread.isAlive()) {
+            throw new IllegalStateException("Reactor thread already started");
+        }
+        if (mSelector.selectedKeys() instanceof SelectedKeySet) {
+            return true;
+        }
+        return (SelectedKeySet.install(mSelector) != null);
+    }
+
+    public boolean isSelectedKeysOptimized() {
+        return (mSelector.selectedKeys() instanceof SelectedKeySet);
+    }
+
+    public ReactorWaitStrategy getWaitStrategy() {
+        return mWaitStrategy;
+    }
+
+    /**
+     * Sets how the reactor thread waits for events. Can be changed while running.
+     * 
+     * @param strategy The wait strategy.
+     */
+    public void setWaitStrategy(ReactorWaitStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Wait strategy cannot be null");
+        }
+        mWaitStrategy = strategy;
+    }
+
+    public int getSpinBudget() {
+        return mSpinBudget;
+    }
+
+    /**
+     * Sets the number of empty selectNow() polls performed before the
+     * SpinYield strategy yields and the SpinPark strategy blocks.
+     * 
+     * @param spinBudget Number of polls, 0 or more.
+     */
+    public void setSpinBudget(int spinBudget) {
+        if (spinBudget < 0) {
+            throw new IllegalArgumentException("Spin budget cannot be negative: " + spinBudget);
+        }
+        mSpinBudget = spinBudget;
+    }
+
+    /**
+     * Gets the number of selector wakeups issued for requests.
+     * 
+     * @return The number of wakeups issued.
+     */
+    public long getWakeupCount() {
+        return mWakeupCount.get();
+    }
+
+    /**
+     * Gets the number of selector wakeups that were not needed because
+     * the reactor thread was already awake.
+     * 
+     * @return The number of wakeups suppressed.
+     */
+    public long getSuppressedWakeupCount() {
+        return mSuppressedWakeupCount.get();
+    }
     
+    public int getMaxKeysPerIteration() {
+        return mMaxKeysPerIteration;
+    }
+
+    /**
+     * Sets the maximum number of ready keys handled in one pass of the
+     * reactor loop. The rest are handled in the next pass, after the timers
+     * and queued tasks have had their turn.
+     * 
+     * @param maxKeys Number of keys, greater than 0.
+     */
+    public void setMaxKeysPerIteration(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("Max keys per iteration must be greater than 0: " + maxKeys);
+        }
+        mMaxKeysPerIteration = maxKeys;
+    }
+
+    public int getMaxTasksPerIteration() {
+        return mMaxTasksPerIteration;
+    }
+
+    /**
+     * Sets the maximum number of queued requests and executed tasks run in
+     * one pass of the reactor loop. The rest are run in the next pass.
+     * 
+     * @param maxTasks Number of tasks, greater than 0.
+     */
+    public void setMaxTasksPerIteration(int maxTasks) {
+        if (maxTasks <= 0) {
+            throw new IllegalArgumentException("Max tasks per iteration must be greater than 0: " + maxTasks);
+        }
+        mMaxTasksPerIteration = maxTasks;
+    }
+
+    /**
+     * Gets the maximum number of bytes a handler should read from its 
+     * channel for one read event. Data left in the socket is reported 
+     * readable again in the next pass of the reactor loop.
+     */
+    public int getMaxReadBytesPerHandler() {
+        return mMaxReadBytesPerHandler;
+    }
+
+    public void setMaxReadBytesPerHandler(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max read bytes per handler must be greater than 0: " + maxBytes);
+        }
+        mMaxReadBytesPerHandler = maxBytes;
+    }
+
+    public ReactorMetricsSink getMetricsSink() {
+        return mMetricsSink;
+    }
+
+    /**
+     * Sets the sink that receives measurements of the reactor loop, 
+     * for example a {@link ReactorMetrics}. Can be changed while running.
+     * 
+     * @param sink The sink, null disables measurement.
+     */
+    public void setMetricsSink(ReactorMetricsSink sink) {
+        mMetricsSink = sink;
+    }
+
+    /**
+     * Runs a task on the reactor thread in a later pass of the reactor loop.
+     * Unlike the registration methods this does not wait for the task.
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task cannot be null");
+        }
+        checkClosed();
+        mTaskQueue.add(task);
+        if (!Thread.currentThread().getName().equals(mReactorThread.getName())) {
+            wakeup();
+        }
+    }
+
+    /**
+     * Schedules a task to run on the reactor thread. The reactor thread
+     * is only woken if the task is due before its current select returns.
+     */
+    public ReactorTimeout schedule(long delay, TimeUnit unit, Runnable task) {
+        ReactorTimeout timeout = mTimerWheel.schedule(delay, unit, task);
+        if (!Thread.currentThread().getName().equals(mReactorThread.getName())) {
+            long selectDeadline = mSelectDeadline;
+            if ((selectDeadline == Long.MAX_VALUE) ||
+                    ((mTimerWheel.getDeadline(timeout) - selectDeadline) < 0)) {
+                wakeup();
+            }
+        }
+        return timeout;
+    }
+
     public void start() {
         mReactorThread.start();
     }
@@ -58,6 +271,7 @@ public class ReactorThread implements Reactor, Runnable {
             FutureTask<Object> future = new FutureTask<Object>(
                     new Callable<Object>() {
                         public Object call() throws Exception {
+                            mTimerWheel.clear();
                             mSelector.close();
                             return null;
                         }
@@ -82,9 +296,13 @@ public class ReactorThread implements Reactor, Runnable {
         addOperation(channel, handler, SelectionKey.OP_READ);
     }
 
+    /**
+     * Write interest is toggled on every partial write so it is
+     * updated asynchronously, see {@link #addOperationAsync}.
+     */
     public void addWrite(SelectableChannel channel, ReactorHandler handler)
             throws ClosedChannelException {
-        addOperation(channel, handler, SelectionKey.OP_WRITE);
+        addOperationAsync(channel, handler, SelectionKey.OP_WRITE);
     }
 
     public void removeAccept(SelectableChannel channel, ReactorHandler handler)
@@ -102,9 +320,13 @@ public class ReactorThread implements Reactor, Runnable {
         removeOperation(channel, handler, SelectionKey.OP_READ);
     }
 
+    /**
+     * Write interest is toggled on every partial write so it is
+     * updated asynchronously, see {@link #removeOperationAsync}.
+     */
     public void removeWrite(SelectableChannel channel, ReactorHandler handler)
             throws ClosedChannelException {
-        removeOperation(channel, handler, SelectionKey.OP_WRITE);
+        removeOperationAsync(channel, handler, SelectionKey.OP_WRITE);
     }
 
     public void addOperation(final SelectableChannel channel,
@@ -145,30 +367,200 @@ public class ReactorThread implements Reactor, Runnable {
         }
     }
 
+    /**
+     * Adds an interest operation without waiting for the reactor thread to apply it.
+     * The update is queued without allocating and errors are reported to 
+     * the handler's handleException(). Falls back to the blocking 
+     * {@link #addOperation} if the queue is full.
+     */
+    public void addOperationAsync(SelectableChannel channel,
+            ReactorHandler handler, int operation) throws ClosedChannelException {
+        checkClosed();
+        checkStarted();
+        if (Thread.currentThread().getName().equals(mReactorThread.getName())) {
+            ReactorNoThread.addOperation(this, channel, handler, operation);
+        } else {
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (mOperationQueue.offer(channel, handler, operation, true)) {
+                wakeup();
+            } else {
+                // the blocking request runs after the queued updates which keeps them in order
+                addOperation(channel, handler, operation);
+            }
+        }
+    }
+
+    /**
+     * Removes an interest operation without waiting for the reactor thread to apply it.
+     * The update is queued without allocating and errors are reported to 
+     * the handler's handleException(). Falls back to the blocking 
+     * {@link #removeOperation} if the queue is full.
+     */
+    public void removeOperationAsync(SelectableChannel channel,
+            ReactorHandler handler, int operation) throws ClosedChannelException {
+        checkClosed();
+        checkStarted();
+        if (Thread.currentThread().getName().equals(mReactorThread.getName())) {
+            ReactorNoThread.removeOperation(this, channel, handler, operation);
+        } else {
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (mOperationQueue.offer(channel, handler, operation, false)) {
+                wakeup();
+            } else {
+                removeOperation(channel, handler, operation);
+            }
+        }
+    }
+
     public void run() {
         while(true) {
-            try {
-                ReactorNoThread.processEvents(this);
-            } catch (IOException e) {
-                if (Trace.isFatalEnabled()) {
-                    Trace.fatal("Event Processing Error - Closing Selector", e);
-                }
-                try {
-                    mSelector.close();
-                } catch(IOException e1) {}
+            ReactorMetricsSink sink = mMetricsSink;
+            boolean open = (sink == null) ? runIteration() : runIteration(sink);
+            if (!open) {
                 return;
             }
-            // process request queue
-            FutureTask<?> future = null;
-            while((future = mRequestQueue.poll()) != null) {
-                future.run();
+        }
+    }
+
+    /**
+     * Runs one pass of the reactor loop.
+     * 
+     * @return false if the selector has been closed.
+     */
+    protected boolean runIteration() {
+        try {
+            select();
+            if (!mSelector.selectedKeys().isEmpty()) {
+                // includes keys left over from the previous pass
+                ReactorNoThread.processSelector(this, mMaxKeysPerIteration);
             }
-            if (!mSelector.isOpen()) {
-                return;
+        } catch (IOException e) {
+            closeOnError(e);
+            return false;
+        }
+        // run due timers
+        mTimerWheel.expireTimeouts(System.nanoTime());
+        return (runQueued() >= 0);
+    }
+
+    /**
+     * Runs one pass of the reactor loop, reporting to a metrics sink.
+     * 
+     * @return false if the selector has been closed.
+     */
+    protected boolean runIteration(ReactorMetricsSink sink) {
+        try {
+            long start = System.nanoTime();
+            int numKeys = select();
+            sink.onSelect(this, System.nanoTime() - start, numKeys);
+            if (!mSelector.selectedKeys().isEmpty()) {
+                ReactorNoThread.processSelector(this, mMaxKeysPerIteration, sink);
             }
+        } catch (IOException e) {
+            closeOnError(e);
+            return false;
         }
+        mTimerWheel.expireTimeouts(System.nanoTime());
+        int requestQueueDepth = mRequestQueue.size();
+        int numTasks = runQueued();
+        if (numTasks < 0) {
+            return false;
+        }
+        sink.onIteration(this, requestQueueDepth, numTasks);
+        return true;
     }
-    
+
+    /**
+     * Performs the queued interest operations, then runs the request queue
+     * and the executed tasks within the task budget.
+     * 
+     * @return The number of requests and tasks run, -1 if the selector has been closed.
+     */
+    protected int runQueued() {
+        mOperationQueue.drain(this);
+        int maxTasks = mMaxTasksPerIteration;
+        int numTasks = 0;
+        FutureTask<?> future = null;
+        while((numTasks < maxTasks) && ((future = mRequestQueue.poll()) != null)) {
+            // updates queued ahead of the request are performed before it
+            mOperationQueue.drain(this);
+            future.run();
+            numTasks++;
+        }
+        if (!mSelector.isOpen()) {
+            return -1;
+        }
+        numTasks += ReactorNoThread.runTasks(this, mTaskQueue, maxTasks - numTasks);
+        if (!mSelector.isOpen()) {
+            return -1;
+        }
+        return numTasks;
+    }
+
+    protected void closeOnError(IOException e) {
+        if (Trace.isFatalEnabled()) {
+            Trace.fatal("Event Processing Error - Closing Selector", e);
+        }
+        try {
+            mSelector.close();
+        } catch(IOException e1) {}
+    }
+
+    /**
+     * @return true if the reactor has work that must not wait for a selector event.
+     */
+    protected boolean hasPendingWork() {
+        return mOperationQueue.hasPending() || !mRequestQueue.isEmpty() || 
+            !mTaskQueue.isEmpty() || !mSelector.selectedKeys().isEmpty();
+    }
+
+    protected int select() throws IOException {
+        ReactorWaitStrategy strategy = mWaitStrategy;
+        if (strategy != ReactorWaitStrategy.Blocking) {
+            // the awake flag stays set while spinning so requests don't wake the selector
+            int budget = mSpinBudget;
+            int spins = 0;
+            while(true) {
+                int numKeys = mSelector.selectNow();
+                if ((numKeys > 0) || (strategy == ReactorWaitStrategy.BusySpin) ||
+                        hasPendingWork() || mTimerWheel.isTickDue(System.nanoTime())) {
+                    // busy spin goes round the reactor loop on every poll
+                    return numKeys;
+                }
+                if (spins < budget) {
+                    spins++;
+                } else if (strategy == ReactorWaitStrategy.SpinYield) {
+                    Thread.yield();
+                } else {
+                    break;
+                }
+            }
+        }
+        int numKeys;
+        long now = System.nanoTime();
+        long timeoutNanos = mTimerWheel.nextTimeoutNanos(now);
+        mSelectDeadline = (timeoutNanos < 0) ? Long.MAX_VALUE : (now + timeoutNanos);
+        mAwake.set(false);
+        if (hasPendingWork() || mTimerWheel.hasPending()) {
+            // queued before the flag was cleared, the wakeup may have been suppressed
+            // or left over from the previous pass
+            numKeys = mSelector.selectNow();
+        } else if (timeoutNanos < 0) {
+            numKeys = mSelector.select();
+        } else {
+            // round up, select(0) would block forever
+            long timeoutMS = (timeoutNanos + 999999) / 1000000;
+            numKeys = (timeoutMS == 0) ? mSelector.selectNow() : mSelector.select(timeoutMS);
+        }
+        // requests made while handlers run are picked up without a wakeup
+        mAwake.set(true);
+        return numKeys;
+    }
+
     protected void checkStarted() {
         if (!mReactorThread.isAlive()) {
             throw new IllegalStateException("Reactor thread not started");
@@ -181,9 +573,41 @@ public class ReactorThread implements Reactor, Runnable {
         }
     }
 
+    /**
+     * Called on the reactor thread for each queued asynchronous update.
+     */
+    protected void performOperation(SelectableChannel channel, 
+            ReactorHandler handler, int operation, boolean add) {
+        try {
+            if (add) {
+                ReactorNoThread.addOperation(this, channel, handler, operation);
+            } else {
+                ReactorNoThread.removeOperation(this, channel, handler, operation);
+            }
+        } catch(Throwable t) {
+            if (Trace.isDebugEnabled()) {
+                Trace.debug("Queued operation errored", t);
+            }
+            handler.handleException(this, null, t);
+        }
+    }
+
+    /**
+     * Wakes up the selector if the reactor thread is, or is about to be, 
+     * blocked in select(). Requests must be queued before calling this.
+     */
+    protected void wakeup() {
+        if (mAwake.compareAndSet(false, true)) {
+            mWakeupCount.incrementAndGet();
+            mSelector.wakeup();
+        } else {
+            mSuppressedWakeupCount.incrementAndGet();
+        }
+    }
+
     protected void performRequest(FutureTask<Object> future, ReactorHandler handler) throws ClosedChannelException {
         mRequestQueue.add(future);
-        mSelector.wakeup();
+        wakeup();
         try {
             future.get(RequestTimeoutInMS, TimeUnit.MILLISECONDS);
         } catch(TimeoutException e) {
@@ -0,0 +1,20 @@
+package com.grb.reactor;
+
+/**
+ * Handle to a task scheduled with {@link Reactor#schedule}.
+ */
+public interface ReactorTimeout {
+    /**
+     * Cancels the task if it has not run yet. Can be called from any thread.
+     *
+     * @return true if cancelled, false if already run or cancelled.
+     */
+    public boolean cancel();
+
+    public boolean isCancelled();
+
+    /**
+     * @return true if the task has been run.
+     */
+    public boolean isExpired();
+}
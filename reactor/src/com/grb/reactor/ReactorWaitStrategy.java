@@ -0,0 +1,29 @@
+package com.grb.reactor;
+
+/**
+ * How a {@link ReactorThread} waits for events.
+ * The spinning strategies trade a busy CPU for lower and more
+ * predictable event to handler latency.
+ */
+public enum ReactorWaitStrategy {
+    /**
+     * Block in select() until an event or request arrives.
+     */
+    Blocking,
+
+    /**
+     * Poll with selectNow() without ever blocking or yielding.
+     */
+    BusySpin,
+
+    /**
+     * Poll with selectNow() for the spin budget, then yield the
+     * processor between polls. Never blocks.
+     */
+    SpinYield,
+
+    /**
+     * Poll with selectNow() for the spin budget, then block in select().
+     */
+    SpinPark
+}
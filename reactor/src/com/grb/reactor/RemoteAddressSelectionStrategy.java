@@ -0,0 +1,29 @@
+package com.grb.reactor;
+
+import java.net.SocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Assigns channels to event loops by the hash of their remote address so
+ * that connections to or from the same peer share a loop. Channels without
+ * a remote address (server sockets, unconnected sockets) are hashed by identity.
+ */
+public class RemoteAddressSelectionStrategy implements ReactorSelectionStrategy {
+
+    public ReactorThread select(ReactorThread[] reactors, SelectableChannel channel) {
+        int hash;
+        SocketAddress addr = null;
+        if (channel instanceof SocketChannel) {
+            addr = ((SocketChannel)channel).socket().getRemoteSocketAddress();
+        }
+        if (addr == null) {
+            hash = System.identityHashCode(channel);
+        } else {
+            hash = addr.hashCode();
+        }
+        // spread the bits so consecutive ports don't cluster
+        hash ^= (hash >>> 16);
+        return reactors[(hash & Integer.MAX_VALUE) % reactors.length];
+    }
+}
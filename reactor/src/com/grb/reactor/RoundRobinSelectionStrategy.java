@@ -0,0 +1,20 @@
+package com.grb.reactor;
+
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns channels to the event loops in turn.
+ */
+public class RoundRobinSelectionStrategy implements ReactorSelectionStrategy {
+    private AtomicInteger mNext;
+
+    public RoundRobinSelectionStrategy() {
+        mNext = new AtomicInteger(0);
+    }
+
+    public ReactorThread select(ReactorThread[] reactors, SelectableChannel channel) {
+        int index = (mNext.getAndIncrement() & Integer.MAX_VALUE) % reactors.length;
+        return reactors[index];
+    }
+}
@@ -0,0 +1,178 @@
+package com.grb.reactor;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An array backed replacement for a selector's selected key set.
+ * <p>
+ * The JDK's selected key set is a HashSet, so every ready key is hashed on
+ * add and the iterator used to process the keys is allocated on every select.
+ * This set appends keys to a reusable array that the reactor walks by index.
+ * <p>
+ * contains() only looks up the keys carried over from a previous select by
+ * {@link #removeFirst(int)}, in an identity map so it stays O(1) when the
+ * reactor's key budget is hit. The selector uses it to merge the ready
+ * operations of a key reported more than once, which doesn't happen in one
+ * select with epoll. With other selectors an operation can be reported late,
+ * on the next select.
+ */
+public class SelectedKeySet extends AbstractSet<SelectionKey> {
+    private static final Log Trace = LogFactory.getLog(SelectedKeySet.class);
+
+    static public final int DefaultCapacity = 1024;
+
+    protected SelectionKey[] mKeys;
+    protected int mSize;
+    protected IdentityHashMap<SelectionKey, Boolean> mCarried;
+
+    public SelectedKeySet() {
+        this(DefaultCapacity);
+    }
+
+    public SelectedKeySet(int capacity) {
+        mKeys = new SelectionKey[capacity];
+        mSize = 0;
+        mCarried = new IdentityHashMap<SelectionKey, Boolean>();
+    }
+
+    /**
+     * Replaces the selected key set of a selector with a new SelectedKeySet.
+     * Must be done before the selector is used.
+     *
+     * @param selector The selector to optimize.
+     *
+     * @return The installed key set, or null if the selector implementation
+     * could not be accessed (for example the JDK refuses reflective access).
+     */
+    static public SelectedKeySet install(Selector selector) {
+        try {
+            Class<?> implClass = Class.forName("sun.nio.ch.SelectorImpl", false,
+                    ClassLoader.getSystemClassLoader());
+            if (!implClass.isAssignableFrom(selector.getClass())) {
+                if (Trace.isInfoEnabled()) {
+                    Trace.info("Selected key set not optimized, unknown selector " + selector.getClass().getName());
+                }
+                return null;
+            }
+            Field selectedKeysField = implClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = implClass.getDeclaredField("publicSelectedKeys");
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+            SelectedKeySet keySet = new SelectedKeySet();
+            selectedKeysField.set(selector, keySet);
+            publicSelectedKeysField.set(selector, keySet);
+            return keySet;
+        } catch(Throwable t) {
+            // includes the module system's InaccessibleObjectException
+            if (Trace.isInfoEnabled()) {
+                Trace.info("Selected key set not optimized: " + t);
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+        if (mSize == mKeys.length) {
+            SelectionKey[] keys = new SelectionKey[mKeys.length << 1];
+            System.arraycopy(mKeys, 0, keys, 0, mSize);
+            mKeys = keys;
+        }
+        mKeys[mSize++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (!mCarried.isEmpty()) && mCarried.containsKey(o);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Gets the key at an index, for allocation free iteration.
+     */
+    public SelectionKey get(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Empties the set, releasing the key references.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mKeys[i] = null;
+        }
+        mSize = 0;
+        if (!mCarried.isEmpty()) {
+            mCarried.clear();
+        }
+    }
+
+    /**
+     * Removes the first keys, keeping the rest for the next select.
+     * 
+     * @param count Number of keys to remove.
+     */
+    public void removeFirst(int count) {
+        if (count >= mSize) {
+            clear();
+            return;
+        }
+        int remaining = mSize - count;
+        System.arraycopy(mKeys, count, mKeys, 0, remaining);
+        for (int i = remaining; i < mSize; i++) {
+            mKeys[i] = null;
+        }
+        mSize = remaining;
+        if (!mCarried.isEmpty()) {
+            mCarried.clear();
+        }
+        for (int i = 0; i < remaining; i++) {
+            mCarried.put(mKeys[i], Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int mIndex = 0;
+
+            public boolean hasNext() {
+                return mIndex < mSize;
+            }
+
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return mKeys[mIndex++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,341 @@
+package com.grb.reactor;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A hashed timing wheel run by the thread of a reactor.
+ * <p>
+ * Tasks can be scheduled and cancelled from any thread in O(1). Scheduled
+ * tasks are handed to the owning thread through a queue and linked into
+ * the bucket of their deadline tick, cancelled tasks are handed over the
+ * same way and unlinked, so the wheel doesn't keep them or their task
+ * reachable. Occupied buckets are tracked in a bitmap along with the
+ * earliest deadline tick in each, so finding the next task due doesn't
+ * depend on the number of tasks. Tasks run on the owning thread at or up
+ * to one tick after their deadline.
+ * <p>
+ * Apart from {@link #schedule} all methods must be called by the owning thread.
+ */
+public class TimerWheel {
+    private static final Log Trace = LogFactory.getLog(TimerWheel.class);
+
+    static public long DefaultTickDurationInMS = 10;
+    static public int DefaultTicksPerWheel = 512;
+
+    static private final int STATE_SCHEDULED = 0;
+    static private final int STATE_CANCELLED = 1;
+    static private final int STATE_EXPIRED = 2;
+
+    protected class Timeout implements ReactorTimeout {
+        final protected Runnable mTask;
+        final protected long mDeadline;
+        final protected AtomicInteger mState;
+        protected long mDeadlineTick;
+        protected boolean mLinked;
+        protected Timeout mNext;
+        protected Timeout mPrev;
+
+        public Timeout(Runnable task, long deadline) {
+            mTask = task;
+            mDeadline = deadline;
+            mState = new AtomicInteger(STATE_SCHEDULED);
+        }
+
+        public boolean cancel() {
+            if (mState.compareAndSet(STATE_SCHEDULED, STATE_CANCELLED)) {
+                mCancelled.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return (mState.get() == STATE_CANCELLED);
+        }
+
+        public boolean isExpired() {
+            return (mState.get() == STATE_EXPIRED);
+        }
+
+        @Override
+        public String toString() {
+            return "Timeout(" + mTask + ",state=" + mState.get() + ")";
+        }
+    }
+
+    final protected long mStartTime;
+    final protected long mTickNanos;
+    final protected Timeout[] mBuckets;
+    final protected int mMask;
+    final protected long[] mOccupied;
+    final protected long[] mMinTicks;
+    final protected ConcurrentLinkedQueue<Timeout> mPending;
+    final protected ConcurrentLinkedQueue<Timeout> mCancelled;
+    protected long mTick;
+    protected int mSize;
+
+    public TimerWheel() {
+        this(DefaultTickDurationInMS, TimeUnit.MILLISECONDS, DefaultTicksPerWheel);
+    }
+
+    /**
+     * @param tickDuration Resolution of the wheel.
+     * @param unit Unit of the tick duration.
+     * @param ticksPerWheel Number of buckets, rounded up to a power of 2.
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Ticks per wheel must be positive: " + ticksPerWheel);
+        }
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        mStartTime = System.nanoTime();
+        mTickNanos = unit.toNanos(tickDuration);
+        mBuckets = new Timeout[size];
+        mMask = size - 1;
+        mOccupied = new long[(size + 63) / 64];
+        mMinTicks = new long[size];
+        mPending = new ConcurrentLinkedQueue<Timeout>();
+        mCancelled = new ConcurrentLinkedQueue<Timeout>();
+        mTick = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Schedules a task. Can be called from any thread.
+     *
+     * @param delay Delay before the task is run, negative is treated as 0.
+     * @param unit Unit of the delay.
+     * @param task Task to run on the owning thread.
+     * @return Handle used to cancel the task.
+     */
+    public ReactorTimeout schedule(long delay, TimeUnit unit, Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task cannot be null");
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        mPending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Gets the deadline of a handle returned by this wheel.
+     *
+     * @return Deadline in System.nanoTime() terms.
+     */
+    public long getDeadline(ReactorTimeout timeout) {
+        return ((Timeout)timeout).mDeadline;
+    }
+
+    /**
+     * @return true if there are tasks scheduled from other threads that
+     * the owning thread has not seen yet.
+     */
+    public boolean hasPending() {
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * @return Number of tasks in the wheel, including pending and
+     * cancelled tasks not yet removed.
+     */
+    public int size() {
+        return mSize + mPending.size();
+    }
+
+    /**
+     * Checks whether a tick holding tasks has passed. Cheap enough to be
+     * polled by a spinning reactor.
+     */
+    public boolean isTickDue(long now) {
+        if ((mSize == 0) && mPending.isEmpty()) {
+            return false;
+        }
+        return ((now - mStartTime) >= (mTick * mTickNanos));
+    }
+
+    /**
+     * Gets the time until the next task is due.
+     *
+     * @param now Current System.nanoTime().
+     * @return Nanoseconds until the tick of the next task, 0 if it is due,
+     * -1 if there are no tasks.
+     */
+    public long nextTimeoutNanos(long now) {
+        addPending();
+        if (mSize == 0) {
+            return -1;
+        }
+        return Math.max(0, mStartTime + (nextDueTick() * mTickNanos) - now);
+    }
+
+    /**
+     * Runs the tasks that are due.
+     *
+     * @param now Current System.nanoTime().
+     * @return Number of tasks run.
+     */
+    public int expireTimeouts(long now) {
+        addPending();
+        long currentTick = (now - mStartTime) / mTickNanos;
+        if (currentTick < mTick) {
+            return 0;
+        }
+        int count = 0;
+        if (mSize > 0) {
+            // each bucket is visited at most once however late we are
+            long lastTick = Math.min(currentTick, mTick + mMask);
+            for (long tick = mTick; tick <= lastTick; tick++) {
+                int index = (int)(tick & mMask);
+                Timeout timeout = mBuckets[index];
+                long minTick = Long.MAX_VALUE;
+                while (timeout != null) {
+                    Timeout next = timeout.mNext;
+                    if (timeout.mState.get() != STATE_SCHEDULED) {
+                        remove(timeout);
+                    } else if (timeout.mDeadlineTick <= currentTick) {
+                        remove(timeout);
+                        if (timeout.mState.compareAndSet(STATE_SCHEDULED, STATE_EXPIRED)) {
+                            count++;
+                            try {
+                                timeout.mTask.run();
+                            } catch(Throwable t) {
+                                if (Trace.isErrorEnabled()) {
+                                    Trace.error("Error running timer task " + timeout.mTask, t);
+                                }
+                            }
+                        }
+                    } else {
+                        minTick = Math.min(minTick, timeout.mDeadlineTick);
+                    }
+                    timeout = next;
+                }
+                mMinTicks[index] = minTick;
+            }
+        }
+        mTick = currentTick + 1;
+        return count;
+    }
+
+    /**
+     * Drops all tasks without running them.
+     */
+    public void clear() {
+        Timeout timeout;
+        while((timeout = mPending.poll()) != null) {
+            timeout.cancel();
+        }
+        for (int i = 0; i <= mMask; i++) {
+            timeout = mBuckets[i];
+            while (timeout != null) {
+                timeout.cancel();
+                Timeout next = timeout.mNext;
+                timeout.mLinked = false;
+                timeout.mNext = null;
+                timeout.mPrev = null;
+                timeout = next;
+            }
+            mBuckets[i] = null;
+        }
+        mCancelled.clear();
+        for (int i = 0; i < mOccupied.length; i++) {
+            mOccupied[i] = 0;
+        }
+        mSize = 0;
+    }
+
+    protected void addPending() {
+        Timeout timeout;
+        while((timeout = mPending.poll()) != null) {
+            if (timeout.mState.get() != STATE_SCHEDULED) {
+                continue;
+            }
+            // round up so a task never runs before its deadline
+            long tick = (timeout.mDeadline - mStartTime + mTickNanos - 1) / mTickNanos;
+            if (tick < mTick) {
+                tick = mTick;
+            }
+            timeout.mDeadlineTick = tick;
+            int index = (int)(tick & mMask);
+            timeout.mNext = mBuckets[index];
+            if (timeout.mNext != null) {
+                timeout.mNext.mPrev = timeout;
+                mMinTicks[index] = Math.min(mMinTicks[index], tick);
+            } else {
+                mMinTicks[index] = tick;
+            }
+            mBuckets[index] = timeout;
+            mOccupied[index >>> 6] |= (1L << index);
+            timeout.mLinked = true;
+            mSize++;
+        }
+        // a task cancelled before it was linked above was skipped
+        while((timeout = mCancelled.poll()) != null) {
+            if (timeout.mLinked) {
+                remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Visits the occupied buckets from the current tick on. A bucket's
+     * earliest tick is only lowered when a task is removed outside a visit
+     * of its bucket, so the tick returned may be early but is never late.
+     *
+     * @return The first tick with a task due.
+     */
+    protected long nextDueTick() {
+        int start = (int)(mTick & mMask);
+        long earliest = Long.MAX_VALUE;
+        // the start word is visited again last for the buckets before start
+        for (int i = 0; i <= mOccupied.length; i++) {
+            int word = ((start >>> 6) + i) % mOccupied.length;
+            long bits = mOccupied[word];
+            if (i == 0) {
+                bits &= (-1L << start);
+            } else if (i == mOccupied.length) {
+                bits &= ~(-1L << start);
+            }
+            while (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= (bits - 1);
+                long tick = mTick + ((index - start) & mMask);
+                if (mMinTicks[index] <= tick) {
+                    return tick;
+                }
+                earliest = Math.min(earliest, mMinTicks[index]);
+            }
+        }
+        // nothing due within a revolution
+        return earliest;
+    }
+
+    protected void remove(Timeout timeout) {
+        if (timeout.mPrev == null) {
+            int index = (int)(timeout.mDeadlineTick & mMask);
+            mBuckets[index] = timeout.mNext;
+            if (timeout.mNext == null) {
+                mOccupied[index >>> 6] &= ~(1L << index);
+            }
+        } else {
+            timeout.mPrev.mNext = timeout.mNext;
+        }
+        if (timeout.mNext != null) {
+            timeout.mNext.mPrev = timeout.mPrev;
+        }
+        timeout.mLinked = false;
+        timeout.mNext = null;
+        timeout.mPrev = null;
+        mSize--;
+    }
+}
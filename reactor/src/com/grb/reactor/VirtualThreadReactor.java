@@ -0,0 +1,529 @@
+package com.grb.reactor;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelectionKey;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A reactor that gives each registered channel its own threads doing
+ * blocking IO instead of multiplexing channels on a selector.
+ * <p>
+ * Registered channels are switched to blocking mode. A reader thread per
+ * channel calls handleAccept, handleConnect or handleRead while the
+ * matching interest is set, so the handler's accept, finishConnect or read
+ * blocks until the channel is ready. A writer thread, started the first
+ * time write interest is set, does the same for handleWrite. Handlers
+ * written for {@link ReactorThread} run unchanged, although writes made
+ * outside the handlers block rather than complete partially.
+ * <p>
+ * The threads are virtual threads when the JDK supports them (Java 21),
+ * otherwise small stack daemon platform threads, see {@link #isVirtual()}.
+ * <p>
+ * Unlike a selector reactor, a channel's handlers run on several threads,
+ * its reader and its writer, and tasks run on another. Scheduled and
+ * executed tasks run one at a time, in order, on a single task thread.
+ * <p>
+ * Removing read interest does not interrupt a read already blocked, which
+ * is delivered to the handler when data arrives.
+ */
+public class VirtualThreadReactor implements Reactor {
+    static private final Log Trace = LogFactory.getLog(VirtualThreadReactor.class);
+
+    static public final String DefaultThreadName = "VirtualThreadReactor";
+    static public long PlatformThreadStackSize = 256 * 1024;
+    static public long IdlePollInMS = 1000;
+
+    static private final int READER_OPS = SelectionKey.OP_ACCEPT | SelectionKey.OP_CONNECT | SelectionKey.OP_READ;
+
+    /**
+     * The selector returned by {@link VirtualThreadReactor#getSelector()}.
+     * It exists so channel keys can be cancelled, it cannot be selected.
+     */
+    protected class VirtualSelector extends AbstractSelector {
+        public VirtualSelector() {
+            super(SelectorProvider.provider());
+        }
+
+        @Override
+        protected void implCloseSelector() throws IOException {
+        }
+
+        @Override
+        protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+            throw new UnsupportedOperationException("Register with the VirtualThreadReactor");
+        }
+
+        @Override
+        public Set<SelectionKey> keys() {
+            return Collections.<SelectionKey>unmodifiableSet(mKeys.keySet());
+        }
+
+        @Override
+        public Set<SelectionKey> selectedKeys() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public int selectNow() throws IOException {
+            return 0;
+        }
+
+        @Override
+        public int select(long timeout) throws IOException {
+            throw new UnsupportedOperationException("VirtualThreadReactor selector cannot select");
+        }
+
+        @Override
+        public int select() throws IOException {
+            throw new UnsupportedOperationException("VirtualThreadReactor selector cannot select");
+        }
+
+        @Override
+        public Selector wakeup() {
+            return this;
+        }
+
+        protected void removeCancelled(SelectionKey key) {
+            Set<SelectionKey> cancelled = cancelledKeys();
+            synchronized(cancelled) {
+                cancelled.remove(key);
+            }
+        }
+    }
+
+    /**
+     * The key of a registered channel and the threads serving it.
+     */
+    protected class ChannelKey extends AbstractSelectionKey {
+        final protected SelectableChannel mChannel;
+        protected volatile int mInterestOps;
+        protected volatile int mReadyOps;
+        protected Thread mReader;
+        protected Thread mWriter;
+        protected AtomicBoolean mClosed;
+
+        public ChannelKey(SelectableChannel channel, ReactorHandler handler) {
+            mChannel = channel;
+            mInterestOps = 0;
+            mReadyOps = 0;
+            mReader = null;
+            mWriter = null;
+            mClosed = new AtomicBoolean(false);
+            attach(handler);
+        }
+
+        @Override
+        public SelectableChannel channel() {
+            return mChannel;
+        }
+
+        @Override
+        public Selector selector() {
+            return mSelector;
+        }
+
+        @Override
+        public int interestOps() {
+            return mInterestOps;
+        }
+
+        @Override
+        public SelectionKey interestOps(int ops) {
+            if ((ops & ~mChannel.validOps()) != 0) {
+                throw new IllegalArgumentException("Invalid interest ops: " + ops);
+            }
+            synchronized(this) {
+                mInterestOps = ops;
+                if (((ops & READER_OPS) != 0) && (mReader == null)) {
+                    mReader = newThread(this, READER_OPS, "reader");
+                }
+                if (((ops & SelectionKey.OP_WRITE) != 0) && (mWriter == null)) {
+                    mWriter = newThread(this, SelectionKey.OP_WRITE, "writer");
+                }
+                notifyAll();
+            }
+            return this;
+        }
+
+        @Override
+        public int readyOps() {
+            return mReadyOps;
+        }
+
+        /**
+         * Waits until one of the operations is of interest.
+         *
+         * @return The operations of interest, 0 if the key is no longer usable.
+         */
+        protected int awaitOps(int ops) throws InterruptedException {
+            synchronized(this) {
+                while (true) {
+                    if (!isValid() || !mChannel.isOpen() || mShutdown) {
+                        return 0;
+                    }
+                    int interest = mInterestOps & ops;
+                    if (interest != 0) {
+                        return interest;
+                    }
+                    // cancel() cannot be intercepted, poll for it
+                    wait(IdlePollInMS);
+                }
+            }
+        }
+
+        /**
+         * Called by the last thread leaving the key.
+         */
+        protected void closeKey() {
+            mKeys.remove(this);
+            mChannels.remove(mChannel, this);
+            if (isValid()) {
+                cancel();
+            }
+            mSelector.removeCancelled(this);
+            if (mClosed.compareAndSet(false, true)) {
+                ReactorHandler handler = (ReactorHandler)attachment();
+                if (handler != null) {
+                    handler.handleClose(VirtualThreadReactor.this, this, null);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ChannelKey(" + mChannel + ",interest=" + mInterestOps + ")";
+        }
+    }
+
+    /**
+     * Serves one direction of a channel.
+     */
+    protected class ChannelRunner implements Runnable {
+        final protected ChannelKey mKey;
+        final protected int mOps;
+
+        public ChannelRunner(ChannelKey key, int ops) {
+            mKey = key;
+            mOps = ops;
+        }
+
+        public void run() {
+            ChannelKey key = mKey;
+            try {
+                while (true) {
+                    int ops = key.awaitOps(mOps);
+                    if (ops == 0) {
+                        break;
+                    }
+                    ReactorHandler handler = (ReactorHandler)key.attachment();
+                    try {
+                        if ((ops & SelectionKey.OP_ACCEPT) != 0) {
+                            key.mReadyOps = SelectionKey.OP_ACCEPT;
+                            ((ServerReactorHandler)handler).handleAccept(VirtualThreadReactor.this, key);
+                        } else if ((ops & SelectionKey.OP_CONNECT) != 0) {
+                            key.mReadyOps = SelectionKey.OP_CONNECT;
+                            ((ClientReactorHandler)handler).handleConnect(VirtualThreadReactor.this, key);
+                        } else if ((ops & SelectionKey.OP_READ) != 0) {
+                            key.mReadyOps = SelectionKey.OP_READ;
+                            ((ClientReactorHandler)handler).handleRead(VirtualThreadReactor.this, key);
+                        } else {
+                            key.mReadyOps = SelectionKey.OP_WRITE;
+                            ((ClientReactorHandler)handler).handleWrite(VirtualThreadReactor.this, key);
+                        }
+                    } catch(Throwable t) {
+                        handler.handleException(VirtualThreadReactor.this, key, t);
+                    }
+                }
+            } catch(InterruptedException e) {
+                // reactor closed
+            } finally {
+                boolean last;
+                synchronized(key) {
+                    if (mOps == SelectionKey.OP_WRITE) {
+                        key.mWriter = null;
+                    } else {
+                        key.mReader = null;
+                    }
+                    last = (key.mReader == null) && (key.mWriter == null);
+                }
+                if (last && (!key.isValid() || !key.channel().isOpen() || mShutdown)) {
+                    key.closeKey();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the task thread, logging its errors, and is the
+     * handle of a scheduled task.
+     */
+    protected class ScheduledTimeout implements ReactorTimeout, Runnable {
+        final protected Runnable mTask;
+        protected volatile ScheduledFuture<?> mFuture;
+        protected volatile boolean mExpired;
+
+        public ScheduledTimeout(Runnable task) {
+            mTask = task;
+            mExpired = false;
+        }
+
+        public void run() {
+            mExpired = true;
+            try {
+                mTask.run();
+            } catch(Throwable t) {
+                if (Trace.isErrorEnabled()) {
+                    Trace.error("Error running timer task " + mTask, t);
+                }
+            }
+        }
+
+        public boolean cancel() {
+            return mFuture.cancel(false);
+        }
+
+        public boolean isCancelled() {
+            return mFuture.isCancelled();
+        }
+
+        public boolean isExpired() {
+            return mExpired;
+        }
+    }
+
+    protected String mName;
+    protected VirtualSelector mSelector;
+    protected ConcurrentHashMap<SelectableChannel, ChannelKey> mChannels;
+    protected ConcurrentHashMap<ChannelKey, Boolean> mKeys;
+    protected ThreadFactory mThreadFactory;
+    protected boolean mVirtual;
+    protected ScheduledThreadPoolExecutor mTimer;
+    protected AtomicInteger mThreadCount;
+    protected volatile boolean mShutdown;
+
+    public VirtualThreadReactor() {
+        this(DefaultThreadName);
+    }
+
+    /**
+     * @param name Prefix of the names of the reactor's threads.
+     */
+    public VirtualThreadReactor(String name) {
+        mName = name;
+        mSelector = new VirtualSelector();
+        mChannels = new ConcurrentHashMap<SelectableChannel, ChannelKey>();
+        mKeys = new ConcurrentHashMap<ChannelKey, Boolean>();
+        mThreadCount = new AtomicInteger(0);
+        mThreadFactory = newVirtualThreadFactory();
+        mVirtual = (mThreadFactory != null);
+        if (!mVirtual) {
+            mThreadFactory = new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(null, r, mName, PlatformThreadStackSize);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        mTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, mName + "-tasks");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mShutdown = false;
+        if (Trace.isInfoEnabled()) {
+            Trace.info(mName + " using " + (mVirtual ? "virtual" : "platform") + " threads");
+        }
+    }
+
+    /**
+     * Gets a factory of virtual threads through reflection so the reactor
+     * builds and runs on JDKs without them.
+     *
+     * @return The factory, or null if virtual threads are not available.
+     */
+    static public ThreadFactory newVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory)factory.invoke(builder);
+        } catch(Throwable t) {
+            // not available, or a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * @return true if channels are served by virtual threads.
+     */
+    public boolean isVirtual() {
+        return mVirtual;
+    }
+
+    /**
+     * @return The number of channels registered.
+     */
+    public int size() {
+        return mChannels.size();
+    }
+
+    public Selector getSelector() {
+        return mSelector;
+    }
+
+    /**
+     * Stops serving all channels. The channels are not closed but their
+     * threads exit once blocked calls return.
+     */
+    public void close() {
+        mShutdown = true;
+        mTimer.shutdownNow();
+        for (ChannelKey key : mChannels.values()) {
+            synchronized(key) {
+                key.notifyAll();
+            }
+        }
+        try {
+            mSelector.close();
+        } catch(IOException e) {}
+    }
+
+    public void addAccept(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_ACCEPT);
+    }
+
+    public void addConnect(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_CONNECT);
+    }
+
+    public void addRead(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_READ);
+    }
+
+    public void addWrite(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        addOperation(channel, handler, SelectionKey.OP_WRITE);
+    }
+
+    public void removeAccept(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_ACCEPT);
+    }
+
+    public void removeConnect(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_CONNECT);
+    }
+
+    public void removeRead(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_READ);
+    }
+
+    public void removeWrite(SelectableChannel channel, ReactorHandler handler) throws ClosedChannelException {
+        removeOperation(channel, handler, SelectionKey.OP_WRITE);
+    }
+
+    public void addOperation(SelectableChannel channel, ReactorHandler handler, int operation)
+            throws ClosedChannelException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        if (mShutdown) {
+            throw new IllegalStateException(mName + " closed");
+        }
+        ChannelKey key;
+        synchronized(mChannels) {
+            key = mChannels.get(channel);
+            if ((key == null) || !key.isValid()) {
+                try {
+                    channel.configureBlocking(true);
+                } catch(ClosedChannelException e) {
+                    throw e;
+                } catch(IOException e) {
+                    throw new IllegalStateException("Cannot make channel blocking: " + channel, e);
+                }
+                key = new ChannelKey(channel, handler);
+                mChannels.put(channel, key);
+                mKeys.put(key, Boolean.TRUE);
+            }
+        }
+        synchronized(key) {
+            if (key.attachment() != handler) {
+                key.attach(handler);
+            }
+            key.interestOps(key.interestOps() | operation);
+        }
+    }
+
+    public void removeOperation(SelectableChannel channel, ReactorHandler handler, int operation)
+            throws ClosedChannelException {
+        ChannelKey key = mChannels.get(channel);
+        if (key == null) {
+            if (channel.isOpen()) {
+                if (Trace.isInfoEnabled()) {
+                    Trace.info("No SelectionKey for remove operation");
+                }
+                return;
+            }
+            throw new ClosedChannelException();
+        }
+        synchronized(key) {
+            if (key.attachment() != handler) {
+                key.attach(handler);
+            }
+            key.interestOps(key.interestOps() & ~operation);
+        }
+    }
+
+    public ReactorTimeout schedule(long delay, TimeUnit unit, Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task cannot be null");
+        }
+        ScheduledTimeout timeout = new ScheduledTimeout(task);
+        timeout.mFuture = mTimer.schedule(timeout, Math.max(0, delay), unit);
+        return timeout;
+    }
+
+    /**
+     * Runs a task on the reactor's task thread, after the tasks already
+     * executed or due.
+     */
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("Task cannot be null");
+        }
+        mTimer.execute(new ScheduledTimeout(task));
+    }
+
+    protected Thread newThread(ChannelKey key, int ops, String role) {
+        Thread thread = mThreadFactory.newThread(new ChannelRunner(key, ops));
+        // unique names, handlers may compare thread names like ReactorThread does
+        thread.setName(mName + "-" + role + "-" + mThreadCount.incrementAndGet());
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,100 @@
+package com.grb.reactor.test;
+
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorThread;
+
+/**
+ * Compares interest operation updates per second from foreign threads
+ * through the blocking request path and the queued asynchronous path.
+ * <p>
+ * Usage: OperationQueueBenchmark [numThreads] [updatesPerThread]
+ */
+public class OperationQueueBenchmark {
+
+    static public class NullHandler implements ClientReactorHandler {
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    static public double run(final ReactorThread reactor, final boolean async,
+            int numThreads, final int updatesPerThread) throws Exception {
+        final NullHandler handler = new NullHandler();
+        final Pipe.SourceChannel[] sources = new Pipe.SourceChannel[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            Pipe pipe = Pipe.open();
+            sources[i] = pipe.source();
+            sources[i].configureBlocking(false);
+            reactor.addOperation(sources[i], handler, 0);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            final Pipe.SourceChannel source = sources[i];
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < updatesPerThread; j += 2) {
+                            if (async) {
+                                reactor.addOperationAsync(source, handler, SelectionKey.OP_READ);
+                                reactor.removeOperationAsync(source, handler, SelectionKey.OP_READ);
+                            } else {
+                                reactor.addOperation(source, handler, SelectionKey.OP_READ);
+                                reactor.removeOperation(source, handler, SelectionKey.OP_READ);
+                            }
+                        }
+                    } catch(Exception e) {
+                        e.printStackTrace();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        // a blocking request completes after all the queued updates
+        reactor.removeOperation(sources[0], handler, SelectionKey.OP_READ);
+        long elapsed = System.nanoTime() - startTime;
+        for (int i = 0; i < numThreads; i++) {
+            sources[i].close();
+        }
+        return ((double)numThreads * updatesPerThread) / (elapsed / 1000000000.0);
+    }
+
+    public static void main(String[] args) {
+        int numThreads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int updatesPerThread = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+        try {
+            ReactorThread reactor = new ReactorThread("OperationQueueBenchmark");
+            reactor.startAsDaemon();
+            // warm up
+            run(reactor, false, numThreads, updatesPerThread / 10);
+            run(reactor, true, numThreads, updatesPerThread / 10);
+            double blocking = run(reactor, false, numThreads, updatesPerThread);
+            double async = run(reactor, true, numThreads, updatesPerThread);
+            System.out.println(String.format("threads=%d updates/thread=%d", numThreads, updatesPerThread));
+            System.out.println(String.format("blocking performRequest: %,.0f updates/s", blocking));
+            System.out.println(String.format("async operation queue:   %,.0f updates/s", async));
+            System.out.println(String.format("selector wakeups issued=%,d suppressed=%,d", 
+                    reactor.getWakeupCount(), reactor.getSuppressedWakeupCount()));
+            reactor.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.grb.reactor.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorThread;
+import com.grb.reactor.VirtualThreadReactor;
+import com.grb.util.stats.Histogram;
+
+/**
+ * Compares {@link ReactorThread} and {@link VirtualThreadReactor} delivering
+ * timestamped messages over many loopback connections. A sender thread
+ * writes one message to each connection in turn and the reactor's read
+ * handlers record the time from write to read.
+ * <p>
+ * Usage: ReactorEngineBenchmark [messagesPerConnection] [numConnections...]
+ */
+public class ReactorEngineBenchmark {
+
+    static public class TimestampReadHandler implements ClientReactorHandler {
+        private Histogram mHistogram;
+        private AtomicLong mReceived;
+        private ByteBuffer mBuffer = ByteBuffer.allocate(1024);
+
+        public TimestampReadHandler(Histogram histogram, AtomicLong received) {
+            mHistogram = histogram;
+            mReceived = received;
+        }
+
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+            try {
+                if (((SocketChannel)selKey.channel()).read(mBuffer) < 0) {
+                    selKey.cancel();
+                    return;
+                }
+            } catch(IOException e) {
+                selKey.cancel();
+                return;
+            }
+            long now = System.nanoTime();
+            mBuffer.flip();
+            while (mBuffer.remaining() >= 8) {
+                mHistogram.record(now - mBuffer.getLong());
+                mReceived.incrementAndGet();
+            }
+            mBuffer.compact();
+        }
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    static public void run(String engine, Reactor reactor, int numConnections, int messagesPerConnection) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), numConnections);
+        Histogram histogram = new Histogram();
+        AtomicLong received = new AtomicLong(0);
+        SocketChannel[] senders = new SocketChannel[numConnections];
+        SocketChannel[] receivers = new SocketChannel[numConnections];
+        for (int i = 0; i < numConnections; i++) {
+            senders[i] = SocketChannel.open(server.socket().getLocalSocketAddress());
+            senders[i].socket().setTcpNoDelay(true);
+            receivers[i] = server.accept();
+            receivers[i].configureBlocking(false);
+            reactor.addRead(receivers[i], new TimestampReadHandler(histogram, received));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+        long total = ((long)numConnections) * messagesPerConnection;
+        long start = System.nanoTime();
+        for (int round = 0; round < messagesPerConnection; round++) {
+            for (int i = 0; i < numConnections; i++) {
+                buffer.clear();
+                buffer.putLong(System.nanoTime());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    senders[i].write(buffer);
+                }
+            }
+        }
+        while (received.get() < total) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-8s connections=%-6d msgs/s=%,10.0f p50=%8.1fus p99=%8.1fus max=%8.1fus",
+                engine, numConnections, total / (elapsed / 1000000000.0),
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getMax() / 1000.0));
+
+        for (int i = 0; i < numConnections; i++) {
+            senders[i].close();
+            receivers[i].close();
+        }
+        server.close();
+    }
+
+    public static void main(String[] args) {
+        int messagesPerConnection = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int[] connections;
+        if (args.length > 1) {
+            connections = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                connections[i - 1] = Integer.parseInt(args[i]);
+            }
+        } else {
+            connections = new int[] {100, 1000, 10000};
+        }
+        try {
+            for (int i = 0; i < connections.length; i++) {
+                ReactorThread reactor = new ReactorThread("ReactorEngineBenchmark");
+                reactor.startAsDaemon();
+                run("reactor", reactor, connections[i], messagesPerConnection);
+                reactor.close();
+
+                VirtualThreadReactor virtualReactor = new VirtualThreadReactor("ReactorEngineBenchmark");
+                run(virtualReactor.isVirtual() ? "virtual" : "platform", virtualReactor,
+                        connections[i], messagesPerConnection);
+                virtualReactor.close();
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.grb.reactor.test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.LeastKeysSelectionStrategy;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorGroup;
+import com.grb.reactor.ReactorThread;
+
+public class ReactorGroupTest extends TestCase {
+
+    public class ReadHandler implements ClientReactorHandler {
+        public CountDownLatch latch = new CountDownLatch(1);
+        public Reactor reactor;
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+            this.reactor = reactor;
+            try {
+                ((Pipe.SourceChannel)selKey.channel()).read(ByteBuffer.allocate(16));
+            } catch(Exception e) {
+                selKey.cancel();
+            }
+            latch.countDown();
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+    }
+
+    private Pipe newPipe() throws Exception {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        return pipe;
+    }
+
+    public void testRoundRobinAffinity() {
+        ReactorGroup group = null;
+        try {
+            group = new ReactorGroup(3);
+            group.startAsDaemon();
+            Pipe[] pipes = new Pipe[6];
+            ReadHandler[] handlers = new ReadHandler[pipes.length];
+            for (int i = 0; i < pipes.length; i++) {
+                pipes[i] = newPipe();
+                handlers[i] = new ReadHandler();
+                group.addRead(pipes[i].source(), handlers[i]);
+            }
+            for (int i = 0; i < pipes.length; i++) {
+                ReactorThread owner = group.getReactor(pipes[i].source());
+                assertSame(group.getReactors()[i % 3], owner);
+                // further operations stay on the same loop
+                group.removeRead(pipes[i].source(), handlers[i]);
+                group.addRead(pipes[i].source(), handlers[i]);
+                assertSame(owner, group.getReactor(pipes[i].source()));
+                assertNotNull(pipes[i].source().keyFor(owner.getSelector()));
+            }
+            for (int i = 0; i < pipes.length; i++) {
+                pipes[i].sink().write(ByteBuffer.wrap(new byte[] {1}));
+                assertTrue(handlers[i].latch.await(5, TimeUnit.SECONDS));
+                assertSame(group.getReactor(pipes[i].source()), handlers[i].reactor);
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (group != null) {
+                group.close();
+            }
+        }
+    }
+
+    public void testAssignExcluding() {
+        ReactorGroup group = null;
+        try {
+            group = new ReactorGroup(2);
+            group.startAsDaemon();
+            ReactorThread acceptor = group.getReactors()[0];
+            for (int i = 0; i < 4; i++) {
+                Pipe pipe = newPipe();
+                assertSame(group.getReactors()[1], group.assign(pipe.source(), acceptor));
+                group.addRead(pipe.source(), new ReadHandler());
+                assertSame(group.getReactors()[1], group.getReactor(pipe.source()));
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (group != null) {
+                group.close();
+            }
+        }
+    }
+
+    public void testLeastKeys() {
+        ReactorGroup group = null;
+        try {
+            group = new ReactorGroup(2, new LeastKeysSelectionStrategy());
+            group.startAsDaemon();
+            for (int i = 0; i < 3; i++) {
+                group.getReactors()[0].addRead(newPipe().source(), new ReadHandler());
+            }
+            Pipe pipe = newPipe();
+            group.addRead(pipe.source(), new ReadHandler());
+            assertSame(group.getReactors()[1], group.getReactor(pipe.source()));
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (group != null) {
+                group.close();
+            }
+        }
+    }
+
+    public void testScheduleOnOwner() {
+        ReactorGroup group = null;
+        try {
+            group = new ReactorGroup(3);
+            group.startAsDaemon();
+            Pipe[] pipes = new Pipe[3];
+            for (int i = 0; i < pipes.length; i++) {
+                pipes[i] = newPipe();
+                group.addRead(pipes[i].source(), new ReadHandler());
+            }
+            for (int i = 0; i < pipes.length; i++) {
+                final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+                final CountDownLatch ran = new CountDownLatch(1);
+                group.schedule(pipes[i].source(), 10, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        ranOn.set(Thread.currentThread());
+                        ran.countDown();
+                    }
+                });
+                assertTrue(ran.await(5, TimeUnit.SECONDS));
+                assertSame(group.getReactor(pipes[i].source()).getThread(), ranOn.get());
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (group != null) {
+                group.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package com.grb.reactor.test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorMetrics;
+import com.grb.reactor.ReactorThread;
+import com.grb.reactor.ReactorTimeout;
+import com.grb.reactor.ReactorWaitStrategy;
+import com.grb.reactor.SelectedKeySet;
+
+public class ReactorThreadTest extends TestCase {
+
+    public class NullHandler implements ClientReactorHandler {
+        public volatile Throwable exception;
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+            exception = t;
+        }
+    }
+
+    public class BlockingReadHandler extends NullHandler {
+        public CountDownLatch entered = new CountDownLatch(1);
+        public CountDownLatch release = new CountDownLatch(1);
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+            try {
+                ((Pipe.SourceChannel)selKey.channel()).read(ByteBuffer.allocate(16));
+                entered.countDown();
+                release.await();
+            } catch(Exception e) {
+                exception = e;
+            }
+        }
+    }
+
+    private Pipe.SourceChannel newSource() throws Exception {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        return pipe.source();
+    }
+
+    public void testOperationAsync() {
+        ReactorThread reactor = null;
+        try {
+            reactor = new ReactorThread("testOperationAsync");
+            reactor.startAsDaemon();
+            Pipe.SourceChannel source = newSource();
+            NullHandler handler = new NullHandler();
+            reactor.addOperationAsync(source, handler, SelectionKey.OP_READ);
+            // a blocking request is performed after the queued updates
+            reactor.removeConnect(source, handler);
+            SelectionKey selKey = source.keyFor(reactor.getSelector());
+            assertNotNull(selKey);
+            assertEquals(SelectionKey.OP_READ, selKey.interestOps());
+            assertSame(handler, selKey.attachment());
+            reactor.removeOperationAsync(source, handler, SelectionKey.OP_READ);
+            reactor.removeConnect(source, handler);
+            assertEquals(0, selKey.interestOps());
+            assertNull(handler.exception);
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testOperationAsyncQueueFull() {
+        ReactorThread reactor = null;
+        try {
+            final ReactorThread r = reactor = new ReactorThread("testOperationAsyncQueueFull", 2);
+            reactor.startAsDaemon();
+            final int numThreads = 4;
+            final Pipe.SourceChannel[] sources = new Pipe.SourceChannel[numThreads];
+            final NullHandler handler = new NullHandler();
+            final CountDownLatch done = new CountDownLatch(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                sources[i] = newSource();
+                final Pipe.SourceChannel source = sources[i];
+                new Thread() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 1000; j++) {
+                                r.addOperationAsync(source, handler, SelectionKey.OP_READ);
+                                r.removeOperationAsync(source, handler, SelectionKey.OP_READ);
+                            }
+                            r.addOperationAsync(source, handler, SelectionKey.OP_READ);
+                        } catch(Exception e) {
+                            handler.exception = e;
+                        }
+                        done.countDown();
+                    }
+                }.start();
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            reactor.removeConnect(sources[0], handler);
+            for (int i = 0; i < numThreads; i++) {
+                assertEquals(SelectionKey.OP_READ, sources[i].keyFor(reactor.getSelector()).interestOps());
+            }
+            assertNull(handler.exception);
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testOperationAsyncClosed() {
+        ReactorThread reactor = null;
+        try {
+            reactor = new ReactorThread("testOperationAsyncClosed");
+            reactor.startAsDaemon();
+            Pipe.SourceChannel source = newSource();
+            source.close();
+            try {
+                reactor.addOperationAsync(source, new NullHandler(), SelectionKey.OP_READ);
+                fail("should throw");
+            } catch(ClosedChannelException e) {
+                // ok
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testCoalescedWakeups() {
+        ReactorThread reactor = null;
+        try {
+            reactor = new ReactorThread("testCoalescedWakeups");
+            reactor.startAsDaemon();
+            Pipe pipe = Pipe.open();
+            pipe.source().configureBlocking(false);
+            BlockingReadHandler blocker = new BlockingReadHandler();
+            reactor.addRead(pipe.source(), blocker);
+            long issued = reactor.getWakeupCount();
+            long suppressed = reactor.getSuppressedWakeupCount();
+
+            // keep the reactor thread busy in a handler
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+            assertTrue(blocker.entered.await(5, TimeUnit.SECONDS));
+            Pipe.SourceChannel source = newSource();
+            NullHandler handler = new NullHandler();
+            for (int i = 0; i < 10; i++) {
+                reactor.addOperationAsync(source, handler, SelectionKey.OP_READ);
+                reactor.removeOperationAsync(source, handler, SelectionKey.OP_READ);
+            }
+            // the reactor is awake, no wakeups are needed
+            assertEquals(issued, reactor.getWakeupCount());
+            assertEquals(suppressed + 20, reactor.getSuppressedWakeupCount());
+            blocker.release.countDown();
+
+            // the queued updates are performed once the handler returns
+            reactor.removeConnect(source, handler);
+            assertEquals(0, source.keyFor(reactor.getSelector()).interestOps());
+            assertNull(handler.exception);
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testWaitStrategies() {
+        ReactorWaitStrategy[] strategies = ReactorWaitStrategy.values();
+        for (int i = 0; i < strategies.length; i++) {
+            ReactorThread reactor = null;
+            try {
+                reactor = new ReactorThread("testWaitStrategies-" + strategies[i]);
+                reactor.setWaitStrategy(strategies[i]);
+                reactor.setSpinBudget(100);
+                reactor.startAsDaemon();
+                Pipe pipe = Pipe.open();
+                pipe.source().configureBlocking(false);
+                BlockingReadHandler handler = new BlockingReadHandler();
+                handler.release.countDown();
+                reactor.addRead(pipe.source(), handler);
+                pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+                assertTrue(strategies[i].toString(), handler.entered.await(5, TimeUnit.SECONDS));
+
+                Pipe.SourceChannel source = newSource();
+                NullHandler nullHandler = new NullHandler();
+                reactor.addOperationAsync(source, nullHandler, SelectionKey.OP_READ);
+                reactor.removeConnect(source, nullHandler);
+                assertEquals(SelectionKey.OP_READ, source.keyFor(reactor.getSelector()).interestOps());
+                assertNull(handler.exception);
+            } catch(Exception e) {
+                e.printStackTrace();
+                fail(e.getMessage());
+            } finally {
+                if (reactor != null) {
+                    reactor.close();
+                }
+            }
+        }
+    }
+
+    public void testSelectedKeySet() {
+        SelectedKeySet keySet = new SelectedKeySet(2);
+        try {
+            Pipe.SourceChannel[] sources = new Pipe.SourceChannel[3];
+            Selector selector = Selector.open();
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = newSource();
+                assertTrue(keySet.add(sources[i].register(selector, SelectionKey.OP_READ)));
+            }
+            assertEquals(3, keySet.size());
+            assertSame(sources[2], keySet.get(2).channel());
+            int count = 0;
+            for (SelectionKey key : keySet) {
+                assertSame(sources[count++], key.channel());
+            }
+            assertEquals(3, count);
+            keySet.clear();
+            assertEquals(0, keySet.size());
+            assertFalse(keySet.iterator().hasNext());
+            selector.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testSelectedKeySetCarried() {
+        SelectedKeySet keySet = new SelectedKeySet(2);
+        try {
+            SelectionKey[] keys = new SelectionKey[3];
+            Selector selector = Selector.open();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = newSource().register(selector, SelectionKey.OP_READ);
+                keySet.add(keys[i]);
+            }
+            // only keys carried over from a previous select are found
+            assertFalse(keySet.contains(keys[0]));
+            keySet.removeFirst(1);
+            assertEquals(2, keySet.size());
+            assertSame(keys[1], keySet.get(0));
+            assertFalse(keySet.contains(keys[0]));
+            assertTrue(keySet.contains(keys[1]));
+            assertTrue(keySet.contains(keys[2]));
+            keySet.removeFirst(1);
+            assertFalse(keySet.contains(keys[1]));
+            assertTrue(keySet.contains(keys[2]));
+            keySet.clear();
+            assertFalse(keySet.contains(keys[2]));
+            selector.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testOptimizeSelectedKeys() {
+        ReactorThread reactor = null;
+        try {
+            reactor = new ReactorThread("testOptimizeSelectedKeys");
+            // the JDK may refuse access to the selector, either way events are dispatched
+            boolean optimized = reactor.optimizeSelectedKeys();
+            assertEquals(optimized, reactor.isSelectedKeysOptimized());
+            reactor.startAsDaemon();
+            try {
+                reactor.optimizeSelectedKeys();
+                fail("optimized a running reactor");
+            } catch(IllegalStateException e) {
+            }
+            for (int round = 0; round < 3; round++) {
+                BlockingReadHandler[] handlers = new BlockingReadHandler[4];
+                for (int i = 0; i < handlers.length; i++) {
+                    Pipe pipe = Pipe.open();
+                    pipe.source().configureBlocking(false);
+                    handlers[i] = new BlockingReadHandler();
+                    handlers[i].release.countDown();
+                    reactor.addRead(pipe.source(), handlers[i]);
+                    pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+                }
+                for (int i = 0; i < handlers.length; i++) {
+                    assertTrue(handlers[i].entered.await(5, TimeUnit.SECONDS));
+                    assertNull(handlers[i].exception);
+                }
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testOperationUpdateInPlace() {
+        ReactorThread reactor = null;
+        try {
+            reactor = new ReactorThread("testOperationUpdateInPlace");
+            reactor.startAsDaemon();
+            SocketChannel source = SocketChannel.open();
+            source.configureBlocking(false);
+            NullHandler handler = new NullHandler();
+            reactor.addRead(source, handler);
+            SelectionKey selKey = source.keyFor(reactor.getSelector());
+            assertEquals(SelectionKey.OP_READ, selKey.interestOps());
+            assertSame(handler, selKey.attachment());
+
+            reactor.addRead(source, handler);
+            reactor.addOperation(source, handler, SelectionKey.OP_WRITE);
+            assertSame(selKey, source.keyFor(reactor.getSelector()));
+            assertEquals(SelectionKey.OP_READ | SelectionKey.OP_WRITE, selKey.interestOps());
+
+            reactor.removeOperation(source, handler, SelectionKey.OP_WRITE);
+            reactor.removeOperation(source, handler, SelectionKey.OP_WRITE);
+            assertEquals(SelectionKey.OP_READ, selKey.interestOps());
+
+            NullHandler other = new NullHandler();
+            reactor.removeRead(source, other);
+            assertEquals(0, selKey.interestOps());
+            assertSame(other, selKey.attachment());
+
+            source.close();
+            try {
+                reactor.addRead(source, handler);
+                fail("added operation to closed channel");
+            } catch(ClosedChannelException e) {
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testSchedule() {
+        ReactorWaitStrategy[] strategies = ReactorWaitStrategy.values();
+        for (int i = 0; i < strategies.length; i++) {
+            ReactorThread reactor = null;
+            try {
+                reactor = new ReactorThread("testSchedule-" + strategies[i]);
+                reactor.setWaitStrategy(strategies[i]);
+                reactor.setSpinBudget(100);
+                reactor.startAsDaemon();
+                final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+                final CountDownLatch ran = new CountDownLatch(1);
+                final CountDownLatch cancelledRan = new CountDownLatch(1);
+                // a later deadline first, so the reactor blocks with a long select timeout
+                ReactorTimeout late = reactor.schedule(10, TimeUnit.SECONDS, new Runnable() {
+                    public void run() {
+                        cancelledRan.countDown();
+                    }
+                });
+                Thread.sleep(50);
+                long start = System.nanoTime();
+                ReactorTimeout early = reactor.schedule(50, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        ranOn.set(Thread.currentThread());
+                        ran.countDown();
+                    }
+                });
+                assertTrue(strategies[i].toString(), ran.await(5, TimeUnit.SECONDS));
+                long elapsed = System.nanoTime() - start;
+                assertTrue(strategies[i] + " ran early: " + elapsed, elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+                assertTrue(strategies[i] + " ran late: " + elapsed, elapsed < TimeUnit.SECONDS.toNanos(5));
+                assertSame(reactor.getThread(), ranOn.get());
+                assertTrue(early.isExpired());
+                assertTrue(late.cancel());
+                assertFalse(cancelledRan.await(100, TimeUnit.MILLISECONDS));
+            } catch(Exception e) {
+                e.printStackTrace();
+                fail(e.getMessage());
+            } finally {
+                if (reactor != null) {
+                    reactor.close();
+                }
+            }
+        }
+    }
+
+    public void testExecute() {
+        ReactorThread reactor = null;
+        try {
+            reactor = new ReactorThread("testExecute");
+            reactor.startAsDaemon();
+            final StringBuffer order = new StringBuffer();
+            final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+            final CountDownLatch done = new CountDownLatch(1);
+            for (int i = 0; i < 5; i++) {
+                final int index = i;
+                reactor.execute(new Runnable() {
+                    public void run() {
+                        order.append(index);
+                        if (index == 2) {
+                            throw new RuntimeException("task failure is logged");
+                        }
+                    }
+                });
+            }
+            reactor.execute(new Runnable() {
+                public void run() {
+                    ranOn.set(Thread.currentThread());
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals("01234", order.toString());
+            assertSame(reactor.getThread(), ranOn.get());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    public void testIterationBudgets() {
+        for (int optimize = 0; optimize < 2; optimize++) {
+            ReactorThread reactor = null;
+            final AtomicBoolean stop = new AtomicBoolean(false);
+            try {
+                reactor = new ReactorThread("testIterationBudgets-" + optimize);
+                if (optimize == 1) {
+                    reactor.optimizeSelectedKeys();
+                }
+                reactor.setMaxKeysPerIteration(1);
+                reactor.setMaxTasksPerIteration(2);
+                reactor.startAsDaemon();
+                // a task that keeps requeuing itself must not starve the channels
+                final ReactorThread loop = reactor;
+                reactor.execute(new Runnable() {
+                    public void run() {
+                        if (!stop.get()) {
+                            loop.execute(this);
+                        }
+                    }
+                });
+                BlockingReadHandler[] handlers = new BlockingReadHandler[4];
+                Pipe[] pipes = new Pipe[handlers.length];
+                for (int i = 0; i < handlers.length; i++) {
+                    pipes[i] = Pipe.open();
+                    pipes[i].source().configureBlocking(false);
+                    handlers[i] = new BlockingReadHandler();
+                    handlers[i].release.countDown();
+                    reactor.addRead(pipes[i].source(), handlers[i]);
+                }
+                for (int i = 0; i < handlers.length; i++) {
+                    pipes[i].sink().write(ByteBuffer.wrap(new byte[] {1}));
+                }
+                for (int i = 0; i < handlers.length; i++) {
+                    assertTrue(handlers[i].entered.await(5, TimeUnit.SECONDS));
+                    assertNull(handlers[i].exception);
+                }
+            } catch(Exception e) {
+                e.printStackTrace();
+                fail(e.getMessage());
+            } finally {
+                stop.set(true);
+                if (reactor != null) {
+                    reactor.close();
+                }
+            }
+        }
+    }
+
+    public void testMetrics() {
+        ReactorThread reactor = null;
+        ReactorMetrics metrics = new ReactorMetrics();
+        try {
+            reactor = new ReactorThread("testMetrics");
+            metrics.setSlowHandlerThreshold(1, TimeUnit.MILLISECONDS);
+            reactor.setMetricsSink(metrics);
+            metrics.register(reactor.toString());
+            reactor.startAsDaemon();
+            Pipe pipe = Pipe.open();
+            pipe.source().configureBlocking(false);
+            BlockingReadHandler handler = new BlockingReadHandler() {
+                public void handleRead(Reactor reactor, SelectionKey selKey) {
+                    try {
+                        Thread.sleep(5);
+                    } catch(InterruptedException e) {
+                    }
+                    super.handleRead(reactor, selKey);
+                }
+            };
+            handler.release.countDown();
+            reactor.addRead(pipe.source(), handler);
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+            assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            // a request completes after the pass that ran the handler
+            reactor.removeRead(pipe.source(), handler);
+
+            assertTrue(metrics.getSelectCount() > 0);
+            assertTrue(metrics.getSelectedKeyCount() > 0);
+            assertEquals(1, metrics.getHandlerCount());
+            assertEquals(1, metrics.getSlowHandlerCount());
+            assertEquals(1, metrics.getHandlerTimeHistogram(SelectionKey.OP_READ).getCount());
+            assertTrue(metrics.getHandlerTimeHistogram(SelectionKey.OP_READ).getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+            assertTrue(metrics.getIterationCount() > 0);
+            assertEquals(Long.valueOf(1), ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    metrics.getObjectName(), "SlowHandlerCount"));
+
+            reactor.setMetricsSink(null);
+            reactor.addRead(pipe.source(), handler);
+            long handlerCount = metrics.getHandlerCount();
+            handler.entered = new CountDownLatch(1);
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+            assertTrue(handler.entered.await(5, TimeUnit.SECONDS));
+            assertEquals(handlerCount, metrics.getHandlerCount());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            try {
+                metrics.unregister();
+            } catch(Exception e) {
+            }
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.grb.reactor.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorThread;
+
+/**
+ * Compares the bytes allocated by the reactor thread per dispatched event
+ * with the default selected key set and with the array backed
+ * {@link com.grb.reactor.SelectedKeySet}, over many loopback connections.
+ * <p>
+ * Usage: SelectedKeysBenchmark [numConnections] [numRounds]
+ * <p>
+ * On JDK 9 and later the optimized run needs
+ * --add-opens java.base/sun.nio.ch=ALL-UNNAMED, otherwise both runs use the
+ * default key set.
+ */
+public class SelectedKeysBenchmark {
+
+    static public class DiscardReadHandler implements ClientReactorHandler {
+        public AtomicLong events = new AtomicLong(0);
+        public volatile Thread reactorThread;
+        private ByteBuffer mBuffer = ByteBuffer.allocateDirect(1024);
+
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+            reactorThread = Thread.currentThread();
+            try {
+                mBuffer.clear();
+                if (((SocketChannel)selKey.channel()).read(mBuffer) < 0) {
+                    selKey.cancel();
+                }
+            } catch(IOException e) {
+                selKey.cancel();
+            }
+            events.incrementAndGet();
+        }
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    static public long threadAllocatedBytes(Thread thread) {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(thread.getId());
+    }
+
+    /**
+     * @return Bytes allocated by the reactor thread per event.
+     */
+    static public double run(boolean optimize, int numConnections, int numRounds) throws Exception {
+        ReactorThread reactor = new ReactorThread("SelectedKeysBenchmark");
+        boolean optimized = optimize && reactor.optimizeSelectedKeys();
+        reactor.startAsDaemon();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), numConnections);
+        DiscardReadHandler handler = new DiscardReadHandler();
+        SocketChannel[] senders = new SocketChannel[numConnections];
+        SocketChannel[] receivers = new SocketChannel[numConnections];
+        for (int i = 0; i < numConnections; i++) {
+            senders[i] = SocketChannel.open(server.socket().getLocalSocketAddress());
+            receivers[i] = server.accept();
+            receivers[i].configureBlocking(false);
+            reactor.addRead(receivers[i], handler);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1);
+        long startBytes = 0;
+        long startEvents = 0;
+        for (int round = 0; round <= numRounds; round++) {
+            if (round == 1) {
+                // first round warms up the handler and captures the thread
+                startBytes = threadAllocatedBytes(handler.reactorThread);
+                startEvents = handler.events.get();
+            }
+            long target = handler.events.get() + numConnections;
+            for (int i = 0; i < numConnections; i++) {
+                buffer.clear();
+                senders[i].write(buffer);
+            }
+            while (handler.events.get() < target) {
+                Thread.yield();
+            }
+        }
+        long bytes = threadAllocatedBytes(handler.reactorThread) - startBytes;
+        long events = handler.events.get() - startEvents;
+        System.out.println(String.format("%-9s keys=%d events=%,d allocated=%,d bytes (%.1f bytes/event)",
+                optimized ? "array" : "hashset", numConnections, events, bytes, ((double)bytes) / events));
+
+        for (int i = 0; i < numConnections; i++) {
+            senders[i].close();
+            receivers[i].close();
+        }
+        server.close();
+        reactor.close();
+        return ((double)bytes) / events;
+    }
+
+    public static void main(String[] args) {
+        int numConnections = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int numRounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        try {
+            run(false, numConnections, numRounds);
+            run(true, numConnections, numRounds);
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
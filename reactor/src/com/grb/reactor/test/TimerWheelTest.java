@@ -0,0 +1,142 @@
+package com.grb.reactor.test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.grb.reactor.ReactorTimeout;
+import com.grb.reactor.TimerWheel;
+
+public class TimerWheelTest extends TestCase {
+
+    public class RecordingTask implements Runnable {
+        public ArrayList<String> runs;
+        public String name;
+        public RecordingTask(ArrayList<String> runs, String name) {
+            this.runs = runs;
+            this.name = name;
+        }
+        public void run() {
+            runs.add(name);
+        }
+    }
+
+    public void testExpireInDeadlineOrder() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 64);
+        ArrayList<String> runs = new ArrayList<String>();
+        long start = System.nanoTime();
+        ReactorTimeout t200 = wheel.schedule(200, TimeUnit.MILLISECONDS, new RecordingTask(runs, "200"));
+        ReactorTimeout t5 = wheel.schedule(5, TimeUnit.MILLISECONDS, new RecordingTask(runs, "5"));
+        // beyond one revolution of the wheel
+        ReactorTimeout t100 = wheel.schedule(100, TimeUnit.MILLISECONDS, new RecordingTask(runs, "100"));
+        assertEquals(3, wheel.size());
+
+        assertEquals(0, wheel.expireTimeouts(start));
+        long next = wheel.nextTimeoutNanos(start);
+        assertTrue(next >= (wheel.getDeadline(t5) - start));
+        assertTrue(next <= (wheel.getDeadline(t5) - start + TimeUnit.MILLISECONDS.toNanos(1)));
+
+        long oneTick = TimeUnit.MILLISECONDS.toNanos(1);
+        assertEquals(1, wheel.expireTimeouts(wheel.getDeadline(t5) + oneTick));
+        assertEquals("5", runs.get(0));
+        assertEquals(1, wheel.expireTimeouts(wheel.getDeadline(t100) + oneTick));
+        assertEquals("100", runs.get(1));
+        // long gap, every bucket visited once
+        long end = wheel.getDeadline(t200) + TimeUnit.MILLISECONDS.toNanos(100);
+        assertEquals(1, wheel.expireTimeouts(end));
+        assertEquals("200", runs.get(2));
+        assertEquals(0, wheel.size());
+        assertEquals(-1, wheel.nextTimeoutNanos(end));
+    }
+
+    public void testCancel() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 8);
+        ArrayList<String> runs = new ArrayList<String>();
+        long start = System.nanoTime();
+        ReactorTimeout pending = wheel.schedule(2, TimeUnit.MILLISECONDS, new RecordingTask(runs, "pending"));
+        ReactorTimeout queued = wheel.schedule(3, TimeUnit.MILLISECONDS, new RecordingTask(runs, "queued"));
+        ReactorTimeout kept = wheel.schedule(4, TimeUnit.MILLISECONDS, new RecordingTask(runs, "kept"));
+        assertTrue(pending.cancel());
+        assertFalse(pending.cancel());
+        assertTrue(pending.isCancelled());
+        // move the others into the wheel before cancelling
+        wheel.nextTimeoutNanos(start);
+        assertTrue(queued.cancel());
+
+        assertEquals(1, wheel.expireTimeouts(wheel.getDeadline(kept) + TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(1, runs.size());
+        assertEquals("kept", runs.get(0));
+        assertTrue(kept.isExpired());
+        assertFalse(kept.cancel());
+        assertFalse(queued.isExpired());
+        assertEquals(0, wheel.size());
+    }
+
+    public void testNeverEarly() {
+        TimerWheel wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 4);
+        ArrayList<String> runs = new ArrayList<String>();
+        ReactorTimeout timeout = wheel.schedule(15, TimeUnit.MILLISECONDS, new RecordingTask(runs, "15"));
+        long deadline = wheel.getDeadline(timeout);
+        assertEquals(0, wheel.expireTimeouts(deadline - 1));
+        assertTrue(wheel.nextTimeoutNanos(deadline - 1) >= 1);
+        assertEquals(1, wheel.expireTimeouts(deadline + TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+
+    public void testClear() {
+        TimerWheel wheel = new TimerWheel();
+        ArrayList<String> runs = new ArrayList<String>();
+        ReactorTimeout first = wheel.schedule(0, TimeUnit.MILLISECONDS, new RecordingTask(runs, "first"));
+        wheel.nextTimeoutNanos(System.nanoTime());
+        ReactorTimeout second = wheel.schedule(0, TimeUnit.MILLISECONDS, new RecordingTask(runs, "second"));
+        wheel.clear();
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.expireTimeouts(System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(0, runs.size());
+    }
+
+    public void testCancelUnlinks() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 64);
+        ArrayList<String> runs = new ArrayList<String>();
+        long start = System.nanoTime();
+        ReactorTimeout cancelled = wheel.schedule(5, TimeUnit.MILLISECONDS, new RecordingTask(runs, "cancelled"));
+        ReactorTimeout kept = wheel.schedule(20, TimeUnit.MILLISECONDS, new RecordingTask(runs, "kept"));
+        wheel.nextTimeoutNanos(start);
+        assertEquals(2, wheel.size());
+        assertTrue(cancelled.cancel());
+        // unlinked on the next pass rather than when its bucket comes round
+        long next = wheel.nextTimeoutNanos(start);
+        assertEquals(1, wheel.size());
+        assertTrue(next >= (wheel.getDeadline(kept) - start));
+        assertTrue(kept.cancel());
+        assertEquals(-1, wheel.nextTimeoutNanos(start));
+        assertEquals(0, wheel.size());
+        assertEquals(0, runs.size());
+    }
+
+    public void testBeyondOneRevolution() {
+        TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 64);
+        ArrayList<String> runs = new ArrayList<String>();
+        long start = System.nanoTime();
+        ReactorTimeout first = wheel.schedule(100, TimeUnit.MILLISECONDS, new RecordingTask(runs, "100"));
+        ReactorTimeout last = null;
+        for(int i = 0; i < 1000; i++) {
+            last = wheel.schedule(100, TimeUnit.MILLISECONDS, new RecordingTask(runs, "100"));
+        }
+        long deadline = wheel.getDeadline(first);
+        long next = wheel.nextTimeoutNanos(start);
+        long oneTick = TimeUnit.MILLISECONDS.toNanos(1);
+        assertTrue(next >= (deadline - start));
+        assertTrue(next <= (deadline - start + oneTick));
+        // the bucket comes round in the first revolution and is kept
+        long firstRevolution = start + TimeUnit.MILLISECONDS.toNanos(64);
+        assertEquals(0, wheel.expireTimeouts(firstRevolution));
+        next = wheel.nextTimeoutNanos(firstRevolution);
+        assertTrue(next >= (deadline - firstRevolution));
+        assertTrue(next <= (deadline - firstRevolution + oneTick));
+        assertEquals(1001, wheel.expireTimeouts(wheel.getDeadline(last) + oneTick));
+        assertEquals(1001, runs.size());
+    }
+}
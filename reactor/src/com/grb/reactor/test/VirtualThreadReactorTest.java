@@ -0,0 +1,166 @@
+package com.grb.reactor.test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorTimeout;
+import com.grb.reactor.VirtualThreadReactor;
+
+public class VirtualThreadReactorTest extends TestCase {
+
+    public class ReadHandler implements ClientReactorHandler {
+        public CountDownLatch read = new CountDownLatch(1);
+        public CountDownLatch closed = new CountDownLatch(1);
+        public volatile int numRead = 0;
+        public volatile Reactor reactor;
+        public volatile Throwable exception;
+        public boolean cancelOnRead = false;
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+            this.reactor = reactor;
+            try {
+                numRead += ((Pipe.SourceChannel)selKey.channel()).read(ByteBuffer.allocate(16));
+            } catch(Exception e) {
+                exception = e;
+                selKey.cancel();
+            }
+            if (cancelOnRead) {
+                selKey.cancel();
+            }
+            read.countDown();
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+            closed.countDown();
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+            exception = t;
+        }
+    }
+
+    public void testRead() {
+        VirtualThreadReactor reactor = new VirtualThreadReactor("testRead");
+        try {
+            Pipe pipe = Pipe.open();
+            pipe.source().configureBlocking(false);
+            ReadHandler handler = new ReadHandler();
+            reactor.addRead(pipe.source(), handler);
+            assertTrue(pipe.source().isBlocking());
+            assertEquals(1, reactor.size());
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+            assertTrue(handler.read.await(5, TimeUnit.SECONDS));
+            assertEquals(3, handler.numRead);
+            assertSame(reactor, handler.reactor);
+            assertNull(handler.exception);
+
+            // closing the channel ends the read and closes the key
+            pipe.source().close();
+            assertTrue(handler.closed.await(5, TimeUnit.SECONDS));
+            assertEquals(0, reactor.size());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            reactor.close();
+        }
+    }
+
+    public void testCancel() {
+        VirtualThreadReactor reactor = new VirtualThreadReactor("testCancel");
+        try {
+            Pipe pipe = Pipe.open();
+            ReadHandler handler = new ReadHandler();
+            handler.cancelOnRead = true;
+            reactor.addRead(pipe.source(), handler);
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+            assertTrue(handler.closed.await(5, TimeUnit.SECONDS));
+            assertEquals(0, reactor.size());
+            // the channel can be registered again
+            handler = new ReadHandler();
+            reactor.addRead(pipe.source(), handler);
+            pipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+            assertTrue(handler.read.await(5, TimeUnit.SECONDS));
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            reactor.close();
+        }
+    }
+
+    public void testScheduleAndExecute() {
+        VirtualThreadReactor reactor = new VirtualThreadReactor("testScheduleAndExecute");
+        try {
+            final CountDownLatch ran = new CountDownLatch(2);
+            final CountDownLatch cancelledRan = new CountDownLatch(1);
+            ReactorTimeout timeout = reactor.schedule(20, TimeUnit.MILLISECONDS, new Runnable() {
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            ReactorTimeout cancelled = reactor.schedule(100, TimeUnit.MILLISECONDS, new Runnable() {
+                public void run() {
+                    cancelledRan.countDown();
+                }
+            });
+            assertTrue(cancelled.cancel());
+            reactor.execute(new Runnable() {
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertTrue(timeout.isExpired());
+            assertTrue(cancelled.isCancelled());
+            assertFalse(cancelledRan.await(200, TimeUnit.MILLISECONDS));
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            reactor.close();
+        }
+    }
+
+    public void testExecuteInOrderOnOneThread() {
+        VirtualThreadReactor reactor = new VirtualThreadReactor("testExecuteInOrderOnOneThread");
+        try {
+            final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+            final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+            final CountDownLatch ran = new CountDownLatch(100);
+            for(int i = 0; i < 100; i++) {
+                final int index = i;
+                reactor.execute(new Runnable() {
+                    public void run() {
+                        order.add(index);
+                        threads.add(Thread.currentThread());
+                        ran.countDown();
+                    }
+                });
+            }
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            assertEquals(1, threads.size());
+            for(int i = 0; i < 100; i++) {
+                assertEquals(i, order.get(i).intValue());
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            reactor.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.grb.reactor.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.grb.reactor.ClientReactorHandler;
+import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorThread;
+import com.grb.reactor.ReactorWaitStrategy;
+import com.grb.util.stats.Histogram;
+
+/**
+ * Measures the time from a timestamped write on a loopback socket to the
+ * read handler being called, for each reactor wait strategy.
+ * <p>
+ * Usage: WaitStrategyBenchmark [numMessages] [pauseMicros] [spinBudget]
+ */
+public class WaitStrategyBenchmark {
+
+    static public class TimestampReadHandler implements ClientReactorHandler {
+        public Histogram histogram = new Histogram();
+        public AtomicLong received = new AtomicLong(0);
+        private ByteBuffer mBuffer = ByteBuffer.allocateDirect(8 * 1024);
+
+        public void handleRead(Reactor reactor, SelectionKey selKey) {
+            long now = System.nanoTime();
+            try {
+                if (((SocketChannel)selKey.channel()).read(mBuffer) < 0) {
+                    selKey.cancel();
+                    return;
+                }
+            } catch(IOException e) {
+                selKey.cancel();
+                return;
+            }
+            mBuffer.flip();
+            while (mBuffer.remaining() >= 8) {
+                histogram.record(now - mBuffer.getLong());
+                received.incrementAndGet();
+            }
+            mBuffer.compact();
+        }
+        public void handleConnect(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleWrite(Reactor reactor, SelectionKey selKey) {
+        }
+        public void handleClose(Reactor reactor, SelectionKey selKey, Throwable t) {
+        }
+        public void handleException(Reactor reactor, SelectionKey selKey, Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    static public Histogram run(ReactorWaitStrategy strategy, int spinBudget,
+            int numMessages, long pauseNanos) throws Exception {
+        ReactorThread reactor = new ReactorThread("WaitStrategyBenchmark-" + strategy);
+        reactor.setWaitStrategy(strategy);
+        reactor.setSpinBudget(spinBudget);
+        reactor.startAsDaemon();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        SocketChannel sender = SocketChannel.open(server.socket().getLocalSocketAddress());
+        sender.socket().setTcpNoDelay(true);
+        SocketChannel receiver = server.accept();
+        receiver.configureBlocking(false);
+        TimestampReadHandler handler = new TimestampReadHandler();
+        reactor.addRead(receiver, handler);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+        for (int i = 0; i < numMessages; i++) {
+            buffer.clear();
+            buffer.putLong(System.nanoTime());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                sender.write(buffer);
+            }
+            // wait for delivery so each message measures an idle reactor
+            while (handler.received.get() <= i) {
+                Thread.yield();
+            }
+            if (pauseNanos > 0) {
+                LockSupport.parkNanos(pauseNanos);
+            }
+        }
+        sender.close();
+        receiver.close();
+        server.close();
+        reactor.close();
+        return handler.histogram;
+    }
+
+    public static void main(String[] args) {
+        int numMessages = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        long pauseNanos = ((args.length > 1) ? Long.parseLong(args[1]) : 50) * 1000;
+        int spinBudget = (args.length > 2) ? Integer.parseInt(args[2]) : ReactorThread.DefaultSpinBudget;
+        try {
+            ReactorWaitStrategy[] strategies = ReactorWaitStrategy.values();
+            for (int i = 0; i < strategies.length; i++) {
+                // warm up
+                run(strategies[i], spinBudget, numMessages / 10, pauseNanos);
+                Histogram histogram = run(strategies[i], spinBudget, numMessages, pauseNanos);
+                System.out.println(String.format("%-9s event to handler (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                        strategies[i],
+                        histogram.getValueAtPercentile(50) / 1000.0,
+                        histogram.getValueAtPercentile(90) / 1000.0,
+                        histogram.getValueAtPercentile(99) / 1000.0,
+                        histogram.getValueAtPercentile(99.9) / 1000.0,
+                        histogram.getMax() / 1000.0));
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
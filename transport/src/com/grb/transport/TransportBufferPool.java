@@ -0,0 +1,235 @@
+package com.grb.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers in power of two size classes. Each thread, in
+ * practice each reactor thread, keeps a small cache per size class in
+ * front of a shared queue so borrowing and returning on the same loop
+ * doesn't contend. Requests bigger than the largest class are allocated
+ * and dropped without pooling.
+ */
+public class TransportBufferPool implements TransportBufferReleaser {
+    static public int DefaultMinBufferSize = 1024;
+    static public int DefaultMaxBufferSize = 64 * 1024;
+    static public int DefaultBufferSize = 16 * 1024;
+    static public int DefaultThreadCacheSize = 16;
+    static public int DefaultMaxPooledPerClass = 1024;
+
+    protected class ThreadCache {
+        public ByteBuffer[][] buffers;
+        public int[] sizes;
+        public ThreadCache() {
+            buffers = new ByteBuffer[mSizeClasses.length][mThreadCacheSize];
+            sizes = new int[mSizeClasses.length];
+        }
+    }
+
+    /**
+     * The buffers of a size class shared between threads.
+     */
+    protected class SharedQueue {
+        public ConcurrentLinkedQueue<ByteBuffer> buffers;
+        public AtomicInteger size;
+        public SharedQueue() {
+            buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+            size = new AtomicInteger(0);
+        }
+    }
+
+    protected int mMinBufferSize;
+    protected int mDefaultBufferSize;
+    protected int mThreadCacheSize;
+    protected int mMaxPooledPerClass;
+    protected int[] mSizeClasses;
+    protected SharedQueue[] mShared;
+    protected ThreadLocal<ThreadCache> mThreadCache;
+    protected AtomicLong mAllocatedCount;
+    protected AtomicLong mAllocatedBytes;
+    protected AtomicLong mAcquireCount;
+    protected AtomicLong mReleaseCount;
+
+    public TransportBufferPool() {
+        this(DefaultMinBufferSize, DefaultMaxBufferSize, DefaultBufferSize,
+                DefaultThreadCacheSize, DefaultMaxPooledPerClass);
+    }
+
+    /**
+     * @param minBufferSize Smallest size class, rounded up to a power of two.
+     * @param maxBufferSize Largest size class, rounded up to a power of two.
+     * @param defaultBufferSize Size returned by {@link #acquire()}.
+     * @param threadCacheSize Buffers cached per size class per thread.
+     * @param maxPooledPerClass Buffers kept per size class in the shared queue.
+     */
+    public TransportBufferPool(int minBufferSize, int maxBufferSize, int defaultBufferSize,
+            int threadCacheSize, int maxPooledPerClass) {
+        if ((minBufferSize <= 0) || (minBufferSize > maxBufferSize)) {
+            throw new IllegalArgumentException("Invalid buffer sizes: min=" + minBufferSize +
+                    ", max=" + maxBufferSize);
+        }
+        if ((threadCacheSize < 0) || (maxPooledPerClass < 0)) {
+            throw new IllegalArgumentException("Pool sizes cannot be negative: threadCache=" +
+                    threadCacheSize + ", maxPooledPerClass=" + maxPooledPerClass);
+        }
+        mMinBufferSize = roundUp(minBufferSize);
+        mDefaultBufferSize = defaultBufferSize;
+        mThreadCacheSize = threadCacheSize;
+        mMaxPooledPerClass = maxPooledPerClass;
+        int numClasses = Integer.numberOfTrailingZeros(roundUp(maxBufferSize)) -
+            Integer.numberOfTrailingZeros(mMinBufferSize) + 1;
+        mSizeClasses = new int[numClasses];
+        mShared = new SharedQueue[numClasses];
+        for(int i = 0; i < numClasses; i++) {
+            mSizeClasses[i] = mMinBufferSize << i;
+            mShared[i] = new SharedQueue();
+        }
+        mThreadCache = new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                return new ThreadCache();
+            }
+        };
+        mAllocatedCount = new AtomicLong(0);
+        mAllocatedBytes = new AtomicLong(0);
+        mAcquireCount = new AtomicLong(0);
+        mReleaseCount = new AtomicLong(0);
+    }
+
+    public int getDefaultBufferSize() {
+        return mDefaultBufferSize;
+    }
+
+    /**
+     * @return Size of the largest pooled size class.
+     */
+    public int getMaxBufferSize() {
+        return mSizeClasses[mSizeClasses.length - 1];
+    }
+
+    /**
+     * @return A cleared buffer of the default size.
+     */
+    public ByteBuffer acquire() {
+        return acquire(mDefaultBufferSize);
+    }
+
+    /**
+     * @param size Minimum capacity needed.
+     * @return A cleared buffer of the size class that fits size.
+     */
+    public ByteBuffer acquire(int size) {
+        mAcquireCount.incrementAndGet();
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            return allocate(size);
+        }
+        ByteBuffer buffer = null;
+        ThreadCache cache = mThreadCache.get();
+        if (cache.sizes[sizeClass] > 0) {
+            int top = --cache.sizes[sizeClass];
+            buffer = cache.buffers[sizeClass][top];
+            cache.buffers[sizeClass][top] = null;
+        } else {
+            SharedQueue shared = mShared[sizeClass];
+            buffer = shared.buffers.poll();
+            if (buffer == null) {
+                return allocate(mSizeClasses[sizeClass]);
+            }
+            shared.size.decrementAndGet();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that didn't come from a pool
+     * size class are dropped.
+     */
+    public void release(ByteBuffer buffer) {
+        mReleaseCount.incrementAndGet();
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.capacity());
+        if ((sizeClass < 0) || (mSizeClasses[sizeClass] != buffer.capacity())) {
+            return;
+        }
+        ThreadCache cache = mThreadCache.get();
+        if (cache.sizes[sizeClass] < mThreadCacheSize) {
+            cache.buffers[sizeClass][cache.sizes[sizeClass]++] = buffer;
+        } else {
+            SharedQueue shared = mShared[sizeClass];
+            if (shared.size.incrementAndGet() <= mMaxPooledPerClass) {
+                shared.buffers.add(buffer);
+            } else {
+                shared.size.decrementAndGet();
+            }
+        }
+    }
+
+    public void releaseBuffer(ByteBuffer buffer) {
+        release(buffer);
+    }
+
+    /**
+     * @return Number of buffers the pool has allocated.
+     */
+    public long getAllocatedCount() {
+        return mAllocatedCount.get();
+    }
+
+    /**
+     * @return Direct memory allocated by the pool, in bytes.
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes.get();
+    }
+
+    public long getAcquireCount() {
+        return mAcquireCount.get();
+    }
+
+    public long getReleaseCount() {
+        return mReleaseCount.get();
+    }
+
+    protected ByteBuffer allocate(int size) {
+        mAllocatedCount.incrementAndGet();
+        mAllocatedBytes.addAndGet(size);
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * @return Index of the smallest size class holding size, -1 if too big.
+     */
+    protected int sizeClass(int size) {
+        if (size <= mMinBufferSize) {
+            return 0;
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(roundUp(size)) -
+            Integer.numberOfTrailingZeros(mMinBufferSize);
+        return (sizeClass < mSizeClasses.length) ? sizeClass : -1;
+    }
+
+    static protected int roundUp(int size) {
+        int highest = Integer.highestOneBit(size);
+        return (highest == size) ? size : (highest << 1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("allocated=");
+        bldr.append(getAllocatedCount());
+        bldr.append(",allocatedBytes=");
+        bldr.append(getAllocatedBytes());
+        bldr.append(",acquired=");
+        bldr.append(getAcquireCount());
+        bldr.append(",released=");
+        bldr.append(getReleaseCount());
+        return bldr.toString();
+    }
+}
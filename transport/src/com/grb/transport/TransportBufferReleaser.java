@@ -0,0 +1,17 @@
+package com.grb.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Takes back a buffer handed to the transport with one of the
+ * ownership-transfer writes once the transport no longer references it.
+ */
+public interface TransportBufferReleaser {
+    /**
+     * Called once per buffer after it has been fully sent or the send
+     * failed. May be called on the reactor thread so must not block.
+     *
+     * @param buffer The buffer being returned.
+     */
+    public void releaseBuffer(ByteBuffer buffer);
+}
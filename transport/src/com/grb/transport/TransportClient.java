@@ -6,7 +6,8 @@ import java.util.concurrent.TimeUnit;
 
 
 /**
- * <p> no statistics gathering here - the number of bytes sent and received is known at the higher layer
+ * <p> no statistics gathering here - implementations may keep their own, see 
+ * {@link com.grb.transport.tcp.TCPTransportClient#getStats()}
  */
 public interface TransportClient {
     public TransportClientProperties getProperties() throws TransportException;
@@ -20,6 +21,8 @@ public interface TransportClient {
     public void close();
 
     public void startReading(TransportReadListener listener, ByteBuffer buffer) throws TransportException;
+    public void startReading(TransportReadListener listener, TransportBufferPool pool) throws TransportException;
+    public ByteBuffer retainReadBuffer();
     public void stopReading() throws TransportException;
         
     public void write(ByteBuffer buffer) throws TransportException;
@@ -39,4 +42,16 @@ public interface TransportClient {
 
     public long writeAsync(ByteBuffer[] buffers, int offset, int length, TransportSendResult result) throws TransportException;
     public long writeAsync(ByteBuffer[] buffers, int offset, int length, int timeout, TimeUnit unit, TransportSendResult result) throws TransportException;
+
+    public int writeAsync(ByteBuffer buffer, TransportBufferReleaser releaser, TransportSendResult result) throws TransportException;
+    public int writeAsync(ByteBuffer buffer, TransportBufferReleaser releaser, int timeout, TimeUnit unit, TransportSendResult result) throws TransportException;
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, TransportBufferReleaser releaser, TransportSendResult result) throws TransportException;
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, TransportBufferReleaser releaser, int timeout, TimeUnit unit, TransportSendResult result) throws TransportException;
+
+    public int writeAsync(ByteBuffer buffer, WriteCompletionHandler handler) throws TransportException;
+    public int writeAsync(ByteBuffer buffer, int timeout, TimeUnit unit, WriteCompletionHandler handler) throws TransportException;
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, WriteCompletionHandler handler) throws TransportException;
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, int timeout, TimeUnit unit, WriteCompletionHandler handler) throws TransportException;
 }
@@ -4,6 +4,9 @@ import java.nio.ByteBuffer;
 
 public interface TransportReadListener {
     // Return true to continue reading. This is the way to suspend reading from the socket.
-    // if numBytesRead equals 0 then the transport has been closed. and return false.
+    // Called after every read with the flipped buffer. Reading from a pool it may be called several
+    // times per read event and bytes left remaining are kept for the next read.
+    // if numBytesRead equals 0 then the peer has closed the transport. The buffer holds any bytes
+    // left unconsumed and the transport is closed once the listener returns.
     boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead);
 }
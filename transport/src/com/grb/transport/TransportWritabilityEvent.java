@@ -0,0 +1,43 @@
+package com.grb.transport;
+
+/**
+ * Sent when a client's outbound queue crosses its high watermark
+ * (not writable) or drains back to its low watermark (writable).
+ */
+public class TransportWritabilityEvent implements TransportEvent {
+
+    protected TransportClient mClient;
+    protected boolean mWritable;
+    protected long mQueuedBytes;
+
+    public TransportWritabilityEvent(TransportClient client, boolean writable, long queuedBytes) {
+        mClient = client;
+        mWritable = writable;
+        mQueuedBytes = queuedBytes;
+    }
+
+    public TransportClient getTransportClient() {
+        return mClient;
+    }
+
+    public boolean isWritable() {
+        return mWritable;
+    }
+
+    public long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("WritabilityEvent=[");
+        bldr.append("client=");
+        bldr.append(mClient);
+        bldr.append(", writable: ");
+        bldr.append(mWritable);
+        bldr.append(", queuedBytes: ");
+        bldr.append(mQueuedBytes);
+        bldr.append("]");
+        return bldr.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package com.grb.transport;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.grb.util.concurrent.BooleanFutureTask;
+
+/**
+ * Adapts a {@link WriteCompletionHandler} send to a Future for callers
+ * that want one. Further handlers can be chained with
+ * {@link #addHandler(WriteCompletionHandler)} so nothing has to block
+ * in get().
+ */
+public class WriteCompletionFuture implements WriteCompletionHandler, Future<Boolean> {
+    protected BooleanFutureTask mFuture;
+    protected ArrayList<WriteCompletionHandler> mHandlers;
+    protected TransportClient mClient;
+    protected long mNumBytes;
+    protected TransportException mError;
+
+    public WriteCompletionFuture() {
+        mFuture = new BooleanFutureTask();
+        mHandlers = null;
+        mClient = null;
+        mNumBytes = 0;
+        mError = null;
+    }
+
+    /**
+     * Adds a handler to be told of the outcome. It is called immediately
+     * by the calling thread if the send has already completed.
+     */
+    public void addHandler(WriteCompletionHandler handler) {
+        synchronized(this) {
+            if (!mFuture.isDone()) {
+                if (mHandlers == null) {
+                    mHandlers = new ArrayList<WriteCompletionHandler>();
+                }
+                mHandlers.add(handler);
+                return;
+            }
+        }
+        notifyHandler(handler);
+    }
+
+    public void onWriteComplete(TransportClient client, long numBytes) {
+        ArrayList<WriteCompletionHandler> handlers;
+        synchronized(this) {
+            if (mFuture.isDone()) {
+                return;
+            }
+            mClient = client;
+            mNumBytes = numBytes;
+            mFuture.setDone();
+            handlers = mHandlers;
+            mHandlers = null;
+        }
+        notifyHandlers(handlers);
+    }
+
+    public void onWriteFailed(TransportClient client, TransportException error) {
+        ArrayList<WriteCompletionHandler> handlers;
+        synchronized(this) {
+            if (mFuture.isDone()) {
+                return;
+            }
+            mClient = client;
+            mError = error;
+            mFuture.setDone(error);
+            handlers = mHandlers;
+            mHandlers = null;
+        }
+        notifyHandlers(handlers);
+    }
+
+    /**
+     * @return Number of bytes sent, valid once the send has completed.
+     */
+    public long getNumBytes() {
+        return mNumBytes;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    public Boolean get() throws InterruptedException, ExecutionException {
+        return mFuture.get();
+    }
+
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        return mFuture.get(timeout, unit);
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    public boolean isDone() {
+        return mFuture.isDone();
+    }
+
+    protected void notifyHandlers(ArrayList<WriteCompletionHandler> handlers) {
+        if (handlers != null) {
+            for(int i = 0; i < handlers.size(); i++) {
+                notifyHandler(handlers.get(i));
+            }
+        }
+    }
+
+    protected void notifyHandler(WriteCompletionHandler handler) {
+        if (mError == null) {
+            handler.onWriteComplete(mClient, mNumBytes);
+        } else {
+            handler.onWriteFailed(mClient, mError);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.grb.transport;
+
+/**
+ * Told when a send made with one of the completion handler writes has
+ * been flushed to the socket or has failed. Called on the reactor thread,
+ * or on the thread that sent, flushed or closed, so must not block. No
+ * client lock is held, so the handler can write again or close the client.
+ */
+public interface WriteCompletionHandler {
+    /**
+     * @param client The client the send was made on.
+     * @param numBytes Number of bytes in the send.
+     */
+    public void onWriteComplete(TransportClient client, long numBytes);
+
+    /**
+     * @param client The client the send was made on.
+     * @param error Why the send failed, usually the error that closed the client.
+     */
+    public void onWriteFailed(TransportClient client, TransportException error);
+}
@@ -0,0 +1,68 @@
+package com.grb.transport.framing;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+
+/**
+ * Frames ended by a delimiter, which isn't included in the payload. The
+ * bytes of a partial frame already searched aren't searched again when
+ * more arrive.
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+    protected byte[] mDelimiter;
+    protected int mSearched;
+
+    public DelimiterFrameDecoder(FrameListener listener, byte[] delimiter) {
+        this(listener, delimiter, DefaultMaxFrameLength);
+    }
+
+    public DelimiterFrameDecoder(FrameListener listener, byte[] delimiter, int maxFrameLength) {
+        super(listener, maxFrameLength);
+        if ((delimiter == null) || (delimiter.length == 0)) {
+            throw new IllegalArgumentException("Delimiter cannot be empty");
+        }
+        mDelimiter = delimiter.clone();
+        mSearched = 0;
+    }
+
+    @Override
+    protected int getFrameLength(ByteBuffer buffer) throws TransportException {
+        int start = buffer.position();
+        int end = buffer.limit() - mDelimiter.length;
+        byte first = mDelimiter[0];
+        for(int i = start + mSearched; i <= end; i++) {
+            if ((buffer.get(i) == first) && matches(buffer, i)) {
+                mSearched = 0;
+                if ((i - start) > mMaxFrameLength) {
+                    throw frameTooLong(i - start);
+                }
+                return i - start + mDelimiter.length;
+            }
+        }
+        mSearched = Math.max(0, end + 1 - start);
+        if (mSearched > mMaxFrameLength) {
+            throw frameTooLong(mSearched);
+        }
+        return 0;
+    }
+
+    @Override
+    protected int getHeaderLength() {
+        return 0;
+    }
+
+    @Override
+    protected int getTrailerLength() {
+        return mDelimiter.length;
+    }
+
+    protected boolean matches(ByteBuffer buffer, int index) {
+        for(int i = 1; i < mDelimiter.length; i++) {
+            if (buffer.get(index + i) != mDelimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
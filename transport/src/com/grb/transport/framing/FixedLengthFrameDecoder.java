@@ -0,0 +1,34 @@
+package com.grb.transport.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames that are all the same length.
+ */
+public class FixedLengthFrameDecoder extends FrameDecoder {
+    protected int mFrameLength;
+
+    public FixedLengthFrameDecoder(FrameListener listener, int frameLength) {
+        super(listener, frameLength);
+        mFrameLength = frameLength;
+    }
+
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    @Override
+    protected int getFrameLength(ByteBuffer buffer) {
+        return (buffer.remaining() < mFrameLength) ? 0 : mFrameLength;
+    }
+
+    @Override
+    protected int getHeaderLength() {
+        return 0;
+    }
+
+    @Override
+    protected int getTrailerLength() {
+        return 0;
+    }
+}
@@ -0,0 +1,110 @@
+package com.grb.transport.framing;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportReadListener;
+
+/**
+ * Cuts a transport's byte stream into frames. Complete frames are passed
+ * to the {@link FrameListener} as slices of the read buffer without
+ * copying. The bytes of a partial frame are left in the read buffer,
+ * which the transport keeps until the rest of the frame has been read,
+ * so decoders are meant for clients started with
+ * {@link com.grb.transport.TransportClient#startReading(TransportReadListener, com.grb.transport.TransportBufferPool)}.
+ */
+abstract public class FrameDecoder implements TransportReadListener {
+    static public int DefaultMaxFrameLength = 1024 * 1024;
+
+    protected FrameListener mListener;
+    protected int mMaxFrameLength;
+    protected long mFrameCount;
+
+    /**
+     * @param listener Listener for the decoded frames.
+     * @param maxFrameLength Longest payload accepted.
+     */
+    public FrameDecoder(FrameListener listener, int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("Max frame length must be positive: " + maxFrameLength);
+        }
+        mListener = listener;
+        mMaxFrameLength = maxFrameLength;
+        mFrameCount = 0;
+    }
+
+    /**
+     * Replaces the listener, for decoders wrapped by a pipeline stage.
+     */
+    public void setFrameListener(FrameListener listener) {
+        mListener = listener;
+    }
+
+    public int getMaxFrameLength() {
+        return mMaxFrameLength;
+    }
+
+    /**
+     * @return Number of frames decoded.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+        if (numBytesRead == 0) {
+            if (readBuffer.hasRemaining()) {
+                mListener.onFrameError(new TransportException("Connection closed with " +
+                        readBuffer.remaining() + " bytes of a partial frame"));
+            }
+            return false;
+        }
+        try {
+            while (readBuffer.hasRemaining()) {
+                int frameLength = getFrameLength(readBuffer);
+                if (frameLength == 0) {
+                    break;
+                }
+                int start = readBuffer.position();
+                int limit = readBuffer.limit();
+                readBuffer.position(start + getHeaderLength());
+                readBuffer.limit(start + frameLength - getTrailerLength());
+                ByteBuffer frame = readBuffer.slice();
+                readBuffer.limit(limit);
+                readBuffer.position(start + frameLength);
+                mFrameCount++;
+                if (!mListener.onFrame(frame)) {
+                    return false;
+                }
+            }
+        } catch(TransportException e) {
+            mListener.onFrameError(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks at the bytes from the buffer's position without moving it.
+     *
+     * @return Length of the frame at the buffer's position including its
+     * header and trailer, 0 if the frame isn't complete yet.
+     * @throws TransportException The frame is longer than the maximum.
+     */
+    abstract protected int getFrameLength(ByteBuffer buffer) throws TransportException;
+
+    /**
+     * @return Bytes before the payload of each frame.
+     */
+    abstract protected int getHeaderLength();
+
+    /**
+     * @return Bytes after the payload of each frame.
+     */
+    abstract protected int getTrailerLength();
+
+    protected TransportException frameTooLong(long length) {
+        return new TransportException("Frame length " + length +
+                " exceeds the maximum of " + mMaxFrameLength);
+    }
+}
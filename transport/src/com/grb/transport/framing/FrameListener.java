@@ -0,0 +1,24 @@
+package com.grb.transport.framing;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+
+/**
+ * Receives the frames cut from a transport's byte stream by a
+ * {@link FrameDecoder}.
+ */
+public interface FrameListener {
+    /**
+     * @param frame The frame's payload, a slice of the transport's read
+     * buffer. Only valid during the callback, copy it to keep it.
+     * @return true to continue reading, false to suspend reading.
+     */
+    public boolean onFrame(ByteBuffer frame);
+
+    /**
+     * Called when the stream can't be framed, a frame is too long or the
+     * connection closed part way through a frame. Reading stops.
+     */
+    public void onFrameError(TransportException error);
+}
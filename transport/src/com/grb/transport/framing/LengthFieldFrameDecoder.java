@@ -0,0 +1,100 @@
+package com.grb.transport.framing;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+
+/**
+ * Frames prefixed by their payload length as a big endian unsigned
+ * integer of 1 to 4 bytes, the encodings of
+ * {@link com.grb.util.ByteBuffer#readUByte()},
+ * {@link com.grb.util.ByteBuffer#readUShort()},
+ * {@link com.grb.util.ByteBuffer#readUThrint()} and
+ * {@link com.grb.util.ByteBuffer#readInt()}.
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+    protected int mLengthFieldSize;
+
+    public LengthFieldFrameDecoder(FrameListener listener, int lengthFieldSize) {
+        this(listener, lengthFieldSize, DefaultMaxFrameLength);
+    }
+
+    /**
+     * @param lengthFieldSize Size of the length prefix, 1 to 4 bytes.
+     */
+    public LengthFieldFrameDecoder(FrameListener listener, int lengthFieldSize, int maxFrameLength) {
+        super(listener, maxFrameLength);
+        if ((lengthFieldSize < 1) || (lengthFieldSize > 4)) {
+            throw new IllegalArgumentException("Length field size must be 1 to 4 bytes: " + lengthFieldSize);
+        }
+        mLengthFieldSize = lengthFieldSize;
+    }
+
+    public int getLengthFieldSize() {
+        return mLengthFieldSize;
+    }
+
+    @Override
+    protected int getFrameLength(ByteBuffer buffer) throws TransportException {
+        if (buffer.remaining() < mLengthFieldSize) {
+            return 0;
+        }
+        long length = getLength(buffer, buffer.position(), mLengthFieldSize);
+        if (length > mMaxFrameLength) {
+            throw frameTooLong(length);
+        }
+        int frameLength = mLengthFieldSize + (int)length;
+        return (buffer.remaining() < frameLength) ? 0 : frameLength;
+    }
+
+    @Override
+    protected int getHeaderLength() {
+        return mLengthFieldSize;
+    }
+
+    @Override
+    protected int getTrailerLength() {
+        return 0;
+    }
+
+    /**
+     * Reads a length prefix without moving the buffer's position.
+     */
+    static public long getLength(ByteBuffer buffer, int index, int lengthFieldSize) {
+        switch(lengthFieldSize) {
+        case 1:
+            return buffer.get(index) & 0xFF;
+        case 2:
+            return buffer.getShort(index) & 0xFFFF;
+        case 3:
+            return ((buffer.get(index) & 0xFF) << 16) | (buffer.getShort(index + 1) & 0xFFFF);
+        default:
+            return buffer.getInt(index) & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * Writes a length prefix at the buffer's position.
+     */
+    static public void putLength(ByteBuffer buffer, int lengthFieldSize, int length) {
+        if ((length < 0) || ((lengthFieldSize < 4) && (length >= (1 << (lengthFieldSize * 8))))) {
+            throw new IllegalArgumentException("Length " + length + " doesn't fit in " +
+                    lengthFieldSize + " bytes");
+        }
+        switch(lengthFieldSize) {
+        case 1:
+            buffer.put((byte)length);
+            break;
+        case 2:
+            buffer.putShort((short)length);
+            break;
+        case 3:
+            buffer.put((byte)(length >> 16));
+            buffer.putShort((short)length);
+            break;
+        default:
+            buffer.putInt(length);
+            break;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.grb.transport.framing.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.framing.DelimiterFrameDecoder;
+import com.grb.transport.framing.FixedLengthFrameDecoder;
+import com.grb.transport.framing.FrameDecoder;
+import com.grb.transport.framing.FrameListener;
+import com.grb.transport.framing.LengthFieldFrameDecoder;
+
+public class FrameDecoderTest extends TestCase {
+
+    public FrameDecoderTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(FrameDecoderTest.class);
+    }
+
+    public class RecordingFrameListener implements FrameListener {
+        public ArrayList<byte[]> frames = new ArrayList<byte[]>();
+        public TransportException error;
+        public int suspendAfter = Integer.MAX_VALUE;
+        public boolean onFrame(ByteBuffer frame) {
+            byte[] data = new byte[frame.remaining()];
+            frame.get(data);
+            frames.add(data);
+            return frames.size() < suspendAfter;
+        }
+        public void onFrameError(TransportException error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Feeds the stream to the decoder in chunks, keeping the bytes the
+     * decoder leaves for the next chunk the way a pooled transport does.
+     */
+    public ByteBuffer feed(FrameDecoder decoder, ByteBuffer buffer, byte[] stream, int chunkSize) {
+        for(int offset = 0; offset < stream.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, stream.length - offset);
+            if (buffer.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate((buffer.capacity() + length) * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            buffer.put(stream, offset, length);
+            buffer.flip();
+            assertTrue(decoder.onTransportRead(buffer, length));
+            buffer.compact();
+        }
+        return buffer;
+    }
+
+    public byte[][] makeFrames(int count) {
+        byte[][] frames = new byte[count][];
+        for(int i = 0; i < count; i++) {
+            frames[i] = new byte[(i * 37) % 200];
+            for(int j = 0; j < frames[i].length; j++) {
+                frames[i][j] = (byte)(i + j);
+            }
+        }
+        return frames;
+    }
+
+    public void assertFrames(byte[][] expected, RecordingFrameListener listener) {
+        assertNull(listener.error);
+        assertEquals(expected.length, listener.frames.size());
+        for(int i = 0; i < expected.length; i++) {
+            assertTrue(Arrays.equals(expected[i], listener.frames.get(i)));
+        }
+    }
+
+    public void testLengthField() {
+        byte[][] frames = makeFrames(50);
+        for(int size = 1; size <= 4; size++) {
+            ByteBuffer stream = ByteBuffer.allocate(50 * 204);
+            for(int i = 0; i < frames.length; i++) {
+                LengthFieldFrameDecoder.putLength(stream, size, frames[i].length);
+                stream.put(frames[i]);
+            }
+            byte[] data = new byte[stream.position()];
+            System.arraycopy(stream.array(), 0, data, 0, data.length);
+            int[] chunkSizes = new int[] {1, 3, 64, data.length};
+            for(int i = 0; i < chunkSizes.length; i++) {
+                RecordingFrameListener listener = new RecordingFrameListener();
+                LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(listener, size);
+                ByteBuffer buffer = feed(decoder, ByteBuffer.allocate(16), data, chunkSizes[i]);
+                assertFrames(frames, listener);
+                assertEquals(frames.length, decoder.getFrameCount());
+                assertEquals(0, buffer.position());
+            }
+        }
+    }
+
+    public void testLengthEncoding() {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        LengthFieldFrameDecoder.putLength(buffer, 3, 0x123456);
+        assertEquals(0x123456, LengthFieldFrameDecoder.getLength(buffer, 0, 3));
+        com.grb.util.ByteBuffer utilBuffer = new com.grb.util.ByteBuffer(buffer.array(), 0);
+        try {
+            assertEquals(0x123456, utilBuffer.readUThrint());
+        } catch(Exception e) {
+            fail(e.getMessage());
+        }
+        buffer.clear();
+        LengthFieldFrameDecoder.putLength(buffer, 4, 0x7FFFFFFF);
+        assertEquals(0x7FFFFFFFL, LengthFieldFrameDecoder.getLength(buffer, 0, 4));
+        try {
+            LengthFieldFrameDecoder.putLength(buffer, 1, 256);
+            fail("should throw");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+
+    public void testFrameTooLong() {
+        RecordingFrameListener listener = new RecordingFrameListener();
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(listener, 2, 100);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putShort((short)101);
+        buffer.flip();
+        assertFalse(decoder.onTransportRead(buffer, 2));
+        assertNotNull(listener.error);
+        assertEquals(0, listener.frames.size());
+
+        listener = new RecordingFrameListener();
+        DelimiterFrameDecoder delimDecoder = new DelimiterFrameDecoder(listener, new byte[] {'\n'}, 10);
+        buffer = ByteBuffer.wrap("01234567890123".getBytes());
+        assertFalse(delimDecoder.onTransportRead(buffer, buffer.remaining()));
+        assertNotNull(listener.error);
+    }
+
+    public void testDelimiter() {
+        String text = "first\r\nsecond\r\n\r\nlast line\r\nno end";
+        RecordingFrameListener listener = new RecordingFrameListener();
+        DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(listener, "\r\n".getBytes());
+        ByteBuffer buffer = feed(decoder, ByteBuffer.allocate(8), text.getBytes(), 1);
+        assertNull(listener.error);
+        assertEquals(4, listener.frames.size());
+        assertEquals("first", new String(listener.frames.get(0)));
+        assertEquals("second", new String(listener.frames.get(1)));
+        assertEquals("", new String(listener.frames.get(2)));
+        assertEquals("last line", new String(listener.frames.get(3)));
+        assertEquals("no end".length(), buffer.position());
+    }
+
+    public void testFixedLength() {
+        byte[] data = new byte[1000];
+        for(int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        RecordingFrameListener listener = new RecordingFrameListener();
+        FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(listener, 10);
+        feed(decoder, ByteBuffer.allocate(64), data, 7);
+        assertEquals(100, listener.frames.size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals((byte)(i * 10), listener.frames.get(i)[0]);
+        }
+    }
+
+    public void testSuspend() {
+        RecordingFrameListener listener = new RecordingFrameListener();
+        listener.suspendAfter = 2;
+        FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(listener, 4);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertFalse(decoder.onTransportRead(buffer, 16));
+        assertEquals(2, listener.frames.size());
+        assertEquals(8, buffer.position());
+    }
+
+    public void testPartialFrameAtClose() {
+        RecordingFrameListener listener = new RecordingFrameListener();
+        FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(listener, 4);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertFalse(decoder.onTransportRead(buffer, 0));
+        assertNotNull(listener.error);
+
+        listener = new RecordingFrameListener();
+        decoder = new FixedLengthFrameDecoder(listener, 4);
+        buffer.clear();
+        buffer.flip();
+        assertFalse(decoder.onTransportRead(buffer, 0));
+        assertNull(listener.error);
+    }
+}
@@ -0,0 +1,165 @@
+package com.grb.transport.framing.test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.framing.FrameListener;
+import com.grb.transport.framing.LengthFieldFrameDecoder;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+
+/**
+ * Measures {@link LengthFieldFrameDecoder} throughput for small and large
+ * frames, decoding from memory in read sized chunks and end to end over a
+ * loopback connection read from a {@link TransportBufferPool}.
+ * <p>
+ * Usage: FramingBenchmark [megabytesPerRun] [frameSize...]
+ */
+public class FramingBenchmark {
+    static public final int Port = 4532;
+    static public final int ReadSize = 16 * 1024;
+
+    static public class CountingFrameListener implements FrameListener {
+        public AtomicLong frames = new AtomicLong(0);
+        public long bytes = 0;
+        public boolean onFrame(ByteBuffer frame) {
+            bytes += frame.remaining();
+            frames.incrementAndGet();
+            return true;
+        }
+        public void onFrameError(TransportException error) {
+            error.printStackTrace();
+        }
+    }
+
+    /**
+     * @return A buffer holding as many whole frames as fit in about 256K.
+     */
+    static public ByteBuffer makeBatch(int frameSize) {
+        int framesPerBatch = Math.max(1, (256 * 1024) / (frameSize + 4));
+        ByteBuffer batch = ByteBuffer.allocateDirect(framesPerBatch * (frameSize + 4));
+        for(int i = 0; i < framesPerBatch; i++) {
+            LengthFieldFrameDecoder.putLength(batch, 4, frameSize);
+            for(int j = 0; j < frameSize; j++) {
+                batch.put((byte)j);
+            }
+        }
+        batch.flip();
+        return batch;
+    }
+
+    static public void runDecode(int frameSize, long totalBytes) {
+        ByteBuffer batch = makeBatch(frameSize);
+        int framesPerBatch = batch.remaining() / (frameSize + 4);
+        CountingFrameListener listener = new CountingFrameListener();
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(listener, 4);
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(2 * (frameSize + 4) + ReadSize);
+        long batches = Math.max(1, totalBytes / batch.remaining());
+        long start = System.nanoTime();
+        for(long b = 0; b < batches; b++) {
+            batch.rewind();
+            while (batch.hasRemaining()) {
+                // copy in read sized chunks as the socket would
+                int length = Math.min(Math.min(ReadSize, batch.remaining()), readBuffer.remaining());
+                int limit = batch.limit();
+                batch.limit(batch.position() + length);
+                readBuffer.put(batch);
+                batch.limit(limit);
+                readBuffer.flip();
+                decoder.onTransportRead(readBuffer, length);
+                readBuffer.compact();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        report("decode", frameSize, batches * framesPerBatch, listener.bytes, elapsed);
+    }
+
+    static public void runLoopback(int frameSize, long totalBytes) throws Exception {
+        ReactorThread reactor = new ReactorThread("FramingBenchmark");
+        reactor.startAsDaemon();
+        ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+        final TransportBufferPool pool = new TransportBufferPool(1024, 256 * 1024, ReadSize,
+                TransportBufferPool.DefaultThreadCacheSize, TransportBufferPool.DefaultMaxPooledPerClass);
+        final CountingFrameListener listener = new CountingFrameListener();
+        TCPTransportClientProperties serverClientProps = new TCPTransportClientProperties(null, eventExecutor,
+                reactor, null, ByteBuffer.allocateDirect(16), 10, TimeUnit.SECONDS);
+        serverClientProps.setReadSizeRange(1024, 256 * 1024);
+        TCPTransportServer server = new TCPTransportServer(new TCPTransportServerProperties(Port, reactor, serverClientProps),
+                new TCPTransportServerConnectionListener() {
+                    public void onNewConnection(TCPTransportClient client) {
+                        try {
+                            client.startReading(new LengthFieldFrameDecoder(listener, 4), pool);
+                        } catch(TransportException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+        server.startAccepting();
+
+        ByteBuffer batch = makeBatch(frameSize);
+        int framesPerBatch = batch.remaining() / (frameSize + 4);
+        TCPTransportClientProperties props = new TCPTransportClientProperties(new InetSocketAddress("127.0.0.1", Port),
+                eventExecutor, reactor, new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, null, null, null)),
+                ByteBuffer.allocateDirect(batch.capacity()), 10, TimeUnit.SECONDS);
+        TCPTransportClient client = new TCPTransportClient(props);
+        client.connect(5, TimeUnit.SECONDS);
+
+        long batches = Math.max(1, totalBytes / batch.remaining());
+        long total = batches * framesPerBatch;
+        long start = System.nanoTime();
+        for(long b = 0; b < batches; b++) {
+            batch.rewind();
+            client.write(batch);
+        }
+        while (listener.frames.get() < total) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        report("loopback", frameSize, total, listener.bytes, elapsed);
+
+        client.close();
+        server.close();
+        reactor.close();
+        eventExecutor.shutdown();
+        Thread.sleep(500);
+    }
+
+    static public void report(String mode, int frameSize, long frames, long bytes, long elapsed) {
+        double seconds = elapsed / 1000000000.0;
+        System.out.println(String.format("%-8s frameSize=%-6d frames=%,12d frames/s=%,14.0f MB/s=%,9.1f",
+                mode, frameSize, frames, frames / seconds, bytes / seconds / (1024 * 1024)));
+    }
+
+    public static void main(String[] args) {
+        long totalBytes = ((args.length > 0) ? Long.parseLong(args[0]) : 512) * 1024 * 1024;
+        int[] frameSizes;
+        if (args.length > 1) {
+            frameSizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                frameSizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        } else {
+            frameSizes = new int[] {64, 64 * 1024};
+        }
+        try {
+            for(int i = 0; i < frameSizes.length; i++) {
+                runDecode(frameSizes[i], totalBytes);
+                runLoopback(frameSizes[i], totalBytes);
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.grb.transport.pipeline;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.framing.FrameDecoder;
+import com.grb.transport.framing.FrameListener;
+
+/**
+ * Runs a {@link FrameDecoder} as an inbound stage, passing each frame to
+ * the next stage. Must be the first inbound stage of a pipeline reading
+ * from a pool so partial frames are kept in the read buffer.
+ */
+public class FrameDecoderStage implements InboundStage, FrameListener {
+    protected FrameDecoder mDecoder;
+    protected StageContext mCtx;
+    protected TransportException mError;
+
+    public FrameDecoderStage(FrameDecoder decoder) {
+        mDecoder = decoder;
+        mDecoder.setFrameListener(this);
+        mCtx = null;
+        mError = null;
+    }
+
+    public FrameDecoder getDecoder() {
+        return mDecoder;
+    }
+
+    public boolean onInbound(StageContext ctx, ByteBuffer data) throws TransportException {
+        if (!data.hasRemaining()) {
+            return true;
+        }
+        mCtx = ctx;
+        mError = null;
+        boolean cont = mDecoder.onTransportRead(data, data.remaining());
+        if (mError != null) {
+            TransportException error = mError;
+            mError = null;
+            throw error;
+        }
+        return cont;
+    }
+
+    public void onInboundClosed(StageContext ctx) {
+        ctx.fireInboundClosed();
+    }
+
+    public boolean onFrame(ByteBuffer frame) {
+        try {
+            return mCtx.fireInbound(frame);
+        } catch(TransportException e) {
+            mError = e;
+            return false;
+        }
+    }
+
+    public void onFrameError(TransportException error) {
+        mError = error;
+    }
+}
@@ -0,0 +1,30 @@
+package com.grb.transport.pipeline;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+
+/**
+ * A step in the processing of received data. Called on the reactor
+ * thread, so must not block.
+ */
+public interface InboundStage {
+    /**
+     * Processes data and passes the result on with
+     * {@link StageContext#fireInbound(ByteBuffer)}, which may be called
+     * any number of times, including none while data is held back. The
+     * first stage gets the transport's read buffer and, for pooled reads,
+     * the bytes it leaves remaining are kept for the next read. Later
+     * stages must copy what they keep.
+     *
+     * @return false to suspend reading.
+     * @throws TransportException Closes the client.
+     */
+    public boolean onInbound(StageContext ctx, ByteBuffer data) throws TransportException;
+
+    /**
+     * The peer closed the connection. Pass it on with
+     * {@link StageContext#fireInboundClosed()}.
+     */
+    public void onInboundClosed(StageContext ctx);
+}
@@ -0,0 +1,102 @@
+package com.grb.transport.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.framing.LengthFieldFrameDecoder;
+
+/**
+ * Outbound stage prefixing each write with its length, the encoding read
+ * by {@link LengthFieldFrameDecoder}. Buffers written as one make one
+ * frame. Frames that fit in the scratch buffer are copied after their
+ * prefix, larger frames are passed on with their prefix as one gathering
+ * write, so a frame is never half sent.
+ */
+public class LengthFieldFrameEncoderStage implements OutboundStage {
+    static public int DefaultScratchSize = 8 * 1024;
+
+    protected int mLengthFieldSize;
+    protected ByteBuffer mScratch;
+    protected ByteBuffer[] mFrame;
+
+    public LengthFieldFrameEncoderStage(int lengthFieldSize) {
+        this(lengthFieldSize, DefaultScratchSize);
+    }
+
+    /**
+     * @param lengthFieldSize Size of the length prefix, 1 to 4 bytes.
+     * @param scratchSize Largest frame, with its prefix, copied to go out
+     * in one write.
+     */
+    public LengthFieldFrameEncoderStage(int lengthFieldSize, int scratchSize) {
+        if ((lengthFieldSize < 1) || (lengthFieldSize > 4)) {
+            throw new IllegalArgumentException("Length field size must be 1 to 4 bytes: " + lengthFieldSize);
+        }
+        mLengthFieldSize = lengthFieldSize;
+        mScratch = ByteBuffer.allocateDirect(Math.max(scratchSize, lengthFieldSize));
+        mFrame = new ByteBuffer[2];
+    }
+
+    public void onOutbound(StageContext ctx, ByteBuffer data) throws TransportException {
+        putLength(data.remaining());
+        if (data.remaining() <= mScratch.remaining()) {
+            mScratch.put(data);
+            mScratch.flip();
+            ctx.write(mScratch);
+        } else {
+            mScratch.flip();
+            mFrame[0] = mScratch;
+            mFrame[1] = data;
+            try {
+                ctx.write(mFrame);
+            } finally {
+                mFrame[1] = null;
+            }
+        }
+    }
+
+    public void onOutbound(StageContext ctx, ByteBuffer[] data) throws TransportException {
+        int length = 0;
+        for(int i = 0; i < data.length; i++) {
+            length += data[i].remaining();
+        }
+        putLength(length);
+        if (length <= mScratch.remaining()) {
+            for(int i = 0; i < data.length; i++) {
+                mScratch.put(data[i]);
+            }
+            mScratch.flip();
+            ctx.write(mScratch);
+            return;
+        }
+        mScratch.flip();
+        ByteBuffer[] frame = mFrame;
+        if (frame.length != (data.length + 1)) {
+            frame = new ByteBuffer[data.length + 1];
+        }
+        frame[0] = mScratch;
+        System.arraycopy(data, 0, frame, 1, data.length);
+        try {
+            ctx.write(frame);
+        } finally {
+            Arrays.fill(frame, 1, frame.length, null);
+        }
+    }
+
+    public void onFlush(StageContext ctx) throws TransportException {
+        ctx.flush();
+    }
+
+    /**
+     * Starts the next frame in the scratch buffer with its length.
+     */
+    protected void putLength(int length) throws TransportException {
+        mScratch.clear();
+        try {
+            LengthFieldFrameDecoder.putLength(mScratch, mLengthFieldSize, length);
+        } catch(IllegalArgumentException e) {
+            throw new TransportException(e.getMessage());
+        }
+    }
+}
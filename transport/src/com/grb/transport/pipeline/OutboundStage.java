@@ -0,0 +1,31 @@
+package com.grb.transport.pipeline;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+
+/**
+ * A step in the processing of data being sent. Called on the thread
+ * writing to the pipeline, one thread at a time.
+ */
+public interface OutboundStage {
+    /**
+     * Processes data and passes the result on with
+     * {@link StageContext#write(ByteBuffer)}. The data is only valid
+     * during the call, so a stage holding it back must copy it.
+     */
+    public void onOutbound(StageContext ctx, ByteBuffer data) throws TransportException;
+
+    /**
+     * Processes buffers written as one with
+     * {@link StageContext#write(ByteBuffer[])}, which must be passed on as
+     * one. A stage that doesn't change the data passes the array on whole.
+     */
+    public void onOutbound(StageContext ctx, ByteBuffer[] data) throws TransportException;
+
+    /**
+     * Writes anything held back then passes the flush on with
+     * {@link StageContext#flush()}.
+     */
+    public void onFlush(StageContext ctx) throws TransportException;
+}
@@ -0,0 +1,84 @@
+package com.grb.transport.pipeline;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.tcp.TCPTransportClient;
+
+/**
+ * A stage's place in its {@link TransportPipeline}. Created once per stage
+ * when it is added, so passing data along allocates nothing.
+ */
+public class StageContext {
+    protected TransportPipeline mPipeline;
+    protected int mNextInbound;
+    protected int mNextOutbound;
+
+    /**
+     * @param nextInbound Index of the inbound stage after this one.
+     * @param nextOutbound Index of the outbound stage after this one.
+     */
+    public StageContext(TransportPipeline pipeline, int nextInbound, int nextOutbound) {
+        mPipeline = pipeline;
+        mNextInbound = nextInbound;
+        mNextOutbound = nextOutbound;
+    }
+
+    public TransportPipeline getPipeline() {
+        return mPipeline;
+    }
+
+    public TCPTransportClient getClient() {
+        return mPipeline.getClient();
+    }
+
+    /**
+     * Passes data to the next inbound stage.
+     *
+     * @return false if reading should be suspended.
+     */
+    public boolean fireInbound(ByteBuffer data) throws TransportException {
+        return mPipeline.fireInbound(mNextInbound, data);
+    }
+
+    public void fireInboundClosed() {
+        mPipeline.fireInboundClosed(mNextInbound);
+    }
+
+    /**
+     * Passes data to the next outbound stage, the transport after the last
+     * one. From an inbound stage this is the first outbound stage.
+     */
+    public void write(ByteBuffer data) throws TransportException {
+        if (mNextOutbound == 0) {
+            mPipeline.write(data);
+        } else {
+            mPipeline.fireOutbound(mNextOutbound, data);
+        }
+    }
+
+    /**
+     * Passes the buffers on as one write. The client gets them in one
+     * gathering write, so either all of them are taken or, above its high
+     * watermark, none. The next outbound stage gets the whole array.
+     */
+    public void write(ByteBuffer[] data) throws TransportException {
+        if (mNextOutbound == 0) {
+            mPipeline.write(data);
+        } else {
+            mPipeline.fireOutbound(mNextOutbound, data);
+        }
+    }
+
+    /**
+     * Passes the flush to the next outbound stage, the client after the
+     * last one.
+     */
+    public void flush() throws TransportException {
+        if (mNextOutbound == 0) {
+            mPipeline.flush();
+        } else {
+            mPipeline.fireFlush(mNextOutbound);
+        }
+    }
+}
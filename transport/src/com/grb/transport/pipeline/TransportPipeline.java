@@ -0,0 +1,201 @@
+package com.grb.transport.pipeline;
+
+import java.nio.ByteBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportOperation;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.tcp.TCPTransportClient;
+
+/**
+ * Ordered inbound and outbound stages attached to a client. Received
+ * data goes through the inbound stages in the order they were added, on
+ * the reactor thread. Data written to the pipeline goes through the
+ * outbound stages in the order they were added, the last passing it to
+ * the client, which copies what it can't send straight away. Outbound
+ * stages run on the writing thread, one writer at a time.
+ * <p>
+ * Stages are added before reading starts. Data passed on by the last
+ * inbound stage is dropped.
+ */
+public class TransportPipeline implements TransportReadListener {
+    private static final Log Trace = LogFactory.getLog(TransportPipeline.class);
+
+    protected TCPTransportClient mClient;
+    protected InboundStage[] mInbound;
+    protected StageContext[] mInboundCtx;
+    protected OutboundStage[] mOutbound;
+    protected StageContext[] mOutboundCtx;
+    protected Object mOutboundLock;
+    protected volatile boolean mStarted;
+
+    public TransportPipeline(TCPTransportClient client) {
+        mClient = client;
+        mInbound = new InboundStage[0];
+        mInboundCtx = new StageContext[0];
+        mOutbound = new OutboundStage[0];
+        mOutboundCtx = new StageContext[0];
+        mOutboundLock = new Object();
+        mStarted = false;
+    }
+
+    public TCPTransportClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * Adds a stage after the existing inbound stages.
+     */
+    public synchronized void addInbound(InboundStage stage) {
+        if (mStarted) {
+            throw new IllegalStateException("Pipeline already reading");
+        }
+        int count = mInbound.length;
+        InboundStage[] stages = new InboundStage[count + 1];
+        StageContext[] ctxs = new StageContext[count + 1];
+        System.arraycopy(mInbound, 0, stages, 0, count);
+        System.arraycopy(mInboundCtx, 0, ctxs, 0, count);
+        stages[count] = stage;
+        ctxs[count] = new StageContext(this, count + 1, 0);
+        mInbound = stages;
+        mInboundCtx = ctxs;
+    }
+
+    /**
+     * Adds a stage after the existing outbound stages, nearer the client.
+     */
+    public void addOutbound(OutboundStage stage) {
+        synchronized(mOutboundLock) {
+            int count = mOutbound.length;
+            OutboundStage[] stages = new OutboundStage[count + 1];
+            StageContext[] ctxs = new StageContext[count + 1];
+            System.arraycopy(mOutbound, 0, stages, 0, count);
+            System.arraycopy(mOutboundCtx, 0, ctxs, 0, count);
+            stages[count] = stage;
+            ctxs[count] = new StageContext(this, Integer.MAX_VALUE, count + 1);
+            mOutbound = stages;
+            mOutboundCtx = ctxs;
+        }
+    }
+
+    /**
+     * Starts the client reading into buffers from the pool, which keeps
+     * the bytes the first inbound stage leaves for the next read.
+     */
+    public void startReading(TransportBufferPool pool) throws TransportException {
+        mStarted = true;
+        mClient.startReading(this, pool);
+    }
+
+    /**
+     * Starts the client reading into a dedicated buffer, which the first
+     * inbound stage must clear or compact.
+     */
+    public void startReading(ByteBuffer buffer) throws TransportException {
+        mStarted = true;
+        mClient.startReading(this, buffer);
+    }
+
+    /**
+     * Passes data through the outbound stages to the client.
+     *
+     * @throws TransportException Including when the client's outbound queue
+     * is above its high watermark.
+     */
+    public void write(ByteBuffer data) throws TransportException {
+        synchronized(mOutboundLock) {
+            fireOutbound(0, data);
+        }
+    }
+
+    /**
+     * Passes the buffers through the outbound stages, see
+     * {@link StageContext#write(ByteBuffer[])}.
+     */
+    public void write(ByteBuffer[] data) throws TransportException {
+        synchronized(mOutboundLock) {
+            fireOutbound(0, data);
+        }
+    }
+
+    /**
+     * Asks the outbound stages to write anything held back, then the client
+     * to send its coalesced writes.
+     */
+    public void flush() throws TransportException {
+        synchronized(mOutboundLock) {
+            fireFlush(0);
+        }
+    }
+
+    public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+        if (numBytesRead == 0) {
+            fireInboundClosed(0);
+            return false;
+        }
+        try {
+            return fireInbound(0, readBuffer);
+        } catch(TransportException e) {
+            if (Trace.isErrorEnabled()) {
+                Trace.error("Inbound stage failed, closing " + mClient, e);
+            }
+            mClient.close(TransportOperation.Reading, e);
+            return false;
+        }
+    }
+
+    protected boolean fireInbound(int index, ByteBuffer data) throws TransportException {
+        if (index >= mInbound.length) {
+            data.position(data.limit());
+            return true;
+        }
+        return mInbound[index].onInbound(mInboundCtx[index], data);
+    }
+
+    protected void fireInboundClosed(int index) {
+        if (index < mInbound.length) {
+            mInbound[index].onInboundClosed(mInboundCtx[index]);
+        }
+    }
+
+    protected void fireOutbound(int index, ByteBuffer data) throws TransportException {
+        if (index < mOutbound.length) {
+            mOutbound[index].onOutbound(mOutboundCtx[index], data);
+        } else {
+            writeToClient(data);
+        }
+    }
+
+    protected void fireOutbound(int index, ByteBuffer[] data) throws TransportException {
+        if (index < mOutbound.length) {
+            mOutbound[index].onOutbound(mOutboundCtx[index], data);
+        } else {
+            writeToClient(data);
+        }
+    }
+
+    protected void fireFlush(int index) throws TransportException {
+        if (index < mOutbound.length) {
+            mOutbound[index].onFlush(mOutboundCtx[index]);
+        } else {
+            mClient.flush();
+        }
+    }
+
+    protected void writeToClient(ByteBuffer data) throws TransportException {
+        if (mClient.writeAsync(data, (TransportSendResult)null) < 0) {
+            throw new TransportException("Outbound queue is above its high watermark");
+        }
+    }
+
+    protected void writeToClient(ByteBuffer[] data) throws TransportException {
+        if (mClient.writeAsync(data, (TransportSendResult)null) < 0) {
+            throw new TransportException("Outbound queue is above its high watermark");
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.grb.transport.pipeline.test;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.framing.LengthFieldFrameDecoder;
+import com.grb.transport.pipeline.FrameDecoderStage;
+import com.grb.transport.pipeline.InboundStage;
+import com.grb.transport.pipeline.LengthFieldFrameEncoderStage;
+import com.grb.transport.pipeline.OutboundStage;
+import com.grb.transport.pipeline.StageContext;
+import com.grb.transport.pipeline.TransportPipeline;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+import com.grb.util.Reflection;
+
+public class TransportPipelineTest extends TestCase {
+    private static final Log Trace = LogFactory.getLog(TransportPipelineTest.class);
+
+    private static final ExecutorService EventExecutor = Executors.newSingleThreadExecutor();
+    private static final int Port = 3460;
+
+    public TransportPipelineTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(TransportPipelineTest.class);
+    }
+
+    public class UpperCaseStage implements InboundStage {
+        public boolean onInbound(StageContext ctx, ByteBuffer data) throws TransportException {
+            for(int i = data.position(); i < data.limit(); i++) {
+                data.put(i, (byte)Character.toUpperCase((char)data.get(i)));
+            }
+            return ctx.fireInbound(data);
+        }
+        public void onInboundClosed(StageContext ctx) {
+            ctx.fireInboundClosed();
+        }
+    }
+
+    public class EchoStage implements InboundStage {
+        public boolean onInbound(StageContext ctx, ByteBuffer data) throws TransportException {
+            ctx.write(data);
+            return true;
+        }
+        public void onInboundClosed(StageContext ctx) {
+        }
+    }
+
+    public class CollectingStage implements InboundStage {
+        public ArrayList<String> frames = new ArrayList<String>();
+        public volatile boolean closed = false;
+        public synchronized boolean onInbound(StageContext ctx, ByteBuffer data) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            frames.add(new String(bytes));
+            return true;
+        }
+        public void onInboundClosed(StageContext ctx) {
+            closed = true;
+        }
+        public synchronized int size() {
+            return frames.size();
+        }
+    }
+
+    public class HoldingStage implements OutboundStage {
+        public ByteBuffer held = ByteBuffer.allocate(1024);
+        public ArrayList<Integer> lengths = new ArrayList<Integer>();
+        public void onOutbound(StageContext ctx, ByteBuffer data) {
+            lengths.add(data.remaining());
+            held.put(data);
+        }
+        public void onOutbound(StageContext ctx, ByteBuffer[] data) {
+            int length = 0;
+            for(int i = 0; i < data.length; i++) {
+                length += data[i].remaining();
+                held.put(data[i]);
+            }
+            lengths.add(length);
+        }
+        public void onFlush(StageContext ctx) throws TransportException {
+            held.flip();
+            for(int i = 0; i < lengths.size(); i++) {
+                ByteBuffer frame = held.slice();
+                frame.limit(lengths.get(i));
+                held.position(held.position() + lengths.get(i));
+                ctx.write(frame);
+            }
+            held.clear();
+            lengths.clear();
+            ctx.flush();
+        }
+    }
+
+    public class PassingStage implements OutboundStage {
+        public int numWrites = 0;
+        public int numGatheringWrites = 0;
+        public void onOutbound(StageContext ctx, ByteBuffer data) throws TransportException {
+            numWrites++;
+            ctx.write(data);
+        }
+        public void onOutbound(StageContext ctx, ByteBuffer[] data) throws TransportException {
+            numGatheringWrites++;
+            ctx.write(data);
+        }
+        public void onFlush(StageContext ctx) throws TransportException {
+            ctx.flush();
+        }
+    }
+
+    public class PipelineServerListener implements TCPTransportServerConnectionListener {
+        public TransportBufferPool pool = new TransportBufferPool();
+        public volatile TCPTransportClient client;
+        public int maxFrameLength = 1024;
+        public void onNewConnection(TCPTransportClient client) {
+            try {
+                TransportPipeline pipeline = new TransportPipeline(client);
+                pipeline.addInbound(new FrameDecoderStage(new LengthFieldFrameDecoder(null, 2, maxFrameLength)));
+                pipeline.addInbound(new UpperCaseStage());
+                pipeline.addInbound(new EchoStage());
+                pipeline.addOutbound(new LengthFieldFrameEncoderStage(2));
+                pipeline.startReading(pool);
+                this.client = client;
+            } catch(TransportException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Creates a server, retrying the bind while the previous test's server
+     * socket is released, which happens once its reactor deregisters it.
+     */
+    public TCPTransportServer newServer(TCPTransportServerProperties serverProps,
+            TCPTransportServerConnectionListener listener) throws Exception {
+        for(int i = 0; ; i++) {
+            try {
+                return new TCPTransportServer(serverProps, listener);
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    public TCPTransportClient connect(ReactorThread reactor) throws TransportException {
+        TCPTransportClientProperties props = new TCPTransportClientProperties(new InetSocketAddress(Port), EventExecutor, reactor,
+                new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, null, null, null)),
+                ByteBuffer.allocateDirect(10000), 10, TimeUnit.SECONDS);
+        TCPTransportClient client = new TCPTransportClient(props);
+        client.connect(5, TimeUnit.SECONDS);
+        return client;
+    }
+
+    public void testEcho() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            server = newServer(serverProps, new PipelineServerListener());
+            server.startAccepting();
+
+            TCPTransportClient client = connect(reactor);
+            TransportPipeline pipeline = new TransportPipeline(client);
+            CollectingStage collector = new CollectingStage();
+            HoldingStage holder = new HoldingStage();
+            pipeline.addInbound(new FrameDecoderStage(new LengthFieldFrameDecoder(null, 2)));
+            pipeline.addInbound(collector);
+            pipeline.addOutbound(holder);
+            pipeline.addOutbound(new LengthFieldFrameEncoderStage(2));
+            pipeline.startReading(new TransportBufferPool());
+
+            pipeline.write(ByteBuffer.wrap("hello".getBytes()));
+            pipeline.write(ByteBuffer.wrap("pipeline".getBytes()));
+            Thread.sleep(200);
+            // held back until flushed
+            assertEquals(0, collector.size());
+            pipeline.flush();
+            for(int i = 0; (i < 100) && (collector.size() < 2); i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(2, collector.size());
+            assertEquals("HELLO", collector.frames.get(0));
+            assertEquals("PIPELINE", collector.frames.get(1));
+            try {
+                pipeline.addInbound(new EchoStage());
+                fail("should throw");
+            } catch(IllegalStateException e) {
+                // ok
+            }
+            client.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testInboundErrorClosesClient() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            PipelineServerListener serverListener = new PipelineServerListener();
+            serverListener.maxFrameLength = 4;
+            server = newServer(serverProps, serverListener);
+            server.startAccepting();
+
+            TCPTransportClient client = connect(reactor);
+            TransportPipeline pipeline = new TransportPipeline(client);
+            CollectingStage collector = new CollectingStage();
+            pipeline.addInbound(collector);
+            pipeline.addOutbound(new LengthFieldFrameEncoderStage(2));
+            pipeline.startReading(new TransportBufferPool());
+            pipeline.write(ByteBuffer.wrap("too long".getBytes()));
+            for(int i = 0; (i < 100) && (!collector.closed); i++) {
+                Thread.sleep(20);
+            }
+            assertTrue(serverListener.client.isDisconnected());
+            // the client side sees the close as end of stream
+            assertTrue(collector.closed);
+            assertEquals(0, collector.size());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public ByteBuffer frame(int length, int value) {
+        ByteBuffer frame = ByteBuffer.allocate(length + 2);
+        LengthFieldFrameDecoder.putLength(frame, 2, length);
+        while (frame.hasRemaining()) {
+            frame.put((byte)value);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    public void testLargeFrameAtHighWatermark() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        largeFrameAtHighWatermark(null);
+    }
+
+    public void testLargeFrameThroughLaterStage() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        PassingStage passing = new PassingStage();
+        largeFrameAtHighWatermark(passing);
+        // the large frame, sent and refused, kept its prefix with it
+        assertEquals(2, passing.numGatheringWrites);
+        assertEquals(1, passing.numWrites);
+    }
+
+    /**
+     * Sends a frame too big for the encoder's scratch buffer when one more
+     * byte puts the client over its high watermark.
+     *
+     * @param after Outbound stage after the encoder, or null.
+     */
+    public void largeFrameAtHighWatermark(OutboundStage after) {
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            // reads nothing until the client is over its high watermark
+            final TCPTransportClient[] accepted = new TCPTransportClient[1];
+            server = newServer(serverProps, new TCPTransportServerConnectionListener() {
+                public void onNewConnection(TCPTransportClient client) {
+                    accepted[0] = client;
+                }
+            });
+            server.startAccepting();
+
+            int highWatermark = 16 * 1024;
+            TCPTransportClientProperties props = new TCPTransportClientProperties(new InetSocketAddress(Port), EventExecutor, reactor,
+                    new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, null, null, null)),
+                    ByteBuffer.allocateDirect(10000), 10, TimeUnit.SECONDS, highWatermark, highWatermark / 2);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+
+            // fill the socket then queue up to a byte below the high watermark
+            int frames = 0;
+            while (client.getQueuedWriteBytes() == 0) {
+                client.writeAsync(frame(998, frames++ % 100), (TransportSendResult)null);
+            }
+            while ((highWatermark - 1 - client.getQueuedWriteBytes()) >= 1003) {
+                client.writeAsync(frame(998, frames++ % 100), (TransportSendResult)null);
+            }
+            int fill = (int)(highWatermark - 1 - client.getQueuedWriteBytes());
+            client.writeAsync(frame(fill - 2, frames++ % 100), (TransportSendResult)null);
+            assertEquals(highWatermark - 1, client.getQueuedWriteBytes());
+            assertTrue(client.isWritable());
+
+            TransportPipeline pipeline = new TransportPipeline(client);
+            // bigger than the scratch buffer, the prefix alone would cross the watermark
+            pipeline.addOutbound(new LengthFieldFrameEncoderStage(2, 16));
+            if (after != null) {
+                pipeline.addOutbound(after);
+            }
+            byte[] payload = new byte[1000];
+            Arrays.fill(payload, (byte)(frames++ % 100));
+            pipeline.write(ByteBuffer.wrap(payload));
+            assertFalse(client.isWritable());
+            try {
+                pipeline.write(ByteBuffer.wrap(payload));
+                fail("should throw");
+            } catch(TransportException e) {
+                // ok
+            }
+
+            TransportPipeline serverPipeline = new TransportPipeline(accepted[0]);
+            CollectingStage collector = new CollectingStage();
+            serverPipeline.addInbound(new FrameDecoderStage(new LengthFieldFrameDecoder(null, 2, 1000)));
+            serverPipeline.addInbound(collector);
+            serverPipeline.startReading(new TransportBufferPool());
+            for(int i = 0; (i < 250) && (!client.isWritable()); i++) {
+                Thread.sleep(20);
+            }
+            pipeline.write(ByteBuffer.wrap("last".getBytes()));
+            for(int i = 0; (i < 250) && (collector.size() < (frames + 1)); i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(frames + 1, collector.size());
+            for(int i = 0; i < frames; i++) {
+                String frame = collector.frames.get(i);
+                assertEquals(i % 100, frame.charAt(frame.length() - 1));
+            }
+            assertEquals(1000, collector.frames.get(frames - 1).length());
+            assertEquals("last", collector.frames.get(frames));
+            client.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.grb.transport.tcp;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Publishes a {@link TransportStatsSnapshot} source through JMX. Each
+ * attribute read takes a new snapshot.
+ */
+abstract public class AbstractTransportStats implements TransportStatsMBean {
+    protected String mObjectNamePrefix;
+    protected ObjectName mObjectName;
+
+    protected AbstractTransportStats(String objectNamePrefix) {
+        mObjectNamePrefix = objectNamePrefix;
+        mObjectName = null;
+    }
+
+    /**
+     * @return The current values.
+     */
+    abstract public TransportStatsSnapshot snapshot();
+
+    /**
+     * Registers this with the platform MBean server.
+     *
+     * @param name Name of the connection or server.
+     * @throws JMException If the name is invalid or already registered.
+     */
+    public void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(mObjectNamePrefix + ObjectName.quote(name));
+        // subclasses don't follow the standard MBean naming, so name the interface
+        server.registerMBean(new StandardMBean(this, TransportStatsMBean.class), objectName);
+        mObjectName = objectName;
+    }
+
+    public void unregister() throws JMException {
+        if (mObjectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+            mObjectName = null;
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return mObjectName;
+    }
+
+    public long getConnectionCount() {
+        return snapshot().getConnectionCount();
+    }
+
+    public long getOpenConnectionCount() {
+        return snapshot().getOpenConnectionCount();
+    }
+
+    public long getBytesRead() {
+        return snapshot().getBytesRead();
+    }
+
+    public long getReadCount() {
+        return snapshot().getReadCount();
+    }
+
+    public long getBytesWritten() {
+        return snapshot().getBytesWritten();
+    }
+
+    public long getWriteCount() {
+        return snapshot().getWriteCount();
+    }
+
+    public long getPartialWriteCount() {
+        return snapshot().getPartialWriteCount();
+    }
+
+    public long getRejectedWriteCount() {
+        return snapshot().getRejectedWriteCount();
+    }
+
+    public long getSocketWriteCount() {
+        return snapshot().getSocketWriteCount();
+    }
+
+    public long getBackpressureTimeInMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(snapshot().getBackpressureNanos());
+    }
+
+    public long getBlockedWriteTimeInMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(snapshot().getBlockedWriteNanos());
+    }
+
+    public long getMaxQueuedWriteBytes() {
+        return snapshot().getMaxQueuedWriteBytes();
+    }
+
+    public long getConnectCount() {
+        return snapshot().getConnectCount();
+    }
+
+    public long getMeanConnectTimeInMicros() {
+        TransportStatsSnapshot snapshot = snapshot();
+        if (snapshot.getConnectCount() == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(snapshot.getConnectNanos() / snapshot.getConnectCount());
+    }
+
+    public long getMaxConnectTimeInMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(snapshot().getMaxConnectNanos());
+    }
+
+    public long getCloseCount() {
+        return snapshot().getCloseCount();
+    }
+
+    public long getErrorCloseCount() {
+        return snapshot().getErrorCloseCount();
+    }
+
+    public String getCloseReason() {
+        return snapshot().getCloseReason();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
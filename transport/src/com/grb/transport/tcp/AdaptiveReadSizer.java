@@ -0,0 +1,52 @@
+package com.grb.transport.tcp;
+
+/**
+ * Picks the size of the next pooled read buffer from the bytes read by
+ * recent read events. The size doubles as soon as an event fills the
+ * buffer it was given and halves only after two events in a row that
+ * would have fit in half of it, so a single small read doesn't shrink
+ * a busy connection.
+ */
+public class AdaptiveReadSizer {
+    protected int mMinSize;
+    protected int mMaxSize;
+    protected int mNextSize;
+    protected int mSmallReads;
+
+    /**
+     * @param minSize Smallest size returned.
+     * @param maxSize Largest size returned.
+     * @param initialSize Size returned until the first read is recorded.
+     */
+    public AdaptiveReadSizer(int minSize, int maxSize, int initialSize) {
+        if ((minSize <= 0) || (minSize > maxSize)) {
+            throw new IllegalArgumentException("Invalid read sizes: min=" + minSize +
+                    ", max=" + maxSize);
+        }
+        mMinSize = minSize;
+        mMaxSize = maxSize;
+        mNextSize = Math.max(minSize, Math.min(maxSize, initialSize));
+        mSmallReads = 0;
+    }
+
+    public int getNextReadSize() {
+        return mNextSize;
+    }
+
+    /**
+     * @param bytesRead Bytes read by one read event.
+     */
+    public void record(int bytesRead) {
+        if (bytesRead >= mNextSize) {
+            mNextSize = Math.min(mMaxSize, mNextSize << 1);
+            mSmallReads = 0;
+        } else if ((bytesRead <= (mNextSize >> 1)) && (mNextSize > mMinSize)) {
+            if (++mSmallReads >= 2) {
+                mNextSize = Math.max(mMinSize, mNextSize >> 1);
+                mSmallReads = 0;
+            }
+        } else {
+            mSmallReads = 0;
+        }
+    }
+}
@@ -35,15 +35,7 @@ public class DefaultSocketChannelFactory implements SocketChannelFactory {
                 sc.configureBlocking(mProperties.isBlocking());
             }
             Socket s = sc.socket();
-            if (mProperties.getReceiveBufferSize() != null) {
-                s.setReceiveBufferSize(mProperties.getReceiveBufferSize());
-            }
-            if (mProperties.getSendBufferSize() != null) {
-                s.setSendBufferSize(mProperties.getSendBufferSize());
-            }
-            if (mProperties.getTCPNoDelay() != null) {
-                s.setTcpNoDelay(mProperties.getTCPNoDelay());
-            }
+            mProperties.applyTo(s);
             if (mProperties.getLocalAddress() != null) {
                 s.bind(mProperties.getLocalAddress());
             }
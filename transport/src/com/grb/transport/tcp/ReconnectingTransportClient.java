@@ -0,0 +1,868 @@
+package com.grb.transport.tcp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorTimeout;
+import com.grb.service.listener.ListenerCallback;
+import com.grb.service.listener.ListenerService;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportBufferReleaser;
+import com.grb.transport.TransportClient;
+import com.grb.transport.TransportClosedException;
+import com.grb.transport.TransportEvent;
+import com.grb.transport.TransportEventListener;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportOperation;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.TransportState;
+import com.grb.transport.TransportStateChangeEvent;
+import com.grb.transport.TransportWritabilityEvent;
+import com.grb.transport.WriteCompletionHandler;
+import com.grb.util.concurrent.BooleanFutureTask;
+
+/**
+ * A client that reconnects when its connection drops. Each connection is a
+ * {@link TCPTransportClient} made from the same properties, so the socket
+ * channel factory must open a new channel on every call and the remote
+ * address must be set.
+ * <p>
+ * Once the first connection has been made, a dropped connection moves the
+ * client to Connecting and new connections are attempted with jittered
+ * exponential backoff, scheduled on the reactor, until one succeeds or the
+ * client is closed. A drop is seen by a pending read or a failed write, so
+ * a client that doesn't read notices a closed peer only when it writes.
+ * The read listener is registered again on each new connection and sees
+ * a fresh stream, listeners that frame the stream must reset on the
+ * Connecting event. If the first connection can't be
+ * made the client closes, as a TCPTransportClient does.
+ * <p>
+ * Writes made while reconnecting are queued, up to a maximum number of
+ * bytes, and sent in order once connected. Sends already handed to a
+ * connection when it drops fail with its error rather than being resent,
+ * as the peer may have got part of them.
+ */
+public class ReconnectingTransportClient implements TransportClient, TransportEventListener {
+    private static final Log Trace = LogFactory.getLog(ReconnectingTransportClient.class);
+
+    static public long DefaultInitialBackoffMillis = 100;
+    static public long DefaultMaxBackoffMillis = 30 * 1000;
+    static public int DefaultMaxPendingWriteBytes = 1024 * 1024;
+
+    /**
+     * A send queued while reconnecting. It is the completion handler of its
+     * send once handed to a connection, and its own write timeout while queued.
+     */
+    protected class PendingSend implements WriteCompletionHandler, Runnable {
+        public ByteBuffer[] buffers;
+        public TransportBufferReleaser releaser;
+        public WriteCompletionHandler handler;
+        public BooleanFutureTask future;
+        public long sendBytes;
+        public int timeout;
+        public TimeUnit unit;
+        public ReactorTimeout timer;
+
+        public void onWriteComplete(TransportClient client, long numBytes) {
+            complete(this, null);
+        }
+
+        public void onWriteFailed(TransportClient client, TransportException error) {
+            complete(this, error);
+        }
+
+        public void run() {
+            timedOut(this);
+        }
+    }
+
+    protected class ReconnectTask implements Runnable {
+        public void run() {
+            reconnect();
+        }
+    }
+
+    protected class ReplayTask implements Runnable {
+        public void run() {
+            replay();
+        }
+    }
+
+    protected class DisconnectTask implements Runnable {
+        final private TransportStateChangeEvent mCause;
+        public DisconnectTask(TransportStateChangeEvent cause) {
+            mCause = cause;
+        }
+        public void run() {
+            onDisconnected(mCause);
+        }
+    }
+
+    protected TCPTransportClientProperties mProperties;
+    protected long mInitialBackoffMillis;
+    protected long mMaxBackoffMillis;
+    protected int mMaxPendingWriteBytes;
+    protected ListenerService<TransportEventListener, TransportEvent> mListenerService;
+    protected Object mLock;
+    protected volatile TransportState mState;
+    protected volatile TCPTransportClient mClient;
+    protected volatile boolean mEverConnected;
+    protected TCPTransportClient mReplayedClient;
+    protected boolean mPassThrough;
+    protected int mConnectTimeout;
+    protected TimeUnit mConnectTimeoutUnit;
+    protected int mAttempts;
+    protected Random mRandom;
+    protected ReactorTimeout mReconnectTimeout;
+    protected ReconnectTask mReconnectTask;
+    protected ReplayTask mReplayTask;
+    protected LinkedList<PendingSend> mPending;
+    protected long mPendingBytes;
+    protected boolean mRejected;
+    protected TransportReadListener mReadListener;
+    protected ByteBuffer mReadBuffer;
+    protected TransportBufferPool mReadPool;
+    protected AtomicLong mReconnectCount;
+
+    public ReconnectingTransportClient(TCPTransportClientProperties props) {
+        this(props, DefaultInitialBackoffMillis, DefaultMaxBackoffMillis, DefaultMaxPendingWriteBytes);
+    }
+
+    /**
+     * @param initialBackoffMillis Backoff before the first reconnect attempt,
+     * doubled for each failed attempt.
+     * @param maxBackoffMillis Backoff the doubling stops at. Each delay is
+     * chosen at random between half the backoff and the whole of it.
+     * @param maxPendingWriteBytes Bytes queued while reconnecting before
+     * async writes are refused.
+     */
+    public ReconnectingTransportClient(TCPTransportClientProperties props, long initialBackoffMillis,
+            long maxBackoffMillis, int maxPendingWriteBytes) {
+        if (props.getRemoteAddress() == null) {
+            throw new IllegalArgumentException("Remote address must be set to reconnect");
+        }
+        if ((initialBackoffMillis <= 0) || (maxBackoffMillis < initialBackoffMillis)) {
+            throw new IllegalArgumentException("Invalid backoff: initial=" + initialBackoffMillis +
+                    ", max=" + maxBackoffMillis);
+        }
+        mProperties = props;
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mMaxPendingWriteBytes = maxPendingWriteBytes;
+        mListenerService = new ListenerService<TransportEventListener, TransportEvent>(
+                new ListenerCallback<TransportEventListener, TransportEvent>() {
+                    public void onListenerCallback(
+                            TransportEventListener listener,
+                            TransportEvent event, Object userData) {
+                        listener.onTransportEvent(event);
+                    }
+                });
+        mLock = new Object();
+        mState = TransportState.New;
+        mClient = null;
+        mEverConnected = false;
+        mReplayedClient = null;
+        mPassThrough = false;
+        mConnectTimeout = 0;
+        mConnectTimeoutUnit = null;
+        mAttempts = 0;
+        mRandom = new Random();
+        mReconnectTimeout = null;
+        mReconnectTask = new ReconnectTask();
+        mReplayTask = new ReplayTask();
+        mPending = new LinkedList<PendingSend>();
+        mPendingBytes = 0;
+        mRejected = false;
+        mReadListener = null;
+        mReadBuffer = null;
+        mReadPool = null;
+        mReconnectCount = new AtomicLong(0);
+    }
+
+    public TCPTransportClientProperties getProperties() throws TransportException {
+        return mProperties;
+    }
+
+    /**
+     * @return The current connection, null before connecting.
+     */
+    public TCPTransportClient getClient() {
+        return mClient;
+    }
+
+    public TransportState getState() {
+        return mState;
+    }
+
+    /**
+     * @return Reconnect attempts made.
+     */
+    public long getReconnectCount() {
+        return mReconnectCount.get();
+    }
+
+    /**
+     * @return Bytes queued while reconnecting.
+     */
+    public long getPendingWriteBytes() {
+        synchronized(mLock) {
+            return mPendingBytes;
+        }
+    }
+
+    /**
+     * Listeners are told of the client's own state changes, and of its
+     * connections' writability, as events from this client.
+     */
+    public void addEventListener(TransportEventListener listener) throws TransportException {
+        mListenerService.addListener(listener);
+    }
+
+    public void removeEventListener(TransportEventListener listener) throws TransportException {
+        mListenerService.removeListener(listener);
+    }
+
+    public void connect(int timeout, TimeUnit unit) throws TransportException {
+        Future<Boolean> future = connectAsync(timeout, unit);
+        try {
+            future.get();
+        } catch(ExecutionException e) {
+            throw (TransportException)e.getCause();
+        } catch(InterruptedException e) {
+            throw new TransportException("Error connecting", e);
+        }
+        mEverConnected = true;
+        replay();
+    }
+
+    /**
+     * Makes the first connection, the timeout is also used for the
+     * connections made when reconnecting.
+     */
+    public Future<Boolean> connectAsync(int timeout, TimeUnit unit) throws TransportException {
+        TCPTransportClient client;
+        TransportStateChangeEvent event;
+        synchronized(mLock) {
+            if (mState != TransportState.New) {
+                if (mState == TransportState.Disconnected) {
+                    throw new TransportClosedException();
+                }
+                throw new TransportException("Already connected or connecting");
+            }
+            mConnectTimeout = timeout;
+            mConnectTimeoutUnit = unit;
+            client = newClient();
+            mClient = client;
+            event = setState(TransportState.Connecting, TransportOperation.Connecting, null);
+        }
+        mListenerService.notifyListeners(event);
+        return client.connectAsync(timeout, unit);
+    }
+
+    public void close() {
+        TCPTransportClient client;
+        ArrayList<PendingSend> pending;
+        TransportStateChangeEvent event;
+        synchronized(mLock) {
+            event = setState(TransportState.Disconnected, TransportOperation.Closing, null);
+            if (event == null) {
+                return;
+            }
+            client = mClient;
+            mPassThrough = false;
+            if (mReconnectTimeout != null) {
+                mReconnectTimeout.cancel();
+                mReconnectTimeout = null;
+            }
+            pending = takePending();
+        }
+        if (client != null) {
+            client.close();
+        }
+        failAll(pending, new TransportClosedException("Transport closed by application"));
+        mListenerService.notifyListeners(event);
+    }
+
+    public void startReading(TransportReadListener listener, ByteBuffer buffer) throws TransportException {
+        synchronized(mLock) {
+            mReadListener = listener;
+            mReadBuffer = buffer;
+            mReadPool = null;
+            if (mPassThrough) {
+                mClient.startReading(listener, buffer);
+            }
+        }
+    }
+
+    public void startReading(TransportReadListener listener, TransportBufferPool pool) throws TransportException {
+        synchronized(mLock) {
+            mReadListener = listener;
+            mReadBuffer = null;
+            mReadPool = pool;
+            if (mPassThrough) {
+                mClient.startReading(listener, pool);
+            }
+        }
+    }
+
+    /**
+     * Only valid during a read callback, see {@link TCPTransportClient#retainReadBuffer()}.
+     */
+    public ByteBuffer retainReadBuffer() {
+        return mClient.retainReadBuffer();
+    }
+
+    public void stopReading() throws TransportException {
+        synchronized(mLock) {
+            mReadListener = null;
+            mReadBuffer = null;
+            mReadPool = null;
+            if (mPassThrough) {
+                mClient.stopReading();
+            }
+        }
+    }
+
+    public void write(ByteBuffer buffer) throws TransportException {
+        write(buffer, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit());
+    }
+
+    public void write(ByteBuffer buffer, int timeout, TimeUnit unit) throws TransportException {
+        TransportSendResult result = new TransportSendResult();
+        processSendResult(writeAsync(buffer, timeout, unit, result), result);
+    }
+
+    public int writeAsync(ByteBuffer buffer, TransportSendResult result) throws TransportException {
+        return writeAsync(buffer, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), result);
+    }
+
+    /**
+     * See {@link TCPTransportClient#writeAsync(ByteBuffer, int, TimeUnit, TransportSendResult)}.
+     * While reconnecting the buffer is copied to the queue and 0 returned.
+     *
+     * @return -1 If the connection's outbound queue is above its high
+     * watermark or the reconnect queue is full, else bytes written
+     */
+    public int writeAsync(ByteBuffer buffer, int timeout, TimeUnit unit, TransportSendResult result)
+            throws TransportException {
+        synchronized(mLock) {
+            if (mPassThrough) {
+                try {
+                    return mClient.writeAsync(buffer, timeout, unit, result);
+                } catch(TransportClosedException e) {
+                    mPassThrough = false;
+                }
+            }
+            return (int)queue(new ByteBuffer[] {buffer}, 0, 1, true, null, null, timeout, unit, result);
+        }
+    }
+
+    public void write(ByteBuffer[] buffers) throws TransportException {
+        write(buffers, 0, buffers.length);
+    }
+
+    public void write(ByteBuffer[] buffers, int timeout, TimeUnit unit) throws TransportException {
+        write(buffers, 0, buffers.length, timeout, unit);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, TransportSendResult result) throws TransportException {
+        return writeAsync(buffers, 0, buffers.length, result);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int timeout, TimeUnit unit, TransportSendResult result)
+            throws TransportException {
+        return writeAsync(buffers, 0, buffers.length, timeout, unit, result);
+    }
+
+    public void write(ByteBuffer[] buffers, int offset, int length) throws TransportException {
+        write(buffers, offset, length, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit());
+    }
+
+    public void write(ByteBuffer[] buffers, int offset, int length, int timeout, TimeUnit unit)
+            throws TransportException {
+        TransportSendResult result = new TransportSendResult();
+        processSendResult(writeAsync(buffers, offset, length, timeout, unit, result), result);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, TransportSendResult result)
+            throws TransportException {
+        return writeAsync(buffers, offset, length, mProperties.getWriteTimeout(),
+                mProperties.getWriteTimeoutUnit(), result);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, int timeout, TimeUnit unit,
+            TransportSendResult result) throws TransportException {
+        synchronized(mLock) {
+            if (mPassThrough) {
+                try {
+                    return mClient.writeAsync(buffers, offset, length, timeout, unit, result);
+                } catch(TransportClosedException e) {
+                    mPassThrough = false;
+                }
+            }
+            return queue(buffers, offset, length, true, null, null, timeout, unit, result);
+        }
+    }
+
+    public int writeAsync(ByteBuffer buffer, TransportBufferReleaser releaser, TransportSendResult result)
+            throws TransportException {
+        return writeAsync(buffer, releaser, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), result);
+    }
+
+    /**
+     * See {@link TCPTransportClient#writeAsync(ByteBuffer, TransportBufferReleaser, int, TimeUnit, TransportSendResult)}.
+     * While reconnecting the buffer itself is queued.
+     */
+    public int writeAsync(ByteBuffer buffer, TransportBufferReleaser releaser, int timeout, TimeUnit unit,
+            TransportSendResult result) throws TransportException {
+        synchronized(mLock) {
+            if (mPassThrough) {
+                try {
+                    return mClient.writeAsync(buffer, releaser, timeout, unit, result);
+                } catch(TransportClosedException e) {
+                    mPassThrough = false;
+                }
+            }
+            return (int)queue(new ByteBuffer[] {buffer}, 0, 1, false, releaser, null, timeout, unit, result);
+        }
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, TransportBufferReleaser releaser,
+            TransportSendResult result) throws TransportException {
+        return writeAsync(buffers, offset, length, releaser, mProperties.getWriteTimeout(),
+                mProperties.getWriteTimeoutUnit(), result);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, TransportBufferReleaser releaser,
+            int timeout, TimeUnit unit, TransportSendResult result) throws TransportException {
+        synchronized(mLock) {
+            if (mPassThrough) {
+                try {
+                    return mClient.writeAsync(buffers, offset, length, releaser, timeout, unit, result);
+                } catch(TransportClosedException e) {
+                    mPassThrough = false;
+                }
+            }
+            return queue(buffers, offset, length, false, releaser, null, timeout, unit, result);
+        }
+    }
+
+    public int writeAsync(ByteBuffer buffer, WriteCompletionHandler handler) throws TransportException {
+        return writeAsync(buffer, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), handler);
+    }
+
+    /**
+     * See {@link TCPTransportClient#writeAsync(ByteBuffer, int, TimeUnit, WriteCompletionHandler)}.
+     * The handler is told of this client rather than the connection.
+     */
+    public int writeAsync(ByteBuffer buffer, int timeout, TimeUnit unit, WriteCompletionHandler handler)
+            throws TransportException {
+        synchronized(mLock) {
+            if (mPassThrough) {
+                try {
+                    return mClient.writeAsync(buffer, timeout, unit, handler);
+                } catch(TransportClosedException e) {
+                    mPassThrough = false;
+                }
+            }
+            return (int)queue(new ByteBuffer[] {buffer}, 0, 1, false, null, handler, timeout, unit, null);
+        }
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, WriteCompletionHandler handler)
+            throws TransportException {
+        return writeAsync(buffers, offset, length, mProperties.getWriteTimeout(),
+                mProperties.getWriteTimeoutUnit(), handler);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, int timeout, TimeUnit unit,
+            WriteCompletionHandler handler) throws TransportException {
+        synchronized(mLock) {
+            if (mPassThrough) {
+                try {
+                    return mClient.writeAsync(buffers, offset, length, timeout, unit, handler);
+                } catch(TransportClosedException e) {
+                    mPassThrough = false;
+                }
+            }
+            return queue(buffers, offset, length, false, null, handler, timeout, unit, null);
+        }
+    }
+
+    /**
+     * Events from the connections, sent on their event executor. The work
+     * is done on the reactor thread that owns the connection, where its
+     * reconnect timer runs.
+     */
+    public void onTransportEvent(TransportEvent event) {
+        if (event.getTransportClient() != mClient) {
+            // an earlier connection's
+            return;
+        }
+        if (event instanceof TransportStateChangeEvent) {
+            TransportStateChangeEvent scEvent = (TransportStateChangeEvent)event;
+            if (scEvent.getNewState() == TransportState.Connected) {
+                mEverConnected = true;
+                executeOnReactor(mReplayTask);
+            } else if (scEvent.getNewState() == TransportState.Disconnected) {
+                executeOnReactor(new DisconnectTask(scEvent));
+            }
+        } else if (event instanceof TransportWritabilityEvent) {
+            TransportWritabilityEvent wEvent = (TransportWritabilityEvent)event;
+            if (wEvent.isWritable()) {
+                // carries on a replay the connection refused
+                executeOnReactor(mReplayTask);
+            }
+            mListenerService.notifyListeners(new TransportWritabilityEvent(this,
+                    wEvent.isWritable(), wEvent.getQueuedBytes()));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectingTransportClient[state=" + mState + ", client=" + mClient + "]";
+    }
+
+    /**
+     * Runs a task on the reactor thread that owns the current connection.
+     */
+    protected void executeOnReactor(Runnable task) {
+        TCPTransportClient client = mClient;
+        if (client == null) {
+            mProperties.getReactor().execute(task);
+        } else {
+            client.executeOnReactor(task);
+        }
+    }
+
+    /**
+     * Schedules a timeout on the reactor thread that owns the current
+     * connection.
+     */
+    protected ReactorTimeout scheduleTimeout(int timeout, TimeUnit unit, Runnable task) {
+        TCPTransportClient client = mClient;
+        if (client == null) {
+            return mProperties.getReactor().schedule(timeout, unit, task);
+        }
+        return client.scheduleTimeout(timeout, unit, task);
+    }
+
+    protected TCPTransportClient newClient() throws TransportException {
+        TCPTransportClient client = new TCPTransportClient(mProperties);
+        client.addEventListener(this);
+        return client;
+    }
+
+    /**
+     * Called with the lock held.
+     *
+     * @return The event to send once the lock is released, null if the
+     * state didn't change or the client is closed.
+     */
+    protected TransportStateChangeEvent setState(TransportState newState, TransportOperation operation,
+            Object reason) {
+        TransportState oldState = mState;
+        if ((oldState == newState) || (oldState == TransportState.Disconnected)) {
+            return null;
+        }
+        mState = newState;
+        return new TransportStateChangeEvent(this, oldState, newState, operation, reason);
+    }
+
+    /**
+     * The current connection dropped or a reconnect attempt failed.
+     */
+    protected void onDisconnected(TransportStateChangeEvent cause) {
+        TransportStateChangeEvent event;
+        ArrayList<PendingSend> failed = null;
+        synchronized(mLock) {
+            if ((cause.getTransportClient() != mClient) || (mState == TransportState.Disconnected)) {
+                return;
+            }
+            mPassThrough = false;
+            if (mEverConnected) {
+                event = setState(TransportState.Connecting, cause.getOperation(), cause.getReason());
+                scheduleReconnect();
+            } else {
+                event = setState(TransportState.Disconnected, cause.getOperation(), cause.getReason());
+                failed = takePending();
+            }
+        }
+        if (failed != null) {
+            TransportException error = (cause.getReason() instanceof TransportException) ?
+                    (TransportException)cause.getReason() : new TransportClosedException("Transport closed");
+            failAll(failed, error);
+        }
+        if (event != null) {
+            mListenerService.notifyListeners(event);
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    protected void scheduleReconnect() {
+        long backoff = mInitialBackoffMillis;
+        for(int i = 0; (i < mAttempts) && (backoff < mMaxBackoffMillis); i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, mMaxBackoffMillis);
+        mAttempts++;
+        // jittered so clients dropped together don't all come back at once
+        long delay = (backoff / 2) + (long)(mRandom.nextDouble() * (backoff - (backoff / 2)));
+        if (Trace.isInfoEnabled()) {
+            Trace.info("Reconnecting to " + mProperties.getRemoteAddress() + " in " + delay +
+                    "ms, attempt " + mAttempts);
+        }
+        mReconnectTimeout = scheduleTimeout((int)Math.min(delay, Integer.MAX_VALUE),
+                TimeUnit.MILLISECONDS, mReconnectTask);
+    }
+
+    protected void reconnect() {
+        TCPTransportClient client;
+        synchronized(mLock) {
+            mReconnectTimeout = null;
+            if (mState == TransportState.Disconnected) {
+                return;
+            }
+            mReconnectCount.incrementAndGet();
+            try {
+                client = newClient();
+            } catch(TransportException e) {
+                if (Trace.isWarnEnabled()) {
+                    Trace.warn("Error creating client for " + mProperties.getRemoteAddress(), e);
+                }
+                scheduleReconnect();
+                return;
+            }
+            mClient = client;
+        }
+        try {
+            client.connectAsync(mConnectTimeout, mConnectTimeoutUnit);
+        } catch(TransportException e) {
+            // the client has closed and its Disconnected event schedules the next attempt
+        }
+    }
+
+    /**
+     * Registers the read listener on a new connection and sends the queued
+     * writes until the connection refuses one, after which writes go
+     * straight to the connection.
+     */
+    protected void replay() {
+        TransportStateChangeEvent event = null;
+        boolean writable = false;
+        synchronized(mLock) {
+            TCPTransportClient client = mClient;
+            if ((client == null) || client.isDisconnected() || (mState == TransportState.Disconnected)) {
+                return;
+            }
+            if (mReplayedClient != client) {
+                mReplayedClient = client;
+                mAttempts = 0;
+                try {
+                    if (mReadBuffer != null) {
+                        // left over bytes belong to the old stream
+                        mReadBuffer.clear();
+                        client.startReading(mReadListener, mReadBuffer);
+                    } else if (mReadListener != null) {
+                        client.startReading(mReadListener, mReadPool);
+                    }
+                } catch(TransportException e) {
+                    // dropped again
+                    return;
+                }
+                event = setState(TransportState.Connected, TransportOperation.Connecting, null);
+            }
+            while (!mPending.isEmpty()) {
+                PendingSend ps = mPending.getFirst();
+                long numWritten;
+                try {
+                    numWritten = client.writeAsync(ps.buffers, 0, ps.buffers.length, ps.timeout, ps.unit, ps);
+                } catch(TransportClosedException e) {
+                    break;
+                } catch(TransportException e) {
+                    mPending.removeFirst();
+                    mPendingBytes -= ps.sendBytes;
+                    ps.timer.cancel();
+                    complete(ps, e);
+                    continue;
+                }
+                if (numWritten < 0) {
+                    break;
+                }
+                mPending.removeFirst();
+                mPendingBytes -= ps.sendBytes;
+                ps.timer.cancel();
+            }
+            if (mPending.isEmpty() && !client.isDisconnected()) {
+                mPassThrough = true;
+                writable = mRejected;
+                mRejected = false;
+            }
+        }
+        if (event != null) {
+            mListenerService.notifyListeners(event);
+        }
+        if (writable) {
+            mListenerService.notifyListeners(new TransportWritabilityEvent(this, true, 0));
+        }
+    }
+
+    /**
+     * Queues a send until connected. Called with the lock held.
+     *
+     * @param copy True to copy the buffers, else they are queued as they are.
+     * @return -1 If the queue is full, else 0
+     */
+    protected long queue(ByteBuffer[] buffers, int offset, int length, boolean copy,
+            TransportBufferReleaser releaser, WriteCompletionHandler handler,
+            int timeout, TimeUnit unit, TransportSendResult result) throws TransportException {
+        if (mState == TransportState.Disconnected) {
+            throw new TransportClosedException();
+        }
+        if (mState == TransportState.New) {
+            throw new TransportException("Not connected");
+        }
+        long sendBytes = 0;
+        for(int i = offset; i < (offset + length); i++) {
+            sendBytes += buffers[i].remaining();
+        }
+        // one send bigger than the queue is still taken when the queue is empty
+        if ((!mPending.isEmpty()) && ((mPendingBytes + sendBytes) > mMaxPendingWriteBytes)) {
+            mRejected = true;
+            if (result != null) {
+                PendingSend tail = mPending.getLast();
+                if (tail.future == null) {
+                    tail.future = new BooleanFutureTask();
+                }
+                result.setFuture(tail.future);
+            }
+            return -1;
+        }
+        PendingSend ps = new PendingSend();
+        if (copy) {
+            ByteBuffer pending = ByteBuffer.allocate((int)sendBytes);
+            for(int i = offset; i < (offset + length); i++) {
+                pending.put(buffers[i]);
+            }
+            pending.flip();
+            ps.buffers = new ByteBuffer[] {pending};
+        } else {
+            ps.buffers = new ByteBuffer[length];
+            System.arraycopy(buffers, offset, ps.buffers, 0, length);
+            ps.releaser = releaser;
+        }
+        ps.handler = handler;
+        if (handler == null) {
+            ps.future = new BooleanFutureTask();
+        }
+        ps.sendBytes = sendBytes;
+        ps.timeout = timeout;
+        ps.unit = unit;
+        ps.timer = scheduleTimeout(timeout, unit, ps);
+        mPending.addLast(ps);
+        mPendingBytes += sendBytes;
+        if (result != null) {
+            result.setFuture(ps.future);
+        }
+        return 0;
+    }
+
+    /**
+     * A queued send timed out waiting for a connection. The sends queued
+     * with it fail too so nothing is sent out of order.
+     */
+    protected void timedOut(PendingSend ps) {
+        ArrayList<PendingSend> failed;
+        synchronized(mLock) {
+            if (!mPending.contains(ps)) {
+                return;
+            }
+            failed = takePending();
+        }
+        failAll(failed, new TransportException("Write Timeout", new TimeoutException()));
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    protected ArrayList<PendingSend> takePending() {
+        ArrayList<PendingSend> pending = new ArrayList<PendingSend>(mPending);
+        mPending.clear();
+        mPendingBytes = 0;
+        for(PendingSend ps : pending) {
+            ps.timer.cancel();
+        }
+        return pending;
+    }
+
+    protected void failAll(ArrayList<PendingSend> pending, TransportException error) {
+        for(PendingSend ps : pending) {
+            complete(ps, error);
+        }
+    }
+
+    protected void complete(PendingSend ps, TransportException error) {
+        if (ps.releaser != null) {
+            for(ByteBuffer buffer : ps.buffers) {
+                try {
+                    ps.releaser.releaseBuffer(buffer);
+                } catch(Throwable t) {
+                    if (Trace.isErrorEnabled()) {
+                        Trace.error("Error releasing buffer", t);
+                    }
+                }
+            }
+        }
+        if (ps.future != null) {
+            if (error == null) {
+                ps.future.setDone();
+            } else {
+                ps.future.setDone(error);
+            }
+        }
+        if (ps.handler != null) {
+            try {
+                if (error == null) {
+                    ps.handler.onWriteComplete(this, ps.sendBytes);
+                } else {
+                    ps.handler.onWriteFailed(this, error);
+                }
+            } catch(Throwable t) {
+                if (Trace.isErrorEnabled()) {
+                    Trace.error("Error in write completion handler", t);
+                }
+            }
+        }
+    }
+
+    private void processSendResult(long numWritten, TransportSendResult result) throws TransportException {
+        if (numWritten == -1) {
+            throw new TransportException("blocking send performed when previous send not complete");
+        }
+        if (result.getFuture() != null) {
+            try {
+                result.getFuture().get();
+            } catch (InterruptedException e) {
+                throw new TransportException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TransportException) {
+                    throw (TransportException)e.getCause();
+                }
+                throw new TransportException(e);
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.grb.transport.tcp;
 
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
 
 public class SocketChannelProperties {
     protected Boolean mIsBlocking;
@@ -41,4 +43,21 @@ public class SocketChannelProperties {
     public Integer getSendBufferSize() {
         return mSendBufferSize;
     }
+
+    /**
+     * Applies the buffer sizes and TCP_NODELAY to a socket, leaving unset
+     * options at their defaults. Blocking mode and the local address are
+     * applied by the {@link SocketChannelFactory}.
+     */
+    public void applyTo(Socket s) throws SocketException {
+        if (mReceiveBufferSize != null) {
+            s.setReceiveBufferSize(mReceiveBufferSize);
+        }
+        if (mSendBufferSize != null) {
+            s.setSendBufferSize(mSendBufferSize);
+        }
+        if (mTCPNoDelay != null) {
+            s.setTcpNoDelay(mTCPNoDelay);
+        }
+    }
 }
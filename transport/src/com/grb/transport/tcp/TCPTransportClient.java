@@ -19,17 +19,21 @@ import org.apache.commons.logging.LogFactory;
 
 import com.grb.reactor.ClientReactorHandler;
 import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorGroup;
+import com.grb.reactor.ReactorThread;
+import com.grb.reactor.ReactorTimeout;
 import com.grb.service.listener.ListenerCallback;
 import com.grb.service.listener.ListenerService;
 import com.grb.service.state.StateChangeCallback;
 import com.grb.service.state.StateChangeController;
 import com.grb.service.state.StateChangeListener;
 import com.grb.service.state.StateService;
-import com.grb.service.timer.intervalTimer.IntervalTimer;
-import com.grb.service.timer.intervalTimer.IntervalTimerTimeoutListener;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportBufferReleaser;
 import com.grb.transport.TransportClient;
 import com.grb.transport.TransportClientProperties;
 import com.grb.transport.TransportClosedException;
+import com.grb.transport.TransportEvent;
 import com.grb.transport.TransportEventListener;
 import com.grb.transport.TransportException;
 import com.grb.transport.TransportOperation;
@@ -37,6 +41,8 @@ import com.grb.transport.TransportReadListener;
 import com.grb.transport.TransportSendResult;
 import com.grb.transport.TransportState;
 import com.grb.transport.TransportStateChangeEvent;
+import com.grb.transport.TransportWritabilityEvent;
+import com.grb.transport.WriteCompletionHandler;
 import com.grb.util.concurrent.BooleanFutureTask;
 import com.grb.util.logging.LoggingContext;
 
@@ -67,8 +73,8 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         }
     }
     
-    protected class ConnectTimeoutListener implements IntervalTimerTimeoutListener {
-        public void onIntervalTimeout() {
+    protected class ConnectTimeoutTask implements Runnable {
+        public void run() {
             final TransportException te = new TransportException("Connect Timeout", 
                     new TimeoutException());
             StateChangeController<TransportState> ctrller = new StateChangeController<TransportState>() {                
@@ -88,19 +94,48 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         }    
     }
 
-    protected class WriteTimeoutListener implements IntervalTimerTimeoutListener {
-        final private long mMyWriteIndex;
-        public WriteTimeoutListener(long writeIndex) {
-            mMyWriteIndex = writeIndex;
+    /**
+     * A buffer waiting in the outbound queue. Only the last buffer of 
+     * a send has the future or completion handler and the write timeout. 
+     * Once written or failed it waits in the completed writes until its 
+     * releaser, future and handler are run.
+     */
+    protected class PendingWrite {
+        public ByteBuffer buffer;
+        public TransportBufferReleaser releaser;
+        public BooleanFutureTask future;
+        public WriteCompletionHandler handler;
+        public long sendBytes;
+        public ReactorTimeout timeout;
+        public volatile boolean done;
+        public TransportException error;
+        public PendingWrite next;
+        public PendingWrite(ByteBuffer buffer, TransportBufferReleaser releaser) {
+            this.buffer = buffer;
+            this.releaser = releaser;
+            this.future = null;
+            this.handler = null;
+            this.sendBytes = 0;
+            this.timeout = null;
+            this.done = false;
+            this.error = null;
+            this.next = null;
+        }
+    }
+
+    protected class WriteTimeoutTask implements Runnable {
+        final private PendingWrite mPendingWrite;
+        public WriteTimeoutTask(PendingWrite pendingWrite) {
+            mPendingWrite = pendingWrite;
         }
-        public void onIntervalTimeout() {
+        public void run() {
             final TransportException te = new TransportException("Write Timeout", 
                     new TimeoutException());
             StateChangeController<TransportState> ctrller = new StateChangeController<TransportState>() {
                 public String onStateChangeRequested(TransportState currentState,
                         TransportState proposedState, Object userData)
                         throws Exception {
-                    if ((!mWriteBuffer.hasRemaining()) || (mMyWriteIndex != mWriteIndex)) {
+                    if (mPendingWrite.done) {
                         return "Write Timer";
                     }
                     return null;
@@ -114,16 +149,51 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         }    
     }
 
+    /**
+     * Sends the write batch at the end of the reactor pass it was started in.
+     */
+    protected class FlushTask implements Runnable {
+        public void run() {
+            try {
+                flush();
+            } catch(TransportClosedException e) {
+                // closing already
+            } catch(TransportException e) {
+                close(TransportOperation.Sending, e);
+            }
+        }
+    }
+
     protected TCPTransportClientProperties mProperties;
     protected SocketChannel mSocketChannel;
     protected StateService<TransportState> mStateService;
-    protected ListenerService<TransportEventListener, TransportStateChangeEvent> mListenerService;
+    protected ListenerService<TransportEventListener, TransportEvent> mListenerService;
     protected TransportReadListener mReadListener;
     protected ByteBuffer mReadBuffer;
+    protected TransportBufferPool mReadPool;
+    protected boolean mReadBufferRetained;
+    protected int mReadOffset;
+    protected AdaptiveReadSizer mReadSizer;
     protected ByteBuffer mWriteBuffer;
     protected BooleanFutureTask mConnectFuture;
-    protected BooleanFutureTask mWriteFuture;
-    protected long mWriteIndex;
+    protected boolean mWriteBufferInUse;
+    protected PendingWrite mWriteHead;
+    protected PendingWrite mWriteTail;
+    protected int mWriteQueueSize;
+    protected PendingWrite mCompletedHead;
+    protected PendingWrite mCompletedTail;
+    protected long mQueuedWriteBytes;
+    protected boolean mWritable;
+    protected ByteBuffer[] mGatherBuffers;
+    protected PendingWrite mWriteBatch;
+    protected ByteBuffer mBatchBuffer;
+    protected boolean mBatchBufferInUse;
+    protected int mBatchTimeout;
+    protected TimeUnit mBatchTimeoutUnit;
+    protected boolean mWriteInterest;
+    protected FlushTask mFlushTask;
+    protected ReactorTimeout mConnectTimeout;
+    protected TransportStats mStats;
     protected LoggingContext mLoggingCtx;
     
     @SuppressWarnings("unchecked")
@@ -133,16 +203,20 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
             mSocketChannel = props.getSocketChannelFactory().newSocketChannel();
             mStateService = new StateService<TransportState>(TransportState.New, mProperties.getEventExecutor(), this);
             mStateService.setLoggingContext(this);
-            mListenerService = new ListenerService<TransportEventListener, TransportStateChangeEvent>(
-                    new ListenerCallback<TransportEventListener, TransportStateChangeEvent>() {
+            mListenerService = new ListenerService<TransportEventListener, TransportEvent>(
+                    new ListenerCallback<TransportEventListener, TransportEvent>() {
                         public void onListenerCallback(
                                 TransportEventListener listener,
-                                TransportStateChangeEvent event, Object userData) {
+                                TransportEvent event, Object userData) {
                             listener.onTransportEvent(event);
                         }
                     });
             mListenerService.setLoggingContext(this);
             mReadBuffer = null;
+            mReadPool = null;
+            mReadBufferRetained = false;
+            mReadOffset = 0;
+            mReadSizer = null;
             mWriteBuffer = props.getWriteBuffer();
             mConnectFuture = new BooleanFutureTask();
             // if null remote address then socket factory
@@ -150,8 +224,22 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
             if (mProperties.getRemoteAddress() == null) {
                 mConnectFuture.setDone();
             }
-            mWriteFuture = null;
-            mWriteIndex = 0;
+            mWriteBufferInUse = false;
+            mWriteHead = null;
+            mWriteTail = null;
+            mWriteQueueSize = 0;
+            mQueuedWriteBytes = 0;
+            mWritable = true;
+            mGatherBuffers = new ByteBuffer[props.getMaxBuffersPerWrite()];
+            mWriteBatch = null;
+            mBatchBuffer = null;
+            mBatchBufferInUse = false;
+            mBatchTimeout = 0;
+            mBatchTimeoutUnit = null;
+            mWriteInterest = false;
+            mFlushTask = new FlushTask();
+            mConnectTimeout = null;
+            mStats = props.isStatsEnabled() ? new TransportStats() : null;
             mLoggingCtx = this;
         } catch(IOException e) {
             throw new TransportException(e);
@@ -166,6 +254,13 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         return (InetSocketAddress)mSocketChannel.socket().getRemoteSocketAddress();
     }
 
+    /**
+     * @return The client's counters, null if disabled in its properties.
+     */
+    public TransportStats getStats() {
+        return mStats;
+    }
+
     public boolean isDisconnected() {
     	return mStateService.getState().equals(TransportState.Disconnected);
     }
@@ -207,6 +302,10 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
                         try {
                             mSocketChannel.close();
                         } catch(IOException e) {}
+                        cancelTimeouts();
+                        if (mStats != null) {
+                            mStats.onClose(event.operation, event.error);
+                        }
 
                         if (event.error == null) {
                             mConnectFuture.setDone();   // do we need some indication that it was done by application close
@@ -214,15 +313,16 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
                             mConnectFuture.setDone(event.error);
                         }
                         
-                        if (mWriteFuture != null) {
-                            if (event.error == null) {
-                                mWriteFuture.setDone(new TransportClosedException("Transport closed by application"));
-                            } else {
-                                mWriteFuture.setDone(event.error);
-                            }
+                        if ((event.error == null) && (event.operation == TransportOperation.Reading)) {
+                            failPendingWrites(new TransportClosedException("Transport closed by peer"));
+                        } else if (event.error == null) {
+                            failPendingWrites(new TransportClosedException("Transport closed by application"));
+                        } else {
+                            failPendingWrites(event.error);
                         }
                     }
                 }, ctrller);
+        runCompletions();
     }
     
     public void connect(int timeout, TimeUnit unit) throws TransportException {
@@ -250,10 +350,16 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
             return mConnectFuture;
         }
         try {
+            if (mStats != null) {
+                mStats.onConnecting();
+            }
             if (mSocketChannel.connect(mProperties.getRemoteAddress())) {
                 mStateService.changeStateNoThrow(TransportState.Connecting, 
                         new TransportStateChangeEventUserData(
                                 TransportOperation.Connecting, null));
+                if (mStats != null) {
+                    mStats.onConnected();
+                }
                 mStateService.changeStateNoThrow(TransportState.Connected, 
                     new TransportStateChangeEventUserData(
                             TransportOperation.Connecting, null));
@@ -262,7 +368,7 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
                 mStateService.changeStateNoThrow(TransportState.Connecting, 
                         new TransportStateChangeEventUserData(
                                 TransportOperation.Connecting, null));
-                IntervalTimer.GetIntervalTimer(timeout, unit).schedule(new ConnectTimeoutListener());
+                mConnectTimeout = scheduleTimeout(timeout, unit, new ConnectTimeoutTask());
                 mProperties.getReactor().addConnect(mSocketChannel, this);                
             }
         } catch(AlreadyConnectedException e) {
@@ -277,7 +383,7 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         return mConnectFuture;
     }
 
-    public TransportClientProperties getProperties() throws TransportException {
+    public TCPTransportClientProperties getProperties() throws TransportException {
         return mProperties;
     }
 
@@ -290,6 +396,38 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
             throws TransportException {
         mReadListener = listener;
         mReadBuffer = buffer;
+        mReadPool = null;
+        mReadSizer = null;
+        try {
+            mProperties.getReactor().addRead(mSocketChannel, this);
+        } catch (ClosedChannelException e) {
+            throw new TransportClosedException(e);
+        }
+    }
+
+    /**
+     * Reads into buffers borrowed from the pool only while the socket is 
+     * readable, so idle connections hold no read buffer. The buffer passed 
+     * to the listener goes back to the pool after the callback once it has 
+     * been consumed. Bytes the listener leaves in it are kept, compacted, 
+     * for the next read, and {@link #retainReadBuffer()} keeps the whole 
+     * buffer. The kept bytes grow the buffer up to the pool's largest size, 
+     * if the listener leaves one of those full the client is closed.
+     */
+    public void startReading(TransportReadListener listener, TransportBufferPool pool)
+            throws TransportException {
+        mReadListener = listener;
+        mReadBuffer = null;
+        mReadOffset = 0;
+        mReadPool = pool;
+        if (mProperties.isAdaptiveReadSizing()) {
+            // don't grow past what the pool can hand back out
+            int maxSize = Math.min(mProperties.getMaxReadSize(), pool.getMaxBufferSize());
+            mReadSizer = new AdaptiveReadSizer(Math.min(mProperties.getMinReadSize(), maxSize), 
+                    maxSize, pool.getDefaultBufferSize());
+        } else {
+            mReadSizer = null;
+        }
         try {
             mProperties.getReactor().addRead(mSocketChannel, this);
         } catch (ClosedChannelException e) {
@@ -314,6 +452,12 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
                 return;
             }
             reactor.removeConnect(channel, this);
+            if (mConnectTimeout != null) {
+                mConnectTimeout.cancel();
+            }
+            if (mStats != null) {
+                mStats.onConnected();
+            }
             mStateService.changeStateNoThrow(TransportState.Connected, 
                     new TransportStateChangeEventUserData(
                             TransportOperation.Connecting, null));
@@ -325,13 +469,83 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         }
     }
 
+    /**
+     * Called by a read listener during its callback to take ownership of 
+     * a pooled read buffer. The listener must give it back to the pool 
+     * when done.
+     * 
+     * @return The buffer passed to the listener.
+     */
+    public ByteBuffer retainReadBuffer() {
+        mReadBufferRetained = true;
+        return mReadBuffer;
+    }
+
+    /**
+     * Reads up to the read budget for the event, the client's maximum read 
+     * bytes per event capped by the reactor's maximum read bytes per handler. 
+     * A dedicated buffer is read into once, as the listener decides how it 
+     * is reused. Pooled reads continue into a fresh or compacted buffer after 
+     * each listener call until the socket is drained, the listener stops 
+     * reading or the budget is used up. At end of stream the listener is 
+     * called with 0 bytes read and the client is closed.
+     */
     public void handleRead(Reactor reactor, SelectionKey selKey) {
         try {
             SocketChannel channel = (SocketChannel)selKey.channel();
-            int numBytesRead = channel.read(mReadBuffer);
-            mReadBuffer.flip();
-            if (!mReadListener.onTransportRead(mReadBuffer, numBytesRead)) {
-                reactor.removeRead(channel, this);
+            int budget = mProperties.getMaxReadBytesPerEvent();
+            if (reactor instanceof ReactorThread) {
+                // leave the rest in the socket for the next pass of the reactor loop
+                budget = Math.min(budget, ((ReactorThread)reactor).getMaxReadBytesPerHandler());
+            }
+            while (budget > 0) {
+                ByteBuffer buffer = getReadBuffer();
+                int room = Math.min(buffer.remaining(), budget);
+                if (room == 0) {
+                    // listener hasn't consumed the buffer
+                    return;
+                }
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + room);
+                int numBytesRead = channel.read(buffer);
+                buffer.limit(limit);
+                if (numBytesRead < 0) {
+                    handleEndOfStream(reactor, channel, buffer);
+                    return;
+                }
+                if (numBytesRead == 0) {
+                    if ((mReadPool != null) && (buffer.position() == 0)) {
+                        mReadBuffer = null;
+                        mReadPool.release(buffer);
+                    }
+                    return;
+                }
+                budget -= numBytesRead;
+                if (mStats != null) {
+                    mStats.onRead(numBytesRead);
+                }
+                if (mReadSizer != null) {
+                    mReadSizer.record(numBytesRead);
+                }
+                buffer.flip();
+                buffer.position(mReadOffset);
+                mReadOffset = 0;
+                mReadBufferRetained = false;
+                boolean cont = mReadListener.onTransportRead(buffer, numBytesRead);
+                if ((mReadPool != null) && (!recycleReadBuffer(buffer))) {
+                    reactor.removeRead(channel, this);
+                    close(TransportOperation.Reading, new TransportException(
+                            "Read buffer full, listener left " + buffer.capacity() + " bytes unconsumed"));
+                    return;
+                }
+                if (!cont) {
+                    reactor.removeRead(channel, this);
+                    return;
+                }
+                if ((mReadPool == null) || (numBytesRead < room)) {
+                    // socket drained
+                    return;
+                }
             }
         } catch (IOException e) {
             selKey.cancel();
@@ -340,18 +554,106 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         }
     }
 
+    /**
+     * @return The dedicated read buffer, or the pooled one being held, 
+     * borrowing one from the pool if none is.
+     */
+    protected ByteBuffer getReadBuffer() {
+        if ((mReadBuffer == null) && (mReadPool != null)) {
+            mReadBuffer = mReadPool.acquire((mReadSizer == null) ? 
+                    mReadPool.getDefaultBufferSize() : mReadSizer.getNextReadSize());
+        }
+        return mReadBuffer;
+    }
+
+    /**
+     * Called after the listener has seen a pooled buffer. Returns it to the 
+     * pool once consumed, keeping only the bytes the listener left. Those 
+     * are moved to the front of the buffer only once they are past its 
+     * middle or the buffer is full, and the buffer grows if they fill it, 
+     * up to the pool's largest size class.
+     * 
+     * @return False if the listener left a buffer of the largest size full, 
+     * the buffer is returned to the pool.
+     */
+    protected boolean recycleReadBuffer(ByteBuffer buffer) {
+        if (mReadBufferRetained) {
+            mReadBufferRetained = false;
+            mReadBuffer = null;
+        } else if (buffer.hasRemaining()) {
+            if ((buffer.position() == 0) && (buffer.limit() == buffer.capacity())) {
+                if (buffer.capacity() >= mReadPool.getMaxBufferSize()) {
+                    mReadBuffer = null;
+                    mReadPool.release(buffer);
+                    return false;
+                }
+                ByteBuffer larger = mReadPool.acquire(buffer.capacity() * 2);
+                larger.put(buffer);
+                mReadPool.release(buffer);
+                mReadBuffer = larger;
+            } else if ((buffer.limit() == buffer.capacity()) || 
+                       (buffer.position() > (buffer.capacity() >> 1))) {
+                buffer.compact();
+            } else {
+                // read after the unconsumed bytes, the listener sees them from mReadOffset
+                mReadOffset = buffer.position();
+                buffer.position(buffer.limit());
+                buffer.limit(buffer.capacity());
+            }
+        } else {
+            mReadBuffer = null;
+            mReadPool.release(buffer);
+        }
+        return true;
+    }
+
+    /**
+     * The peer closed the connection. The listener gets any bytes it left 
+     * unconsumed with 0 bytes read and the client is closed without error.
+     */
+    protected void handleEndOfStream(Reactor reactor, SocketChannel channel, ByteBuffer buffer) 
+        throws ClosedChannelException {
+        if (mLoggingCtx.getLog().isDebugEnabled()) {
+            mLoggingCtx.getLog().debug(mLoggingCtx.formatLog("End of stream"));
+        }
+        reactor.removeRead(channel, this);
+        buffer.flip();
+        buffer.position(mReadOffset);
+        mReadOffset = 0;
+        mReadBufferRetained = false;
+        mReadListener.onTransportRead(buffer, 0);
+        if (mReadPool != null) {
+            if (!mReadBufferRetained) {
+                mReadPool.release(buffer);
+            }
+            mReadBufferRetained = false;
+            mReadBuffer = null;
+        }
+        close(TransportOperation.Reading, null);
+    }
+
+    /**
+     * Drains the outbound queue with one gathering write per call, see 
+     * {@link #writeQueued(SocketChannel)}.
+     */
     public void handleWrite(Reactor reactor, SelectionKey selKey) {
         if (mLoggingCtx.getLog().isDebugEnabled()) {
             mLoggingCtx.getLog().debug(mLoggingCtx.formatLog("In handleWrite()"));
         }
         SocketChannel channel = (SocketChannel)selKey.channel();
+        boolean writable = false;
         try {
             synchronized(mStateService.getStateChangeLock()) {
-                channel.write(mWriteBuffer);
-                if (!mWriteBuffer.hasRemaining()) {
-                    mWriteFuture.setDone();
-                    mWriteFuture = null;
-                    mProperties.mReactor.removeWrite(channel, this);
+                // the batch goes out with the rest of the queue
+                PendingWrite batch = mWriteBatch;
+                mWriteBatch = null;
+                if (mWriteHead != null) {
+                    writable = writeQueued(channel);
+                }
+                startBatchTimeout(batch);
+                if (mWriteHead == null) {
+                    mWriteInterest = false;
+                    reactor.removeWrite(channel, this);
                 }
             }
         } catch(IOException e) {
@@ -359,6 +661,70 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
             close(TransportOperation.Sending, 
                     new TransportException("Error writing", e));
         }
+        runCompletions();
+        if (writable) {
+            notifyWritability(true);
+        }
+    }
+
+    /**
+     * One gathering write from the head of the outbound queue, bounded by 
+     * the maximum buffers and bytes per write. The last buffer's limit is 
+     * narrowed for the write if it crosses the byte bound. Called with the 
+     * state change lock held and a non empty queue.
+     * 
+     * @return True if the queue drained to its low watermark and the client 
+     * became writable again.
+     */
+    protected boolean writeQueued(SocketChannel channel) throws IOException {
+        int maxBytes = mProperties.getMaxBytesPerWrite();
+        int count = 0;
+        long numBytes = 0;
+        ByteBuffer narrowed = null;
+        int narrowedLimit = 0;
+        for(PendingWrite pw = mWriteHead; (pw != null) && (count < mGatherBuffers.length) && 
+                (numBytes < maxBytes); pw = pw.next) {
+            ByteBuffer buffer = pw.buffer;
+            int remaining = buffer.remaining();
+            if ((numBytes + remaining) > maxBytes) {
+                narrowed = buffer;
+                narrowedLimit = buffer.limit();
+                remaining = (int)(maxBytes - numBytes);
+                buffer.limit(buffer.position() + remaining);
+            }
+            mGatherBuffers[count++] = buffer;
+            numBytes += remaining;
+        }
+        long numWritten;
+        try {
+            if (count == 1) {
+                numWritten = channel.write(mGatherBuffers[0]);
+            } else {
+                numWritten = channel.write(mGatherBuffers, 0, count);
+            }
+        } finally {
+            if (narrowed != null) {
+                narrowed.limit(narrowedLimit);
+            }
+            for(int i = 0; i < count; i++) {
+                mGatherBuffers[i] = null;
+            }
+        }
+        mQueuedWriteBytes -= numWritten;
+        if (mStats != null) {
+            mStats.onQueuedWrite(numWritten);
+        }
+        while ((mWriteHead != null) && (!mWriteHead.buffer.hasRemaining())) {
+            completeWrite(removeHead(), null);
+        }
+        if ((!mWritable) && (mQueuedWriteBytes <= mProperties.getWriteLowWatermark())) {
+            mWritable = true;
+            if (mStats != null) {
+                mStats.onWritable();
+            }
+            return true;
+        }
+        return false;
     }
 
     public TransportStateChangeEvent createStateChangeEvent(TransportState oldState, TransportState newState,
@@ -390,36 +756,138 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
     }
 
     /**
-     * Buffer must be pre-flipped
+     * Buffer must be pre-flipped. Whatever the socket doesn't take is copied 
+     * to the outbound queue and the result's future completes when it has 
+     * been sent. With write coalescing on, a small write is copied to the 
+     * write batch without writing to the socket, see {@link #flush()}.
+     * 
+     * @return -1 If the outbound queue is above its high watermark, else bytes written
      */
     public int writeAsync(ByteBuffer buffer, int timeout,
             TimeUnit unit, TransportSendResult result) throws TransportException {
+        return writeAsync(buffer, true, null, null, timeout, unit, result);
+    }
+
+    public int writeAsync(ByteBuffer buffer, TransportBufferReleaser releaser, 
+            TransportSendResult result) throws TransportException {
+        return writeAsync(buffer, releaser, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), result);
+    }
+
+    /**
+     * Ownership-transfer write. The buffer, pre-flipped, is queued as is 
+     * rather than copied and must not be touched until it is handed back 
+     * to the releaser, after it has been sent or the send failed. The 
+     * caller keeps the buffer if this throws or returns -1.
+     * 
+     * @param releaser Takes the buffer back, may be null.
+     * @return -1 If the outbound queue is above its high watermark, else bytes written
+     */
+    public int writeAsync(ByteBuffer buffer, TransportBufferReleaser releaser, 
+            int timeout, TimeUnit unit, TransportSendResult result) throws TransportException {
+        return writeAsync(buffer, false, releaser, null, timeout, unit, result);
+    }
+
+    public int writeAsync(ByteBuffer buffer, WriteCompletionHandler handler) throws TransportException {
+        return writeAsync(buffer, mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), handler);
+    }
+
+    /**
+     * Sends without blocking a thread on a future. The buffer, pre-flipped, 
+     * is queued as is rather than copied and must not be touched until the 
+     * handler is called. The handler isn't called if this throws or 
+     * returns -1.
+     * 
+     * @return -1 If the outbound queue is above its high watermark, else bytes written
+     */
+    public int writeAsync(ByteBuffer buffer, int timeout, TimeUnit unit, 
+            WriteCompletionHandler handler) throws TransportException {
+        return writeAsync(buffer, false, null, handler, timeout, unit, null);
+    }
+
+    /**
+     * @param result Set to the future of the send, null for handler sends.
+     */
+    protected int writeAsync(ByteBuffer buffer, boolean copy, TransportBufferReleaser releaser, 
+            WriteCompletionHandler handler, int timeout, TimeUnit unit, 
+            TransportSendResult result) throws TransportException {
+        int numWritten = 0;
+        long sendBytes = buffer.remaining();
+        boolean unwritable = false;
+        boolean complete = false;
         try {
             synchronized(mStateService.getStateChangeLock()) {
-                if (mWriteFuture == null) {
-                    result.setFuture(null);
-                } else {
-                    result.setFuture(mWriteFuture);
+                if (!mWritable) {
+                    if (result != null) {
+                        result.setFuture(getTailFuture());
+                    }
+                    if (mStats != null) {
+                        mStats.onRejectedWrite();
+                    }
                     return -1;
                 }
-                int numWritten = mSocketChannel.write(buffer);
-                if (buffer.hasRemaining()) {
-                    mWriteFuture = new BooleanFutureTask();
-                    result.setFuture(mWriteFuture);
-                    mWriteBuffer.clear();
-                    mWriteBuffer.put(buffer);
-                    mWriteBuffer.flip();
-                    mProperties.getReactor().addWrite(mSocketChannel, this); 
-                    mWriteIndex++;
-                    IntervalTimer.GetIntervalTimer(timeout, unit).schedule(new WriteTimeoutListener(mWriteIndex));
+                if (result != null) {
+                    result.setFuture(null);
+                }
+                if (copy && (sendBytes > 0) && (sendBytes < mProperties.getMaxCoalescedWriteSize()) && 
+                        mProperties.isWriteCoalescing()) {
+                    BooleanFutureTask future = coalesce(buffer, timeout, unit);
+                    if (result != null) {
+                        result.setFuture(future);
+                    }
+                    unwritable = !mWritable;
+                } else {
+                    boolean wasEmpty = (mWriteHead == null);
+                    if (wasEmpty) {
+                        numWritten = mSocketChannel.write(buffer);
+                        if (mStats != null) {
+                            mStats.onSocketWrite();
+                        }
+                    } else if (!mSocketChannel.isOpen()) {
+                        throw new ClosedChannelException();
+                    }
+                    if (mStats != null) {
+                        mStats.onWrite(numWritten, buffer.hasRemaining());
+                    }
+                    if (buffer.hasRemaining()) {
+                        PendingWrite pw;
+                        if (copy) {
+                            ByteBuffer pending = allocateWriteBuffer(buffer.remaining());
+                            pending.put(buffer);
+                            pending.flip();
+                            pw = enqueue(pending, getWriteBufferReleaser(pending));
+                        } else {
+                            pw = enqueue(buffer, releaser);
+                        }
+                        BooleanFutureTask future = endSend(pw, handler, sendBytes, timeout, unit);
+                        if (result != null) {
+                            result.setFuture(future);
+                        }
+                        unwritable = !mWritable;
+                    } else {
+                        complete = true;
+                    }
                 }
-                return numWritten;
             }
         } catch(ClosedChannelException e) {
             throw new TransportClosedException(e);
         } catch (IOException e) {
             throw new TransportException(e);
+        } finally {
+            // a coalesced write can flush the batch
+            runCompletions();
+        }
+        if (complete) {
+            if (releaser != null) {
+                releaser.releaseBuffer(buffer);
+            }
+            if (handler != null) {
+                handler.onWriteComplete(this, sendBytes);
+            }
+        }
+        if (unwritable) {
+            notifyWritability(false);
         }
+        return numWritten;
     }
 
     
@@ -466,6 +934,8 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
     }
 
     /**
+     * Buffers must be pre-flipped, they are not modified other than by the 
+     * bytes written. The unsent remainder is copied to the outbound queue.
      * 
      * @param buffers
      * @param offset
@@ -473,49 +943,187 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
      * @param timeout
      * @param unit
      * @param result
-     * @return -1 If blocked on previous write, else bytes written
+     * @return -1 If the outbound queue is above its high watermark, else bytes written
      * @throws TransportException
      */
     public long writeAsync(ByteBuffer[] buffers, int offset,
             int length, int timeout,
             TimeUnit unit, TransportSendResult result) throws TransportException {
+        return writeAsync(buffers, offset, length, true, null, null, timeout, unit, result);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, 
+            TransportBufferReleaser releaser, TransportSendResult result) throws TransportException {
+        return writeAsync(buffers, offset, length, releaser, 
+                mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), result);
+    }
+
+    /**
+     * Ownership-transfer gathering write, see 
+     * {@link #writeAsync(ByteBuffer, TransportBufferReleaser, int, TimeUnit, TransportSendResult)}.
+     * The buffers must be pre-flipped and each one is handed back to the 
+     * releaser separately.
+     */
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, 
+            TransportBufferReleaser releaser, int timeout, TimeUnit unit, 
+            TransportSendResult result) throws TransportException {
+        return writeAsync(buffers, offset, length, false, releaser, null, timeout, unit, result);
+    }
+
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, 
+            WriteCompletionHandler handler) throws TransportException {
+        return writeAsync(buffers, offset, length, 
+                mProperties.getWriteTimeout(), mProperties.getWriteTimeoutUnit(), handler);
+    }
+
+    /**
+     * Gathering send without blocking a thread on a future, see 
+     * {@link #writeAsync(ByteBuffer, int, TimeUnit, WriteCompletionHandler)}.
+     */
+    public long writeAsync(ByteBuffer[] buffers, int offset, int length, 
+            int timeout, TimeUnit unit, WriteCompletionHandler handler) throws TransportException {
+        return writeAsync(buffers, offset, length, false, null, handler, timeout, unit, null);
+    }
+
+    /**
+     * @param result Set to the future of the send, null for handler sends.
+     */
+    protected long writeAsync(ByteBuffer[] buffers, int offset, int length, boolean copy, 
+            TransportBufferReleaser releaser, WriteCompletionHandler handler, 
+            int timeout, TimeUnit unit, TransportSendResult result) throws TransportException {
+        long numWritten = 0;
+        long sendBytes = 0;
+        for (int i = offset; i < (offset + length); i++) {
+            sendBytes += buffers[i].remaining();
+        }
+        boolean unwritable = false;
+        // buffers before this one were fully written
+        int firstPending = offset + length;
         try {
             synchronized(mStateService.getStateChangeLock()) {
-                if (mWriteFuture == null) {
-                    result.setFuture(null);
-                } else {
-                    result.setFuture(mWriteFuture);
+                if (!mWritable) {
+                    if (result != null) {
+                        result.setFuture(getTailFuture());
+                    }
+                    if (mStats != null) {
+                        mStats.onRejectedWrite();
+                    }
                     return -1;
                 }
-                for (int i = offset; i < (offset + length); i++) {
-                    buffers[i].flip();
+                if (result != null) {
+                    result.setFuture(null);
+                }
+                if (mWriteHead == null) {
+                    numWritten = mSocketChannel.write(buffers, offset, length);
+                    if (mStats != null) {
+                        mStats.onSocketWrite();
+                    }
+                } else if (!mSocketChannel.isOpen()) {
+                    throw new ClosedChannelException();
                 }
-                long numWritten = mSocketChannel.write(buffers, offset, length);
-                boolean init = false;
-                for (int i = offset; i < (offset + length); i++) {
-                    if (buffers[i].hasRemaining()) {
-                        if (!init) {
-                            mWriteFuture = new BooleanFutureTask();
-                            result.setFuture(mWriteFuture);
-                            mWriteBuffer.clear();
-                            init = true;
+                if (mStats != null) {
+                    mStats.onWrite(numWritten, numWritten < sendBytes);
+                }
+                PendingWrite last = null;
+                if (copy) {
+                    int remaining = 0;
+                    for (int i = offset; i < (offset + length); i++) {
+                        remaining += buffers[i].remaining();
+                    }
+                    if (remaining > 0) {
+                        ByteBuffer pending = allocateWriteBuffer(remaining);
+                        for (int i = offset; i < (offset + length); i++) {
+                            pending.put(buffers[i]);
+                        }
+                        pending.flip();
+                        last = enqueue(pending, getWriteBufferReleaser(pending));
+                    }
+                } else {
+                    for (int i = offset; i < (offset + length); i++) {
+                        if (buffers[i].hasRemaining()) {
+                            if (last == null) {
+                                firstPending = i;
+                            }
+                            last = enqueue(buffers[i], releaser);
                         }
-                        mWriteBuffer.put(buffers[i]);
                     }
                 }
-                if (init) {
-                    mWriteBuffer.flip();
-                    mProperties.getReactor().addWrite(mSocketChannel, this); 
-                    mWriteIndex++;
-                    IntervalTimer.GetIntervalTimer(timeout, unit).schedule(new WriteTimeoutListener(mWriteIndex));
+                if (last != null) {
+                    BooleanFutureTask future = endSend(last, handler, sendBytes, timeout, unit);
+                    if (result != null) {
+                        result.setFuture(future);
+                    }
+                    unwritable = !mWritable;
                 }
-                return numWritten;
             }
         } catch(ClosedChannelException e) {
             throw new TransportClosedException(e);
         } catch (IOException e) {
             throw new TransportException(e);
         }
+        if (releaser != null) {
+            for (int i = offset; i < firstPending; i++) {
+                releaser.releaseBuffer(buffers[i]);
+            }
+        }
+        if ((handler != null) && (firstPending == (offset + length))) {
+            handler.onWriteComplete(this, sendBytes);
+        }
+        if (unwritable) {
+            notifyWritability(false);
+        }
+        return numWritten;
+    }
+
+    /**
+     * Sends the coalesced writes now rather than at the end of the reactor 
+     * pass. Does nothing if write coalescing is off or nothing is waiting 
+     * to be flushed.
+     */
+    public void flush() throws TransportException {
+        boolean writable;
+        try {
+            synchronized(mStateService.getStateChangeLock()) {
+                writable = flushBatch();
+            }
+        } catch(ClosedChannelException e) {
+            throw new TransportClosedException(e);
+        } catch (IOException e) {
+            throw new TransportException("Error writing", e);
+        } finally {
+            runCompletions();
+        }
+        if (writable) {
+            notifyWritability(true);
+        }
+    }
+
+    /**
+     * @return False while the outbound queue is above its high watermark 
+     * and hasn't drained to its low watermark.
+     */
+    public boolean isWritable() {
+        synchronized(mStateService.getStateChangeLock()) {
+            return mWritable;
+        }
+    }
+
+    /**
+     * @return Number of sends waiting in the outbound queue.
+     */
+    public int getWriteQueueSize() {
+        synchronized(mStateService.getStateChangeLock()) {
+            return mWriteQueueSize;
+        }
+    }
+
+    /**
+     * @return Number of bytes waiting in the outbound queue.
+     */
+    public long getQueuedWriteBytes() {
+        synchronized(mStateService.getStateChangeLock()) {
+            return mQueuedWriteBytes;
+        }
     }
 
     public String formatLog(String msg) {
@@ -582,11 +1190,363 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
         return addr.toString();
     }
 
+    /**
+     * Schedules a timeout on the reactor thread that owns the channel.
+     */
+    protected ReactorTimeout scheduleTimeout(int timeout, TimeUnit unit, Runnable task) {
+        Reactor reactor = mProperties.getReactor();
+        if (reactor instanceof ReactorGroup) {
+            return ((ReactorGroup)reactor).schedule(mSocketChannel, timeout, unit, task);
+        }
+        return reactor.schedule(timeout, unit, task);
+    }
+
+    /**
+     * Runs a task on the reactor thread that owns the channel.
+     */
+    protected void executeOnReactor(Runnable task) {
+        Reactor reactor = mProperties.getReactor();
+        if (reactor instanceof ReactorGroup) {
+            ((ReactorGroup)reactor).execute(mSocketChannel, task);
+        } else {
+            reactor.execute(task);
+        }
+    }
+
+    protected void cancelTimeouts() {
+        ReactorTimeout timeout = mConnectTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Uses the client's write buffer when it is free and big enough, 
+     * otherwise one from the write buffer pool or a new heap buffer. 
+     * Called with the state change lock held.
+     */
+    protected ByteBuffer allocateWriteBuffer(int size) {
+        if ((!mWriteBufferInUse) && (mWriteBuffer != null) && (mWriteBuffer.capacity() >= size)) {
+            mWriteBufferInUse = true;
+            mWriteBuffer.clear();
+            return mWriteBuffer;
+        }
+        TransportBufferPool pool = mProperties.getWriteBufferPool();
+        if ((pool != null) && (size <= pool.getMaxBufferSize())) {
+            return pool.acquire(size);
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @return The pool to return a buffer from {@link #allocateWriteBuffer(int)} 
+     * to once it has been sent, null if it isn't pooled.
+     */
+    protected TransportBufferReleaser getWriteBufferReleaser(ByteBuffer buffer) {
+        if ((buffer == mWriteBuffer) || (!buffer.isDirect())) {
+            return null;
+        }
+        return mProperties.getWriteBufferPool();
+    }
+
+    /**
+     * Adds a buffer to the tail of the outbound queue, which closes the 
+     * write batch if there is one. Called with the state change lock held.
+     */
+    protected PendingWrite enqueue(ByteBuffer buffer, TransportBufferReleaser releaser) {
+        mWriteBatch = null;
+        PendingWrite pw = new PendingWrite(buffer, releaser);
+        if (mWriteHead == null) {
+            mWriteHead = pw;
+        } else {
+            mWriteTail.next = pw;
+        }
+        mWriteTail = pw;
+        mWriteQueueSize++;
+        addQueuedBytes(buffer.remaining());
+        return pw;
+    }
+
+    /**
+     * Called with the state change lock held.
+     */
+    protected void addQueuedBytes(int numBytes) {
+        mQueuedWriteBytes += numBytes;
+        if (mStats != null) {
+            mStats.onQueued(mQueuedWriteBytes);
+        }
+        if (mWritable && (mQueuedWriteBytes >= mProperties.getWriteHighWatermark())) {
+            mWritable = false;
+            if (mStats != null) {
+                mStats.onUnwritable();
+            }
+        }
+    }
+
+    /**
+     * Gives the last queued buffer of a send its completion handler, or a 
+     * future if there is no handler, and its write timeout. Called with 
+     * the state change lock held.
+     * 
+     * @return The future of the send, null if it has a handler.
+     */
+    protected BooleanFutureTask endSend(PendingWrite last, WriteCompletionHandler handler, long sendBytes, 
+            int timeout, TimeUnit unit) throws ClosedChannelException {
+        if (handler == null) {
+            last.future = new BooleanFutureTask();
+        } else {
+            last.handler = handler;
+            last.sendBytes = sendBytes;
+        }
+        last.timeout = scheduleTimeout(timeout, unit, new WriteTimeoutTask(last));
+        if (!mWriteInterest) {
+            mWriteInterest = true;
+            mProperties.getReactor().addWrite(mSocketChannel, this);
+        }
+        return last.future;
+    }
+
+    /**
+     * Copies a small write to the write batch at the tail of the outbound 
+     * queue, starting a batch if there isn't one. A batch started while 
+     * nothing is waiting for the socket is flushed at the end of the 
+     * reactor pass, and any batch is sent as soon as it reaches the flush 
+     * size. Called with the state change lock held.
+     * 
+     * @return The future of the batch.
+     */
+    protected BooleanFutureTask coalesce(ByteBuffer buffer, int timeout, TimeUnit unit) throws IOException {
+        if (!mSocketChannel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        PendingWrite batch = mWriteBatch;
+        if (batch == null) {
+            // a write smaller than the max always fits once below the flush size
+            int size = mProperties.getCoalesceFlushBytes() + mProperties.getMaxCoalescedWriteSize();
+            ByteBuffer pending;
+            TransportBufferReleaser releaser = null;
+            if (!mBatchBufferInUse) {
+                if (mBatchBuffer == null) {
+                    mBatchBuffer = ByteBuffer.allocateDirect(size);
+                }
+                mBatchBufferInUse = true;
+                pending = mBatchBuffer;
+            } else {
+                // the last batch is still waiting for the socket
+                pending = allocateWriteBuffer(size);
+                releaser = getWriteBufferReleaser(pending);
+            }
+            pending.clear();
+            pending.limit(0);
+            batch = enqueue(pending, releaser);
+            batch.future = new BooleanFutureTask();
+            mWriteBatch = batch;
+            mBatchTimeout = timeout;
+            mBatchTimeoutUnit = unit;
+            if (!mWriteInterest) {
+                executeOnReactor(mFlushTask);
+            }
+        }
+        ByteBuffer pending = batch.buffer;
+        int numBytes = buffer.remaining();
+        int end = pending.limit();
+        pending.limit(end + numBytes);
+        pending.position(end);
+        pending.put(buffer);
+        pending.position(0);
+        addQueuedBytes(numBytes);
+        if (mStats != null) {
+            mStats.onWrite(0, false);
+        }
+        if (pending.limit() >= mProperties.getCoalesceFlushBytes()) {
+            flushBatch();
+        }
+        return batch.future;
+    }
+
+    /**
+     * Closes the write batch and sends what the socket takes now, unless 
+     * the queue is already waiting for the socket. Called with the state 
+     * change lock held.
+     * 
+     * @return True if the client became writable again.
+     */
+    protected boolean flushBatch() throws IOException {
+        PendingWrite batch = mWriteBatch;
+        if (batch == null) {
+            return false;
+        }
+        mWriteBatch = null;
+        if (mWriteInterest) {
+            startBatchTimeout(batch);
+            return false;
+        }
+        boolean writable = writeQueued(mSocketChannel);
+        if (mWriteHead != null) {
+            mWriteInterest = true;
+            mProperties.getReactor().addWrite(mSocketChannel, this);
+        }
+        startBatchTimeout(batch);
+        return writable;
+    }
+
+    /**
+     * Gives a closed batch the socket didn't take at once the write timeout 
+     * of its first write. A batch closed by a write queued behind it has 
+     * none, that write's timeout covers it. Called with the state change 
+     * lock held.
+     */
+    protected void startBatchTimeout(PendingWrite batch) {
+        if ((batch != null) && (!batch.done)) {
+            batch.timeout = scheduleTimeout(mBatchTimeout, mBatchTimeoutUnit, new WriteTimeoutTask(batch));
+        }
+    }
+
+    /**
+     * @return Future of the last queued send, created if that send has a 
+     * completion handler instead. Called with the state change lock held.
+     */
+    protected BooleanFutureTask getTailFuture() {
+        if (mWriteTail.future == null) {
+            mWriteTail.future = new BooleanFutureTask();
+        }
+        return mWriteTail.future;
+    }
+
+    protected PendingWrite removeHead() {
+        PendingWrite pw = mWriteHead;
+        mWriteHead = pw.next;
+        if (mWriteHead == null) {
+            mWriteTail = null;
+        }
+        pw.next = null;
+        mWriteQueueSize--;
+        return pw;
+    }
+
+    /**
+     * Marks a write removed from the outbound queue done and adds it to 
+     * the completed writes, see {@link #runCompletions()}. Called with the 
+     * state change lock held.
+     */
+    protected void completeWrite(PendingWrite pw, TransportException error) {
+        pw.done = true;
+        if (pw.timeout != null) {
+            pw.timeout.cancel();
+        }
+        if (pw.buffer == mWriteBuffer) {
+            mWriteBufferInUse = false;
+        } else if (pw.buffer == mBatchBuffer) {
+            mBatchBufferInUse = false;
+        }
+        pw.error = error;
+        if (mCompletedHead == null) {
+            mCompletedHead = pw;
+        } else {
+            mCompletedTail.next = pw;
+        }
+        mCompletedTail = pw;
+    }
+
+    /**
+     * Runs the releasers, futures and completion handlers of the completed 
+     * writes, oldest first. Called once the state change lock is released, 
+     * so a handler can write again or close the client.
+     */
+    protected void runCompletions() {
+        // a thread always sees the writes it completed itself
+        if (mCompletedHead == null) {
+            return;
+        }
+        PendingWrite pw;
+        synchronized(mStateService.getStateChangeLock()) {
+            pw = mCompletedHead;
+            mCompletedHead = null;
+            mCompletedTail = null;
+        }
+        while (pw != null) {
+            PendingWrite next = pw.next;
+            pw.next = null;
+            notifyCompletion(pw);
+            pw = next;
+        }
+    }
+
+    protected void notifyCompletion(PendingWrite pw) {
+        TransportException error = pw.error;
+        if (pw.releaser != null) {
+            try {
+                pw.releaser.releaseBuffer(pw.buffer);
+            } catch(Throwable t) {
+                if (mLoggingCtx.getLog().isErrorEnabled()) {
+                    mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error releasing buffer"), t);
+                }
+            }
+        }
+        // the write timeout task holds the write until the timer drops it
+        pw.buffer = null;
+        if (pw.future != null) {
+            if (error == null) {
+                pw.future.setDone();
+            } else {
+                pw.future.setDone(error);
+            }
+        }
+        if (pw.handler != null) {
+            try {
+                if (error == null) {
+                    pw.handler.onWriteComplete(this, pw.sendBytes);
+                } else {
+                    pw.handler.onWriteFailed(this, error);
+                }
+            } catch(Throwable t) {
+                if (mLoggingCtx.getLog().isErrorEnabled()) {
+                    mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error in write completion handler"), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails every queued send, called when the transport closes with the 
+     * state change lock held.
+     */
+    protected void failPendingWrites(TransportException error) {
+        synchronized(mStateService.getStateChangeLock()) {
+            while (mWriteHead != null) {
+                completeWrite(removeHead(), error);
+            }
+            mWriteBufferInUse = false;
+            mWriteBatch = null;
+            mBatchBufferInUse = false;
+            mWriteInterest = false;
+            mQueuedWriteBytes = 0;
+            mWritable = true;
+        }
+    }
+
+    protected void notifyWritability(boolean writable) {
+        final TransportWritabilityEvent event = new TransportWritabilityEvent(this, writable, getQueuedWriteBytes());
+        if (mLoggingCtx.getLog().isDebugEnabled()) {
+            mLoggingCtx.getLog().debug(mLoggingCtx.formatLog(event.toString()));
+        }
+        if (mProperties.getEventExecutor() == null) {
+            mListenerService.notifyListeners(event);
+        } else {
+            mProperties.getEventExecutor().execute(new Runnable() {
+                public void run() {
+                    mListenerService.notifyListeners(event);
+                }
+            });
+        }
+    }
+
     private void processSendResult(long numWritten, TransportSendResult result) throws TransportException {
+        if (numWritten == -1) {
+            throw new TransportException("blocking send performed when previous send not complete");
+        }
         if (result.getFuture() != null) {
-            if (numWritten == -1) {
-                throw new TransportException("blocking send performed when previous send not complete");
-            }
+            long start = System.nanoTime();
             try {
                 result.getFuture().get();
             } catch (InterruptedException e) {
@@ -596,6 +1556,10 @@ public class TCPTransportClient implements TransportClient, ClientReactorHandler
                     throw (TransportException)e.getCause();
                 }
                 throw new TransportException(e);
+            } finally {
+                if (mStats != null) {
+                    mStats.onBlockedWrite(System.nanoTime() - start);
+                }
             }
         }
     }
@@ -6,9 +6,20 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.grb.reactor.Reactor;
+import com.grb.transport.TransportBufferPool;
 import com.grb.transport.TransportClientProperties;
 
 public class TCPTransportClientProperties implements TransportClientProperties {
+    static public int DefaultWriteHighWatermark = 64 * 1024;
+    static public int DefaultWriteLowWatermark = 32 * 1024;
+    static public int DefaultMaxBuffersPerWrite = 64;
+    static public int DefaultMaxBytesPerWrite = 256 * 1024;
+    static public int DefaultMaxReadBytesPerEvent = 64 * 1024;
+    static public int DefaultMinReadSize = 512;
+    static public int DefaultMaxReadSize = 64 * 1024;
+    static public int DefaultMaxCoalescedWriteSize = 1024;
+    static public int DefaultCoalesceFlushBytes = 16 * 1024;
+
     protected InetSocketAddress mRemoteAddress;
     protected ExecutorService mEventExecutor;
     protected Reactor mReactor;
@@ -16,6 +27,19 @@ public class TCPTransportClientProperties implements TransportClientProperties {
     protected ByteBuffer mWriteBuffer;
     protected int mDefaultWriteTimeout;
     protected TimeUnit mDefaultWriteTimeoutUnit;
+    protected int mWriteHighWatermark;
+    protected int mWriteLowWatermark;
+    protected int mMaxBuffersPerWrite;
+    protected int mMaxBytesPerWrite;
+    protected int mMaxReadBytesPerEvent;
+    protected boolean mAdaptiveReadSizing;
+    protected int mMinReadSize;
+    protected int mMaxReadSize;
+    protected TransportBufferPool mWriteBufferPool;
+    protected boolean mStatsEnabled;
+    protected boolean mWriteCoalescing;
+    protected int mMaxCoalescedWriteSize;
+    protected int mCoalesceFlushBytes;
 
     public TCPTransportClientProperties(
             InetSocketAddress remoteAddress, 
@@ -25,6 +49,30 @@ public class TCPTransportClientProperties implements TransportClientProperties {
             ByteBuffer writeBuffer,
             int defaultWriteTimeout,
             TimeUnit defaultWriteTimeoutUnit) {
+        this(remoteAddress, eventExecutor, reactor, scFactory, writeBuffer, defaultWriteTimeout, 
+                defaultWriteTimeoutUnit, DefaultWriteHighWatermark, DefaultWriteLowWatermark);
+    }
+
+    /**
+     * @param writeHighWatermark Number of queued bytes at which the client stops 
+     * accepting async writes.
+     * @param writeLowWatermark Number of queued bytes the queue must drain to 
+     * before async writes are accepted again.
+     */
+    public TCPTransportClientProperties(
+            InetSocketAddress remoteAddress, 
+            ExecutorService eventExecutor,
+            Reactor reactor, 
+            SocketChannelFactory scFactory,
+            ByteBuffer writeBuffer,
+            int defaultWriteTimeout,
+            TimeUnit defaultWriteTimeoutUnit,
+            int writeHighWatermark,
+            int writeLowWatermark) {
+        if ((writeLowWatermark < 0) || (writeLowWatermark > writeHighWatermark)) {
+            throw new IllegalArgumentException("Invalid write watermarks: low=" + 
+                    writeLowWatermark + ", high=" + writeHighWatermark);
+        }
         mRemoteAddress = remoteAddress;
         mEventExecutor = eventExecutor;
         mReactor = reactor;
@@ -32,6 +80,44 @@ public class TCPTransportClientProperties implements TransportClientProperties {
         mWriteBuffer = writeBuffer;
         mDefaultWriteTimeout = defaultWriteTimeout;
         mDefaultWriteTimeoutUnit = defaultWriteTimeoutUnit;
+        mWriteHighWatermark = writeHighWatermark;
+        mWriteLowWatermark = writeLowWatermark;
+        mMaxBuffersPerWrite = DefaultMaxBuffersPerWrite;
+        mMaxBytesPerWrite = DefaultMaxBytesPerWrite;
+        mMaxReadBytesPerEvent = DefaultMaxReadBytesPerEvent;
+        mAdaptiveReadSizing = true;
+        mMinReadSize = DefaultMinReadSize;
+        mMaxReadSize = DefaultMaxReadSize;
+        mWriteBufferPool = null;
+        mStatsEnabled = true;
+        mWriteCoalescing = false;
+        mMaxCoalescedWriteSize = DefaultMaxCoalescedWriteSize;
+        mCoalesceFlushBytes = DefaultCoalesceFlushBytes;
+    }
+
+    /**
+     * Copies the settings of a template for a new client with its own 
+     * remote address, socket channel factory and write buffer.
+     */
+    public TCPTransportClientProperties(
+            TCPTransportClientProperties template,
+            InetSocketAddress remoteAddress,
+            SocketChannelFactory scFactory,
+            ByteBuffer writeBuffer) {
+        this(remoteAddress, template.getEventExecutor(), template.getReactor(), scFactory, writeBuffer,
+                template.getWriteTimeout(), template.getWriteTimeoutUnit(),
+                template.getWriteHighWatermark(), template.getWriteLowWatermark());
+        mMaxBuffersPerWrite = template.getMaxBuffersPerWrite();
+        mMaxBytesPerWrite = template.getMaxBytesPerWrite();
+        mMaxReadBytesPerEvent = template.getMaxReadBytesPerEvent();
+        mAdaptiveReadSizing = template.isAdaptiveReadSizing();
+        mMinReadSize = template.getMinReadSize();
+        mMaxReadSize = template.getMaxReadSize();
+        mWriteBufferPool = template.getWriteBufferPool();
+        mStatsEnabled = template.isStatsEnabled();
+        mWriteCoalescing = template.isWriteCoalescing();
+        mMaxCoalescedWriteSize = template.getMaxCoalescedWriteSize();
+        mCoalesceFlushBytes = template.getCoalesceFlushBytes();
     }
 
     public InetSocketAddress getRemoteAddress() {
@@ -61,4 +147,152 @@ public class TCPTransportClientProperties implements TransportClientProperties {
     public TimeUnit getWriteTimeoutUnit() {
         return mDefaultWriteTimeoutUnit;
     }
+
+    public int getWriteHighWatermark() {
+        return mWriteHighWatermark;
+    }
+
+    public int getWriteLowWatermark() {
+        return mWriteLowWatermark;
+    }
+
+    public int getMaxBuffersPerWrite() {
+        return mMaxBuffersPerWrite;
+    }
+
+    /**
+     * Sets the maximum number of queued buffers passed to one gathering 
+     * write. Must be set before the client is created.
+     */
+    public void setMaxBuffersPerWrite(int maxBuffers) {
+        if (maxBuffers <= 0) {
+            throw new IllegalArgumentException("Max buffers per write must be positive: " + maxBuffers);
+        }
+        mMaxBuffersPerWrite = maxBuffers;
+    }
+
+    public int getMaxBytesPerWrite() {
+        return mMaxBytesPerWrite;
+    }
+
+    /**
+     * Sets the maximum number of queued bytes flushed by one gathering 
+     * write, so one connection can't hold the reactor thread for long.
+     */
+    public void setMaxBytesPerWrite(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes per write must be positive: " + maxBytes);
+        }
+        mMaxBytesPerWrite = maxBytes;
+    }
+
+    public int getMaxReadBytesPerEvent() {
+        return mMaxReadBytesPerEvent;
+    }
+
+    /**
+     * Sets the maximum number of bytes read from the socket for one read 
+     * event. The client keeps reading until the read buffer is full, the 
+     * socket is drained or this many bytes have been read.
+     */
+    public void setMaxReadBytesPerEvent(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max read bytes per event must be positive: " + maxBytes);
+        }
+        mMaxReadBytesPerEvent = maxBytes;
+    }
+
+    public boolean isAdaptiveReadSizing() {
+        return mAdaptiveReadSizing;
+    }
+
+    /**
+     * When reading from a buffer pool, sizes each borrowed buffer from 
+     * recent read sizes instead of always using the pool's default size.
+     */
+    public void setAdaptiveReadSizing(boolean adaptive) {
+        mAdaptiveReadSizing = adaptive;
+    }
+
+    public int getMinReadSize() {
+        return mMinReadSize;
+    }
+
+    public int getMaxReadSize() {
+        return mMaxReadSize;
+    }
+
+    /**
+     * Sets the range adaptive read sizing can choose from.
+     */
+    public void setReadSizeRange(int minSize, int maxSize) {
+        if ((minSize <= 0) || (minSize > maxSize)) {
+            throw new IllegalArgumentException("Invalid read sizes: min=" + minSize + 
+                    ", max=" + maxSize);
+        }
+        mMinReadSize = minSize;
+        mMaxReadSize = maxSize;
+    }
+
+    public TransportBufferPool getWriteBufferPool() {
+        return mWriteBufferPool;
+    }
+
+    /**
+     * Sets the pool unsent bytes are copied to when the write buffer is in 
+     * use or too small, null to copy to new heap buffers. Pooled buffers are 
+     * borrowed on a partial write and released once sent.
+     */
+    public void setWriteBufferPool(TransportBufferPool pool) {
+        mWriteBufferPool = pool;
+    }
+
+    public boolean isStatsEnabled() {
+        return mStatsEnabled;
+    }
+
+    /**
+     * Sets whether the client keeps {@link TransportStats}, on by default.
+     */
+    public void setStatsEnabled(boolean enabled) {
+        mStatsEnabled = enabled;
+    }
+
+    public boolean isWriteCoalescing() {
+        return mWriteCoalescing;
+    }
+
+    /**
+     * Sets whether small copied writes are gathered into a batch that is 
+     * sent at the end of the reactor pass, when it reaches the flush size 
+     * or on {@link TCPTransportClient#flush()}, instead of one socket write 
+     * each. Off by default.
+     */
+    public void setWriteCoalescing(boolean coalescing) {
+        mWriteCoalescing = coalescing;
+    }
+
+    public int getMaxCoalescedWriteSize() {
+        return mMaxCoalescedWriteSize;
+    }
+
+    public int getCoalesceFlushBytes() {
+        return mCoalesceFlushBytes;
+    }
+
+    /**
+     * Sets the sizes write coalescing works with.
+     * 
+     * @param maxWriteSize Writes smaller than this are coalesced, larger 
+     * ones are sent as usual behind the batch.
+     * @param flushBytes A batch is sent as soon as it holds this many bytes.
+     */
+    public void setCoalesceSizes(int maxWriteSize, int flushBytes) {
+        if ((maxWriteSize <= 0) || (flushBytes <= 0)) {
+            throw new IllegalArgumentException("Invalid coalesce sizes: maxWriteSize=" + maxWriteSize + 
+                    ", flushBytes=" + flushBytes);
+        }
+        mMaxCoalescedWriteSize = maxWriteSize;
+        mCoalesceFlushBytes = flushBytes;
+    }
 }
@@ -14,7 +14,9 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.grb.reactor.Reactor;
+import com.grb.reactor.ReactorGroup;
 import com.grb.reactor.ServerReactorHandler;
+import com.grb.transport.TransportBufferPool;
 import com.grb.transport.TransportClosedException;
 import com.grb.transport.TransportException;
 import com.grb.transport.TransportServerProperties;
@@ -26,6 +28,8 @@ public class TCPTransportServer implements com.grb.transport.TransportServer, Se
     protected TCPTransportServerProperties mProperties;
     protected TCPTransportServerConnectionListener mListener;
     protected ServerSocketChannel mServerChannel;
+    protected TransportBufferPool mWriteBufferPool;
+    protected TransportServerStats mStats;
     protected LoggingContext mLoggingCtx;
     
     /**
@@ -50,6 +54,13 @@ public class TCPTransportServer implements com.grb.transport.TransportServer, Se
         try {
             mProperties = props;
             mListener = listener;
+            mStats = new TransportServerStats();
+            TCPTransportClientProperties clientProps = mProperties.getClientProperties();
+            if ((clientProps != null) && (clientProps.getWriteBufferPool() != null)) {
+                mWriteBufferPool = clientProps.getWriteBufferPool();
+            } else {
+                mWriteBufferPool = new TransportBufferPool();
+            }
             mServerChannel = ServerSocketChannel.open();
             String bindAddr = mProperties.getAddr();
             SocketAddress addr;
@@ -58,7 +69,12 @@ public class TCPTransportServer implements com.grb.transport.TransportServer, Se
             } else {
                 addr = new InetSocketAddress(bindAddr, mProperties.getPort()) ;
             }
-            mServerChannel.socket().bind(addr);
+            SocketChannelProperties acceptedProps = mProperties.getAcceptedSocketProperties();
+            if ((acceptedProps != null) && (acceptedProps.getReceiveBufferSize() != null)) {
+                // must be set before binding for windows over 64K
+                mServerChannel.socket().setReceiveBufferSize(acceptedProps.getReceiveBufferSize());
+            }
+            mServerChannel.socket().bind(addr, mProperties.getBacklog());
             mServerChannel.configureBlocking(false);
             mLoggingCtx = this;
         } catch(IOException e) {
@@ -85,6 +101,22 @@ public class TCPTransportServer implements com.grb.transport.TransportServer, Se
         }
     }
 
+    /**
+     * @return Counters of all the accepted connections with stats enabled, 
+     * open and closed.
+     */
+    public TransportServerStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return The pool accepted clients copy unsent bytes to, the client 
+     * properties' pool if set.
+     */
+    public TransportBufferPool getWriteBufferPool() {
+        return mWriteBufferPool;
+    }
+
     public TransportServerProperties getProperties() throws TransportException {
         return mProperties;
     }
@@ -117,35 +149,82 @@ public class TCPTransportServer implements com.grb.transport.TransportServer, Se
     }
 
     public void handleAccept(Reactor reactor, SelectionKey selKey) {
-        try {
-            final SocketChannel sc = mServerChannel.accept();
-            sc.configureBlocking(false);
-            if (mProperties.getClientProperties() != null) {
-                TCPTransportClientProperties clientProps = new TCPTransportClientProperties(
-                        null, // remote address
-                        mProperties.getClientProperties().getEventExecutor(),
-                        mProperties.getClientProperties().getReactor(), 
-                        new SocketChannelFactory() {    
-                            public SocketChannel newSocketChannel() throws IOException {
-                                return sc;
-                            }
-                        },
-                        mProperties.getClientProperties().getWriteBuffer().duplicate(),
-                        mProperties.getClientProperties().getWriteTimeout(), 
-                        mProperties.getClientProperties().getWriteTimeoutUnit());
-                TCPTransportClient newClient = new TCPTransportClient(clientProps);
+        int maxAccepts = mProperties.getMaxAcceptsPerEvent();
+        for (int i = 0; i < maxAccepts; i++) {
+            SocketChannel sc;
+            try {
+                sc = mServerChannel.accept();
+            } catch (IOException e) {
+                // e.g. out of file descriptors, retried on the next event
+                if (mLoggingCtx.getLog().isErrorEnabled()) {
+                    mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error handling accept"), e);
+                }
+                return;
+            }
+            if (sc == null) {
+                // listen queue drained
+                return;
+            }
+            try {
+                handleNewConnection(reactor, sc);
+            } catch (IOException e) {
+                if (mLoggingCtx.getLog().isErrorEnabled()) {
+                    mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error handling accept"), e);
+                }
+                closeAccepted(sc);
+            } catch (TransportException e) {
+                if (mLoggingCtx.getLog().isErrorEnabled()) {
+                    mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error handling accept"), e);
+                }
+                closeAccepted(sc);
+            }
+        }
+    }
+
+    protected void handleNewConnection(Reactor reactor, SocketChannel sc) throws IOException, TransportException {
+        sc.configureBlocking(false);
+        if (mProperties.getAcceptedSocketProperties() != null) {
+            mProperties.getAcceptedSocketProperties().applyTo(sc.socket());
+        }
+        TCPTransportClientProperties templateProps = mProperties.getClientProperties();
+        if (templateProps != null) {
+            Reactor clientReactor = templateProps.getReactor();
+            if (clientReactor instanceof ReactorGroup) {
+                // keep new connections off the accepting loop so accept storms don't stall reads
+                ((ReactorGroup)clientReactor).assign(sc, reactor);
+            }
+            // no dedicated write buffer, accepted clients borrow from the pool only on partial writes
+            TCPTransportClientProperties clientProps = new TCPTransportClientProperties(templateProps,
+                    null, // remote address
+                    new DefaultSocketChannelFactory(sc),
+                    null);
+            clientProps.setWriteBufferPool(mWriteBufferPool);
+            TCPTransportClient newClient = new TCPTransportClient(clientProps);
+            if (newClient.getStats() != null) {
+                mStats.add(newClient.getStats());
+            }
+            boolean started = false;
+            try {
                 newClient.connect(0, TimeUnit.SECONDS);     // to change the state to connected
                 if (mListener != null) {
                     mListener.onNewConnection(newClient);
                 }
+                started = true;
+            } finally {
+                if (!started) {
+                    // folds its stats out of the open connections
+                    newClient.close();
+                }
             }
+        }
+    }
+
+    protected void closeAccepted(SocketChannel sc) {
+        try {
+            sc.close();
         } catch (IOException e) {
-            if (mLoggingCtx.getLog().isErrorEnabled()) {
-                mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error handling accept"), e);
-            }
-        } catch (TransportException e) {
-            if (mLoggingCtx.getLog().isErrorEnabled()) {
-                mLoggingCtx.getLog().error(mLoggingCtx.formatLog("Error handling accept"), e);
+            if (mLoggingCtx.getLog().isDebugEnabled()) {
+                mLoggingCtx.getLog().debug(mLoggingCtx.formatLog("Error closing accepted socket"), e);
             }
         }
     }
@@ -4,11 +4,16 @@ import com.grb.reactor.Reactor;
 import com.grb.transport.TransportServerProperties;
 
 public class TCPTransportServerProperties implements TransportServerProperties {
+    static public int DefaultBacklog = 1024;
+    static public int DefaultMaxAcceptsPerEvent = 64;
 
     protected String mAddr;
     protected int mPort;
     protected Reactor mReactor;
     protected TCPTransportClientProperties mClientProps;
+    protected int mBacklog;
+    protected int mMaxAcceptsPerEvent;
+    protected SocketChannelProperties mAcceptedSocketProps;
 
     public TCPTransportServerProperties(
             int port,
@@ -26,6 +31,9 @@ public class TCPTransportServerProperties implements TransportServerProperties {
         mPort = port;
         mReactor = reactor;
         mClientProps = clientProps;
+        mBacklog = DefaultBacklog;
+        mMaxAcceptsPerEvent = DefaultMaxAcceptsPerEvent;
+        mAcceptedSocketProps = null;
     }
 
     public String getAddr() {
@@ -43,4 +51,50 @@ public class TCPTransportServerProperties implements TransportServerProperties {
     public TCPTransportClientProperties getClientProperties() {
         return mClientProps;
     }
+
+    public int getBacklog() {
+        return mBacklog;
+    }
+
+    /**
+     * Sets the listen queue length requested when binding. The operating 
+     * system may cap it (net.core.somaxconn on Linux). Must be set before 
+     * the server is created.
+     */
+    public void setBacklog(int backlog) {
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive: " + backlog);
+        }
+        mBacklog = backlog;
+    }
+
+    public int getMaxAcceptsPerEvent() {
+        return mMaxAcceptsPerEvent;
+    }
+
+    /**
+     * Sets the maximum number of pending connections accepted for one 
+     * accept event, so a reconnect storm drains the listen queue quickly 
+     * without holding the reactor thread for long.
+     */
+    public void setMaxAcceptsPerEvent(int maxAccepts) {
+        if (maxAccepts <= 0) {
+            throw new IllegalArgumentException("Max accepts per event must be positive: " + maxAccepts);
+        }
+        mMaxAcceptsPerEvent = maxAccepts;
+    }
+
+    public SocketChannelProperties getAcceptedSocketProperties() {
+        return mAcceptedSocketProps;
+    }
+
+    /**
+     * Sets the TCP_NODELAY and buffer size options applied to accepted 
+     * sockets, null to leave them at their defaults. The blocking mode and 
+     * local address are ignored. Must be set before the server is created 
+     * since the receive buffer size is also set on the listening socket.
+     */
+    public void setAcceptedSocketProperties(SocketChannelProperties props) {
+        mAcceptedSocketProps = props;
+    }
 }
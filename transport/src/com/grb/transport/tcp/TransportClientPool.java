@@ -0,0 +1,415 @@
+package com.grb.transport.tcp;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.transport.TransportEvent;
+import com.grb.transport.TransportEventListener;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportState;
+import com.grb.transport.TransportStateChangeEvent;
+import com.grb.util.stats.Histogram;
+
+/**
+ * Connected clients kept for reuse, pooled per remote address. Clients
+ * are borrowed with {@link #borrow(InetSocketAddress, int, TimeUnit)} and
+ * handed back with {@link #release(TCPTransportClient)}.
+ * <p>
+ * A client that moves to Disconnected while idle is dropped from the
+ * pool, and one released disconnected isn't kept. When all the clients
+ * an address may have are leased, borrowers wait in arrival order and
+ * each released client goes to the longest waiting borrower.
+ */
+public class TransportClientPool {
+    private static final Log Trace = LogFactory.getLog(TransportClientPool.class);
+
+    static public int DefaultMinIdle = 0;
+    static public int DefaultMaxIdle = 8;
+    static public int DefaultMaxTotal = 16;
+
+    protected class Waiter {
+        public TCPTransportClient client = null;
+        public boolean mayConnect = false;
+    }
+
+    protected class AddressPool implements TransportEventListener {
+        public InetSocketAddress address;
+        public LinkedList<TCPTransportClient> idle = new LinkedList<TCPTransportClient>();
+        public LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+        public int total = 0;
+
+        public AddressPool(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        public void onTransportEvent(TransportEvent event) {
+            if ((event instanceof TransportStateChangeEvent) &&
+                ((TransportStateChangeEvent)event).getNewState().equals(TransportState.Disconnected)) {
+                TCPTransportClient client = (TCPTransportClient)((TransportStateChangeEvent)event).getTransportClient();
+                synchronized(this) {
+                    if (idle.remove(client)) {
+                        if (Trace.isDebugEnabled()) {
+                            Trace.debug("Idle client disconnected: " + client);
+                        }
+                        dropped();
+                    }
+                }
+            }
+        }
+
+        /**
+         * A client left the pool. Called with the lock held.
+         */
+        public void dropped() {
+            mClosedCount.incrementAndGet();
+            freeSlot();
+        }
+
+        /**
+         * Lets the next waiter connect a new client in place of one that
+         * left or never connected. Called with the lock held.
+         */
+        public void freeSlot() {
+            total--;
+            if (!waiters.isEmpty()) {
+                total++;
+                waiters.removeFirst().mayConnect = true;
+                notifyAll();
+            }
+        }
+    }
+
+    protected TCPTransportClientProperties mTemplate;
+    protected int mConnectTimeout;
+    protected TimeUnit mConnectTimeoutUnit;
+    protected int mMinIdle;
+    protected int mMaxIdle;
+    protected int mMaxTotal;
+    protected ConcurrentHashMap<InetSocketAddress, AddressPool> mPools;
+    protected volatile boolean mClosed;
+    protected Histogram mLeaseWaitTime;
+    protected AtomicLong mBorrowCount;
+    protected AtomicLong mTimeoutCount;
+    protected AtomicLong mCreatedCount;
+    protected AtomicLong mClosedCount;
+
+    public TransportClientPool(TCPTransportClientProperties template, int connectTimeout, TimeUnit connectTimeoutUnit) {
+        this(template, connectTimeout, connectTimeoutUnit, DefaultMinIdle, DefaultMaxIdle, DefaultMaxTotal);
+    }
+
+    /**
+     * @param template Properties for new clients, except the remote address
+     * and write buffer. Each client gets a write buffer like the template's.
+     * @param minIdle Idle clients {@link #prefill(InetSocketAddress)} opens per address.
+     * @param maxIdle Idle clients kept per address, extra released clients are closed.
+     * @param maxTotal Clients per address, idle or leased.
+     */
+    public TransportClientPool(TCPTransportClientProperties template, int connectTimeout, TimeUnit connectTimeoutUnit,
+            int minIdle, int maxIdle, int maxTotal) {
+        if ((minIdle < 0) || (minIdle > maxIdle) || (maxTotal <= 0)) {
+            throw new IllegalArgumentException("Invalid pool sizes: minIdle=" + minIdle +
+                    ", maxIdle=" + maxIdle + ", maxTotal=" + maxTotal);
+        }
+        mTemplate = template;
+        mConnectTimeout = connectTimeout;
+        mConnectTimeoutUnit = connectTimeoutUnit;
+        mMinIdle = minIdle;
+        mMaxIdle = maxIdle;
+        mMaxTotal = maxTotal;
+        mPools = new ConcurrentHashMap<InetSocketAddress, AddressPool>();
+        mClosed = false;
+        mLeaseWaitTime = new Histogram();
+        mBorrowCount = new AtomicLong(0);
+        mTimeoutCount = new AtomicLong(0);
+        mCreatedCount = new AtomicLong(0);
+        mClosedCount = new AtomicLong(0);
+    }
+
+    /**
+     * Borrows a connected client, connecting a new one if none is idle and
+     * the address is below its maximum, else waiting for one to be released.
+     *
+     * @throws TransportException Connecting failed or no client was available
+     * within the timeout.
+     */
+    public TCPTransportClient borrow(InetSocketAddress address, int timeout, TimeUnit unit)
+        throws TransportException {
+        if (mClosed) {
+            throw new TransportException("Pool closed");
+        }
+        long start = System.nanoTime();
+        AddressPool pool = getPool(address);
+        boolean connect = false;
+        synchronized(pool) {
+            TCPTransportClient client = takeIdle(pool);
+            if (client == null) {
+                if (pool.waiters.isEmpty() && (pool.total < mMaxTotal)) {
+                    pool.total++;
+                    connect = true;
+                } else {
+                    Waiter waiter = new Waiter();
+                    pool.waiters.addLast(waiter);
+                    long deadline = start + unit.toNanos(timeout);
+                    try {
+                        while ((waiter.client == null) && (!waiter.mayConnect)) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(pool, remaining);
+                        }
+                    } catch(InterruptedException e) {
+                        pool.waiters.remove(waiter);
+                        giveBack(pool, waiter);
+                        throw new TransportException("Interrupted waiting for a client", e);
+                    }
+                    if ((waiter.client == null) && (!waiter.mayConnect)) {
+                        pool.waiters.remove(waiter);
+                        mTimeoutCount.incrementAndGet();
+                        throw new TransportException("Timed out waiting for a client to " + address);
+                    }
+                    client = waiter.client;
+                    connect = waiter.mayConnect;
+                }
+            }
+            if (client != null) {
+                leased(start);
+                return client;
+            }
+        }
+        if (connect) {
+            try {
+                TCPTransportClient client = connect(pool);
+                leased(start);
+                return client;
+            } catch(TransportException e) {
+                synchronized(pool) {
+                    pool.freeSlot();
+                }
+                throw e;
+            }
+        }
+        throw new TransportException("No client available to " + address);
+    }
+
+    /**
+     * Hands a borrowed client back. It goes to the longest waiting borrower,
+     * else back to the idle clients, else it is closed if there are already
+     * max idle clients.
+     */
+    public void release(TCPTransportClient client) {
+        AddressPool pool = null;
+        try {
+            pool = mPools.get(client.getProperties().getRemoteAddress());
+        } catch(TransportException e) {
+            // not one of ours
+        }
+        if (pool == null) {
+            client.close();
+            return;
+        }
+        boolean close = false;
+        synchronized(pool) {
+            if (client.isDisconnected()) {
+                pool.dropped();
+            } else if (!pool.waiters.isEmpty()) {
+                pool.waiters.removeFirst().client = client;
+                pool.notifyAll();
+            } else if (mClosed || (pool.idle.size() >= mMaxIdle)) {
+                close = true;
+                pool.dropped();
+            } else {
+                pool.idle.addFirst(client);
+            }
+        }
+        if (close) {
+            client.close();
+        }
+    }
+
+    /**
+     * Closes a borrowed client that shouldn't be reused instead of
+     * releasing it.
+     */
+    public void invalidate(TCPTransportClient client) {
+        client.close();
+        release(client);
+    }
+
+    /**
+     * Connects idle clients to the address until it has min idle.
+     */
+    public void prefill(InetSocketAddress address) throws TransportException {
+        AddressPool pool = getPool(address);
+        while (true) {
+            synchronized(pool) {
+                if ((pool.idle.size() >= mMinIdle) || (pool.total >= mMaxTotal)) {
+                    return;
+                }
+                pool.total++;
+            }
+            TCPTransportClient client;
+            try {
+                client = connect(pool);
+            } catch(TransportException e) {
+                synchronized(pool) {
+                    pool.freeSlot();
+                }
+                throw e;
+            }
+            release(client);
+        }
+    }
+
+    /**
+     * Closes the idle clients. Leased clients are closed as they are released.
+     */
+    public void close() {
+        mClosed = true;
+        Iterator<AddressPool> it = mPools.values().iterator();
+        while (it.hasNext()) {
+            AddressPool pool = it.next();
+            LinkedList<TCPTransportClient> idle;
+            synchronized(pool) {
+                idle = new LinkedList<TCPTransportClient>(pool.idle);
+                pool.idle.clear();
+                for(int i = 0; i < idle.size(); i++) {
+                    pool.dropped();
+                }
+            }
+            for(TCPTransportClient client : idle) {
+                client.close();
+            }
+        }
+    }
+
+    public int getIdleCount(InetSocketAddress address) {
+        AddressPool pool = mPools.get(address);
+        if (pool == null) {
+            return 0;
+        }
+        synchronized(pool) {
+            return pool.idle.size();
+        }
+    }
+
+    /**
+     * @return Clients for the address, idle, leased or connecting.
+     */
+    public int getTotalCount(InetSocketAddress address) {
+        AddressPool pool = mPools.get(address);
+        if (pool == null) {
+            return 0;
+        }
+        synchronized(pool) {
+            return pool.total;
+        }
+    }
+
+    /**
+     * @return Nanoseconds from asking for a client to getting it.
+     */
+    public Histogram getLeaseWaitTime() {
+        return mLeaseWaitTime;
+    }
+
+    public long getBorrowCount() {
+        return mBorrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return mTimeoutCount.get();
+    }
+
+    /**
+     * @return Clients connected by the pool.
+     */
+    public long getCreatedCount() {
+        return mCreatedCount.get();
+    }
+
+    /**
+     * @return Clients dropped by the pool, disconnected or closed.
+     */
+    public long getClosedCount() {
+        return mClosedCount.get();
+    }
+
+    protected AddressPool getPool(InetSocketAddress address) {
+        AddressPool pool = mPools.get(address);
+        if (pool == null) {
+            pool = new AddressPool(address);
+            AddressPool existing = mPools.putIfAbsent(address, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return A connected idle client, dropping disconnected ones, null if
+     * none. Called with the lock held.
+     */
+    protected TCPTransportClient takeIdle(AddressPool pool) {
+        while (!pool.idle.isEmpty()) {
+            TCPTransportClient client = pool.idle.removeFirst();
+            if (!client.isDisconnected()) {
+                return client;
+            }
+            pool.dropped();
+        }
+        return null;
+    }
+
+    /**
+     * Passes on what a waiter was given when it gives up. Called with the
+     * lock held.
+     */
+    protected void giveBack(AddressPool pool, Waiter waiter) {
+        if (waiter.client != null) {
+            if (pool.waiters.isEmpty()) {
+                pool.idle.addFirst(waiter.client);
+            } else {
+                pool.waiters.removeFirst().client = waiter.client;
+                pool.notifyAll();
+            }
+        } else if (waiter.mayConnect) {
+            pool.freeSlot();
+        }
+    }
+
+    protected void leased(long start) {
+        mBorrowCount.incrementAndGet();
+        mLeaseWaitTime.record(System.nanoTime() - start);
+    }
+
+    protected TCPTransportClient connect(AddressPool pool) throws TransportException {
+        TCPTransportClient client = new TCPTransportClient(newClientProperties(pool.address));
+        client.addEventListener(pool);
+        client.connect(mConnectTimeout, mConnectTimeoutUnit);
+        mCreatedCount.incrementAndGet();
+        if (Trace.isDebugEnabled()) {
+            Trace.debug("Connected pooled client: " + client);
+        }
+        return client;
+    }
+
+    protected TCPTransportClientProperties newClientProperties(InetSocketAddress address) {
+        ByteBuffer templateBuffer = mTemplate.getWriteBuffer();
+        ByteBuffer writeBuffer = null;
+        if (templateBuffer != null) {
+            writeBuffer = templateBuffer.isDirect() ? ByteBuffer.allocateDirect(templateBuffer.capacity()) :
+                ByteBuffer.allocate(templateBuffer.capacity());
+        }
+        return new TCPTransportClientProperties(mTemplate, address, mTemplate.getSocketChannelFactory(), writeBuffer);
+    }
+}
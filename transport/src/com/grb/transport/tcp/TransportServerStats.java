@@ -0,0 +1,46 @@
+package com.grb.transport.tcp;
+
+import java.util.HashSet;
+
+/**
+ * Counters of all the connections accepted by a {@link TCPTransportServer}.
+ * Connections keep their own {@link TransportStats}, summed when a
+ * snapshot is taken, so accepted connections never update a shared
+ * counter. Closed connections are folded into a running total.
+ */
+public class TransportServerStats extends AbstractTransportStats {
+    static public final String ObjectNamePrefix = "com.grb.transport:type=TransportServerStats,name=";
+
+    protected HashSet<TransportStats> mOpen;
+    protected TransportStatsSnapshot mClosed;
+
+    public TransportServerStats() {
+        super(ObjectNamePrefix);
+        mOpen = new HashSet<TransportStats>();
+        mClosed = new TransportStatsSnapshot();
+    }
+
+    /**
+     * Adds an accepted connection's counters, called before the connection
+     * can close.
+     */
+    public synchronized void add(TransportStats stats) {
+        stats.setServerStats(this);
+        mOpen.add(stats);
+    }
+
+    synchronized void onClose(TransportStats stats) {
+        if (mOpen.remove(stats)) {
+            mClosed.add(stats.snapshot());
+        }
+    }
+
+    public synchronized TransportStatsSnapshot snapshot() {
+        TransportStatsSnapshot snapshot = new TransportStatsSnapshot();
+        snapshot.add(mClosed);
+        for (TransportStats stats : mOpen) {
+            snapshot.add(stats.snapshot());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,214 @@
+package com.grb.transport.tcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportOperation;
+
+/**
+ * Counters of one {@link TCPTransportClient}. Read counters are only
+ * updated by the reactor thread reading the connection and write counters
+ * only with the client's write lock held, so updates don't contend and
+ * are cheap enough to leave on.
+ */
+public class TransportStats extends AbstractTransportStats {
+    static public final String ObjectNamePrefix = "com.grb.transport:type=TransportStats,name=";
+
+    protected AtomicLong mBytesRead;
+    protected AtomicLong mReadCount;
+    protected AtomicLong mBytesWritten;
+    protected AtomicLong mWriteCount;
+    protected AtomicLong mPartialWriteCount;
+    protected AtomicLong mRejectedWriteCount;
+    protected AtomicLong mSocketWriteCount;
+    protected AtomicLong mBackpressureNanos;
+    protected AtomicLong mBlockedWriteNanos;
+    protected volatile long mMaxQueuedWriteBytes;
+    protected volatile long mUnwritableSince;
+    protected volatile long mConnectStart;
+    protected volatile long mConnectNanos;
+    protected volatile boolean mClosed;
+    protected volatile TransportOperation mCloseOperation;
+    protected volatile TransportException mCloseError;
+    protected TransportServerStats mServerStats;
+
+    public TransportStats() {
+        super(ObjectNamePrefix);
+        mBytesRead = new AtomicLong(0);
+        mReadCount = new AtomicLong(0);
+        mBytesWritten = new AtomicLong(0);
+        mWriteCount = new AtomicLong(0);
+        mPartialWriteCount = new AtomicLong(0);
+        mRejectedWriteCount = new AtomicLong(0);
+        mSocketWriteCount = new AtomicLong(0);
+        mBackpressureNanos = new AtomicLong(0);
+        mBlockedWriteNanos = new AtomicLong(0);
+        mMaxQueuedWriteBytes = 0;
+        mUnwritableSince = 0;
+        mConnectStart = 0;
+        mConnectNanos = -1;
+        mClosed = false;
+        mCloseOperation = null;
+        mCloseError = null;
+        mServerStats = null;
+    }
+
+    /**
+     * Sets the server these counters are added to once the connection closes.
+     */
+    void setServerStats(TransportServerStats serverStats) {
+        mServerStats = serverStats;
+    }
+
+    public void onConnecting() {
+        mConnectStart = System.nanoTime();
+    }
+
+    public void onConnected() {
+        if (mConnectStart != 0) {
+            mConnectNanos = System.nanoTime() - mConnectStart;
+            mConnectStart = 0;
+        }
+    }
+
+    public void onRead(int numBytes) {
+        mBytesRead.addAndGet(numBytes);
+        mReadCount.incrementAndGet();
+    }
+
+    /**
+     * @param numBytes Bytes the socket took directly.
+     * @param partial True if the rest of the send was queued.
+     */
+    public void onWrite(long numBytes, boolean partial) {
+        mWriteCount.incrementAndGet();
+        if (numBytes > 0) {
+            mBytesWritten.addAndGet(numBytes);
+        }
+        if (partial) {
+            mPartialWriteCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * A send written to the socket directly.
+     */
+    public void onSocketWrite() {
+        mSocketWriteCount.incrementAndGet();
+    }
+
+    /**
+     * @param numBytes Queued bytes the socket took in one write.
+     */
+    public void onQueuedWrite(long numBytes) {
+        mSocketWriteCount.incrementAndGet();
+        mBytesWritten.addAndGet(numBytes);
+    }
+
+    public void onRejectedWrite() {
+        mRejectedWriteCount.incrementAndGet();
+    }
+
+    public void onQueued(long queuedBytes) {
+        if (queuedBytes > mMaxQueuedWriteBytes) {
+            mMaxQueuedWriteBytes = queuedBytes;
+        }
+    }
+
+    public void onUnwritable() {
+        mUnwritableSince = System.nanoTime();
+    }
+
+    public void onWritable() {
+        long since = mUnwritableSince;
+        if (since != 0) {
+            mBackpressureNanos.addAndGet(System.nanoTime() - since);
+            mUnwritableSince = 0;
+        }
+    }
+
+    public void onBlockedWrite(long nanos) {
+        mBlockedWriteNanos.addAndGet(nanos);
+    }
+
+    public void onClose(TransportOperation operation, TransportException error) {
+        onWritable();
+        mCloseOperation = operation;
+        mCloseError = error;
+        mClosed = true;
+        if (mServerStats != null) {
+            mServerStats.onClose(this);
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return Operation during which the connection closed, null while open.
+     */
+    public TransportOperation getCloseOperation() {
+        return mCloseOperation;
+    }
+
+    /**
+     * @return Error the connection closed with, null if closed normally or open.
+     */
+    public TransportException getCloseError() {
+        return mCloseError;
+    }
+
+    public TransportStatsSnapshot snapshot() {
+        TransportStatsSnapshot snapshot = new TransportStatsSnapshot();
+        snapshot.mConnectionCount = 1;
+        snapshot.mBytesRead = mBytesRead.get();
+        snapshot.mReadCount = mReadCount.get();
+        snapshot.mBytesWritten = mBytesWritten.get();
+        snapshot.mWriteCount = mWriteCount.get();
+        snapshot.mPartialWriteCount = mPartialWriteCount.get();
+        snapshot.mRejectedWriteCount = mRejectedWriteCount.get();
+        snapshot.mSocketWriteCount = mSocketWriteCount.get();
+        snapshot.mBackpressureNanos = mBackpressureNanos.get();
+        long since = mUnwritableSince;
+        if (since != 0) {
+            // still not writable
+            snapshot.mBackpressureNanos += System.nanoTime() - since;
+        }
+        snapshot.mBlockedWriteNanos = mBlockedWriteNanos.get();
+        snapshot.mMaxQueuedWriteBytes = mMaxQueuedWriteBytes;
+        long connectNanos = mConnectNanos;
+        if (connectNanos >= 0) {
+            snapshot.mConnectCount = 1;
+            snapshot.mConnectNanos = connectNanos;
+            snapshot.mMaxConnectNanos = connectNanos;
+        }
+        if (mClosed) {
+            snapshot.mCloseCount = 1;
+            TransportException error = mCloseError;
+            if (error != null) {
+                snapshot.mErrorCloseCount = 1;
+            }
+            snapshot.mCloseReason = formatCloseReason(mCloseOperation, error);
+        } else {
+            snapshot.mOpenConnectionCount = 1;
+        }
+        return snapshot;
+    }
+
+    static public String formatCloseReason(TransportOperation operation, TransportException error) {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append(operation);
+        if (error != null) {
+            bldr.append(": ");
+            bldr.append(error.getMessage());
+            if ((error.getCause() != null) && (error.getCause().getMessage() != null)) {
+                bldr.append(": ");
+                bldr.append(error.getCause().getMessage());
+            }
+        } else if (operation == TransportOperation.Reading) {
+            bldr.append(": closed by peer");
+        }
+        return bldr.toString();
+    }
+}
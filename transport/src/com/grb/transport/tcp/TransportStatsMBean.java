@@ -0,0 +1,26 @@
+package com.grb.transport.tcp;
+
+/**
+ * JMX view of a connection's {@link TransportStats} or a server's
+ * {@link TransportServerStats}. Times are in microseconds.
+ */
+public interface TransportStatsMBean {
+    public long getConnectionCount();
+    public long getOpenConnectionCount();
+    public long getBytesRead();
+    public long getReadCount();
+    public long getBytesWritten();
+    public long getWriteCount();
+    public long getPartialWriteCount();
+    public long getRejectedWriteCount();
+    public long getSocketWriteCount();
+    public long getBackpressureTimeInMicros();
+    public long getBlockedWriteTimeInMicros();
+    public long getMaxQueuedWriteBytes();
+    public long getConnectCount();
+    public long getMeanConnectTimeInMicros();
+    public long getMaxConnectTimeInMicros();
+    public long getCloseCount();
+    public long getErrorCloseCount();
+    public String getCloseReason();
+}
@@ -0,0 +1,213 @@
+package com.grb.transport.tcp;
+
+/**
+ * Values of one or more connections' {@link TransportStats} at a point in
+ * time. Snapshots of several connections are combined with
+ * {@link #add(TransportStatsSnapshot)}. Times are in nanoseconds.
+ */
+public class TransportStatsSnapshot {
+    protected long mConnectionCount;
+    protected long mOpenConnectionCount;
+    protected long mBytesRead;
+    protected long mReadCount;
+    protected long mBytesWritten;
+    protected long mWriteCount;
+    protected long mPartialWriteCount;
+    protected long mRejectedWriteCount;
+    protected long mSocketWriteCount;
+    protected long mBackpressureNanos;
+    protected long mBlockedWriteNanos;
+    protected long mMaxQueuedWriteBytes;
+    protected long mConnectCount;
+    protected long mConnectNanos;
+    protected long mMaxConnectNanos;
+    protected long mCloseCount;
+    protected long mErrorCloseCount;
+    protected String mCloseReason;
+
+    public TransportStatsSnapshot() {
+        mCloseReason = null;
+    }
+
+    /**
+     * Adds the counters of another snapshot, keeping the larger maximums.
+     * The close reason becomes the other's if it has one.
+     */
+    public void add(TransportStatsSnapshot other) {
+        mConnectionCount += other.mConnectionCount;
+        mOpenConnectionCount += other.mOpenConnectionCount;
+        mBytesRead += other.mBytesRead;
+        mReadCount += other.mReadCount;
+        mBytesWritten += other.mBytesWritten;
+        mWriteCount += other.mWriteCount;
+        mPartialWriteCount += other.mPartialWriteCount;
+        mRejectedWriteCount += other.mRejectedWriteCount;
+        mSocketWriteCount += other.mSocketWriteCount;
+        mBackpressureNanos += other.mBackpressureNanos;
+        mBlockedWriteNanos += other.mBlockedWriteNanos;
+        mMaxQueuedWriteBytes = Math.max(mMaxQueuedWriteBytes, other.mMaxQueuedWriteBytes);
+        mConnectCount += other.mConnectCount;
+        mConnectNanos += other.mConnectNanos;
+        mMaxConnectNanos = Math.max(mMaxConnectNanos, other.mMaxConnectNanos);
+        mCloseCount += other.mCloseCount;
+        mErrorCloseCount += other.mErrorCloseCount;
+        if (other.mCloseReason != null) {
+            mCloseReason = other.mCloseReason;
+        }
+    }
+
+    public long getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    public long getOpenConnectionCount() {
+        return mOpenConnectionCount;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * @return Number of socket reads that returned data, each passed to
+     * the read listener.
+     */
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    /**
+     * @return Bytes written to the socket, directly or from the outbound queue.
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return Number of sends accepted.
+     */
+    public long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * @return Number of sends the socket didn't take in full, so were queued.
+     */
+    public long getPartialWriteCount() {
+        return mPartialWriteCount;
+    }
+
+    /**
+     * @return Number of async sends refused above the high watermark.
+     */
+    public long getRejectedWriteCount() {
+        return mRejectedWriteCount;
+    }
+
+    /**
+     * @return Number of writes made to the socket, direct and queued.
+     */
+    public long getSocketWriteCount() {
+        return mSocketWriteCount;
+    }
+
+    /**
+     * @return Time spent above the high watermark, not writable.
+     */
+    public long getBackpressureNanos() {
+        return mBackpressureNanos;
+    }
+
+    /**
+     * @return Time blocking sends waited for their bytes to be written.
+     */
+    public long getBlockedWriteNanos() {
+        return mBlockedWriteNanos;
+    }
+
+    /**
+     * @return The most bytes queued for writing at once.
+     */
+    public long getMaxQueuedWriteBytes() {
+        return mMaxQueuedWriteBytes;
+    }
+
+    /**
+     * @return Number of connects to a remote address that completed.
+     */
+    public long getConnectCount() {
+        return mConnectCount;
+    }
+
+    /**
+     * @return Total time taken by the completed connects.
+     */
+    public long getConnectNanos() {
+        return mConnectNanos;
+    }
+
+    public long getMaxConnectNanos() {
+        return mMaxConnectNanos;
+    }
+
+    public long getCloseCount() {
+        return mCloseCount;
+    }
+
+    /**
+     * @return Number of connections closed because of an error.
+     */
+    public long getErrorCloseCount() {
+        return mErrorCloseCount;
+    }
+
+    /**
+     * @return Why the connection closed, or the latest connection to close
+     * for combined snapshots. Null if none has closed.
+     */
+    public String getCloseReason() {
+        return mCloseReason;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("connections=");
+        bldr.append(mConnectionCount);
+        bldr.append(",open=");
+        bldr.append(mOpenConnectionCount);
+        bldr.append(",bytesRead=");
+        bldr.append(mBytesRead);
+        bldr.append(",reads=");
+        bldr.append(mReadCount);
+        bldr.append(",bytesWritten=");
+        bldr.append(mBytesWritten);
+        bldr.append(",writes=");
+        bldr.append(mWriteCount);
+        bldr.append(",partialWrites=");
+        bldr.append(mPartialWriteCount);
+        bldr.append(",rejectedWrites=");
+        bldr.append(mRejectedWriteCount);
+        bldr.append(",socketWrites=");
+        bldr.append(mSocketWriteCount);
+        bldr.append(",backpressureUs=");
+        bldr.append(mBackpressureNanos / 1000);
+        bldr.append(",blockedWriteUs=");
+        bldr.append(mBlockedWriteNanos / 1000);
+        bldr.append(",maxQueuedWriteBytes=");
+        bldr.append(mMaxQueuedWriteBytes);
+        bldr.append(",connects=");
+        bldr.append(mConnectCount);
+        bldr.append(",maxConnectUs=");
+        bldr.append(mMaxConnectNanos / 1000);
+        bldr.append(",closes=");
+        bldr.append(mCloseCount);
+        bldr.append(",errorCloses=");
+        bldr.append(mErrorCloseCount);
+        if (mCloseReason != null) {
+            bldr.append(",closeReason=");
+            bldr.append(mCloseReason);
+        }
+        return bldr.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package com.grb.transport.tcp.test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+
+/**
+ * Measures how fast a server accepts a reconnect storm: many threads
+ * connecting at once, as after a failover. Compares accepting one
+ * connection per event with a small backlog to the batched accept loop.
+ * A connect dropped by a full listen queue is retried by the operating
+ * system after a second, which shows up as the maximum connect time.
+ * <p>
+ * Usage: AcceptRateBenchmark [numConnections] [numThreads]
+ */
+public class AcceptRateBenchmark {
+    static public final int Port = 4533;
+
+    static public void run(String name, int backlog, int maxAcceptsPerEvent,
+            int numConnections, int numThreads) throws Exception {
+        ReactorThread reactor = new ReactorThread("AcceptRateBenchmark");
+        reactor.startAsDaemon();
+        ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+        TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor,
+                new TCPTransportClientProperties(null, eventExecutor, reactor, null,
+                        ByteBuffer.allocateDirect(16), 10, TimeUnit.SECONDS));
+        serverProps.setBacklog(backlog);
+        serverProps.setMaxAcceptsPerEvent(maxAcceptsPerEvent);
+        serverProps.setAcceptedSocketProperties(new SocketChannelProperties(null, null, true, null, null));
+        final ArrayList<TCPTransportClient> accepted = new ArrayList<TCPTransportClient>(numConnections);
+        TCPTransportServer server = new TCPTransportServer(serverProps, new TCPTransportServerConnectionListener() {
+            public void onNewConnection(TCPTransportClient client) {
+                synchronized(accepted) {
+                    accepted.add(client);
+                }
+            }
+        });
+        server.startAccepting();
+
+        final InetSocketAddress addr = new InetSocketAddress("127.0.0.1", Port);
+        final SocketChannel[] channels = new SocketChannel[numConnections];
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger failed = new AtomicInteger(0);
+        final AtomicLong maxConnectNanos = new AtomicLong(0);
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < channels.length) {
+                        long start = System.nanoTime();
+                        try {
+                            channels[index] = SocketChannel.open(addr);
+                        } catch(Exception e) {
+                            failed.incrementAndGet();
+                        }
+                        long elapsed = System.nanoTime() - start;
+                        long max;
+                        while ((elapsed > (max = maxConnectNanos.get())) &&
+                                (!maxConnectNanos.compareAndSet(max, elapsed))) {
+                        }
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < numThreads; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < numThreads; i++) {
+            threads[i].join();
+        }
+        int expected = numConnections - failed.get();
+        int numAccepted;
+        while (true) {
+            synchronized(accepted) {
+                numAccepted = accepted.size();
+            }
+            if (numAccepted >= expected) {
+                break;
+            }
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-9s backlog=%-5d acceptsPerEvent=%-3d connections=%-6d failed=%-4d %,10.0f accepts/s  maxConnect=%,8.1f ms",
+                name, backlog, maxAcceptsPerEvent, numConnections, failed.get(),
+                numAccepted / (elapsed / 1e9), maxConnectNanos.get() / 1e6));
+
+        for (TCPTransportClient client : accepted) {
+            client.close();
+        }
+        for (int i = 0; i < numConnections; i++) {
+            if (channels[i] != null) {
+                channels[i].close();
+            }
+        }
+        server.close();
+        reactor.close();
+        eventExecutor.shutdown();
+        Thread.sleep(500);
+    }
+
+    public static void main(String[] args) {
+        int numConnections = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int numThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 32;
+        try {
+            run("single", 50, 1, numConnections, numThreads);
+            run("batched", TCPTransportServerProperties.DefaultBacklog,
+                    TCPTransportServerProperties.DefaultMaxAcceptsPerEvent, numConnections, numThreads);
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
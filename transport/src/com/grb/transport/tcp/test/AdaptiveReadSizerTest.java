@@ -0,0 +1,52 @@
+package com.grb.transport.tcp.test;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.grb.transport.tcp.AdaptiveReadSizer;
+
+public class AdaptiveReadSizerTest extends TestCase {
+
+    public AdaptiveReadSizerTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(AdaptiveReadSizerTest.class);
+    }
+
+    public void testInitialSizeClamped() {
+        assertEquals(1024, new AdaptiveReadSizer(1024, 8192, 100).getNextReadSize());
+        assertEquals(8192, new AdaptiveReadSizer(1024, 8192, 100000).getNextReadSize());
+        try {
+            new AdaptiveReadSizer(8192, 1024, 1024);
+            fail("should throw");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+
+    public void testGrowsWhenFull() {
+        AdaptiveReadSizer sizer = new AdaptiveReadSizer(1024, 8192, 2048);
+        sizer.record(2048);
+        assertEquals(4096, sizer.getNextReadSize());
+        sizer.record(4096);
+        sizer.record(8192);
+        assertEquals(8192, sizer.getNextReadSize());
+    }
+
+    public void testShrinksAfterTwoSmallReads() {
+        AdaptiveReadSizer sizer = new AdaptiveReadSizer(1024, 8192, 8192);
+        sizer.record(100);
+        assertEquals(8192, sizer.getNextReadSize());
+        sizer.record(5000);
+        sizer.record(100);
+        assertEquals(8192, sizer.getNextReadSize());
+        sizer.record(100);
+        assertEquals(4096, sizer.getNextReadSize());
+        for(int i = 0; i < 10; i++) {
+            sizer.record(1);
+        }
+        assertEquals(1024, sizer.getNextReadSize());
+    }
+}
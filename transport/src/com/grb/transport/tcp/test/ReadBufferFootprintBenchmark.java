@@ -0,0 +1,139 @@
+package com.grb.transport.tcp.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+
+/**
+ * Measures the direct memory held for reading by many idle server side
+ * connections, each with a dedicated read buffer versus reading from a
+ * {@link TransportBufferPool}. Every connection receives one message
+ * before being left idle.
+ * <p>
+ * Usage: ReadBufferFootprintBenchmark [numConnections] [readBufferSize]
+ */
+public class ReadBufferFootprintBenchmark {
+    static public final int Port = 4531;
+
+    static public class CountingReadListener implements TransportReadListener {
+        private AtomicLong mReceived;
+        private boolean mDedicated;
+        public CountingReadListener(AtomicLong received, boolean dedicated) {
+            mReceived = received;
+            mDedicated = dedicated;
+        }
+        public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+            if (numBytesRead > 0) {
+                mReceived.addAndGet(numBytesRead);
+            }
+            if (mDedicated) {
+                readBuffer.clear();
+            } else {
+                readBuffer.position(readBuffer.limit());
+            }
+            return true;
+        }
+    }
+
+    static public void run(final boolean pooled, int numConnections, final int readBufferSize) throws Exception {
+        ReactorThread reactor = new ReactorThread("ReadBufferFootprintBenchmark");
+        reactor.startAsDaemon();
+        final TransportBufferPool pool = new TransportBufferPool(1024, readBufferSize, readBufferSize,
+                TransportBufferPool.DefaultThreadCacheSize, TransportBufferPool.DefaultMaxPooledPerClass);
+        final AtomicLong received = new AtomicLong(0);
+        final AtomicLong dedicatedBytes = new AtomicLong(0);
+        ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+        TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor,
+                new TCPTransportClientProperties(null, eventExecutor, reactor, null,
+                        ByteBuffer.allocateDirect(16), 10, TimeUnit.SECONDS));
+        TCPTransportServer server = new TCPTransportServer(serverProps, new TCPTransportServerConnectionListener() {
+            public void onNewConnection(TCPTransportClient client) {
+                try {
+                    if (pooled) {
+                        client.startReading(new CountingReadListener(received, false), pool);
+                    } else {
+                        client.startReading(new CountingReadListener(received, true), ByteBuffer.allocateDirect(readBufferSize));
+                        dedicatedBytes.addAndGet(readBufferSize);
+                    }
+                } catch(TransportException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        server.startAccepting();
+
+        long directBefore = getDirectMemoryUsed();
+        SocketChannel[] channels = new SocketChannel[numConnections];
+        ByteBuffer message = ByteBuffer.allocate(8);
+        for (int i = 0; i < numConnections; i++) {
+            channels[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", Port));
+            message.clear();
+            message.putLong(i);
+            message.flip();
+            channels[i].write(message);
+        }
+        while (received.get() < numConnections * 8L) {
+            Thread.sleep(10);
+        }
+        long directAfter = getDirectMemoryUsed();
+        long held = pooled ? pool.getAllocatedBytes() : dedicatedBytes.get();
+        System.out.println(String.format("%-9s connections=%-6d readBuffers=%,12d bytes (%,8.1f per connection) directMemoryDelta=%s",
+                pooled ? "pooled" : "dedicated", numConnections, held, held / (double)numConnections,
+                (directBefore < 0) ? "n/a" : String.format("%,d", directAfter - directBefore)));
+
+        for (int i = 0; i < numConnections; i++) {
+            channels[i].close();
+        }
+        server.close();
+        reactor.close();
+        eventExecutor.shutdown();
+        Thread.sleep(500);
+    }
+
+    /**
+     * @return Bytes used by direct buffers, -1 if the JVM doesn't say.
+     */
+    static public long getDirectMemoryUsed() {
+        try {
+            Class<?> beanClass = Class.forName("java.lang.management.BufferPoolMXBean");
+            Method getBeans = ManagementFactory.class.getMethod("getPlatformMXBeans", Class.class);
+            List<?> beans = (List<?>)getBeans.invoke(null, beanClass);
+            for (Object bean : beans) {
+                if ("direct".equals(beanClass.getMethod("getName").invoke(bean))) {
+                    return (Long)beanClass.getMethod("getMemoryUsed").invoke(bean);
+                }
+            }
+        } catch(Exception e) {
+            // not available before Java 7
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) {
+        int numConnections = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int readBufferSize = (args.length > 1) ? Integer.parseInt(args[1]) : 16 * 1024;
+        try {
+            run(false, numConnections, readBufferSize);
+            run(true, numConnections, readBufferSize);
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.grb.transport.tcp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorGroup;
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportClient;
+import com.grb.transport.TransportClosedException;
+import com.grb.transport.TransportEvent;
+import com.grb.transport.TransportEventListener;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.TransportState;
+import com.grb.transport.TransportStateChangeEvent;
+import com.grb.transport.WriteCompletionHandler;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.ReconnectingTransportClient;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+import com.grb.util.Reflection;
+
+public class ReconnectingTransportClientTest extends TestCase {
+    private static final Log Trace = LogFactory.getLog(ReconnectingTransportClientTest.class);
+
+    private static final ExecutorService EventExecutor = Executors.newSingleThreadExecutor();
+    private static final int Port = 3465;
+
+    private ReactorThread mReactor;
+    private TCPTransportServer mServer;
+    private List<TCPTransportClient> mAccepted;
+    private ByteArrayOutputStream mReceived;
+    private List<TransportState> mStates;
+    private ByteArrayOutputStream mClientReceived;
+
+    public ReconnectingTransportClientTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(ReconnectingTransportClientTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mReactor = new ReactorThread();
+        mReactor.startAsDaemon();
+        mAccepted = new ArrayList<TCPTransportClient>();
+        mReceived = new ByteArrayOutputStream();
+        mStates = new ArrayList<TransportState>();
+        mClientReceived = new ByteArrayOutputStream();
+        startServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        stopServer();
+        mReactor.close();
+    }
+
+    public void startServer() throws Exception {
+        TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, mReactor,
+                new TCPTransportClientProperties(null, EventExecutor, mReactor, null, null, 10, TimeUnit.SECONDS));
+        final TransportBufferPool pool = new TransportBufferPool();
+        TCPTransportServerConnectionListener listener = new TCPTransportServerConnectionListener() {
+            public void onNewConnection(TCPTransportClient client) {
+                synchronized(mAccepted) {
+                    mAccepted.add(client);
+                }
+                try {
+                    client.startReading(new TransportReadListener() {
+                        public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+                            synchronized(mReceived) {
+                                while (readBuffer.hasRemaining()) {
+                                    mReceived.write(readBuffer.get());
+                                }
+                            }
+                            return true;
+                        }
+                    }, pool);
+                } catch(TransportException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        // the previous server socket is released once its reactor deregisters it
+        for(int i = 0; ; i++) {
+            try {
+                mServer = new TCPTransportServer(serverProps, listener);
+                break;
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+        mServer.startAccepting();
+    }
+
+    /**
+     * Closes the server and the connections it accepted.
+     */
+    public void stopServer() {
+        mServer.close();
+        synchronized(mAccepted) {
+            for(TCPTransportClient client : mAccepted) {
+                client.close();
+            }
+            mAccepted.clear();
+        }
+    }
+
+    public ReconnectingTransportClient newClient(int maxPendingWriteBytes) throws Exception {
+        TCPTransportClientProperties props = new TCPTransportClientProperties(
+                new InetSocketAddress("127.0.0.1", Port), EventExecutor, mReactor,
+                new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, true, null, null)),
+                null, 5, TimeUnit.SECONDS);
+        ReconnectingTransportClient client = new ReconnectingTransportClient(props, 10, 100, maxPendingWriteBytes);
+        client.addEventListener(new TransportEventListener() {
+            public void onTransportEvent(TransportEvent event) {
+                if (event instanceof TransportStateChangeEvent) {
+                    synchronized(mStates) {
+                        mStates.add(((TransportStateChangeEvent)event).getNewState());
+                    }
+                }
+            }
+        });
+        return client;
+    }
+
+    public void startReading(ReconnectingTransportClient client) throws TransportException {
+        client.startReading(new TransportReadListener() {
+            public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+                synchronized(mClientReceived) {
+                    while (readBuffer.hasRemaining()) {
+                        mClientReceived.write(readBuffer.get());
+                    }
+                }
+                return true;
+            }
+        }, ByteBuffer.allocate(100));
+    }
+
+    public String waitForReceived(ByteArrayOutputStream received, int numBytes) throws Exception {
+        for(int i = 0; i < 250; i++) {
+            synchronized(received) {
+                if (received.size() >= numBytes) {
+                    break;
+                }
+            }
+            Thread.sleep(20);
+        }
+        synchronized(received) {
+            return new String(received.toByteArray(), "US-ASCII");
+        }
+    }
+
+    public void waitForState(ReconnectingTransportClient client, TransportState state) throws Exception {
+        for(int i = 0; (i < 250) && (client.getState() != state); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(state, client.getState());
+    }
+
+    public TCPTransportClient waitForAccepted(int numAccepted) throws Exception {
+        for(int i = 0; i < 250; i++) {
+            synchronized(mAccepted) {
+                if (mAccepted.size() >= numAccepted) {
+                    return mAccepted.get(numAccepted - 1);
+                }
+            }
+            Thread.sleep(20);
+        }
+        fail("Connection not accepted");
+        return null;
+    }
+
+    public ByteBuffer message(String text) throws Exception {
+        return ByteBuffer.wrap(text.getBytes("US-ASCII"));
+    }
+
+    public void testReconnect() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReconnectingTransportClient client = newClient(1024);
+        client.connect(5, TimeUnit.SECONDS);
+        startReading(client);
+        assertEquals(TransportState.Connected, client.getState());
+        client.write(message("a"));
+        assertEquals("a", waitForReceived(mReceived, 1));
+        TCPTransportClient first = client.getClient();
+
+        waitForAccepted(1).close();
+        waitForAccepted(2);
+        waitForState(client, TransportState.Connected);
+        assertNotSame(first, client.getClient());
+        assertTrue(client.getReconnectCount() >= 1);
+        client.write(message("b"));
+        assertEquals("ab", waitForReceived(mReceived, 2));
+
+        // the read listener is registered on the new connection
+        waitForAccepted(2).write(message("x"));
+        assertEquals("x", waitForReceived(mClientReceived, 1));
+        synchronized(mStates) {
+            assertEquals(TransportState.Connecting, mStates.get(0));
+            assertEquals(TransportState.Connected, mStates.get(1));
+            assertEquals(TransportState.Connecting, mStates.get(2));
+            assertEquals(TransportState.Connected, mStates.get(3));
+        }
+        client.close();
+        assertEquals(TransportState.Disconnected, client.getState());
+    }
+
+    public void testQueuedWhileReconnecting() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReconnectingTransportClient client = newClient(1024);
+        client.connect(5, TimeUnit.SECONDS);
+        startReading(client);
+        client.write(message("a"));
+        assertEquals("a", waitForReceived(mReceived, 1));
+
+        stopServer();
+        waitForState(client, TransportState.Connecting);
+        // let a few attempts fail
+        Thread.sleep(100);
+        TransportSendResult result = new TransportSendResult();
+        assertEquals(0, client.writeAsync(message("bc"), result));
+        Future<Boolean> first = result.getFuture();
+        assertEquals(0, client.writeAsync(new ByteBuffer[] {message("d"), message("ef")}, result));
+        assertEquals(5, client.getPendingWriteBytes());
+        assertFalse(result.getFuture().isDone());
+
+        startServer();
+        assertEquals("abcdef", waitForReceived(mReceived, 6));
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(result.getFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(0, client.getPendingWriteBytes());
+        waitForState(client, TransportState.Connected);
+        client.close();
+    }
+
+    public void testPendingLimit() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReconnectingTransportClient client = newClient(10);
+        client.connect(5, TimeUnit.SECONDS);
+        startReading(client);
+        stopServer();
+        waitForState(client, TransportState.Connecting);
+        TransportSendResult result = new TransportSendResult();
+        assertEquals(0, client.writeAsync(message("123456"), result));
+        Future<Boolean> queued = result.getFuture();
+        assertEquals(-1, client.writeAsync(message("789012"), result));
+        assertSame(queued, result.getFuture());
+        assertEquals(6, client.getPendingWriteBytes());
+
+        startServer();
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals("123456", waitForReceived(mReceived, 6));
+        client.close();
+    }
+
+    public void testCloseWhileReconnecting() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReconnectingTransportClient client = newClient(1024);
+        client.connect(5, TimeUnit.SECONDS);
+        startReading(client);
+        stopServer();
+        waitForState(client, TransportState.Connecting);
+        TransportSendResult result = new TransportSendResult();
+        assertEquals(0, client.writeAsync(message("a"), result));
+        client.close();
+        assertEquals(TransportState.Disconnected, client.getState());
+        try {
+            result.getFuture().get(5, TimeUnit.SECONDS);
+            fail("Expected closed");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransportClosedException);
+        }
+        long attempts = client.getReconnectCount();
+        Thread.sleep(300);
+        assertEquals(attempts, client.getReconnectCount());
+        try {
+            client.writeAsync(message("b"), result);
+            fail("Expected closed");
+        } catch(TransportClosedException e) {
+        }
+        startServer();
+    }
+
+    public void testFirstConnectFails() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        stopServer();
+        ReconnectingTransportClient client = newClient(1024);
+        try {
+            client.connect(5, TimeUnit.SECONDS);
+            fail("Expected connect to fail");
+        } catch(TransportException e) {
+        }
+        waitForState(client, TransportState.Disconnected);
+        assertEquals(0, client.getReconnectCount());
+        startServer();
+    }
+
+    public void testTasksOnOwningReactor() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorGroup group = new ReactorGroup(4);
+        group.startAsDaemon();
+        try {
+            TCPTransportClientProperties props = new TCPTransportClientProperties(
+                    new InetSocketAddress("127.0.0.1", Port), EventExecutor, group,
+                    new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, true, null, null)),
+                    null, 5, TimeUnit.SECONDS);
+            ReconnectingTransportClient client = new ReconnectingTransportClient(props, 10, 100, 1024);
+            client.connect(5, TimeUnit.SECONDS);
+            final String[] readThread = new String[1];
+            client.startReading(new TransportReadListener() {
+                public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+                    if (numBytesRead > 0) {
+                        synchronized(readThread) {
+                            readThread[0] = Thread.currentThread().getName();
+                        }
+                    }
+                    readBuffer.clear();
+                    return true;
+                }
+            }, ByteBuffer.allocate(100));
+            stopServer();
+            waitForState(client, TransportState.Connecting);
+
+            // sent by the replay once reconnected
+            final String[] sentThread = new String[1];
+            assertEquals(0, client.writeAsync(message("a"), new WriteCompletionHandler() {
+                public void onWriteComplete(TransportClient c, long numBytes) {
+                    synchronized(sentThread) {
+                        sentThread[0] = Thread.currentThread().getName();
+                    }
+                }
+                public void onWriteFailed(TransportClient c, TransportException error) {
+                }
+            }));
+            startServer();
+            assertEquals("a", waitForReceived(mReceived, 1));
+            waitForAccepted(1).write(message("x"));
+            for(int i = 0; i < 250; i++) {
+                synchronized(readThread) {
+                    if (readThread[0] != null) {
+                        break;
+                    }
+                }
+                Thread.sleep(20);
+            }
+            // the replay ran on the loop that reads the new connection
+            synchronized(readThread) {
+                synchronized(sentThread) {
+                    assertNotNull(readThread[0]);
+                    assertEquals(readThread[0], sentThread[0]);
+                }
+            }
+            client.close();
+        } finally {
+            group.close();
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.grb.transport.tcp.test;
 
+import java.io.ByteArrayOutputStream;
+import java.net.BindException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -19,11 +23,24 @@ import junit.framework.TestSuite;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.grb.reactor.ReactorGroup;
 import com.grb.reactor.ReactorThread;
+import com.grb.reactor.VirtualThreadReactor;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportBufferReleaser;
+import com.grb.transport.TransportClient;
 import com.grb.transport.TransportClosedException;
+import com.grb.transport.TransportEvent;
+import com.grb.transport.TransportEventListener;
 import com.grb.transport.TransportException;
+import com.grb.transport.TransportOperation;
 import com.grb.transport.TransportReadListener;
 import com.grb.transport.TransportSendResult;
+import com.grb.transport.TransportState;
+import com.grb.transport.TransportStateChangeEvent;
+import com.grb.transport.TransportWritabilityEvent;
+import com.grb.transport.WriteCompletionFuture;
+import com.grb.transport.WriteCompletionHandler;
 import com.grb.transport.tcp.DefaultSocketChannelFactory;
 import com.grb.transport.tcp.SocketChannelFactory;
 import com.grb.transport.tcp.SocketChannelProperties;
@@ -66,6 +83,163 @@ public class TCPTransportClientTest extends TestCase {
         }        
     }
 
+    public class WritabilityListener implements TransportEventListener {
+        public ArrayList<Boolean> events = new ArrayList<Boolean>();
+        public void onTransportEvent(TransportEvent event) {
+            if (event instanceof TransportWritabilityEvent) {
+                synchronized(events) {
+                    events.add(((TransportWritabilityEvent)event).isWritable());
+                }
+            }
+        }
+    }
+
+    public class RecordingBufferReleaser implements TransportBufferReleaser {
+        public ArrayList<ByteBuffer> released = new ArrayList<ByteBuffer>();
+        public void releaseBuffer(ByteBuffer buffer) {
+            synchronized(released) {
+                released.add(buffer);
+            }
+        }
+        public int size() {
+            synchronized(released) {
+                return released.size();
+            }
+        }
+    }
+
+    public class RecordingTransportReadListener implements TransportReadListener {
+        public ByteArrayOutputStream data = new ByteArrayOutputStream();
+        public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+            synchronized(data) {
+                while (readBuffer.hasRemaining()) {
+                    data.write(readBuffer.get());
+                }
+            }
+            readBuffer.clear();
+            return true;
+        }
+        public byte[] toByteArray() {
+            synchronized(data) {
+                return data.toByteArray();
+            }
+        }
+    }
+
+    public class RecordingCompletionHandler implements WriteCompletionHandler {
+        public ArrayList<Long> completed = new ArrayList<Long>();
+        public ArrayList<TransportException> failed = new ArrayList<TransportException>();
+        public String threadName;
+        public synchronized void onWriteComplete(TransportClient client, long numBytes) {
+            completed.add(numBytes);
+            threadName = Thread.currentThread().getName();
+        }
+        public synchronized void onWriteFailed(TransportClient client, TransportException error) {
+            failed.add(error);
+        }
+        public synchronized int numCompleted() {
+            return completed.size();
+        }
+        public synchronized int numFailed() {
+            return failed.size();
+        }
+    }
+
+    /**
+     * Writes again or closes the client from the completion callback, and 
+     * checks another thread can take the client's lock meanwhile.
+     */
+    public class ReenteringCompletionHandler extends RecordingCompletionHandler {
+        public final TCPTransportClient client;
+        public volatile int numRewrites = 0;
+        public volatile int numRewritten = 0;
+        public volatile boolean close = false;
+        public volatile boolean locked = false;
+        public ReenteringCompletionHandler(TCPTransportClient client) {
+            this.client = client;
+        }
+        public void onWriteComplete(TransportClient c, long numBytes) {
+            super.onWriteComplete(c, numBytes);
+            Thread other = new Thread() {
+                public void run() {
+                    client.getQueuedWriteBytes();
+                }
+            };
+            other.start();
+            try {
+                other.join(1000);
+            } catch(InterruptedException e) {
+            }
+            if (other.isAlive()) {
+                locked = true;
+            }
+            if (close) {
+                client.close();
+            } else if (numRewrites > 0) {
+                numRewrites--;
+                try {
+                    if (client.writeAsync(ByteBuffer.allocate(10), this) >= 0) {
+                        numRewritten++;
+                    }
+                } catch(TransportException e) {
+                    onWriteFailed(c, e);
+                }
+            }
+        }
+    }
+
+    public class ReadSizeListener implements TransportReadListener {
+        public ArrayList<Integer> reads = new ArrayList<Integer>();
+        public synchronized boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+            reads.add(numBytesRead);
+            readBuffer.clear();
+            return true;
+        }
+        public synchronized int getTotal() {
+            int total = 0;
+            for(int i = 0; i < reads.size(); i++) {
+                total += reads.get(i);
+            }
+            return total;
+        }
+        public synchronized boolean isClosed() {
+            return reads.contains(0);
+        }
+    }
+
+    public class StateChangeListener implements TransportEventListener {
+        public volatile TransportStateChangeEvent disconnected;
+        public void onTransportEvent(TransportEvent event) {
+            if ((event instanceof TransportStateChangeEvent) && 
+                ((TransportStateChangeEvent)event).getNewState().equals(TransportState.Disconnected)) {
+                disconnected = (TransportStateChangeEvent)event;
+            }
+        }
+    }
+
+    public class LongTransportReadListener implements TransportReadListener {
+        public TCPTransportClient client;
+        public long next = 0;
+        public boolean retain = false;
+        public ByteBuffer retained;
+        public volatile boolean outOfOrder = false;
+        public synchronized boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+            while (readBuffer.remaining() >= 8) {
+                if (readBuffer.getLong() != next++) {
+                    outOfOrder = true;
+                }
+            }
+            if (retain) {
+                retain = false;
+                retained = client.retainReadBuffer();
+            }
+            return true;
+        }
+        public synchronized long getNext() {
+            return next;
+        }
+    }
+
     public class CountingTransportReadListener implements TransportReadListener {
         public long totalRead = 0;
         public transient boolean cont = false;
@@ -77,6 +251,24 @@ public class TCPTransportClientTest extends TestCase {
         }        
     }
     
+    /**
+     * Creates a server, retrying the bind while the previous test's server
+     * socket is released, which happens once its reactor deregisters it.
+     */
+    public TCPTransportServer newServer(TCPTransportServerProperties serverProps,
+            TCPTransportServerConnectionListener listener) throws Exception {
+        for(int i = 0; ; i++) {
+            try {
+                return new TCPTransportServer(serverProps, listener);
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
     public void testConnectBadPort() {
         Trace.info("Test=" + Reflection.getMethodName());
         ReactorThread reactor = null;
@@ -986,6 +1178,103 @@ public class TCPTransportClientTest extends TestCase {
         }
     }
 
+    public void testReactorGroupServerClient() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorGroup group = null;
+        TCPTransportServer server = null;
+        try {
+            group = new ReactorGroup(2);
+            group.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, group, 
+                    new TCPTransportClientProperties(null, EventExecutor, group, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            // the acceptor is the first loop assigned
+            assertEquals(1, group.getReactors()[0].getSelector().keys().size());
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            ReactorThread reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            CountingTransportReadListener readListener = new CountingTransportReadListener();
+            readListener.cont = true;
+            serverClient.startReading(readListener, ByteBuffer.allocate(10));
+            // accepted connection is handed to the other loop
+            assertEquals(1, group.getReactors()[0].getSelector().keys().size());
+            assertEquals(1, group.getReactors()[1].getSelector().keys().size());
+
+            ByteBuffer writeBuffer = ByteBuffer.wrap(new byte[5]);
+            client.write(new ByteBuffer[] {writeBuffer}, 5, TimeUnit.SECONDS);
+            Thread.sleep(500);
+            assertEquals(5, readListener.totalRead);
+            client.close();
+            reactor.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (group != null) {
+                group.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testVirtualThreadReactorServerClient() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        VirtualThreadReactor reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new VirtualThreadReactor();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor, 
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            CountingTransportReadListener readListener = new CountingTransportReadListener();
+            readListener.cont = true;
+            serverClient.startReading(readListener, ByteBuffer.allocate(10));
+
+            ByteBuffer writeBuffer = ByteBuffer.wrap(new byte[5]);
+            client.write(new ByteBuffer[] {writeBuffer}, 5, TimeUnit.SECONDS);
+            Thread.sleep(500);
+            assertEquals(5, readListener.totalRead);
+            client.close();
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
     public void testConnectClosedServerClient() {
         Trace.info("Test=" + Reflection.getMethodName());
         ReactorThread reactor = null;
@@ -1156,7 +1445,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 100, TimeUnit.SECONDS, result);
                 future = result.getFuture();
@@ -1331,7 +1619,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 100, TimeUnit.SECONDS, result);
                 future = result.getFuture();
@@ -1541,7 +1828,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 100, TimeUnit.SECONDS, result);
                 future = result.getFuture();
@@ -1589,7 +1875,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 100, TimeUnit.SECONDS, result);
                 future = result.getFuture();
@@ -1641,6 +1926,708 @@ public class TCPTransportClientTest extends TestCase {
         }
     }
 
+    public void testWriteQueue() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final int chunkSize = 1000;
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS, 10 * chunkSize, 2 * chunkSize);
+            TCPTransportClient client = new TCPTransportClient(props);
+            WritabilityListener writabilityListener = new WritabilityListener();
+            client.addEventListener(writabilityListener);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            
+            // fill the socket then the queue up to the high watermark
+            byte[] sendData = new byte[chunkSize];
+            ArrayList<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            long totalSent = 0;
+            while(true) {
+                TransportSendResult result = new TransportSendResult();
+                int numWritten = client.writeAsync(ByteBuffer.wrap(sendData), 100, TimeUnit.SECONDS, result);
+                if (numWritten == -1) {
+                    assertFalse(client.isWritable());
+                    assertSame(futures.get(futures.size() - 1), result.getFuture());
+                    break;
+                }
+                totalSent += chunkSize;
+                if (!result.isDone()) {
+                    futures.add(result.getFuture());
+                }
+            }
+            // more than one send is outstanding
+            assertTrue(futures.size() > 1);
+            assertEquals(futures.size(), client.getWriteQueueSize());
+            assertTrue(client.getQueuedWriteBytes() >= 10 * chunkSize);
+            assertFalse(futures.get(0).isDone());
+            
+            // start the server reading
+            ByteBuffer readBuffer = ByteBuffer.allocate(chunkSize);
+            CountingTransportReadListener readListener = new CountingTransportReadListener();
+            readListener.cont = true;
+            serverClient.startReading(readListener, readBuffer);
+            
+            for(int i = 0; i < futures.size(); i++) {
+                assertTrue(futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertTrue(client.isWritable());
+            assertEquals(0, client.getWriteQueueSize());
+            assertEquals(0, client.getQueuedWriteBytes());
+            Thread.sleep(1000);
+            assertEquals(totalSent, readListener.totalRead);
+            synchronized(writabilityListener.events) {
+                assertEquals(2, writabilityListener.events.size());
+                assertFalse(writabilityListener.events.get(0));
+                assertTrue(writabilityListener.events.get(1));
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testOwnershipTransferWrite() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final int chunkSize = 1000;
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS, 10 * chunkSize, 2 * chunkSize);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            
+            // alternate single and gathering sends until the queue is full
+            RecordingBufferReleaser releaser = new RecordingBufferReleaser();
+            ArrayList<ByteBuffer> sent = new ArrayList<ByteBuffer>();
+            TransportSendResult result = new TransportSendResult();
+            Future<Boolean> future = null;
+            long totalSent = 0;
+            boolean vectored = false;
+            while(true) {
+                long numWritten;
+                if (vectored) {
+                    ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.allocate(chunkSize), ByteBuffer.allocate(chunkSize)};
+                    numWritten = client.writeAsync(buffers, 0, buffers.length, releaser, result);
+                    if (numWritten >= 0) {
+                        sent.add(buffers[0]);
+                        sent.add(buffers[1]);
+                        totalSent += 2 * chunkSize;
+                    }
+                } else {
+                    ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+                    numWritten = client.writeAsync(buffer, releaser, result);
+                    if (numWritten >= 0) {
+                        sent.add(buffer);
+                        totalSent += chunkSize;
+                    }
+                }
+                if (numWritten == -1) {
+                    break;
+                }
+                if (!result.isDone()) {
+                    future = result.getFuture();
+                }
+                vectored = !vectored;
+            }
+            assertNotNull(future);
+            // the queue holds the caller's buffers, not copies
+            int numQueued = client.getWriteQueueSize();
+            assertTrue(numQueued > 1);
+            assertEquals(sent.size() - numQueued, releaser.size());
+            
+            // start the server reading
+            ByteBuffer readBuffer = ByteBuffer.allocate(chunkSize);
+            CountingTransportReadListener readListener = new CountingTransportReadListener();
+            readListener.cont = true;
+            serverClient.startReading(readListener, readBuffer);
+            
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+            assertEquals(sent.size(), releaser.size());
+            for(int i = 0; i < sent.size(); i++) {
+                assertSame(sent.get(i), releaser.released.get(i));
+                assertFalse(sent.get(i).hasRemaining());
+            }
+            Thread.sleep(1000);
+            assertEquals(totalSent, readListener.totalRead);
+
+            // queued buffers are released when the connection closes
+            serverClient.stopReading();
+            do {
+                numQueued = client.writeAsync(ByteBuffer.allocate(chunkSize), releaser, result);
+            } while(numQueued != -1);
+            int numReleased = releaser.size();
+            numQueued = client.getWriteQueueSize();
+            future = result.getFuture();
+            client.close();
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("should throw");
+            } catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof TransportClosedException);
+            }
+            assertEquals(numReleased + numQueued, releaser.size());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testGatheringWriteLimits() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final int chunkSize = 1000;
+        final int numChunks = 8000;
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS, Integer.MAX_VALUE, 0);
+            props.setMaxBuffersPerWrite(3);
+            props.setMaxBytesPerWrite(chunkSize + (chunkSize / 2));
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+
+            // queue everything before the server reads, half of it as gathering sends
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            TransportSendResult result = new TransportSendResult();
+            Future<Boolean> future = null;
+            for(int i = 0; i < numChunks; i += 2) {
+                byte[] first = new byte[chunkSize];
+                byte[] second = new byte[chunkSize];
+                Arrays.fill(first, (byte)i);
+                Arrays.fill(second, (byte)(i + 1));
+                expected.write(first);
+                expected.write(second);
+                ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.wrap(first), ByteBuffer.wrap(second)};
+                long numWritten;
+                if ((i % 4) == 0) {
+                    numWritten = client.writeAsync(buffers, result);
+                    // consumed, not flipped
+                    assertEquals(chunkSize, buffers[0].position());
+                    assertEquals(chunkSize, buffers[1].position());
+                } else {
+                    numWritten = client.writeAsync(buffers[0], result);
+                    assertTrue(numWritten >= 0);
+                    if (!result.isDone()) {
+                        future = result.getFuture();
+                    }
+                    numWritten = client.writeAsync(buffers[1], result);
+                }
+                assertTrue(numWritten >= 0);
+                if (!result.isDone()) {
+                    future = result.getFuture();
+                }
+            }
+            assertNotNull(future);
+            assertTrue(client.getWriteQueueSize() > 3);
+
+            RecordingTransportReadListener readListener = new RecordingTransportReadListener();
+            serverClient.startReading(readListener, ByteBuffer.allocate(chunkSize));
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+            byte[] expectedBytes = expected.toByteArray();
+            for(int i = 0; (i < 100) && (readListener.toByteArray().length < expectedBytes.length); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(Arrays.equals(expectedBytes, readListener.toByteArray()));
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testWriteCompletionHandler() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final int chunkSize = 1000;
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread("testWriteCompletionHandler");
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS, 10 * chunkSize, 2 * chunkSize);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+
+            // send until the queue is full, nothing blocks
+            RecordingCompletionHandler handler = new RecordingCompletionHandler();
+            int numSends = 0;
+            long totalSent = 0;
+            while(true) {
+                long numWritten;
+                if ((numSends % 2) == 0) {
+                    numWritten = client.writeAsync(ByteBuffer.allocate(chunkSize), handler);
+                } else {
+                    ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.allocate(chunkSize), ByteBuffer.allocate(chunkSize)};
+                    numWritten = client.writeAsync(buffers, 0, buffers.length, handler);
+                }
+                if (numWritten == -1) {
+                    break;
+                }
+                totalSent += ((numSends % 2) == 0) ? chunkSize : (2 * chunkSize);
+                numSends++;
+            }
+            assertTrue(client.getWriteQueueSize() > 1);
+            assertEquals(0, handler.numFailed());
+            assertTrue(handler.numCompleted() < numSends);
+
+            // the adapter completes after every earlier send
+            WriteCompletionFuture future = new WriteCompletionFuture();
+            RecordingCompletionHandler chained = new RecordingCompletionHandler();
+            future.addHandler(chained);
+            assertEquals(-1, client.writeAsync(ByteBuffer.allocate(chunkSize), future));
+            assertFalse(future.isDone());
+
+            ByteBuffer readBuffer = ByteBuffer.allocate(chunkSize);
+            CountingTransportReadListener readListener = new CountingTransportReadListener();
+            readListener.cont = true;
+            serverClient.startReading(readListener, readBuffer);
+            for(int i = 0; (i < 100) && (handler.numCompleted() < numSends); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(numSends, handler.numCompleted());
+            assertEquals("testWriteCompletionHandler", handler.threadName);
+            long totalCompleted = 0;
+            for(int i = 0; i < numSends; i++) {
+                totalCompleted += handler.completed.get(i);
+            }
+            assertEquals(totalSent, totalCompleted);
+
+            // writable again
+            assertTrue(client.writeAsync(ByteBuffer.allocate(chunkSize), future) >= 0);
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+            assertEquals(chunkSize, future.getNumBytes());
+            assertEquals(1, chained.numCompleted());
+            // a handler added late is called straight away
+            RecordingCompletionHandler late = new RecordingCompletionHandler();
+            future.addHandler(late);
+            assertEquals(1, late.numCompleted());
+
+            // queued sends fail when the client closes
+            serverClient.stopReading();
+            handler = new RecordingCompletionHandler();
+            numSends = 0;
+            while(client.writeAsync(ByteBuffer.allocate(chunkSize), handler) != -1) {
+                numSends++;
+            }
+            int numQueued = numSends - handler.numCompleted();
+            assertTrue(numQueued > 0);
+            client.close();
+            assertEquals(numQueued, handler.numFailed());
+            assertTrue(handler.failed.get(0) instanceof TransportClosedException);
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testWriteCompletionHandlerUnlocked() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final int chunkSize = 1000;
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread("testWriteCompletionHandlerUnlocked");
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = newServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(chunkSize), 10, TimeUnit.SECONDS, 10 * chunkSize, 2 * chunkSize);
+            // one send completes per write, so some are still queued at the close
+            props.setMaxBytesPerWrite(chunkSize);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+
+            // each completion writes again while the queue drains
+            ReenteringCompletionHandler handler = new ReenteringCompletionHandler(client);
+            handler.numRewrites = 20;
+            int numSends = 0;
+            while(client.writeAsync(ByteBuffer.allocate(chunkSize), handler) != -1) {
+                numSends++;
+            }
+            CountingTransportReadListener readListener = new CountingTransportReadListener();
+            readListener.cont = true;
+            serverClient.startReading(readListener, ByteBuffer.allocate(chunkSize));
+            for(int i = 0; (i < 100) && 
+                    ((handler.numRewrites > 0) || (handler.numCompleted() < (numSends + handler.numRewritten))); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, handler.numRewrites);
+            assertEquals(numSends + handler.numRewritten, handler.numCompleted());
+            assertEquals(0, handler.numFailed());
+            assertFalse(handler.locked);
+
+            // the first completion closes the client, failing the rest
+            serverClient.stopReading();
+            handler = new ReenteringCompletionHandler(client);
+            numSends = 0;
+            while(client.writeAsync(ByteBuffer.allocate(chunkSize), handler) != -1) {
+                numSends++;
+            }
+            handler.close = true;
+            serverClient.startReading(readListener, ByteBuffer.allocate(chunkSize));
+            for(int i = 0; (i < 100) && ((handler.numCompleted() + handler.numFailed()) < numSends); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(client.isDisconnected());
+            assertTrue(handler.numCompleted() > 0);
+            assertTrue(handler.numFailed() > 0);
+            assertEquals(numSends, handler.numCompleted() + handler.numFailed());
+            assertTrue(handler.failed.get(0) instanceof TransportClosedException);
+            assertFalse(handler.locked);
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testPooledRead() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final int numLongs = 10000;
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(10000000), 10, TimeUnit.SECONDS);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            TransportBufferPool pool = new TransportBufferPool(1024, 4096, 1024, 4, 4);
+            LongTransportReadListener readListener = new LongTransportReadListener();
+            readListener.client = serverClient;
+            serverClient.startReading(readListener, pool);
+            assertEquals(0, pool.getAcquireCount());
+
+            // longs split across sends so reads end part way through one
+            ByteBuffer data = ByteBuffer.allocate(numLongs * 8);
+            for(int i = 0; i < numLongs; i++) {
+                data.putLong(i);
+            }
+            data.flip();
+            while (data.hasRemaining()) {
+                ByteBuffer chunk = data.slice();
+                chunk.limit(Math.min(chunk.remaining(), 1001));
+                data.position(data.position() + chunk.remaining());
+                client.write(chunk);
+            }
+            for(int i = 0; (i < 100) && (readListener.getNext() < numLongs); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(numLongs, readListener.getNext());
+            assertFalse(readListener.outOfOrder);
+            // every buffer went back and the pool reused them
+            for(int i = 0; (i < 100) && (pool.getAcquireCount() != pool.getReleaseCount()); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(pool.getAcquireCount(), pool.getReleaseCount());
+            assertTrue(pool.getAllocatedCount() < pool.getAcquireCount());
+
+            // a retained buffer is not returned
+            long released = pool.getReleaseCount();
+            readListener.retain = true;
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            buffer.putLong(numLongs);
+            buffer.flip();
+            client.write(buffer);
+            for(int i = 0; (i < 100) && (readListener.retained == null); i++) {
+                Thread.sleep(50);
+            }
+            assertNotNull(readListener.retained);
+            assertEquals(pool.getAcquireCount() - 1, pool.getReleaseCount());
+            assertEquals(released, pool.getReleaseCount());
+            pool.release(readListener.retained);
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testPooledReadGrowthCapped() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = newServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(10000), 10, TimeUnit.SECONDS);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            TransportBufferPool pool = new TransportBufferPool(1024, 4096, 1024, 4, 4);
+            // keeps asking for more without consuming anything
+            final int[] maxRemaining = new int[1];
+            serverClient.startReading(new TransportReadListener() {
+                public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+                    maxRemaining[0] = Math.max(maxRemaining[0], readBuffer.remaining());
+                    return true;
+                }
+            }, pool);
+
+            client.write(ByteBuffer.allocate(10000));
+            for(int i = 0; (i < 100) && (!serverClient.isDisconnected()); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(serverClient.isDisconnected());
+            assertEquals(4096, maxRemaining[0]);
+            // grew through the size classes, never past the largest
+            assertTrue(pool.getAllocatedBytes() <= (1024 + 2048 + 4096));
+            assertEquals(pool.getAcquireCount(), pool.getReleaseCount());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testReadBudget() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportClientProperties serverClientProps = new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS);
+            serverClientProps.setMaxReadBytesPerEvent(100);
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor, serverClientProps);
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(10000), 10, TimeUnit.SECONDS);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            ReadSizeListener readListener = new ReadSizeListener();
+            serverListener.client.startReading(readListener, ByteBuffer.allocate(10000));
+            ByteBuffer data = ByteBuffer.allocate(5000);
+            client.write(data);
+            for(int i = 0; (i < 100) && (readListener.getTotal() < 5000); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(5000, readListener.getTotal());
+            synchronized(readListener) {
+                for(int i = 0; i < readListener.reads.size(); i++) {
+                    assertTrue(readListener.reads.get(i) > 0);
+                    assertTrue(readListener.reads.get(i) <= 100);
+                }
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void testReadEndOfStream() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(3456, reactor,
+                    new TCPTransportClientProperties(null, EventExecutor, reactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+            SavedTransportServerListener serverListener = new SavedTransportServerListener();
+            server = new TCPTransportServer(serverProps, serverListener);
+            server.startAccepting();
+            
+            SocketChannelProperties scProps = new SocketChannelProperties(false, null, null, null, null);
+            SocketChannelFactory scFactory = new DefaultSocketChannelFactory(scProps);
+            
+            InetSocketAddress remoteAddress = new InetSocketAddress(3456);
+            TCPTransportClientProperties props = new TCPTransportClientProperties(remoteAddress, EventExecutor, reactor, scFactory, 
+                    ByteBuffer.allocateDirect(10000), 10, TimeUnit.SECONDS);
+            TCPTransportClient client = new TCPTransportClient(props);
+            client.connect(5, TimeUnit.SECONDS);
+            
+            Thread.sleep(500);
+            TCPTransportClient serverClient = serverListener.client;
+            StateChangeListener stateListener = new StateChangeListener();
+            serverClient.addEventListener(stateListener);
+            ReadSizeListener readListener = new ReadSizeListener();
+            TransportBufferPool pool = new TransportBufferPool();
+            serverClient.startReading(readListener, pool);
+            client.write(ByteBuffer.allocate(100));
+            client.close();
+            for(int i = 0; (i < 100) && (stateListener.disconnected == null); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(100, readListener.getTotal());
+            assertTrue(readListener.isClosed());
+            assertTrue(serverClient.isDisconnected());
+            assertNotNull(stateListener.disconnected);
+            assertEquals(TransportOperation.Reading, stateListener.disconnected.getOperation());
+            assertNull(stateListener.disconnected.getReason());
+            assertEquals(pool.getAcquireCount(), pool.getReleaseCount());
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            if (reactor != null) {
+                reactor.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
     public void testWriteFutureTimeout() {
         Trace.info("Test=" + Reflection.getMethodName());
         final int chunkSize = 1000000;
@@ -1736,7 +2723,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 10, TimeUnit.SECONDS, result);
                 future = result.getFuture();
@@ -1883,7 +2869,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 10, TimeUnit.SECONDS, result);
                 future = result.getFuture();
@@ -2026,7 +3011,6 @@ public class TCPTransportClientTest extends TestCase {
             while(true) {
                 for(int i = 0; i < numBuffers; i++) {
                     writeBuffers[i] = ByteBuffer.wrap(sendData);
-                    writeBuffers[i].position(chunkSize);
                 }
                 long numWritten = client.writeAsync(writeBuffers, 100, TimeUnit.SECONDS, result);
                 future = result.getFuture();
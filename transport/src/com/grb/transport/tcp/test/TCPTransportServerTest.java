@@ -0,0 +1,279 @@
+package com.grb.transport.tcp.test;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+import com.grb.util.Reflection;
+
+public class TCPTransportServerTest extends TestCase {
+    private static final Log Trace = LogFactory.getLog(TCPTransportServerTest.class);
+
+    private static final ExecutorService EventExecutor = Executors.newSingleThreadExecutor();
+    private static final int Port = 3462;
+    private static final int NumStressConnections = 2000;
+    private static final int StressChunkSize = 997;
+    private static final int StressChunksPerConnection = 24;
+
+    public TCPTransportServerTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(TCPTransportServerTest.class);
+    }
+
+    public class CollectingListener implements TCPTransportServerConnectionListener {
+        public ArrayList<TCPTransportClient> clients = new ArrayList<TCPTransportClient>();
+        public synchronized void onNewConnection(TCPTransportClient client) {
+            clients.add(client);
+        }
+        public synchronized int size() {
+            return clients.size();
+        }
+    }
+
+    /**
+     * Creates a server, retrying the bind while the previous test's server
+     * socket is released, which happens once its reactor deregisters it.
+     */
+    public TCPTransportServer newServer(TCPTransportServerProperties serverProps,
+            TCPTransportServerConnectionListener listener) throws Exception {
+        for(int i = 0; ; i++) {
+            try {
+                return new TCPTransportServer(serverProps, listener);
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    public void testProperties() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        TCPTransportServerProperties props = new TCPTransportServerProperties(Port, null, null);
+        assertEquals(TCPTransportServerProperties.DefaultBacklog, props.getBacklog());
+        assertEquals(TCPTransportServerProperties.DefaultMaxAcceptsPerEvent, props.getMaxAcceptsPerEvent());
+        assertNull(props.getAcceptedSocketProperties());
+        try {
+            props.setBacklog(0);
+            fail("should throw");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            props.setMaxAcceptsPerEvent(0);
+            fail("should throw");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testAcceptPending() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        SocketChannel[] channels = new SocketChannel[20];
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            TCPTransportClientProperties clientProps = new TCPTransportClientProperties(null, EventExecutor, reactor, null,
+                    ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS);
+            clientProps.setMaxReadBytesPerEvent(1000);
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor, clientProps);
+            serverProps.setBacklog(channels.length);
+            serverProps.setMaxAcceptsPerEvent(3);
+            serverProps.setAcceptedSocketProperties(new SocketChannelProperties(null, null, true, null, 32 * 1024));
+            CollectingListener listener = new CollectingListener();
+            server = newServer(serverProps, listener);
+
+            // queued by the operating system until the server accepts
+            for(int i = 0; i < channels.length; i++) {
+                channels[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", Port));
+            }
+            server.startAccepting();
+            for(int i = 0; (i < 100) && (listener.size() < channels.length); i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(channels.length, listener.size());
+            for(TCPTransportClient client : listener.clients) {
+                assertFalse(client.isDisconnected());
+                TCPTransportClientProperties props = client.getProperties();
+                assertEquals(1000, props.getMaxReadBytesPerEvent());
+                SocketChannel sc = props.getSocketChannelFactory().newSocketChannel();
+                assertTrue(sc.socket().getTcpNoDelay());
+                assertFalse(sc.isBlocking());
+                client.close();
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            for(int i = 0; i < channels.length; i++) {
+                try {
+                    if (channels[i] != null) {
+                        channels[i].close();
+                    }
+                } catch(Exception e) {
+                    // ignore
+                }
+            }
+            if (server != null) {
+                server.close();
+            }
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+
+    /**
+     * @return Byte at offset of the stream sent to the client on port.
+     */
+    static public byte streamByte(int port, int offset) {
+        return (byte)((port * 31) ^ (offset * 7) ^ (offset >> 8));
+    }
+
+    public void testAcceptedWriteBuffersNotShared() {
+        Trace.info("Test=" + Reflection.getMethodName());
+        ReactorThread reactor = null;
+        TCPTransportServer server = null;
+        final SocketChannel[] channels = new SocketChannel[NumStressConnections];
+        try {
+            reactor = new ReactorThread();
+            reactor.startAsDaemon();
+            int streamLength = StressChunkSize * StressChunksPerConnection;
+            TCPTransportClientProperties clientProps = new TCPTransportClientProperties(null, EventExecutor, reactor, null,
+                    ByteBuffer.allocateDirect(StressChunkSize), 10, TimeUnit.SECONDS, streamLength, 0);
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, reactor, clientProps);
+            // small socket buffers so most of each stream is queued by the server
+            serverProps.setAcceptedSocketProperties(new SocketChannelProperties(null, null, null, null, 4096));
+            final CollectingListener listener = new CollectingListener();
+            server = newServer(serverProps, listener);
+            server.startAccepting();
+            for(int i = 0; i < channels.length; i++) {
+                channels[i] = SocketChannel.open();
+                channels[i].socket().setReceiveBufferSize(4096);
+                channels[i].connect(new InetSocketAddress("127.0.0.1", Port));
+            }
+            for(int i = 0; (i < 500) && (listener.size() < channels.length); i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(channels.length, listener.size());
+
+            // writers interleave chunks across connections while nothing is read
+            final int numWriters = 8;
+            final AtomicInteger errors = new AtomicInteger(0);
+            Thread[] writers = new Thread[numWriters];
+            for(int w = 0; w < numWriters; w++) {
+                final int first = w;
+                writers[w] = new Thread() {
+                    public void run() {
+                        TransportSendResult result = new TransportSendResult();
+                        ByteBuffer chunk = ByteBuffer.allocate(StressChunkSize);
+                        for(int c = 0; c < StressChunksPerConnection; c++) {
+                            for(int i = first; i < listener.clients.size(); i += numWriters) {
+                                TCPTransportClient client = listener.clients.get(i);
+                                int port = client.getRemoteAddress().getPort();
+                                chunk.clear();
+                                for(int j = 0; j < StressChunkSize; j++) {
+                                    chunk.put(streamByte(port, (c * StressChunkSize) + j));
+                                }
+                                chunk.flip();
+                                try {
+                                    if (client.writeAsync(chunk, result) < 0) {
+                                        errors.incrementAndGet();
+                                    }
+                                } catch(Exception e) {
+                                    e.printStackTrace();
+                                    errors.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                };
+                writers[w].start();
+            }
+            for(int w = 0; w < numWriters; w++) {
+                writers[w].join();
+            }
+            assertEquals(0, errors.get());
+            int backpressured = 0;
+            for(TCPTransportClient client : listener.clients) {
+                if (client.getQueuedWriteBytes() > 0) {
+                    backpressured++;
+                }
+            }
+            assertTrue("backpressured=" + backpressured, backpressured > (channels.length / 2));
+            assertTrue(server.getWriteBufferPool().getAcquireCount() > 0);
+
+            ByteBuffer readBuffer = ByteBuffer.allocate(streamLength);
+            for(int i = 0; i < channels.length; i++) {
+                readBuffer.clear();
+                while (readBuffer.hasRemaining()) {
+                    if (channels[i].read(readBuffer) < 0) {
+                        fail("closed early");
+                    }
+                }
+                int port = channels[i].socket().getLocalPort();
+                for(int j = 0; j < streamLength; j++) {
+                    if (readBuffer.get(j) != streamByte(port, j)) {
+                        fail("connection " + i + " corrupt at offset " + j);
+                    }
+                }
+            }
+            for(int i = 0; (i < 100) && 
+                    (server.getWriteBufferPool().getReleaseCount() < server.getWriteBufferPool().getAcquireCount()); i++) {
+                Thread.sleep(20);
+            }
+            // every borrowed buffer went back once sent
+            assertEquals(server.getWriteBufferPool().getAcquireCount(), server.getWriteBufferPool().getReleaseCount());
+            for(TCPTransportClient client : listener.clients) {
+                client.close();
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            for(int i = 0; i < channels.length; i++) {
+                try {
+                    if (channels[i] != null) {
+                        channels[i].close();
+                    }
+                } catch(Exception e) {
+                    // ignore
+                }
+            }
+            if (server != null) {
+                server.close();
+            }
+            if (reactor != null) {
+                reactor.close();
+            }
+        }
+    }
+}
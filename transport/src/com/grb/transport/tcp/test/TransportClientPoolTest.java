@@ -0,0 +1,205 @@
+package com.grb.transport.tcp.test;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportException;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+import com.grb.transport.tcp.TransportClientPool;
+import com.grb.util.Reflection;
+
+public class TransportClientPoolTest extends TestCase {
+    private static final Log Trace = LogFactory.getLog(TransportClientPoolTest.class);
+
+    private static final ExecutorService EventExecutor = Executors.newSingleThreadExecutor();
+    private static final int Port = 3461;
+    private static final InetSocketAddress Address = new InetSocketAddress("127.0.0.1", Port);
+
+    private ReactorThread mReactor;
+    private TCPTransportServer mServer;
+
+    public TransportClientPoolTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(TransportClientPoolTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mReactor = new ReactorThread();
+        mReactor.startAsDaemon();
+        TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, mReactor,
+                new TCPTransportClientProperties(null, EventExecutor, mReactor, null, ByteBuffer.allocateDirect(10), 10, TimeUnit.SECONDS));
+        TCPTransportServerConnectionListener listener = new TCPTransportServerConnectionListener() {
+            public void onNewConnection(TCPTransportClient client) {
+            }
+        };
+        // the previous test's server socket is released once its reactor deregisters it
+        for(int i = 0; ; i++) {
+            try {
+                mServer = new TCPTransportServer(serverProps, listener);
+                break;
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+        mServer.startAccepting();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        mReactor.close();
+    }
+
+    public TransportClientPool newPool(int minIdle, int maxIdle, int maxTotal) {
+        TCPTransportClientProperties template = new TCPTransportClientProperties(null, EventExecutor, mReactor,
+                new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, null, null, null)),
+                ByteBuffer.allocateDirect(1000), 10, TimeUnit.SECONDS);
+        return new TransportClientPool(template, 5, TimeUnit.SECONDS, minIdle, maxIdle, maxTotal);
+    }
+
+    public void testReuse() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        TransportClientPool pool = newPool(0, 2, 2);
+        TCPTransportClient client = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        assertFalse(client.isDisconnected());
+        pool.release(client);
+        assertEquals(1, pool.getIdleCount(Address));
+        assertSame(client, pool.borrow(Address, 1, TimeUnit.SECONDS));
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(2, pool.getLeaseWaitTime().getCount());
+        pool.release(client);
+        pool.close();
+        assertTrue(client.isDisconnected());
+        assertEquals(1, pool.getClosedCount());
+    }
+
+    public void testLeaseTimeout() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        TransportClientPool pool = newPool(0, 2, 2);
+        TCPTransportClient client1 = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        TCPTransportClient client2 = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        assertNotSame(client1, client2);
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrow(Address, 200, TimeUnit.MILLISECONDS);
+            fail("should throw");
+        } catch(TransportException e) {
+            // ok
+        }
+        assertTrue(System.currentTimeMillis() - start >= 190);
+        assertEquals(1, pool.getTimeoutCount());
+        assertEquals(2, pool.getTotalCount(Address));
+        pool.release(client1);
+        pool.release(client2);
+        pool.close();
+    }
+
+    public void testFairHandoff() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final TransportClientPool pool = newPool(0, 1, 1);
+        final TCPTransportClient client = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        final ArrayList<Integer> order = new ArrayList<Integer>();
+        Thread[] borrowers = new Thread[3];
+        for(int i = 0; i < borrowers.length; i++) {
+            final int id = i;
+            borrowers[i] = new Thread() {
+                public void run() {
+                    try {
+                        TCPTransportClient leased = pool.borrow(Address, 5, TimeUnit.SECONDS);
+                        synchronized(order) {
+                            order.add(id);
+                        }
+                        assertSame(client, leased);
+                        Thread.sleep(20);
+                        pool.release(leased);
+                    } catch(Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            borrowers[i].start();
+            // queue the borrowers in order
+            Thread.sleep(50);
+        }
+        pool.release(client);
+        for(int i = 0; i < borrowers.length; i++) {
+            borrowers[i].join(5000);
+        }
+        assertEquals(3, order.size());
+        for(int i = 0; i < borrowers.length; i++) {
+            assertEquals(i, order.get(i).intValue());
+        }
+        assertEquals(1, pool.getCreatedCount());
+        assertTrue(pool.getLeaseWaitTime().getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+        pool.close();
+    }
+
+    public void testDisconnectedIdleDropped() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        TransportClientPool pool = newPool(0, 2, 2);
+        TCPTransportClient client = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        pool.release(client);
+        client.close();
+        for(int i = 0; (i < 100) && (pool.getIdleCount(Address) > 0); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getIdleCount(Address));
+        assertEquals(0, pool.getTotalCount(Address));
+        assertEquals(1, pool.getClosedCount());
+        TCPTransportClient replacement = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        assertNotSame(client, replacement);
+        assertFalse(replacement.isDisconnected());
+
+        // a client released disconnected isn't kept
+        pool.invalidate(replacement);
+        assertEquals(0, pool.getIdleCount(Address));
+        assertEquals(2, pool.getClosedCount());
+        pool.close();
+    }
+
+    public void testPrefillAndMaxIdle() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        TransportClientPool pool = newPool(2, 2, 4);
+        pool.prefill(Address);
+        assertEquals(2, pool.getIdleCount(Address));
+        assertEquals(2, pool.getCreatedCount());
+        TCPTransportClient[] clients = new TCPTransportClient[3];
+        for(int i = 0; i < clients.length; i++) {
+            clients[i] = pool.borrow(Address, 1, TimeUnit.SECONDS);
+        }
+        assertEquals(3, pool.getCreatedCount());
+        for(int i = 0; i < clients.length; i++) {
+            pool.release(clients[i]);
+        }
+        assertEquals(2, pool.getIdleCount(Address));
+        assertEquals(1, pool.getClosedCount());
+        pool.close();
+    }
+}
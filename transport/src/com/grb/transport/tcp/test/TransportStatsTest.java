@@ -0,0 +1,250 @@
+package com.grb.transport.tcp.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportOperation;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+import com.grb.transport.tcp.TransportServerStats;
+import com.grb.transport.tcp.TransportStatsSnapshot;
+import com.grb.util.Reflection;
+
+public class TransportStatsTest extends TestCase {
+    private static final Log Trace = LogFactory.getLog(TransportStatsTest.class);
+
+    private static final ExecutorService EventExecutor = Executors.newSingleThreadExecutor();
+    private static final int Port = 3463;
+
+    private ReactorThread mReactor;
+    private TCPTransportServer mServer;
+    private boolean mServerReads;
+    private boolean mServerFails;
+    private AtomicLong mServerBytes;
+
+    public TransportStatsTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(TransportStatsTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mReactor = new ReactorThread();
+        mReactor.startAsDaemon();
+        mServerReads = true;
+        mServerFails = false;
+        mServerBytes = new AtomicLong(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.close();
+        }
+        mReactor.close();
+    }
+
+    public void startServer() throws Exception {
+        TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, mReactor,
+                new TCPTransportClientProperties(null, EventExecutor, mReactor, null, null, 10, TimeUnit.SECONDS));
+        final TransportBufferPool pool = new TransportBufferPool();
+        TCPTransportServerConnectionListener listener = new TCPTransportServerConnectionListener() {
+            public void onNewConnection(TCPTransportClient client) {
+                if (mServerFails) {
+                    throw new IllegalStateException("Listener failed");
+                }
+                if (!mServerReads) {
+                    return;
+                }
+                try {
+                    client.startReading(new TransportReadListener() {
+                        public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+                            mServerBytes.addAndGet(readBuffer.remaining());
+                            readBuffer.position(readBuffer.limit());
+                            return true;
+                        }
+                    }, pool);
+                } catch(TransportException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        // the previous test's server socket is released once its reactor deregisters it
+        for(int i = 0; ; i++) {
+            try {
+                mServer = new TCPTransportServer(serverProps, listener);
+                break;
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+        mServer.startAccepting();
+    }
+
+    public TCPTransportClientProperties newClientProperties(Integer sendBufferSize) {
+        return new TCPTransportClientProperties(new InetSocketAddress("127.0.0.1", Port), EventExecutor, mReactor,
+                new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, null, null, sendBufferSize)),
+                ByteBuffer.allocateDirect(1000), 10, TimeUnit.SECONDS);
+    }
+
+    public void waitFor(TransportServerStats stats, long bytesRead, long closeCount) throws Exception {
+        for(int i = 0; i < 100; i++) {
+            TransportStatsSnapshot snapshot = stats.snapshot();
+            if ((snapshot.getBytesRead() >= bytesRead) && (snapshot.getCloseCount() >= closeCount)) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    public void testCounters() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        startServer();
+        TCPTransportClient client = new TCPTransportClient(newClientProperties(null));
+        client.connect(5, TimeUnit.SECONDS);
+        for(int i = 0; i < 10; i++) {
+            client.write(ByteBuffer.wrap(new byte[100]));
+        }
+        TransportStatsSnapshot clientStats = client.getStats().snapshot();
+        assertEquals(1, clientStats.getConnectionCount());
+        assertEquals(1, clientStats.getOpenConnectionCount());
+        assertEquals(1, clientStats.getConnectCount());
+        assertTrue(clientStats.getConnectNanos() > 0);
+        assertEquals(10, clientStats.getWriteCount());
+        assertEquals(1000, clientStats.getBytesWritten());
+        assertEquals(0, clientStats.getRejectedWriteCount());
+        assertNull(clientStats.getCloseReason());
+
+        TransportServerStats serverStats = mServer.getStats();
+        waitFor(serverStats, 1000, 0);
+        TransportStatsSnapshot snapshot = serverStats.snapshot();
+        assertEquals(1, snapshot.getConnectionCount());
+        assertEquals(1, snapshot.getOpenConnectionCount());
+        assertEquals(1000, snapshot.getBytesRead());
+        assertTrue(snapshot.getReadCount() >= 1);
+        // accepted connections don't connect
+        assertEquals(0, snapshot.getConnectCount());
+
+        client.close();
+        assertTrue(client.getStats().isClosed());
+        assertEquals(TransportOperation.Closing, client.getStats().getCloseOperation());
+        assertEquals(1, client.getStats().snapshot().getCloseCount());
+        waitFor(serverStats, 1000, 1);
+        snapshot = serverStats.snapshot();
+        assertEquals(1, snapshot.getConnectionCount());
+        assertEquals(0, snapshot.getOpenConnectionCount());
+        assertEquals(1, snapshot.getCloseCount());
+        assertEquals(0, snapshot.getErrorCloseCount());
+        assertEquals(1000, snapshot.getBytesRead());
+        assertEquals("Reading: closed by peer", snapshot.getCloseReason());
+    }
+
+    public void testFailedAccept() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        mServerFails = true;
+        startServer();
+        TCPTransportClient client = new TCPTransportClient(newClientProperties(null));
+        client.connect(5, TimeUnit.SECONDS);
+        TransportServerStats serverStats = mServer.getStats();
+        waitFor(serverStats, 0, 1);
+        TransportStatsSnapshot snapshot = serverStats.snapshot();
+        assertEquals(1, snapshot.getConnectionCount());
+        assertEquals(0, snapshot.getOpenConnectionCount());
+        assertEquals(1, snapshot.getCloseCount());
+        client.close();
+    }
+
+    public void testBackpressure() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        mServerReads = false;
+        startServer();
+        TCPTransportClient client = new TCPTransportClient(newClientProperties(4096));
+        client.connect(5, TimeUnit.SECONDS);
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        TransportSendResult result = new TransportSendResult();
+        int rejected = 0;
+        for(int i = 0; (i < 1000) && (rejected == 0); i++) {
+            chunk.clear();
+            if (client.writeAsync(chunk, result) < 0) {
+                rejected++;
+            }
+        }
+        assertEquals(1, rejected);
+        Thread.sleep(20);
+        TransportStatsSnapshot snapshot = client.getStats().snapshot();
+        assertEquals(1, snapshot.getRejectedWriteCount());
+        assertTrue(snapshot.getPartialWriteCount() > 0);
+        assertTrue(snapshot.getMaxQueuedWriteBytes() >= TCPTransportClientProperties.DefaultWriteHighWatermark);
+        // still not writable, so counted up to now
+        assertTrue(snapshot.getBackpressureNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        client.close();
+        assertEquals(snapshot.getBackpressureNanos() / 1000000,
+                client.getStats().snapshot().getBackpressureNanos() / 1000000, 50);
+    }
+
+    public void testJmx() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        startServer();
+        TCPTransportClient client = new TCPTransportClient(newClientProperties(null));
+        client.connect(5, TimeUnit.SECONDS);
+        client.write(ByteBuffer.wrap(new byte[10]));
+        waitFor(mServer.getStats(), 10, 0);
+        mServer.getStats().register("test");
+        client.getStats().register("client");
+        try {
+            assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    mServer.getStats().getObjectName(), "BytesRead"));
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    mServer.getStats().getObjectName(), "OpenConnectionCount"));
+            assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                    client.getStats().getObjectName(), "BytesWritten"));
+        } finally {
+            mServer.getStats().unregister();
+            client.getStats().unregister();
+            client.close();
+        }
+        assertNull(mServer.getStats().getObjectName());
+    }
+
+    public void testDisabled() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        startServer();
+        TCPTransportClientProperties props = newClientProperties(null);
+        props.setStatsEnabled(false);
+        TCPTransportClient client = new TCPTransportClient(props);
+        assertNull(client.getStats());
+        client.connect(5, TimeUnit.SECONDS);
+        client.write(ByteBuffer.wrap(new byte[10]));
+        client.close();
+        assertNull(client.getStats());
+    }
+}
@@ -0,0 +1,288 @@
+package com.grb.transport.tcp.test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.grb.reactor.ReactorThread;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.pipeline.LengthFieldFrameEncoderStage;
+import com.grb.transport.pipeline.TransportPipeline;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+import com.grb.util.Reflection;
+
+public class WriteCoalescingTest extends TestCase {
+    private static final Log Trace = LogFactory.getLog(WriteCoalescingTest.class);
+
+    private static final ExecutorService EventExecutor = Executors.newSingleThreadExecutor();
+    private static final int Port = 3464;
+
+    private ReactorThread mReactor;
+    private TCPTransportServer mServer;
+    private ByteArrayOutputStream mReceived;
+
+    public WriteCoalescingTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        return new TestSuite(WriteCoalescingTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        mReactor = new ReactorThread();
+        mReactor.startAsDaemon();
+        mReceived = new ByteArrayOutputStream();
+        TCPTransportServerProperties serverProps = new TCPTransportServerProperties(Port, mReactor,
+                new TCPTransportClientProperties(null, EventExecutor, mReactor, null, null, 10, TimeUnit.SECONDS));
+        final TransportBufferPool pool = new TransportBufferPool();
+        TCPTransportServerConnectionListener listener = new TCPTransportServerConnectionListener() {
+            public void onNewConnection(TCPTransportClient client) {
+                try {
+                    client.startReading(new TransportReadListener() {
+                        public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+                            synchronized(mReceived) {
+                                while (readBuffer.hasRemaining()) {
+                                    mReceived.write(readBuffer.get());
+                                }
+                            }
+                            return true;
+                        }
+                    }, pool);
+                } catch(TransportException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        // the previous test's server socket is released once its reactor deregisters it
+        for(int i = 0; ; i++) {
+            try {
+                mServer = new TCPTransportServer(serverProps, listener);
+                break;
+            } catch(TransportException e) {
+                if ((i == 50) || !(e.getCause() instanceof BindException)) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+        mServer.startAccepting();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        mReactor.close();
+    }
+
+    public TCPTransportClient newClient() throws Exception {
+        TCPTransportClientProperties props = new TCPTransportClientProperties(
+                new InetSocketAddress("127.0.0.1", Port), EventExecutor, mReactor,
+                new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, true, null, null)),
+                null, 10, TimeUnit.SECONDS);
+        props.setWriteCoalescing(true);
+        props.setCoalesceSizes(100, 500);
+        TCPTransportClient client = new TCPTransportClient(props);
+        client.connect(5, TimeUnit.SECONDS);
+        return client;
+    }
+
+    /**
+     * Runs the writes on the reactor thread, so the batch isn't flushed
+     * until they are done.
+     */
+    public void runOnReactor(Runnable writes) throws Exception {
+        FutureTask<Object> future = new FutureTask<Object>(writes, null);
+        mReactor.execute(future);
+        future.get(5, TimeUnit.SECONDS);
+    }
+
+    public byte[] waitForReceived(int numBytes) throws Exception {
+        for(int i = 0; i < 100; i++) {
+            synchronized(mReceived) {
+                if (mReceived.size() >= numBytes) {
+                    return mReceived.toByteArray();
+                }
+            }
+            Thread.sleep(20);
+        }
+        synchronized(mReceived) {
+            return mReceived.toByteArray();
+        }
+    }
+
+    public ByteBuffer message(int size, int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte)value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public void testEndOfPassFlush() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final TCPTransportClient client = newClient();
+        final long[] socketWrites = new long[1];
+        runOnReactor(new Runnable() {
+            public void run() {
+                try {
+                    TransportSendResult result = new TransportSendResult();
+                    for(int i = 0; i < 5; i++) {
+                        assertEquals(0, client.writeAsync(message(10, i), result));
+                        assertNotNull(result.getFuture());
+                    }
+                    socketWrites[0] = client.getStats().snapshot().getSocketWriteCount();
+                } catch(TransportException e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        assertEquals(0, socketWrites[0]);
+        byte[] received = waitForReceived(50);
+        assertEquals(50, received.length);
+        for(int i = 0; i < 50; i++) {
+            assertEquals(i / 10, received[i]);
+        }
+        assertEquals(1, client.getStats().snapshot().getSocketWriteCount());
+        assertEquals(5, client.getStats().snapshot().getWriteCount());
+        assertEquals(50, client.getStats().snapshot().getBytesWritten());
+        assertEquals(0, client.getQueuedWriteBytes());
+        client.close();
+    }
+
+    public void testFlushSize() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final TCPTransportClient client = newClient();
+        runOnReactor(new Runnable() {
+            public void run() {
+                try {
+                    TransportSendResult result = new TransportSendResult();
+                    for(int i = 0; i < 100; i++) {
+                        client.writeAsync(message(10, i), result);
+                    }
+                } catch(TransportException e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        byte[] received = waitForReceived(1000);
+        assertEquals(1000, received.length);
+        for(int i = 0; i < 1000; i++) {
+            assertEquals((byte)(i / 10), received[i]);
+        }
+        // sent at 500 and 1000 bytes, nothing left for the end of the pass
+        assertEquals(2, client.getStats().snapshot().getSocketWriteCount());
+        client.close();
+    }
+
+    public void testExplicitFlush() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final TCPTransportClient client = newClient();
+        final long[] socketWrites = new long[2];
+        runOnReactor(new Runnable() {
+            public void run() {
+                try {
+                    TransportSendResult result = new TransportSendResult();
+                    client.writeAsync(message(10, 1), result);
+                    client.writeAsync(message(10, 2), result);
+                    client.flush();
+                    socketWrites[0] = client.getStats().snapshot().getSocketWriteCount();
+                    assertTrue(result.getFuture().isDone());
+                    client.writeAsync(message(10, 3), result);
+                    socketWrites[1] = client.getStats().snapshot().getSocketWriteCount();
+                } catch(TransportException e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        assertEquals(1, socketWrites[0]);
+        assertEquals(1, socketWrites[1]);
+        assertEquals(30, waitForReceived(30).length);
+        assertEquals(2, client.getStats().snapshot().getSocketWriteCount());
+        client.close();
+    }
+
+    public void testPipelineFlush() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final TCPTransportClient client = newClient();
+        final TransportPipeline pipeline = new TransportPipeline(client);
+        pipeline.addOutbound(new LengthFieldFrameEncoderStage(2));
+        final long[] socketWrites = new long[2];
+        runOnReactor(new Runnable() {
+            public void run() {
+                try {
+                    pipeline.write(message(10, 1));
+                    pipeline.write(message(10, 2));
+                    socketWrites[0] = client.getStats().snapshot().getSocketWriteCount();
+                    // reaches the client's batch through the stages
+                    pipeline.flush();
+                    socketWrites[1] = client.getStats().snapshot().getSocketWriteCount();
+                } catch(TransportException e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        assertEquals(0, socketWrites[0]);
+        assertEquals(1, socketWrites[1]);
+        assertEquals(24, waitForReceived(24).length);
+        client.close();
+    }
+
+    public void testLargeWriteKeepsOrder() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        final TCPTransportClient client = newClient();
+        runOnReactor(new Runnable() {
+            public void run() {
+                try {
+                    TransportSendResult result = new TransportSendResult();
+                    client.writeAsync(message(10, 1), result);
+                    // too big to coalesce, queued behind the batch
+                    assertEquals(0, client.writeAsync(message(200, 2), result));
+                    client.writeAsync(message(10, 3), result);
+                } catch(TransportException e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        byte[] received = waitForReceived(220);
+        assertEquals(220, received.length);
+        for(int i = 0; i < 220; i++) {
+            assertEquals((i < 10) ? 1 : ((i < 210) ? 2 : 3), received[i]);
+        }
+        client.close();
+    }
+
+    public void testBlockingWrite() throws Exception {
+        Trace.info("Test=" + Reflection.getMethodName());
+        TCPTransportClient client = newClient();
+        // flushed by the reactor while the caller waits
+        client.write(message(10, 1));
+        client.write(message(10, 2));
+        assertEquals(20, waitForReceived(20).length);
+        assertEquals(2, client.getStats().snapshot().getSocketWriteCount());
+        client.close();
+    }
+}
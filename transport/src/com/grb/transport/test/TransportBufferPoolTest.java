@@ -0,0 +1,82 @@
+package com.grb.transport.test;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import com.grb.transport.TransportBufferPool;
+
+public class TransportBufferPoolTest extends TestCase {
+
+    public void testSizeClasses() {
+        TransportBufferPool pool = new TransportBufferPool(1000, 8000, 3000, 4, 4);
+        assertEquals(1024, pool.acquire(1).capacity());
+        assertEquals(1024, pool.acquire(1024).capacity());
+        assertEquals(2048, pool.acquire(1025).capacity());
+        assertEquals(4096, pool.acquire().capacity());
+        assertEquals(8192, pool.acquire(8192).capacity());
+        // too big to pool
+        assertEquals(10000, pool.acquire(10000).capacity());
+        assertTrue(pool.acquire().isDirect());
+        assertEquals(7, pool.getAllocatedCount());
+    }
+
+    public void testThreadCache() {
+        TransportBufferPool pool = new TransportBufferPool(1024, 8192, 1024, 2, 0);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        ByteBuffer third = pool.acquire();
+        first.put((byte)1);
+        pool.release(first);
+        pool.release(second);
+        // cache is full and the shared queue holds nothing
+        pool.release(third);
+        assertSame(second, pool.acquire());
+        ByteBuffer reused = pool.acquire();
+        assertSame(first, reused);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertNotSame(third, pool.acquire());
+        assertEquals(4, pool.getAllocatedCount());
+    }
+
+    public void testSharedAcrossThreads() throws Exception {
+        final TransportBufferPool pool = new TransportBufferPool(1024, 8192, 1024, 0, 16);
+        final ByteBuffer[] released = new ByteBuffer[1];
+        Thread releaser = new Thread() {
+            public void run() {
+                released[0] = pool.acquire();
+                pool.release(released[0]);
+            }
+        };
+        releaser.start();
+        releaser.join();
+        assertSame(released[0], pool.acquire());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    public void testForeignBuffersDropped() {
+        TransportBufferPool pool = new TransportBufferPool(1024, 8192, 1024, 4, 4);
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocateDirect(1000));
+        pool.release(ByteBuffer.allocateDirect(100000));
+        pool.acquire();
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(1024, pool.getAllocatedBytes());
+    }
+
+    public void testInvalidSizes() {
+        try {
+            new TransportBufferPool(0, 1024, 1024, 1, 1);
+            fail("should throw");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            new TransportBufferPool(4096, 1024, 1024, 1, 1);
+            fail("should throw");
+        } catch(IllegalArgumentException e) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.grb.transport.benchmark;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.framing.FixedLengthFrameDecoder;
+import com.grb.transport.framing.FrameListener;
+import com.grb.transport.tcp.TCPTransportClient;
+
+/**
+ * Client side of one benchmark connection. Each message starts with its
+ * send time, and every echoed message received is recorded and replaced
+ * by a new one, keeping the same number of messages in flight.
+ */
+public class BenchmarkConnection implements FrameListener {
+    /**
+     * Bytes at the start of each message holding its send time.
+     */
+    static public final int HeaderSize = 8;
+
+    protected TCPTransportClient mClient;
+    protected BenchmarkRecorder mRecorder;
+    protected int mMessageSize;
+    protected FixedLengthFrameDecoder mDecoder;
+    protected ByteBuffer mSendBuffer;
+    protected TransportSendResult mSendResult;
+
+    public BenchmarkConnection(TCPTransportClient client, BenchmarkRecorder recorder, int messageSize) {
+        mClient = client;
+        mRecorder = recorder;
+        mMessageSize = messageSize;
+        mDecoder = new FixedLengthFrameDecoder(this, messageSize);
+        mSendBuffer = ByteBuffer.allocateDirect(messageSize);
+        mSendResult = new TransportSendResult();
+    }
+
+    public TCPTransportClient getClient() {
+        return mClient;
+    }
+
+    /**
+     * Starts reading and puts the first messages in flight.
+     *
+     * @param depth Number of messages kept in flight.
+     */
+    public void start(TransportBufferPool pool, int depth) throws TransportException {
+        mClient.startReading(mDecoder, pool);
+        // the reactor thread uses the connection's send buffer once replies arrive
+        ByteBuffer buffer = ByteBuffer.allocateDirect(mMessageSize);
+        TransportSendResult result = new TransportSendResult();
+        for (int i = 0; i < depth; i++) {
+            send(buffer, result);
+        }
+    }
+
+    protected void send(ByteBuffer buffer, TransportSendResult result) throws TransportException {
+        buffer.clear();
+        buffer.putLong(0, System.nanoTime());
+        if (mClient.writeAsync(buffer, result) < 0) {
+            mRecorder.rejected();
+        }
+    }
+
+    public boolean onFrame(ByteBuffer frame) {
+        mRecorder.record(System.nanoTime() - frame.getLong(frame.position()));
+        if (mRecorder.isSending()) {
+            try {
+                send(mSendBuffer, mSendResult);
+            } catch(TransportException e) {
+                mRecorder.error();
+            }
+        }
+        return true;
+    }
+
+    public void onFrameError(TransportException error) {
+        mRecorder.error();
+    }
+}
@@ -0,0 +1,183 @@
+package com.grb.transport.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of a benchmark suite. The list settings take comma separated
+ * values and the suite runs every combination of them.
+ * <p>
+ * Arguments are given as <code>-name value</code> pairs:
+ * <pre>
+ * -connections  1,16       client connections
+ * -size         64,1024    message size in bytes, at least 8
+ * -depth        1,16       messages in flight per connection
+ * -serverReactors 1        server event loops
+ * -clientReactors 1        client event loops
+ * -stats        on,off     transport stats kept or not, needed for the syscall counts
+ * -coalesce     on,off     write coalescing or not
+ * -warmup       2          seconds run before measuring
+ * -duration     5          seconds measured
+ * -port         4600       server port
+ * -label        nightly    free form label copied to the results
+ * -results      file       results file, one JSON object appended per run
+ * </pre>
+ */
+public class BenchmarkOptions {
+    static public int DefaultPort = 4600;
+    static public int DefaultWarmupSeconds = 2;
+    static public int DefaultDurationSeconds = 5;
+
+    protected int[] mConnections;
+    protected int[] mMessageSizes;
+    protected int[] mDepths;
+    protected int[] mServerReactors;
+    protected int[] mClientReactors;
+    protected boolean[] mStats;
+    protected boolean[] mCoalesce;
+    protected int mWarmupSeconds;
+    protected int mDurationSeconds;
+    protected int mPort;
+    protected String mLabel;
+    protected String mResultsFile;
+
+    public BenchmarkOptions() {
+        mConnections = new int[] {1, 16};
+        mMessageSizes = new int[] {64, 1024};
+        mDepths = new int[] {1, 16};
+        mServerReactors = new int[] {1};
+        mClientReactors = new int[] {1};
+        mStats = new boolean[] {true};
+        mCoalesce = new boolean[] {false};
+        mWarmupSeconds = DefaultWarmupSeconds;
+        mDurationSeconds = DefaultDurationSeconds;
+        mPort = DefaultPort;
+        mLabel = null;
+        mResultsFile = null;
+    }
+
+    /**
+     * @throws IllegalArgumentException If an argument is unknown or invalid.
+     */
+    static public BenchmarkOptions parse(String[] args) {
+        BenchmarkOptions options = new BenchmarkOptions();
+        int i = 0;
+        while (i < args.length) {
+            String name = args[i++];
+            if (i == args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[i++];
+            if (name.equals("-connections")) {
+                options.mConnections = parseList(name, value, 1);
+            } else if (name.equals("-size")) {
+                options.mMessageSizes = parseList(name, value, BenchmarkConnection.HeaderSize);
+            } else if (name.equals("-depth")) {
+                options.mDepths = parseList(name, value, 1);
+            } else if (name.equals("-serverReactors")) {
+                options.mServerReactors = parseList(name, value, 1);
+            } else if (name.equals("-clientReactors")) {
+                options.mClientReactors = parseList(name, value, 1);
+            } else if (name.equals("-stats")) {
+                options.mStats = parseSwitches(name, value);
+            } else if (name.equals("-coalesce")) {
+                options.mCoalesce = parseSwitches(name, value);
+            } else if (name.equals("-warmup")) {
+                options.mWarmupSeconds = parseInt(name, value, 0);
+            } else if (name.equals("-duration")) {
+                options.mDurationSeconds = parseInt(name, value, 1);
+            } else if (name.equals("-port")) {
+                options.mPort = parseInt(name, value, 1);
+            } else if (name.equals("-label")) {
+                options.mLabel = value;
+            } else if (name.equals("-results")) {
+                options.mResultsFile = (value.length() == 0) ? null : value;
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + name);
+            }
+        }
+        return options;
+    }
+
+    static protected int[] parseList(String name, String value, int min) {
+        String[] values = value.split(",");
+        int[] list = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            list[i] = parseInt(name, values[i].trim(), min);
+        }
+        return list;
+    }
+
+    static protected boolean[] parseSwitches(String name, String value) {
+        String[] values = value.split(",");
+        boolean[] list = new boolean[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String s = values[i].trim();
+            if (s.equals("on")) {
+                list[i] = true;
+            } else if (s.equals("off")) {
+                list[i] = false;
+            } else {
+                throw new IllegalArgumentException("Invalid " + name + ", must be on or off: " + s);
+            }
+        }
+        return list;
+    }
+
+    static protected int parseInt(String name, String value, int min) {
+        int i;
+        try {
+            i = Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        if (i < min) {
+            throw new IllegalArgumentException(name + " must be at least " + min + ": " + value);
+        }
+        return i;
+    }
+
+    /**
+     * @return One scenario per combination of the list settings.
+     */
+    public List<BenchmarkScenario> getScenarios() {
+        List<BenchmarkScenario> scenarios = new ArrayList<BenchmarkScenario>();
+        for (int serverReactors : mServerReactors) {
+            for (int clientReactors : mClientReactors) {
+                for (int connections : mConnections) {
+                    for (int size : mMessageSizes) {
+                        for (int depth : mDepths) {
+                            for (boolean stats : mStats) {
+                                for (boolean coalesce : mCoalesce) {
+                                    scenarios.add(new BenchmarkScenario(connections, size, depth,
+                                            serverReactors, clientReactors, stats, coalesce));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return scenarios;
+    }
+
+    public int getWarmupSeconds() {
+        return mWarmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return mDurationSeconds;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public String getLabel() {
+        return mLabel;
+    }
+
+    public String getResultsFile() {
+        return mResultsFile;
+    }
+}
@@ -0,0 +1,86 @@
+package com.grb.transport.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.grb.util.stats.Histogram;
+
+/**
+ * Collects the round trips completed by all the connections of a run.
+ * Round trips are only counted while recording so the warmup is left out.
+ */
+public class BenchmarkRecorder {
+    protected Histogram mLatency;
+    protected AtomicLong mMessages;
+    protected AtomicLong mRejected;
+    protected AtomicLong mErrors;
+    protected volatile boolean mRecording;
+    protected volatile boolean mSending;
+
+    public BenchmarkRecorder() {
+        mLatency = new Histogram();
+        mMessages = new AtomicLong(0);
+        mRejected = new AtomicLong(0);
+        mErrors = new AtomicLong(0);
+        mRecording = false;
+        mSending = true;
+    }
+
+    /**
+     * @param nanos Round trip time of one message.
+     */
+    public void record(long nanos) {
+        if (mRecording) {
+            mLatency.record(nanos);
+            mMessages.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a send refused because the outbound queue was full, the
+     * message is lost and the connection has one less in flight.
+     */
+    public void rejected() {
+        mRejected.incrementAndGet();
+    }
+
+    public void error() {
+        mErrors.incrementAndGet();
+    }
+
+    public void startRecording() {
+        mLatency.reset();
+        mMessages.set(0);
+        mRecording = true;
+    }
+
+    public void stopRecording() {
+        mRecording = false;
+    }
+
+    /**
+     * Stops connections sending a new message for each one received.
+     */
+    public void stopSending() {
+        mSending = false;
+    }
+
+    public boolean isSending() {
+        return mSending;
+    }
+
+    public Histogram getLatency() {
+        return mLatency;
+    }
+
+    public long getMessages() {
+        return mMessages.get();
+    }
+
+    public long getRejected() {
+        return mRejected.get();
+    }
+
+    public long getErrors() {
+        return mErrors.get();
+    }
+}
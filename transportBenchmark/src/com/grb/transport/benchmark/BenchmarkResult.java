@@ -0,0 +1,182 @@
+package com.grb.transport.benchmark;
+
+import java.util.Locale;
+
+import com.grb.util.stats.Histogram;
+
+/**
+ * The measurements of one benchmark run.
+ */
+public class BenchmarkResult {
+    protected BenchmarkScenario mScenario;
+    protected String mLabel;
+    protected long mTimestamp;
+    protected long mElapsedNanos;
+    protected long mMessages;
+    protected long mRejected;
+    protected long mErrors;
+    protected long mP50Nanos;
+    protected long mP99Nanos;
+    protected long mP999Nanos;
+    protected long mMaxNanos;
+    protected JvmStats mJvmStats;
+    protected SocketStats mSocketStats;
+
+    public BenchmarkResult(BenchmarkScenario scenario, String label, long elapsedNanos,
+            BenchmarkRecorder recorder, JvmStats jvmStats, SocketStats socketStats) {
+        mScenario = scenario;
+        mLabel = label;
+        mTimestamp = System.currentTimeMillis();
+        mElapsedNanos = elapsedNanos;
+        mMessages = recorder.getMessages();
+        mRejected = recorder.getRejected();
+        mErrors = recorder.getErrors();
+        Histogram latency = recorder.getLatency();
+        mP50Nanos = latency.getValueAtPercentile(50);
+        mP99Nanos = latency.getValueAtPercentile(99);
+        mP999Nanos = latency.getValueAtPercentile(99.9);
+        mMaxNanos = latency.getMax();
+        mJvmStats = jvmStats;
+        mSocketStats = socketStats;
+    }
+
+    public BenchmarkScenario getScenario() {
+        return mScenario;
+    }
+
+    public long getMessages() {
+        return mMessages;
+    }
+
+    public double getMessagesPerSecond() {
+        return mMessages / (mElapsedNanos / 1e9);
+    }
+
+    /**
+     * @return Megabytes per second echoed, counting each message once.
+     */
+    public double getMegabytesPerSecond() {
+        return (getMessagesPerSecond() * mScenario.getMessageSize()) / (1024 * 1024);
+    }
+
+    /**
+     * @return Bytes allocated per second, -1 if not available.
+     */
+    public double getAllocatedBytesPerSecond() {
+        if (mJvmStats.getAllocated() < 0) {
+            return -1;
+        }
+        return mJvmStats.getAllocated() / (mElapsedNanos / 1e9);
+    }
+
+    /**
+     * @return Bytes allocated per round trip, -1 if not available.
+     */
+    public double getAllocatedBytesPerMessage() {
+        if ((mJvmStats.getAllocated() < 0) || (mMessages == 0)) {
+            return -1;
+        }
+        return mJvmStats.getAllocated() / (double)mMessages;
+    }
+
+    /**
+     * @return Socket writes per round trip, counting both ends, -1 if not available.
+     */
+    public double getSocketWritesPerMessage() {
+        if ((mSocketStats.getWrites() < 0) || (mMessages == 0)) {
+            return -1;
+        }
+        return mSocketStats.getWrites() / (double)mMessages;
+    }
+
+    /**
+     * @return Socket reads per round trip, counting both ends, -1 if not available.
+     */
+    public double getSocketReadsPerMessage() {
+        if ((mSocketStats.getReads() < 0) || (mMessages == 0)) {
+            return -1;
+        }
+        return mSocketStats.getReads() / (double)mMessages;
+    }
+
+    /**
+     * @return The result as a single line JSON object.
+     */
+    public String toJson() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("{\"benchmark\":\"transport-echo\"");
+        if (mLabel != null) {
+            bldr.append(",\"label\":\"");
+            appendEscaped(bldr, mLabel);
+            bldr.append("\"");
+        }
+        appendField(bldr, "timestamp", mTimestamp);
+        appendField(bldr, "connections", mScenario.getConnections());
+        appendField(bldr, "messageSize", mScenario.getMessageSize());
+        appendField(bldr, "depth", mScenario.getDepth());
+        appendField(bldr, "serverReactors", mScenario.getServerReactors());
+        appendField(bldr, "clientReactors", mScenario.getClientReactors());
+        appendField(bldr, "stats", mScenario.isStatsEnabled());
+        appendField(bldr, "coalesce", mScenario.isWriteCoalescing());
+        appendField(bldr, "elapsedMs", mElapsedNanos / 1000000);
+        appendField(bldr, "messages", mMessages);
+        appendField(bldr, "msgsPerSec", format(getMessagesPerSecond()));
+        appendField(bldr, "mbPerSec", format(getMegabytesPerSecond()));
+        appendField(bldr, "p50Us", format(mP50Nanos / 1000.0));
+        appendField(bldr, "p99Us", format(mP99Nanos / 1000.0));
+        appendField(bldr, "p999Us", format(mP999Nanos / 1000.0));
+        appendField(bldr, "maxUs", format(mMaxNanos / 1000.0));
+        appendField(bldr, "allocBytesPerSec", format(getAllocatedBytesPerSecond()));
+        appendField(bldr, "allocBytesPerMsg", format(getAllocatedBytesPerMessage()));
+        appendField(bldr, "writesPerMsg", formatSyscalls(getSocketWritesPerMessage()));
+        appendField(bldr, "readsPerMsg", formatSyscalls(getSocketReadsPerMessage()));
+        appendField(bldr, "gcCount", mJvmStats.getGcCount());
+        appendField(bldr, "gcTimeMs", mJvmStats.getGcTimeMillis());
+        appendField(bldr, "rejected", mRejected);
+        appendField(bldr, "errors", mErrors);
+        bldr.append(",\"javaVersion\":\"");
+        appendEscaped(bldr, System.getProperty("java.version"));
+        bldr.append("\"}");
+        return bldr.toString();
+    }
+
+    static protected void appendField(StringBuilder bldr, String name, Object value) {
+        bldr.append(",\"");
+        bldr.append(name);
+        bldr.append("\":");
+        bldr.append(value);
+    }
+
+    static protected void appendEscaped(StringBuilder bldr, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                bldr.append('\\');
+                bldr.append(c);
+            } else if (c < 0x20) {
+                bldr.append(String.format("\\u%04x", (int)c));
+            } else {
+                bldr.append(c);
+            }
+        }
+    }
+
+    static protected String format(double value) {
+        return String.format(Locale.US, "%.1f", value);
+    }
+
+    static protected String formatSyscalls(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%-85s %,12.0f msgs/s %9.1f MB/s  p50=%8.1fus p99=%8.1fus p99.9=%8.1fus  alloc=%s/msg gc=%d/%dms  syscalls=%s/msg",
+                mScenario, getMessagesPerSecond(), getMegabytesPerSecond(),
+                mP50Nanos / 1000.0, mP99Nanos / 1000.0, mP999Nanos / 1000.0,
+                (getAllocatedBytesPerMessage() < 0) ? "n/a" : String.format(Locale.US, "%.0fB", getAllocatedBytesPerMessage()),
+                mJvmStats.getGcCount(), mJvmStats.getGcTimeMillis(),
+                (getSocketWritesPerMessage() < 0) ? "n/a" : String.format(Locale.US, "%.2fw+%.2fr",
+                        getSocketWritesPerMessage(), getSocketReadsPerMessage()));
+    }
+}
@@ -0,0 +1,69 @@
+package com.grb.transport.benchmark;
+
+/**
+ * One combination of the benchmark's load settings.
+ */
+public class BenchmarkScenario {
+    protected int mConnections;
+    protected int mMessageSize;
+    protected int mDepth;
+    protected int mServerReactors;
+    protected int mClientReactors;
+    protected boolean mStatsEnabled;
+    protected boolean mWriteCoalescing;
+
+    public BenchmarkScenario(int connections, int messageSize, int depth,
+            int serverReactors, int clientReactors, boolean statsEnabled, boolean writeCoalescing) {
+        mConnections = connections;
+        mMessageSize = messageSize;
+        mDepth = depth;
+        mServerReactors = serverReactors;
+        mClientReactors = clientReactors;
+        mStatsEnabled = statsEnabled;
+        mWriteCoalescing = writeCoalescing;
+    }
+
+    public int getConnections() {
+        return mConnections;
+    }
+
+    public int getMessageSize() {
+        return mMessageSize;
+    }
+
+    /**
+     * @return Messages each connection keeps in flight.
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public int getServerReactors() {
+        return mServerReactors;
+    }
+
+    public int getClientReactors() {
+        return mClientReactors;
+    }
+
+    /**
+     * @return True if the clients keep transport stats.
+     */
+    public boolean isStatsEnabled() {
+        return mStatsEnabled;
+    }
+
+    /**
+     * @return True if both ends coalesce their writes.
+     */
+    public boolean isWriteCoalescing() {
+        return mWriteCoalescing;
+    }
+
+    @Override
+    public String toString() {
+        return "connections=" + mConnections + " size=" + mMessageSize + " depth=" + mDepth +
+            " serverReactors=" + mServerReactors + " clientReactors=" + mClientReactors +
+            " stats=" + (mStatsEnabled ? "on" : "off") + " coalesce=" + (mWriteCoalescing ? "on" : "off");
+    }
+}
@@ -0,0 +1,39 @@
+package com.grb.transport.benchmark;
+
+import java.nio.ByteBuffer;
+
+import com.grb.transport.TransportException;
+import com.grb.transport.TransportReadListener;
+import com.grb.transport.TransportSendResult;
+import com.grb.transport.tcp.TCPTransportClient;
+
+/**
+ * Server side of one benchmark connection, writing back whatever it reads.
+ */
+public class EchoReadListener implements TransportReadListener {
+    protected TCPTransportClient mClient;
+    protected BenchmarkRecorder mRecorder;
+    protected TransportSendResult mSendResult;
+
+    public EchoReadListener(TCPTransportClient client, BenchmarkRecorder recorder) {
+        mClient = client;
+        mRecorder = recorder;
+        mSendResult = new TransportSendResult();
+    }
+
+    public boolean onTransportRead(ByteBuffer readBuffer, int numBytesRead) {
+        if (numBytesRead == 0) {
+            return false;
+        }
+        try {
+            // unsent bytes are copied to the outbound queue
+            if (mClient.writeAsync(readBuffer, mSendResult) < 0) {
+                mRecorder.rejected();
+            }
+        } catch(TransportException e) {
+            mRecorder.error();
+        }
+        readBuffer.position(readBuffer.limit());
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+package com.grb.transport.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * A snapshot of the JVM's allocation and garbage collection counters,
+ * subtracted from a later snapshot to get the cost of a run.
+ */
+public class JvmStats {
+    static private Method GetThreadAllocatedBytes = null;
+
+    static {
+        try {
+            // HotSpot extension, not available everywhere
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (beanClass.isInstance(ManagementFactory.getThreadMXBean())) {
+                GetThreadAllocatedBytes = beanClass.getMethod("getThreadAllocatedBytes", long[].class);
+            }
+        } catch(Exception e) {
+            GetThreadAllocatedBytes = null;
+        }
+    }
+
+    protected long mAllocatedBytes;
+    protected long mGcCount;
+    protected long mGcTimeMillis;
+
+    protected JvmStats(long allocatedBytes, long gcCount, long gcTimeMillis) {
+        mAllocatedBytes = allocatedBytes;
+        mGcCount = gcCount;
+        mGcTimeMillis = gcTimeMillis;
+    }
+
+    static public JvmStats snapshot() {
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean.getCollectionCount() > 0) {
+                gcCount += bean.getCollectionCount();
+            }
+            if (bean.getCollectionTime() > 0) {
+                gcTime += bean.getCollectionTime();
+            }
+        }
+        return new JvmStats(getAllocatedBytes(), gcCount, gcTime);
+    }
+
+    /**
+     * @return Bytes allocated by the live threads, -1 if the JVM doesn't say.
+     * Allocations by threads that have exited are not included.
+     */
+    static public long getAllocatedBytes() {
+        if (GetThreadAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            long[] allocated = (long[])GetThreadAllocatedBytes.invoke(bean, bean.getAllThreadIds());
+            long total = 0;
+            for (long bytes : allocated) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+            return total;
+        } catch(Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The counters since an earlier snapshot.
+     */
+    public JvmStats since(JvmStats start) {
+        long allocated = ((mAllocatedBytes < 0) || (start.mAllocatedBytes < 0)) ? -1 :
+            mAllocatedBytes - start.mAllocatedBytes;
+        return new JvmStats(allocated, mGcCount - start.mGcCount, mGcTimeMillis - start.mGcTimeMillis);
+    }
+
+    /**
+     * @return Bytes allocated, -1 if not available.
+     */
+    public long getAllocated() {
+        return mAllocatedBytes;
+    }
+
+    public long getGcCount() {
+        return mGcCount;
+    }
+
+    /**
+     * @return Approximate time spent collecting, which includes the pauses.
+     */
+    public long getGcTimeMillis() {
+        return mGcTimeMillis;
+    }
+}
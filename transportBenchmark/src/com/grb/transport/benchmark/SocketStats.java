@@ -0,0 +1,61 @@
+package com.grb.transport.benchmark;
+
+import java.util.List;
+
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TransportStats;
+import com.grb.transport.tcp.TransportStatsSnapshot;
+
+/**
+ * A snapshot of the socket writes and reads of both ends of the benchmark
+ * connections, taken from their {@link TransportStats} and subtracted from
+ * a later snapshot to get the system calls of a run.
+ */
+public class SocketStats {
+    protected long mWrites;
+    protected long mReads;
+
+    protected SocketStats(long writes, long reads) {
+        mWrites = writes;
+        mReads = reads;
+    }
+
+    /**
+     * @return The counters, -1 if the transports don't keep stats.
+     */
+    static public SocketStats snapshot(TCPTransportServer server, List<BenchmarkConnection> connections) {
+        TransportStatsSnapshot total = server.getStats().snapshot();
+        for (BenchmarkConnection connection : connections) {
+            TransportStats stats = connection.getClient().getStats();
+            if (stats == null) {
+                return new SocketStats(-1, -1);
+            }
+            total.add(stats.snapshot());
+        }
+        return new SocketStats(total.getSocketWriteCount(), total.getReadCount());
+    }
+
+    /**
+     * @return The counters since an earlier snapshot.
+     */
+    public SocketStats since(SocketStats start) {
+        if ((mWrites < 0) || (start.mWrites < 0)) {
+            return new SocketStats(-1, -1);
+        }
+        return new SocketStats(mWrites - start.mWrites, mReads - start.mReads);
+    }
+
+    /**
+     * @return Socket writes, -1 if not available.
+     */
+    public long getWrites() {
+        return mWrites;
+    }
+
+    /**
+     * @return Socket reads that returned data, -1 if not available.
+     */
+    public long getReads() {
+        return mReads;
+    }
+}
@@ -0,0 +1,163 @@
+package com.grb.transport.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.grb.reactor.ReactorGroup;
+import com.grb.reactor.RoundRobinSelectionStrategy;
+import com.grb.transport.TransportBufferPool;
+import com.grb.transport.TransportException;
+import com.grb.transport.tcp.DefaultSocketChannelFactory;
+import com.grb.transport.tcp.SocketChannelProperties;
+import com.grb.transport.tcp.TCPTransportClient;
+import com.grb.transport.tcp.TCPTransportClientProperties;
+import com.grb.transport.tcp.TCPTransportServer;
+import com.grb.transport.tcp.TCPTransportServerConnectionListener;
+import com.grb.transport.tcp.TCPTransportServerProperties;
+
+/**
+ * Loopback echo benchmark of {@link TCPTransportServer} and
+ * {@link TCPTransportClient}. Each client connection keeps a number of
+ * fixed size messages in flight and the round trip time of every echoed
+ * message is recorded.
+ * <p>
+ * Prints one line per scenario and appends one JSON object per scenario
+ * to the results file so runs can be compared over time. See
+ * {@link BenchmarkOptions} for the arguments, run from Ant with
+ * <code>ant benchmark -Dbenchmark.args="..."</code>.
+ */
+public class TransportBenchmark {
+    protected BenchmarkOptions mOptions;
+
+    public TransportBenchmark(BenchmarkOptions options) {
+        mOptions = options;
+    }
+
+    public List<BenchmarkResult> run() throws Exception {
+        List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+        for (BenchmarkScenario scenario : mOptions.getScenarios()) {
+            BenchmarkResult result = run(scenario);
+            System.out.println(result);
+            if (mOptions.getResultsFile() != null) {
+                append(mOptions.getResultsFile(), result);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    public BenchmarkResult run(BenchmarkScenario scenario) throws Exception {
+        ReactorGroup serverReactor = new ReactorGroup("BenchmarkServer", scenario.getServerReactors(),
+                new RoundRobinSelectionStrategy());
+        ReactorGroup clientReactor = new ReactorGroup("BenchmarkClient", scenario.getClientReactors(),
+                new RoundRobinSelectionStrategy());
+        serverReactor.startAsDaemon();
+        clientReactor.startAsDaemon();
+        ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+        final TransportBufferPool pool = new TransportBufferPool();
+        final BenchmarkRecorder recorder = new BenchmarkRecorder();
+        // every message in flight may be queued at once
+        int highWatermark = Math.max(TCPTransportClientProperties.DefaultWriteHighWatermark,
+                2 * scenario.getDepth() * scenario.getMessageSize());
+        TCPTransportServer server = null;
+        List<BenchmarkConnection> connections = new ArrayList<BenchmarkConnection>();
+        try {
+            TCPTransportClientProperties serverClientProps = new TCPTransportClientProperties(null, eventExecutor,
+                    serverReactor, null, null, 10, TimeUnit.SECONDS, highWatermark, highWatermark / 2);
+            serverClientProps.setStatsEnabled(scenario.isStatsEnabled());
+            serverClientProps.setWriteCoalescing(scenario.isWriteCoalescing());
+            TCPTransportServerProperties serverProps = new TCPTransportServerProperties(mOptions.getPort(),
+                    serverReactor, serverClientProps);
+            serverProps.setAcceptedSocketProperties(new SocketChannelProperties(null, null, true, null, null));
+            server = new TCPTransportServer(serverProps, new TCPTransportServerConnectionListener() {
+                public void onNewConnection(TCPTransportClient client) {
+                    try {
+                        client.startReading(new EchoReadListener(client, recorder), pool);
+                    } catch(TransportException e) {
+                        recorder.error();
+                    }
+                }
+            });
+            server.startAccepting();
+
+            InetSocketAddress addr = new InetSocketAddress("127.0.0.1", mOptions.getPort());
+            for (int i = 0; i < scenario.getConnections(); i++) {
+                TCPTransportClientProperties clientProps = new TCPTransportClientProperties(addr, eventExecutor,
+                        clientReactor, new DefaultSocketChannelFactory(new SocketChannelProperties(false, null, true, null, null)),
+                        ByteBuffer.allocateDirect(scenario.getMessageSize()), 10, TimeUnit.SECONDS,
+                        highWatermark, highWatermark / 2);
+                clientProps.setWriteBufferPool(pool);
+                clientProps.setStatsEnabled(scenario.isStatsEnabled());
+                clientProps.setWriteCoalescing(scenario.isWriteCoalescing());
+                TCPTransportClient client = new TCPTransportClient(clientProps);
+                client.connect(10, TimeUnit.SECONDS);
+                connections.add(new BenchmarkConnection(client, recorder, scenario.getMessageSize()));
+            }
+            for (BenchmarkConnection connection : connections) {
+                connection.start(pool, scenario.getDepth());
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(mOptions.getWarmupSeconds()));
+            System.gc();
+            JvmStats startStats = JvmStats.snapshot();
+            SocketStats startSocketStats = SocketStats.snapshot(server, connections);
+            long start = System.nanoTime();
+            recorder.startRecording();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(mOptions.getDurationSeconds()));
+            recorder.stopRecording();
+            long elapsed = System.nanoTime() - start;
+            JvmStats stats = JvmStats.snapshot().since(startStats);
+            SocketStats socketStats = SocketStats.snapshot(server, connections).since(startSocketStats);
+            recorder.stopSending();
+            // let the messages in flight come back before closing
+            Thread.sleep(200);
+            return new BenchmarkResult(scenario, mOptions.getLabel(), elapsed, recorder, stats, socketStats);
+        } finally {
+            for (BenchmarkConnection connection : connections) {
+                connection.getClient().close();
+            }
+            if (server != null) {
+                server.close();
+            }
+            clientReactor.close();
+            serverReactor.close();
+            eventExecutor.shutdown();
+            // give the reactors time to release the server port
+            Thread.sleep(500);
+        }
+    }
+
+    static protected void append(String fileName, BenchmarkResult result) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(fileName, true));
+        try {
+            writer.println(result.toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        BenchmarkOptions options;
+        try {
+            options = BenchmarkOptions.parse(args);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            new TransportBenchmark(options).run();
+        } catch(Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
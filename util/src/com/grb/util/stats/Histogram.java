@@ -0,0 +1,164 @@
+package com.grb.util.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram of non-negative long values
+ * (typically latencies in nanoseconds).
+ * <p>
+ * Values below 128 are recorded exactly. Above that each power of 2 is
+ * split into 64 linear buckets, so a recorded value is reported with
+ * a relative error of less than 2%. Recording is lock free and does not
+ * allocate, so it is safe to record from the thread being measured.
+ */
+public class Histogram {
+    static private final int SUB_BUCKET_BITS = 7;
+    static private final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static private final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    static private final int NUM_BUCKETS = SUB_BUCKET_COUNT +
+        ((63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT);
+
+    protected AtomicLongArray mCounts;
+    protected AtomicLong mCount;
+    protected AtomicLong mTotal;
+    protected AtomicLong mMin;
+    protected AtomicLong mMax;
+
+    public Histogram() {
+        mCounts = new AtomicLongArray(NUM_BUCKETS);
+        mCount = new AtomicLong(0);
+        mTotal = new AtomicLong(0);
+        mMin = new AtomicLong(Long.MAX_VALUE);
+        mMax = new AtomicLong(0);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(indexFor(value));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+        long min;
+        while (value < (min = mMin.get())) {
+            if (mMin.compareAndSet(min, value)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public long getMin() {
+        return (mCount.get() == 0) ? 0 : mMin.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return ((double)mTotal.get()) / count;
+    }
+
+    /**
+     * Gets the value at a percentile.
+     *
+     * @param percentile Percentile between 0 and 100.
+     *
+     * @return The highest value equivalent to the bucket holding the
+     * percentile, never more than the maximum recorded value.
+     * 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long)Math.ceil((Math.min(percentile, 100.0) / 100.0) * count);
+        if (target < 1) {
+            target = 1;
+        }
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += mCounts.get(i);
+            if (total >= target) {
+                return Math.min(highestValueFor(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently with
+     * a reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMin.set(Long.MAX_VALUE);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("count=");
+        bldr.append(getCount());
+        bldr.append(",min=");
+        bldr.append(getMin());
+        bldr.append(",mean=");
+        bldr.append((long)getMean());
+        bldr.append(",p50=");
+        bldr.append(getValueAtPercentile(50));
+        bldr.append(",p90=");
+        bldr.append(getValueAtPercentile(90));
+        bldr.append(",p99=");
+        bldr.append(getValueAtPercentile(99));
+        bldr.append(",p99.9=");
+        bldr.append(getValueAtPercentile(99.9));
+        bldr.append(",max=");
+        bldr.append(getMax());
+        return bldr.toString();
+    }
+
+    static protected int indexFor(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS + 1;
+        int top = (int)(value >>> shift);
+        return SUB_BUCKET_COUNT + ((shift - 1) * SUB_BUCKET_HALF_COUNT) + (top - SUB_BUCKET_HALF_COUNT);
+    }
+
+    static protected long highestValueFor(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT) + 1;
+        long top = ((index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT) + SUB_BUCKET_HALF_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}